@@ -0,0 +1,143 @@
+package it.uniba.sms2122.operassimulator;
+
+import android.bluetooth.le.AdvertiseData;
+import android.content.Context;
+import android.os.Looper;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import it.uniba.sms2122.operassimulator.metrics.AdvertiserEventLog;
+import it.uniba.sms2122.operassimulator.radio.AdvertiserBackend;
+import it.uniba.sms2122.operassimulator.radio.OperaPayload;
+import it.uniba.sms2122.operassimulator.radio.RadioProfile;
+
+/**
+ * {@link AdvertiserBackend} che usa gli advertising set dello stack bluetooth di Android.
+ * <br>
+ * Ogni {@link OperaAdvertiser} corrisponde a un set. Quando un'opera viene stoppata il suo set torna tra quelli liberi
+ * e viene riusato per la prossima opera da avviare: nelle rotazioni lo stesso set passa da un'opera all'altra
+ * cambiando solo i dati, senza interrompere l'advertising.
+ */
+public class BluetoothAdvertiserBackend implements AdvertiserBackend {
+    private final Context context;
+    private final Looper looper;
+    private final AdvertiserEventLog eventLog;
+    private final Map<String, OperaAdvertiser> activeAdvertisers = new HashMap<>();    // Gli advertiser attivi, per opera.
+    private final ArrayDeque<OperaAdvertiser> idleAdvertisers = new ArrayDeque<>();     // I set liberi, il più recente in testa.
+    private final Map<String, Callback> callbacks = new HashMap<>();
+    private final Map<OperaPayload, AdvertiseData> advertiseData = new IdentityHashMap<>();
+    private final Map<String, Long> switchLatencies = new HashMap<>();
+
+    private final OperaAdvertiser.Listener listener = new OperaAdvertiser.Listener() {
+        @Override
+        public void onStarted(OperaAdvertiser advertiser, String operaId, long latencyNanos) {
+            switchLatencies.put(operaId, latencyNanos);
+            Callback callback = callbacks.get(operaId);
+            if(callback != null) {
+                callback.onStartSuccess(operaId);
+            }
+        }
+
+        @Override
+        public void onUpdated(OperaAdvertiser advertiser, String operaId, long latencyNanos) {
+            switchLatencies.put(operaId, latencyNanos);
+        }
+
+        @Override
+        public void onFailed(OperaAdvertiser advertiser, String operaId, int errorCode) {
+            if(activeAdvertisers.get(operaId) == advertiser) {
+                activeAdvertisers.remove(operaId);
+                if(advertiser.isUsable()) {
+                    advertiser.release();
+                    idleAdvertisers.addLast(advertiser);
+                }
+            }
+            Callback callback = callbacks.remove(operaId);
+            if(callback != null) {
+                callback.onStartFailure(operaId, errorCode);
+            }
+        }
+    };
+
+    /**
+     * @param context Il contesto.
+     * @param looper Il looper del thread che usa il backend, su cui arrivano anche i callback dei set.
+     * @param eventLog Il registro degli eventi della radio.
+     */
+    public BluetoothAdvertiserBackend(Context context, Looper looper, AdvertiserEventLog eventLog) {
+        this.context = context;
+        this.looper = looper;
+        this.eventLog = eventLog;
+    }
+
+    @Override
+    public void startAdvertising(OperaPayload payload, RadioProfile profile, Callback callback) {
+        String operaId = payload.getOperaId();
+        if(activeAdvertisers.containsKey(operaId)) {
+            callback.onStartFailure(operaId, ERROR_ALREADY_STARTED);
+            return;
+        }
+
+        OperaAdvertiser operaAdvertiser = idleAdvertisers.pollFirst();
+        if(operaAdvertiser == null) {
+            operaAdvertiser = new OperaAdvertiser(context, listener, looper, eventLog);
+        }
+        activeAdvertisers.put(operaId, operaAdvertiser);
+        callbacks.put(operaId, callback);
+        operaAdvertiser.assign(operaId, getAdvertiseData(payload), profile);
+    }
+
+    @Override
+    public void updateProfile(String operaId, RadioProfile profile) {
+        OperaAdvertiser operaAdvertiser = activeAdvertisers.get(operaId);
+        if(operaAdvertiser != null) {
+            operaAdvertiser.setProfile(profile);
+        }
+    }
+
+    @Override
+    public void stopAdvertising(String operaId) {
+        OperaAdvertiser operaAdvertiser = activeAdvertisers.remove(operaId);
+        callbacks.remove(operaId);
+        if(operaAdvertiser != null) {
+            operaAdvertiser.release();
+            idleAdvertisers.addFirst(operaAdvertiser);
+        }
+    }
+
+    @Override
+    public void reset() {
+        for(OperaAdvertiser operaAdvertiser : activeAdvertisers.values()) {
+            operaAdvertiser.close();
+        }
+        for(OperaAdvertiser operaAdvertiser : idleAdvertisers) {
+            operaAdvertiser.close();
+        }
+        activeAdvertisers.clear();
+        idleAdvertisers.clear();
+        callbacks.clear();
+        advertiseData.clear();
+        switchLatencies.clear();
+    }
+
+    @Override
+    public long getSwitchLatencyNanos(String operaId) {
+        Long latency = switchLatencies.get(operaId);
+        return latency != null ? latency : -1;
+    }
+
+    /**
+     * I dati di advertising vengono costruiti una sola volta per payload.
+     */
+    private AdvertiseData getAdvertiseData(OperaPayload payload) {
+        AdvertiseData data = advertiseData.get(payload);
+        if(data == null) {
+            data = OperaAdvertiser.buildData(payload);
+            advertiseData.put(payload, data);
+        }
+        return data;
+    }
+}
@@ -14,38 +14,61 @@ import android.app.AlertDialog;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothManager;
+import android.content.ClipData;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.google.gson.Gson;
-
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.Reader;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Map;
-
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.catalog.RoomCatalog;
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.list.PagedOperaList;
+import it.uniba.sms2122.operassimulator.loader.MuseoLoader;
+import it.uniba.sms2122.operassimulator.loader.StanzaStreamLoader;
+import it.uniba.sms2122.operassimulator.model.Museo;
 import it.uniba.sms2122.operassimulator.model.Opera;
 import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.scenario.ScenarioEvent;
+import it.uniba.sms2122.operassimulator.scenario.ScenarioPlayer;
+import it.uniba.sms2122.operassimulator.session.SessionSnapshot;
 import it.uniba.sms2122.operassimulator.utility.Permission;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
 
     private TextView roomNameTV;
+    private ProgressBar loadingProgress;
     private Button addRoomButton;
     private RecyclerView recyclerView;
     private RecyclerViewAdapter recyclerViewAdapter;
@@ -55,12 +78,26 @@ public class MainActivity extends AppCompatActivity {
     private Permission permission;
     private Stanza selectedStanza;
 
+    private final ExecutorService loaderExecutor = Executors.newSingleThreadExecutor();
+    private final StanzaStreamLoader stanzaLoader = new StanzaStreamLoader();
+    private Future<?> loading;
+    private int loadGeneration = 0;    // Permette di ignorare i callback dei caricamenti cancellati
+    private RoomWatcher roomWatcher;   // Ricarica la stanza quando il suo file cambia
+    private Museo museo;               // Le stanze caricate insieme, se ne è stata scelta più di una
+    private final ExecutorService museumExecutor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private final ExecutorService pageExecutor = Executors.newSingleThreadExecutor();   // Legge le pagine della lista
+
     private OperaAdvertiserService service;
 
     private final ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder iBinder) {
             service = ((OperaAdvertiserService.LocalBinder) iBinder).getService();
+            if(selectedStanza != null) {
+                service.loadStanza(selectedStanza);
+            }
+            // Se il service ha già una stanza (activity ricreata o processo riavviato) la si mostra
+            service.setSessionListener(MainActivity.this::showSession);
         }
 
         @Override
@@ -87,18 +124,12 @@ public class MainActivity extends AppCompatActivity {
             new ActivityResultContracts.StartActivityForResult(),
             result -> {
                 if(result.getResultCode() == Activity.RESULT_OK) {
-                    // Prendo l'uri
-                    Uri uri;
-                    if(result.getData() != null) {
-                        uri = result.getData().getData();
-                        try (Reader reader = new InputStreamReader(getContentResolver().openInputStream(uri))) {
-                            selectedStanza = new Gson().fromJson(reader, Stanza.class);
-                            changeState();
-                        }
-                        catch(Exception ex) {
-                            showGenericErrorDialog();
-                            Log.e(TAG, ex.getMessage());
-                        }
+                    // Prendo gli uri: con più file si carica un museo
+                    List<Uri> uris = getUris(result.getData());
+                    if(uris.size() > 1) {
+                        loadMuseum(uris);
+                    } else if(uris.size() == 1) {
+                        loadRoom(uris.get(0));
                     } else {
                         showGenericErrorDialog();
                         Log.e(TAG, "uri is null");
@@ -107,6 +138,16 @@ public class MainActivity extends AppCompatActivity {
             }
     );
 
+    // Gestione dell'activity per selezionare il file dello scenario
+    private final ActivityResultLauncher<Intent> scenarioActivityLauncher = registerForActivityResult(
+            new ActivityResultContracts.StartActivityForResult(),
+            result -> {
+                if(result.getResultCode() == Activity.RESULT_OK && result.getData() != null && result.getData().getData() != null) {
+                    playScenario(result.getData().getData());
+                }
+            }
+    );
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -115,34 +156,74 @@ public class MainActivity extends AppCompatActivity {
         addRoomButton = findViewById(R.id.add_stanza_btn);
         container = findViewById(R.id.operas_container);
         recyclerView = findViewById(R.id.operas_list);
-        recyclerViewAdapter = new RecyclerViewAdapter(this);
+        recyclerViewAdapter = new RecyclerViewAdapter(this, pageExecutor);
         permission = new Permission(this);
         roomNameTV = findViewById(R.id.room_name);
+        loadingProgress = findViewById(R.id.loading_progress);
 
         addRoomButton.setOnClickListener(view -> {
             Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
             intent.setType("*/*");
             intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
             jsonRoomActivityLauncher.launch(intent);
         });
 
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
         recyclerView.setAdapter(recyclerViewAdapter);
+
+        // Il service viene legato per tutta la vita dell'activity: l'advertising sopravvive alla sua ricreazione
+        bindService(new Intent(this, OperaAdvertiserService.class), serviceConnection, Service.BIND_AUTO_CREATE);
     }
 
     @Override
-    public boolean onPrepareOptionsMenu(Menu menu) {
+    public boolean onCreateOptionsMenu(Menu menu) {
+        // Il menu va inflatato una volta sola: onPrepareOptionsMenu viene chiamato ad ogni apertura
         getMenuInflater().inflate(R.menu.advertising, menu);
         this.menu = menu;
-        menu.findItem(R.id.trash).setVisible(addRoomButton.getVisibility() == View.GONE);
         return super.onCreateOptionsMenu(menu);
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        boolean isListVisible = addRoomButton.getVisibility() == View.GONE;
+        menu.findItem(R.id.trash).setVisible(isListVisible);
+        menu.findItem(R.id.start_all).setVisible(isListVisible && selectedStanza != null);
+        menu.findItem(R.id.stop_all).setVisible(isListVisible && selectedStanza != null);
+        menu.findItem(R.id.run_scenario).setVisible(isListVisible && selectedStanza != null);
+        menu.findItem(R.id.switch_room).setVisible(isListVisible && museo != null);
+        menu.findItem(R.id.low_power).setChecked(service != null && service.isLowPowerMode());
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         if(item.getItemId() == R.id.trash) {
-            changeState();
-            service.stopAllAdvertising();
-            unbindService(serviceConnection);
+            closeRoom();
+            return true;
+        } else if(item.getItemId() == R.id.start_all) {
+            startAll();
+            return true;
+        } else if(item.getItemId() == R.id.stop_all) {
+            stopAll();
+            return true;
+        } else if(item.getItemId() == R.id.low_power) {
+            if(service != null) {
+                service.setLowPowerMode(!item.isChecked());
+                item.setChecked(!item.isChecked());
+            }
+            return true;
+        } else if(item.getItemId() == R.id.run_scenario) {
+            Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+            intent.setType("*/*");
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            scenarioActivityLauncher.launch(intent);
+            return true;
+        } else if(item.getItemId() == R.id.switch_room) {
+            showRoomChooser();
+            return true;
+        } else if(item.getItemId() == R.id.metrics) {
+            startActivity(new Intent(this, MetricsActivity.class));
             return true;
         }
         return false;
@@ -190,9 +271,14 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if(service != null && service.isBound()) {
-            service.stopAllAdvertising();
+        stopWatching();
+        loaderExecutor.shutdownNow();
+        museumExecutor.shutdownNow();
+        pageExecutor.shutdownNow();
+        if(service != null) {
+            service.setSessionListener(null);
         }
+        unbindService(serviceConnection);
     }
 
     @Override
@@ -229,44 +315,426 @@ public class MainActivity extends AppCompatActivity {
             .show();
     }
 
+    /**
+     * Carica la stanza in background. La lista viene mostrata subito e si riempie man mano che le opere vengono lette.
+     * Se il file è un {@link RoomCatalog} binario viene mappato in memoria, altrimenti viene letto come json.
+     * @param uri L'uri del file della stanza
+     */
+    private void loadRoom(Uri uri) {
+        museo = null;
+        selectedStanza = null;
+        changeState();
+        loadingProgress.setProgress(0);
+        loadingProgress.setVisibility(View.VISIBLE);
+
+        final int generation = ++loadGeneration;
+        loading = loaderExecutor.submit(() -> {
+            RoomCatalog catalog = openCatalog(uri);
+            runOnUiThread(() -> {
+                if(generation != loadGeneration) {
+                    return;
+                }
+                if(catalog != null) {
+                    showCatalog(catalog);
+                    watchRoom(uri);
+                } else {
+                    loadJson(uri, generation);
+                }
+            });
+        });
+    }
+
+    /**
+     * Apre la stanza come catalogo binario, mappandolo in memoria.
+     * @param uri L'uri del file della stanza
+     * @return Il catalogo, oppure null se il file non è un catalogo e va letto come json
+     */
+    private RoomCatalog openCatalog(Uri uri) {
+        try (ParcelFileDescriptor descriptor = getContentResolver().openFileDescriptor(uri, "r");
+             FileInputStream in = new FileInputStream(descriptor.getFileDescriptor())) {
+            FileChannel channel = in.getChannel();
+            if(RoomCatalog.isCatalog(channel)) {
+                return RoomCatalog.map(channel);
+            }
+        } catch(Exception ex) {
+            // Il content provider potrebbe non fornire un file mappabile: si legge come json
+            Log.w(TAG, "openCatalog: " + ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Mostra una stanza letta da un catalogo binario. Le opere vengono lette dal file a pagine, man mano che la lista
+     * viene scorsa.
+     * @param catalog Il catalogo della stanza
+     */
+    private void showCatalog(RoomCatalog catalog) {
+        loading = null;
+        Stanza stanza = catalog.asStanza();
+        selectedStanza = stanza;
+        roomNameTV.setText(stanza.getNome());
+        recyclerViewAdapter.showOperas(PagedOperaList.of(catalog));
+        loadingProgress.setVisibility(View.GONE);
+        invalidateOptionsMenu();
+        if(service != null) {
+            service.loadStanza(stanza);
+        }
+    }
+
+    /**
+     * Legge la stanza dal file json, in streaming.
+     * @param uri L'uri del file json della stanza
+     * @param generation Il caricamento a cui appartiene la lettura
+     */
+    private void loadJson(Uri uri, int generation) {
+        long totalChars = getFileSize(uri);
+        loadingProgress.setIndeterminate(totalChars <= 0);
+        loading = stanzaLoader.loadAsync(() -> new InputStreamReader(getContentResolver().openInputStream(uri)),
+                totalChars, loaderExecutor, this::runOnUiThread, new StanzaStreamLoader.Listener() {
+            @Override
+            public void onBatch(List<Opera> batch) {
+                if(generation != loadGeneration) {
+                    return;
+                }
+                recyclerViewAdapter.addOperas(batch);
+            }
+
+            @Override
+            public void onProgress(long readChars, long total) {
+                if(generation == loadGeneration && total > 0) {
+                    loadingProgress.setProgress((int) Math.min(loadingProgress.getMax(), readChars * loadingProgress.getMax() / total));
+                }
+            }
+
+            @Override
+            public void onComplete(Stanza stanza) {
+                if(generation != loadGeneration) {
+                    return;
+                }
+                loading = null;
+                selectedStanza = stanza;
+                roomNameTV.setText(stanza.getNome());
+                // Le righe aggiunte durante la lettura lasciano il posto alle pagine lette dallo store della stanza,
+                // senza copiarla; le opere accese nel frattempo restano accese
+                Set<String> activeIds = recyclerViewAdapter.getActiveIds();
+                recyclerViewAdapter.showOperas(PagedOperaList.of(stanza.getOperaStore()));
+                recyclerViewAdapter.setActive(activeIds);
+                loadingProgress.setVisibility(View.GONE);
+                invalidateOptionsMenu();
+                if(service != null) {
+                    service.loadStanza(stanza);
+                }
+                watchRoom(uri);
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                if(generation != loadGeneration) {
+                    return;
+                }
+                loading = null;
+                showGenericErrorDialog();
+                Log.e(TAG, String.valueOf(exception.getMessage()));
+                closeRoom();
+            }
+        });
+    }
+
+    /**
+     * Chiude la stanza corrente, stoppando tutti gli advertising, e torna al pulsante per aggiungerne una.
+     */
+    private void closeRoom() {
+        stopWatching();
+        loadGeneration++;
+        if(loading != null) {
+            loading.cancel(true);
+            loading = null;
+        }
+        loadingProgress.setVisibility(View.GONE);
+        changeState();
+        selectedStanza = null;
+        museo = null;
+        if(service != null) {
+            service.closeSession();
+        }
+    }
+
+    /**
+     * @param data Il risultato della scelta dei file
+     * @return Gli uri dei file scelti, vuota se non ce ne sono
+     */
+    private static List<Uri> getUris(Intent data) {
+        List<Uri> uris = new ArrayList<>();
+        if(data == null) {
+            return uris;
+        }
+        ClipData clipData = data.getClipData();
+        if(clipData != null) {
+            for(int i=0; i<clipData.getItemCount(); i++) {
+                uris.add(clipData.getItemAt(i).getUri());
+            }
+        } else if(data.getData() != null) {
+            uris.add(data.getData());
+        }
+        return uris;
+    }
+
+    /**
+     * Carica più stanze come un museo, leggendo i file in parallelo. Alla fine viene mostrata la prima stanza,
+     * e dal menu si può passare alle altre.
+     * @param uris Gli uri dei file delle stanze
+     */
+    private void loadMuseum(List<Uri> uris) {
+        stopWatching();
+        museo = null;
+        selectedStanza = null;
+        changeState();
+        loadingProgress.setIndeterminate(true);
+        loadingProgress.setVisibility(View.VISIBLE);
+
+        List<Callable<Stanza>> sources = new ArrayList<>();
+        for(Uri uri : uris) {
+            sources.add(() -> readStanza(uri));
+        }
+        final int generation = ++loadGeneration;
+        loading = loaderExecutor.submit(() -> {
+            Museo loaded;
+            try {
+                loaded = new MuseoLoader(museumExecutor).load(sources);
+            } catch(InterruptedIOException ex) {
+                return;
+            } catch(IOException ex) {
+                runOnUiThread(() -> {
+                    if(generation == loadGeneration) {
+                        loading = null;
+                        showGenericErrorDialog();
+                        Log.e(TAG, "loadMuseum: " + ex.getMessage());
+                        closeRoom();
+                    }
+                });
+                return;
+            }
+            runOnUiThread(() -> {
+                if(generation == loadGeneration) {
+                    loading = null;
+                    showMuseum(loaded);
+                }
+            });
+        });
+    }
+
+    /**
+     * Legge una stanza per intero sul thread corrente, come catalogo binario o come json.
+     * @param uri L'uri del file della stanza
+     * @return La stanza
+     * @throws IOException Se il file non si può leggere
+     */
+    private Stanza readStanza(Uri uri) throws IOException {
+        RoomCatalog catalog = openCatalog(uri);
+        if(catalog != null) {
+            return catalog.asStanza();
+        }
+        try (Reader reader = new InputStreamReader(getContentResolver().openInputStream(uri))) {
+            return stanzaLoader.parse(reader);
+        }
+    }
+
+    private void showMuseum(Museo loaded) {
+        museo = loaded;
+        loadingProgress.setVisibility(View.GONE);
+        loadingProgress.setIndeterminate(false);
+        if(!loaded.getDuplicates().isEmpty()) {
+            Log.w(TAG, "showMuseum: " + loaded.getDuplicates().size() + " operas are in more than one room");
+        }
+        Toast.makeText(this, getString(R.string.museum_loaded, loaded.getRoomCount(), loaded.getOperaCount()), Toast.LENGTH_SHORT).show();
+        switchRoom(0);
+    }
+
+    /**
+     * Mostra l'elenco delle stanze del museo, per passare a una di esse.
+     */
+    private void showRoomChooser() {
+        if(museo == null) {
+            return;
+        }
+        String[] names = new String[museo.getRoomCount()];
+        for(int room=0; room<names.length; room++) {
+            Stanza stanza = museo.getStanza(room);
+            names[room] = stanza.getNome() != null ? stanza.getNome() : String.valueOf(stanza.getId());
+        }
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.switch_room)
+            .setItems(names, (dialog, room) -> switchRoom(room))
+            .show();
+    }
+
+    /**
+     * Passa a una stanza del museo: la lista mostra le sue opere e il service le manda tutte in onda,
+     * stoppando solo quelle della stanza precedente.
+     * @param room La posizione della stanza nel museo
+     */
+    private void switchRoom(int room) {
+        Stanza stanza = museo.getStanza(room);
+        selectedStanza = stanza;
+        roomNameTV.setText(stanza.getNome());
+        recyclerViewAdapter.showOperas(PagedOperaList.of(stanza.getOperaStore()));
+        recyclerViewAdapter.setAllActive(true);
+        invalidateOptionsMenu();
+        if(service == null) {
+            return;
+        }
+        service.switchRoom(stanza, new AdvertiserController.RoomListener() {
+            @Override
+            public void onProgress(int confirmed, int total) {
+            }
+
+            @Override
+            public void onRoomConfirmed(int total, long elapsedNanos) {
+                Toast.makeText(MainActivity.this, getString(R.string.room_started, total,
+                        TimeUnit.NANOSECONDS.toMillis(elapsedNanos)), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Inizia a osservare il file della stanza appena caricata, per ricaricarla quando cambia.
+     * @param uri L'uri del file della stanza
+     */
+    private void watchRoom(Uri uri) {
+        stopWatching();
+        final int generation = loadGeneration;
+        roomWatcher = new RoomWatcher(getContentResolver(), uri, changed -> reloadRoom(changed, generation));
+        roomWatcher.start(RoomWatcher.DEFAULT_INTERVAL_MILLIS);
+    }
+
+    private void stopWatching() {
+        if(roomWatcher != null) {
+            roomWatcher.stop();
+            roomWatcher = null;
+        }
+    }
+
+    /**
+     * Rilegge il file della stanza, sul thread del watcher, e passa la nuova versione al service, che ferma e avvia
+     * solo le opere rimosse e aggiunte. Se il file non si legge, ad esempio perché è ancora in scrittura,
+     * si tiene la versione caricata e si riprova alla prossima modifica.
+     * @param uri L'uri del file della stanza
+     * @param generation Il caricamento a cui appartiene il watcher
+     */
+    private void reloadRoom(Uri uri, int generation) {
+        Stanza stanza;
+        RoomCatalog catalog = openCatalog(uri);
+        if(catalog != null) {
+            stanza = catalog.asStanza();
+        } else {
+            try (Reader reader = new InputStreamReader(getContentResolver().openInputStream(uri))) {
+                stanza = stanzaLoader.parse(reader);
+            } catch(Exception ex) {
+                Log.w(TAG, "reloadRoom: " + ex.getMessage());
+                return;
+            }
+        }
+
+        runOnUiThread(() -> {
+            if(generation != loadGeneration || selectedStanza == null || service == null) {
+                return;
+            }
+            selectedStanza = stanza;
+            roomNameTV.setText(stanza.getNome());
+            // Le opere partono spente e vengono riaccese con quelle rimaste in onda nel service
+            recyclerViewAdapter.showOperas(catalog != null ? PagedOperaList.of(catalog) : PagedOperaList.of(stanza.getOperaStore()));
+            service.reloadStanza(stanza, (diff, activeIds) -> {
+                if(generation != loadGeneration) {
+                    return;
+                }
+                recyclerViewAdapter.setActive(activeIds);
+                Toast.makeText(this, getString(R.string.room_reloaded, diff.getAdded().size(), diff.getRemoved().size()), Toast.LENGTH_SHORT).show();
+            });
+        });
+    }
+
+    /**
+     * Mostra la stanza caricata nel service, se l'activity non ne sta già mostrando una.
+     * @param snapshot La stanza e le opere attive
+     */
+    private void showSession(SessionSnapshot snapshot) {
+        if(selectedStanza != null || loading != null) {
+            return;
+        }
+        if(addRoomButton.getVisibility() != View.GONE) {
+            changeState();
+        }
+        Stanza stanza = snapshot.getStanza();
+        selectedStanza = stanza;
+        roomNameTV.setText(stanza.getNome());
+        recyclerViewAdapter.showOperas(PagedOperaList.of(stanza.getOperaStore()));
+        recyclerViewAdapter.setActive(snapshot.getActiveIds());
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * @param uri L'uri del file
+     * @return La dimensione del file in byte, oppure -1 se il content provider non la fornisce
+     */
+    private long getFileSize(Uri uri) {
+        try (Cursor cursor = getContentResolver().query(uri, new String[] {OpenableColumns.SIZE}, null, null, null)) {
+            if(cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } catch(Exception ex) {
+            Log.w(TAG, "getFileSize: " + ex.getMessage());
+        }
+        return -1;
+    }
+
     /**
      * Metodo per cambiare lo stato dell'activity. Se non viene mostrata, mostra la lista delle opere, altrimenti mostra il pulsante per aggiungerle.
+     * Le opere vengono aggiunte alla lista dal caricamento della stanza.
      */
     private void changeState() {
         boolean isListVisible = addRoomButton.getVisibility() == View.GONE;
         recyclerViewAdapter.clear();
-        recyclerViewAdapter.notifyDataSetChanged();
 
         if(!isListVisible) {
-            ArrayList<Opera> opere = new ArrayList<>();
-            for(Map.Entry<String, Opera> entry : selectedStanza.getOpere().entrySet()) {
-                opere.add(entry.getValue());
-            }
-
-            recyclerViewAdapter.addOperas(opere);
-            recyclerView.setLayoutManager(new LinearLayoutManager(this));
-            roomNameTV.setText(selectedStanza.getNome());
+            roomNameTV.setText(null);
             addRoomButton.setVisibility(View.GONE);
             container.setVisibility(View.VISIBLE);
-            isListVisible = true;
-            bindService(new Intent(this, OperaAdvertiserService.class), serviceConnection, Service.BIND_AUTO_CREATE);
         } else {
             container.setVisibility(View.GONE);
             addRoomButton.setVisibility(View.VISIBLE);
-            isListVisible = false;
         }
 
-        menu.findItem(R.id.trash).setVisible(isListVisible);
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * Esegue uno scenario in tempo reale sulla stanza caricata e avvisa l'utente quando è finito.
+     * Le opere avviate dallo scenario compaiono nella lista alla prossima apertura della stanza.
+     * @param uri L'uri del file dello scenario
+     */
+    private void playScenario(Uri uri) {
+        if(service == null || !service.isBound()) {
+            return;
+        }
+        service.playScenario(uri, 1, new ScenarioPlayer.Listener() {
+            @Override
+            public void onEvent(ScenarioEvent event, long skewNanos) {
+            }
+
+            @Override
+            public void onFinished(ScenarioPlayer.Report report) {
+                Toast.makeText(MainActivity.this, getString(R.string.scenario_finished, report.toString()), Toast.LENGTH_LONG).show();
+            }
+        });
     }
 
     /**
      * Avvia il service
      * @param operaId L'id dell'opera che si vuole trasmettere
-     * @param serviceUuid L'id del service
      */
-    public void startAdvertising(String operaId, String serviceUuid) {
+    public void startAdvertising(String operaId) {
         if(service != null && service.isBound()) {
-            service.startAdvertising(operaId, serviceUuid);
+            service.startAdvertising(operaId);
         }
     }
 
@@ -276,4 +744,45 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Manda in onda tutte le opere della stanza e avvisa l'utente quando la radio le ha confermate tutte.
+     */
+    private void startAll() {
+        if(service == null || !service.isBound() || selectedStanza == null) {
+            return;
+        }
+        recyclerViewAdapter.setAllActive(true);
+        service.startAll(selectedStanza, new AdvertiserController.RoomListener() {
+            @Override
+            public void onProgress(int confirmed, int total) {
+            }
+
+            @Override
+            public void onRoomConfirmed(int total, long elapsedNanos) {
+                Toast.makeText(MainActivity.this, getString(R.string.room_started, total,
+                        TimeUnit.NANOSECONDS.toMillis(elapsedNanos)), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Stoppa tutte le opere della stanza.
+     */
+    private void stopAll() {
+        if(service == null || !service.isBound()) {
+            return;
+        }
+        recyclerViewAdapter.setAllActive(false);
+        service.stopAll(new AdvertiserController.RoomListener() {
+            @Override
+            public void onProgress(int confirmed, int total) {
+            }
+
+            @Override
+            public void onRoomConfirmed(int total, long elapsedNanos) {
+                Toast.makeText(MainActivity.this, R.string.room_stopped, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
 }
\ No newline at end of file
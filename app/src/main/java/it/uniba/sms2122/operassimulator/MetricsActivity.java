@@ -0,0 +1,270 @@
+package it.uniba.sms2122.operassimulator;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.metrics.AdvertiserMetrics;
+import it.uniba.sms2122.operassimulator.metrics.LatencyHistogram;
+import it.uniba.sms2122.operassimulator.radio.AdvertiserBackend;
+import it.uniba.sms2122.operassimulator.radio.AdvertisingModeComparison;
+import it.uniba.sms2122.operassimulator.radio.PowerModel;
+import it.uniba.sms2122.operassimulator.radio.RadioProfile;
+
+/**
+ * Schermata di debug con le metriche dell'advertising, aggiornate ogni secondo ed esportabili in json,
+ * da cui si possono anche scrivere in csv gli eventi della radio.
+ */
+public class MetricsActivity extends AppCompatActivity {
+    private static final String TAG = "MetricsActivity";
+    private static final long REFRESH_MILLIS = 1000;
+    private static final int TOP_AIRTIME = 10;
+
+    private TextView metricsTV;
+    private OperaAdvertiserService service;
+
+    // Le metriche vengono lette dal thread del controller: l'attesa non deve bloccare la UI
+    private final ExecutorService metricsExecutor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable refreshTask = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            handler.postDelayed(this, REFRESH_MILLIS);
+        }
+    };
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName componentName, IBinder iBinder) {
+            service = ((OperaAdvertiserService.LocalBinder) iBinder).getService();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName componentName) {
+            service = null;
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+        metricsTV = findViewById(R.id.metrics_text);
+
+        findViewById(R.id.export_metrics).setOnClickListener(view -> export());
+        findViewById(R.id.dump_events).setOnClickListener(view -> dumpEvents());
+        findViewById(R.id.reset_metrics).setOnClickListener(view -> {
+            if(service != null) {
+                service.resetMetrics();
+            }
+        });
+
+        // Senza BIND_AUTO_CREATE: le metriche si leggono solo se il service è già in esecuzione
+        bindService(new Intent(this, OperaAdvertiserService.class), serviceConnection, 0);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(refreshTask);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handler.removeCallbacks(refreshTask);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        unbindService(serviceConnection);
+        metricsExecutor.shutdownNow();
+    }
+
+    private void refresh() {
+        OperaAdvertiserService service = this.service;
+        if(service == null) {
+            metricsTV.setText(R.string.metrics_unavailable);
+            return;
+        }
+        metricsExecutor.execute(() -> {
+            try {
+                AdvertiserMetrics metrics = service.getMetrics().get(REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+                String text = format(metrics) + formatModes(service);
+                runOnUiThread(() -> metricsTV.setText(text));
+            } catch(Exception ex) {
+                Log.w(TAG, "refresh: " + ex.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Esporta le metriche in un file json nella cartella dei file dell'app.
+     */
+    private void export() {
+        OperaAdvertiserService service = this.service;
+        if(service == null) {
+            Toast.makeText(this, R.string.metrics_unavailable, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        File file = new File(getExternalFilesDir(null), "metrics-" + System.currentTimeMillis() + ".json");
+        metricsExecutor.execute(() -> {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                service.getMetrics().get().writeJson(writer, deviceInfo());
+                runOnUiThread(() -> Toast.makeText(this, getString(R.string.metrics_exported, file.getAbsolutePath()), Toast.LENGTH_LONG).show());
+            } catch(Exception ex) {
+                Log.e(TAG, "export: " + ex.getMessage());
+                runOnUiThread(() -> Toast.makeText(this, R.string.error_message, Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
+
+    /**
+     * Scrive gli eventi della radio registrati dal service in un file csv.
+     */
+    private void dumpEvents() {
+        OperaAdvertiserService service = this.service;
+        if(service == null) {
+            Toast.makeText(this, R.string.metrics_unavailable, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        metricsExecutor.execute(() -> {
+            try {
+                File file = service.dumpEvents();
+                runOnUiThread(() -> Toast.makeText(this, getString(R.string.events_dumped, file.getAbsolutePath()), Toast.LENGTH_LONG).show());
+            } catch(Exception ex) {
+                Log.e(TAG, "dumpEvents: " + ex.getMessage());
+                runOnUiThread(() -> Toast.makeText(this, R.string.error_message, Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
+
+    /**
+     * @return Le informazioni sul dispositivo e sul firmware da allegare all'esportazione
+     */
+    private static Map<String, String> deviceInfo() {
+        Map<String, String> device = new LinkedHashMap<>();
+        device.put("manufacturer", Build.MANUFACTURER);
+        device.put("model", Build.MODEL);
+        device.put("sdk", String.valueOf(Build.VERSION.SDK_INT));
+        device.put("release", Build.VERSION.RELEASE);
+        device.put("build", Build.DISPLAY);
+        device.put("radio", Build.getRadioVersion());
+        device.put("exportedAt", String.valueOf(System.currentTimeMillis()));
+        return device;
+    }
+
+    private static String format(AdvertiserMetrics metrics) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "start requests  %d (restarts %d)%n", metrics.getStartRequests(), metrics.getRestarts()));
+        text.append(String.format(Locale.ROOT, "starts          %d%n", metrics.getStarts()));
+        text.append(String.format(Locale.ROOT, "stops           %d%n", metrics.getStops()));
+        text.append(String.format(Locale.ROOT, "active slots    %d (max %d)%n", metrics.getActiveSlots(), metrics.getMaxActiveSlots()));
+        text.append(String.format(Locale.ROOT, "queue depth     %d (max %d, coalesced %d, failed %d)%n",
+                metrics.getQueueDepth(), metrics.getMaxQueueDepth(), metrics.getCoalescedCommands(), metrics.getFailedCommands()));
+        text.append('\n');
+        appendHistogram(text, "start latency", metrics.getStartLatency());
+        appendHistogram(text, "queue latency", metrics.getCommandLatency());
+        text.append('\n');
+
+        text.append(String.format(Locale.ROOT, "failures        %d%n", metrics.getTotalFailures()));
+        for(int errorCode=AdvertiserMetrics.OTHER_ERROR; errorCode<=AdvertiserBackend.ERROR_FEATURE_UNSUPPORTED; errorCode++) {
+            if(metrics.getFailures(errorCode) > 0) {
+                text.append(String.format(Locale.ROOT, "  %-13s %d%n", errorName(errorCode), metrics.getFailures(errorCode)));
+            }
+        }
+        text.append('\n');
+
+        List<Map.Entry<String, Long>> airtimes = new ArrayList<>(metrics.getAirtimes().entrySet());
+        Collections.sort(airtimes, (first, second) -> Long.compare(second.getValue(), first.getValue()));
+        text.append(String.format(Locale.ROOT, "airtime (%d operas)%n", airtimes.size()));
+        for(int i=0; i<Math.min(TOP_AIRTIME, airtimes.size()); i++) {
+            text.append(String.format(Locale.ROOT, "  %s  %.1f s%n", airtimes.get(i).getKey(), airtimes.get(i).getValue() / 1e9));
+        }
+        text.append('\n');
+
+        // Costo stimato di ogni profilo radio, vedi PowerModel
+        text.append(String.format(Locale.ROOT, "profiles (estimated)%n"));
+        double totalMicroAmpHours = 0;
+        for(Map.Entry<RadioProfile, Long> entry : metrics.getProfileAirtimes().entrySet()) {
+            PowerModel.Estimate estimate = PowerModel.estimate(entry.getKey(), entry.getValue());
+            totalMicroAmpHours += estimate.getMicroAmpHours();
+            text.append(String.format(Locale.ROOT, "  %4d dBm %6.1f ms  %.1f s on air, %.2f s radio, %.2f uAh (%.0f uA)%n",
+                    entry.getKey().getTxPowerLevel(), entry.getKey().getIntervalMillis(), estimate.getOnAirNanos() / 1e9,
+                    estimate.getRadioNanos() / 1e9, estimate.getMicroAmpHours(), estimate.getAverageMicroAmps()));
+        }
+        text.append(String.format(Locale.ROOT, "  total %.2f uAh%n", totalMicroAmpHours));
+        return text.toString();
+    }
+
+    /**
+     * Confronto tra advertising legacy ed esteso, vedi {@link AdvertisingModeComparison}
+     */
+    private static String formatModes(OperaAdvertiserService service) {
+        AdvertisingModeComparison comparison = service.getAdvertisingModeComparison();
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "%nadvertising     %s%n", service.isExtendedAdvertising() ? "extended" : "legacy"));
+        if(comparison == null) {
+            text.append(String.format(Locale.ROOT, "  extended advertising not supported%n"));
+            return text.toString();
+        }
+        appendMode(text, "legacy", comparison.getLegacy());
+        appendMode(text, "extended", comparison.getExtended());
+        return text.toString();
+    }
+
+    private static void appendMode(StringBuilder text, String name, AdvertisingModeComparison.Mode mode) {
+        text.append(String.format(Locale.ROOT, "  %-9s %d operas (%d per set), %.0f packets/s, %.1f us radio/packet%n", name,
+                mode.getCapacity(), mode.getOperasPerSet(), mode.getOperaPacketsPerSecond(), mode.getRadioMicrosPerOperaPacket()));
+    }
+
+    private static void appendHistogram(StringBuilder text, String name, LatencyHistogram histogram) {
+        text.append(String.format(Locale.ROOT, "%-15s n=%d p50=%.1f p90=%.1f p99=%.1f max=%.1f ms%n", name, histogram.getCount(),
+                histogram.getPercentile(50) / 1e6, histogram.getPercentile(90) / 1e6,
+                histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+    }
+
+    private static String errorName(int errorCode) {
+        switch(errorCode) {
+            case AdvertiserBackend.ERROR_DATA_TOO_LARGE:
+                return "data too large";
+            case AdvertiserBackend.ERROR_TOO_MANY_ADVERTISERS:
+                return "too many";
+            case AdvertiserBackend.ERROR_ALREADY_STARTED:
+                return "already started";
+            case AdvertiserBackend.ERROR_INTERNAL:
+                return "internal";
+            case AdvertiserBackend.ERROR_FEATURE_UNSUPPORTED:
+                return "unsupported";
+            default:
+                return "other";
+        }
+    }
+}
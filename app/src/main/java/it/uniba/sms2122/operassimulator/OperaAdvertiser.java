@@ -2,131 +2,383 @@ package it.uniba.sms2122.operassimulator;
 
 import android.Manifest;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
-import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.BluetoothLeAdvertiser;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
 
-import java.util.UUID;
+import java.util.List;
 
+import it.uniba.sms2122.operassimulator.metrics.AdvertiserEventLog;
+import it.uniba.sms2122.operassimulator.radio.OperaPayload;
+import it.uniba.sms2122.operassimulator.radio.RadioProfile;
+
+/**
+ * Un advertising set della radio bluetooth, che trasmette un'opera alla volta, o più opere insieme se il set è esteso
+ * (vedi {@link PackedAdvertiserBackend}).
+ * <br>
+ * Il set viene creato al primo avvio e poi riusato: cambiare opera, potenza o intervallo non richiede di distruggerlo
+ * e ricrearlo, ma solo di aggiornarne i dati ({@link AdvertisingSet#setAdvertisingData}) o i parametri
+ * ({@link AdvertisingSet#setAdvertisingParameters}). Le operazioni sul set sono asincrone, per cui l'advertiser tiene lo stato
+ * desiderato e lo applica un'operazione alla volta, ad ogni callback.
+ * <br>
+ * Richieste, conferme, errori e stop vengono registrati in un {@link AdvertiserEventLog}, che si può esportare in csv.
+ */
 public class OperaAdvertiser {
     private static final String TAG = "OperaAdvertiser";
+
     /**
-     * Un UUID è formato da 128 bit. Tuttavia usarli tutti sarebbe dispendioso. Quindi nel caso del bluetooth, si usa un UUID a 16 bit.
-     * L'UUID a 16 bit è fatto in questo modo: si usa un UUID a 128 bit (del tipo xxxxxxxx{@value}) e si cambiano solo
-     * i primi 8 caratteri. Utilizzare un UUID diverso, porta ad errori come "Data too large"
-     * <br>
-     * <a href="https://www.oreilly.com/library/view/getting-started-with/9781491900550/ch04.html">Fonte</a>
+     * Listener dell'esito dei cambi richiesti all'advertiser.
      */
-    private static final String LAST_BASE_UUID = "-0000-1000-8000-00805F9B34FB";
-    private static final String FIRST_BASE_UUID = "0000";
+    public interface Listener {
+        /**
+         * L'opera assegnata è andata in onda.
+         * @param latencyNanos Il tempo trascorso dall'assegnazione.
+         */
+        void onStarted(OperaAdvertiser advertiser, String operaId, long latencyNanos);
+
+        /**
+         * I nuovi parametri radio dell'opera sono in onda.
+         * @param latencyNanos Il tempo trascorso dalla richiesta di aggiornamento.
+         */
+        void onUpdated(OperaAdvertiser advertiser, String operaId, long latencyNanos);
+
+        /**
+         * L'opera assegnata non è potuta andare in onda.
+         * @param errorCode Il codice di errore di {@link AdvertisingSetCallback}.
+         */
+        void onFailed(OperaAdvertiser advertiser, String operaId, int errorCode);
+    }
 
-    private final String operaId;
-    private final String serviceUuid;
     private final Context context;
+    private final Listener listener;
+    private final AdvertiserEventLog eventLog;
+    private final BluetoothLeAdvertiser advertiser;
+    private final Handler handler;
+    private final boolean extended;
+    private final Runnable reconcileTask = this::reconcile;
+
+    private AdvertisingSet advertisingSet;
+    private boolean inFlight = false;       // C'è un'operazione sul set di cui si aspetta il callback
+    private boolean enabled = false;
+    private boolean closed = false;
+    private AdvertiseData appliedData;
+    private RadioProfile appliedProfile;
+
+    // Lo stato desiderato
+    private String operaId;
+    private AdvertiseData data;
+    private RadioProfile profile = RadioProfile.DEFAULT;
+    private boolean desiredEnabled = false;
+
+    private boolean startPending = false;
+    private long pendingSince = 0;          // Quando è stato richiesto il cambio non ancora in onda, 0 se nessuno
+
+    private final AdvertisingSetCallback setCallback = new AdvertisingSetCallback() {
+        @Override
+        public void onAdvertisingSetStarted(AdvertisingSet set, int txPower, int status) {
+            inFlight = false;
+            if(status != ADVERTISE_SUCCESS) {
+                Log.e(TAG, "onAdvertisingSetStarted: " + describe(status) + ", " + operaId);
+                closed = true;      // Il set non è stato creato: l'advertiser va scartato
+                fail(status);
+                return;
+            }
+            advertisingSet = set;
+            enabled = true;
+            reconcile();
+        }
 
-    private BluetoothLeAdvertiser advertiser;
-    private final AdvertiseCallback advertiseCallback = new AdvertiseCallback() {   // Gestione del callback di un attivazione di un service
         @Override
-        public void onStartSuccess(AdvertiseSettings settingsInEffect) {
-            super.onStartSuccess(settingsInEffect);
-            Log.i(TAG, "onStartSuccess: started "+ operaId);
+        public void onAdvertisingEnabled(AdvertisingSet set, boolean enable, int status) {
+            inFlight = false;
+            if(status != ADVERTISE_SUCCESS) {
+                Log.e(TAG, "onAdvertisingEnabled: " + describe(status) + ", " + operaId);
+                fail(status);
+                return;
+            }
+            enabled = enable;
+            reconcile();
+        }
+
+        @Override
+        public void onAdvertisingDataSet(AdvertisingSet set, int status) {
+            inFlight = false;
+            if(status != ADVERTISE_SUCCESS) {
+                Log.e(TAG, "onAdvertisingDataSet: " + describe(status) + ", " + operaId);
+                appliedData = null;
+                fail(status);
+                return;
+            }
+            reconcile();
         }
 
         @Override
-        public void onStartFailure(int errorCode) {
-            super.onStartFailure(errorCode);
-            switch (errorCode) {
-                case AdvertiseCallback.ADVERTISE_FAILED_ALREADY_STARTED:
-                    Log.e(TAG, "onStartFailure: Already started, " + operaId);
-                    break;
-
-                case AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS:
-                    Log.e(TAG, "onStartFailure: Too many advertisers, " + operaId);
-                    break;
-
-                case AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE:
-                    Log.e(TAG, "onStartFailure: Data too large, " + operaId);
-                    break;
-
-                case AdvertiseCallback.ADVERTISE_FAILED_INTERNAL_ERROR:
-                    Log.e(TAG, "onStartFailure: Internal error, " + operaId);
-                    break;
-
-                case AdvertiseCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED:
-                    Log.e(TAG, "onStartFailure: Feature unsupported, " + operaId);
-                    break;
-
-                default:
-                    Log.e(TAG, "onStartFailure: default, " + operaId);
+        public void onAdvertisingParametersUpdated(AdvertisingSet set, int txPower, int status) {
+            inFlight = false;
+            if(status != ADVERTISE_SUCCESS) {
+                Log.e(TAG, "onAdvertisingParametersUpdated: " + describe(status) + ", " + operaId);
+                appliedProfile = null;
+                fail(status);
+                return;
             }
+            reconcile();
+        }
+
+        @Override
+        public void onAdvertisingSetStopped(AdvertisingSet set) {
+            Log.d(TAG, "onAdvertisingSetStopped");
         }
     };
 
     /**
-     * Costruttore pubblico di {@link OperaAdvertiser}.
+     * Costruttore pubblico di {@link OperaAdvertiser}. Il set viene creato solo alla prima assegnazione.
+     * @param context Il contesto.
+     * @param listener Il listener su cui notificare l'esito dei cambi.
+     * @param looper Il looper su cui ricevere i callback del set. Deve essere quello del thread che usa l'advertiser.
+     * @param eventLog Il registro in cui scrivere gli eventi del set.
+     */
+    public OperaAdvertiser(Context context, Listener listener, Looper looper, AdvertiserEventLog eventLog) {
+        this(context, listener, looper, false, eventLog);
+    }
+
+    /**
+     * Costruttore pubblico di {@link OperaAdvertiser}. Il set viene creato solo alla prima assegnazione.
      * @param context Il contesto.
-     * @param operaId L'id dell'opera di cui si vuole fare l'advertsing.
-     * @param serviceUuid Il service uuid dell'advertiser.
+     * @param listener Il listener su cui notificare l'esito dei cambi.
+     * @param looper Il looper su cui ricevere i callback del set. Deve essere quello del thread che usa l'advertiser.
+     * @param extended true per un set con advertising esteso (bluetooth 5), che può trasmettere i dati di più opere.
+     * @param eventLog Il registro in cui scrivere gli eventi del set.
      */
-    public OperaAdvertiser(Context context, String operaId, String serviceUuid) {
+    public OperaAdvertiser(Context context, Listener listener, Looper looper, boolean extended, AdvertiserEventLog eventLog) {
         this.context = context;
-        this.operaId = operaId;
-        this.serviceUuid = FIRST_BASE_UUID + serviceUuid + LAST_BASE_UUID;
+        this.listener = listener;
+        this.eventLog = eventLog;
+        this.handler = new Handler(looper);
+        this.extended = extended;
         advertiser = ((BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE)).getAdapter().getBluetoothLeAdvertiser();
     }
 
     /**
-     * Metodo pubblico per far partire l'advertising di un particolare beacon bluetooth.
+     * Costruisce i dati di advertising di un'opera. Vanno costruiti una volta sola e riusati.
+     * @param payload Il payload dell'opera.
+     * @return I dati di advertising.
      */
-    public void startAdvertising() {
-        byte[] serviceData = new byte[20];
-        for(int i=0; i<serviceData.length; i++) {
-            serviceData[i] = (byte) (Integer.parseInt(operaId.toUpperCase().substring(i*2, i*2+2), 16) & 0xFF);
-        }
-
-        ParcelUuid parcelUuid = new ParcelUuid(UUID.fromString(serviceUuid));
-
-        AdvertiseSettings settings = new AdvertiseSettings.Builder()
-                .setConnectable(false)
-                .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM)
-                .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY)
-                .build();
-        AdvertiseData data = new AdvertiseData.Builder()
+    public static AdvertiseData buildData(OperaPayload payload) {
+        ParcelUuid parcelUuid = new ParcelUuid(payload.getUuid());
+        return new AdvertiseData.Builder()
                 .setIncludeDeviceName(false)
                 .setIncludeTxPowerLevel(false)
-                .addServiceData(parcelUuid, serviceData)
+                .addServiceData(parcelUuid, payload.getServiceData())
                 .addServiceUuid(parcelUuid)
                 .build();
+    }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_ADVERTISE) != PackageManager.PERMISSION_GRANTED) {
-            Log.e(TAG, "startAdvertising: permission error");
+    /**
+     * Costruisce i dati di advertising di un set esteso che trasmette più opere: il service data e il service uuid di ognuna.
+     * I service uuid delle opere devono essere tutti diversi, come quelli assegnati da
+     * {@link it.uniba.sms2122.operassimulator.radio.ServiceUuidIndex}.
+     * @param payloads I payload delle opere.
+     * @return I dati di advertising.
+     */
+    public static AdvertiseData buildPackedData(List<OperaPayload> payloads) {
+        AdvertiseData.Builder builder = new AdvertiseData.Builder()
+                .setIncludeDeviceName(false)
+                .setIncludeTxPowerLevel(false);
+        for(OperaPayload payload : payloads) {
+            ParcelUuid parcelUuid = new ParcelUuid(payload.getUuid());
+            builder.addServiceData(parcelUuid, payload.getServiceData());
+            builder.addServiceUuid(parcelUuid);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Fa trasmettere un'opera a questo advertiser. Se il set sta già trasmettendo un'altra opera,
+     * vengono sostituiti solo i dati, senza interrompere l'advertising.
+     * @param operaId L'id dell'opera.
+     * @param data I dati di advertising dell'opera.
+     * @param profile I parametri radio.
+     */
+    public void assign(String operaId, AdvertiseData data, RadioProfile profile) {
+        this.operaId = operaId;
+        this.data = data;
+        this.profile = profile;
+        desiredEnabled = true;
+        startPending = true;
+        pendingSince = SystemClock.elapsedRealtimeNanos();
+        eventLog.record(AdvertiserEventLog.START_REQUESTED, operaId);
+        handler.removeCallbacks(reconcileTask);
+        reconcile();
+    }
+
+    /**
+     * Cambia i parametri radio dell'opera trasmessa.
+     * @param profile I nuovi parametri radio.
+     */
+    public void setProfile(RadioProfile profile) {
+        if(profile.equals(this.profile)) {
             return;
         }
-        advertiser.startAdvertising(settings, data, advertiseCallback);
+        this.profile = profile;
+        if(pendingSince == 0) {
+            pendingSince = SystemClock.elapsedRealtimeNanos();
+        }
+        reconcile();
     }
 
     /**
-     * Stoppa l'advertising di un particolare beacon bluetooth,
+     * Libera l'advertiser. Il set viene disabilitato alla fine del ciclo corrente del looper dell'advertiser,
+     * cioè del thread del controller:
+     * se nel frattempo gli viene assegnata un'altra opera, il passaggio avviene senza interruzioni.
      */
-    public void stopAdvertising() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_ADVERTISE) != PackageManager.PERMISSION_GRANTED) {
-            Log.e(TAG, "stopAdvertising: permission error");
+    public void release() {
+        if(operaId != null) {
+            eventLog.record(AdvertiserEventLog.STOPPED, operaId);
+        }
+        operaId = null;
+        desiredEnabled = false;
+        startPending = false;
+        pendingSince = 0;
+        handler.post(reconcileTask);
+    }
+
+    /**
+     * Distrugge il set, liberando lo slot della radio. L'advertiser non può più essere usato.
+     */
+    public void close() {
+        closed = true;
+        handler.removeCallbacks(reconcileTask);
+        if(hasPermission("close") && (advertisingSet != null || inFlight)) {
+            advertiser.stopAdvertisingSet(setCallback);
+        }
+        advertisingSet = null;
+    }
+
+    /**
+     * @return false se il set è stato distrutto o la sua creazione è fallita, per cui l'advertiser va scartato.
+     */
+    public boolean isUsable() {
+        return !closed;
+    }
+
+    /**
+     * Applica allo stato del set un passo verso lo stato desiderato. Viene richiamato da ogni callback,
+     * finché il set non coincide con lo stato desiderato.
+     */
+    private void reconcile() {
+        if(inFlight || closed || !hasPermission("reconcile")) {
+            return;
+        }
+
+        if(advertisingSet == null) {
+            if(desiredEnabled) {
+                inFlight = true;
+                appliedData = data;
+                appliedProfile = profile;
+                advertiser.startAdvertisingSet(parameters(profile, extended), data, null, null, null, setCallback, handler);
+            }
             return;
         }
 
-        if(advertiser != null) {
-            advertiser.stopAdvertising(advertiseCallback);
-            advertiser = null;
-            Log.d(TAG, "stopAdvertising: " + operaId);
+        if(!profile.equals(appliedProfile)) {
+            inFlight = true;
+            if(enabled) {
+                // I parametri si possono aggiornare solo a set disabilitato
+                advertisingSet.enableAdvertising(false, 0, 0);
+            } else {
+                appliedProfile = profile;
+                advertisingSet.setAdvertisingParameters(parameters(profile, extended));
+            }
+            return;
+        }
+
+        if(data != appliedData && data != null) {
+            inFlight = true;
+            appliedData = data;
+            advertisingSet.setAdvertisingData(data);
+            return;
         }
+
+        if(enabled != desiredEnabled) {
+            inFlight = true;
+            advertisingSet.enableAdvertising(desiredEnabled, 0, 0);
+            return;
+        }
+
+        if(enabled && pendingSince != 0) {
+            long latency = SystemClock.elapsedRealtimeNanos() - pendingSince;
+            pendingSince = 0;
+            if(startPending) {
+                startPending = false;
+                Log.i(TAG, "onStarted: started " + operaId);
+                eventLog.record(AdvertiserEventLog.STARTED, operaId, 0, latency);
+                listener.onStarted(this, operaId, latency);
+            } else {
+                eventLog.record(AdvertiserEventLog.UPDATED, operaId, 0, latency);
+                listener.onUpdated(this, operaId, latency);
+            }
+        }
+    }
+
+    private void fail(int status) {
+        eventLog.record(AdvertiserEventLog.FAILED, operaId, status, 0);
+        pendingSince = 0;
+        if(startPending) {
+            startPending = false;
+            listener.onFailed(this, operaId, status);
+        }
+    }
+
+    private boolean hasPermission(String operation) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_ADVERTISE) != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, operation + ": permission error");
+            return false;
+        }
+        return true;
     }
 
+    private static AdvertisingSetParameters parameters(RadioProfile profile, boolean extended) {
+        // Un set esteso con più di 31 byte di dati non può essere né connettibile né scansionabile
+        return new AdvertisingSetParameters.Builder()
+                .setLegacyMode(!extended)
+                .setConnectable(false)
+                .setScannable(false)
+                .setInterval(profile.getInterval())
+                .setTxPowerLevel(profile.getTxPowerLevel())
+                .build();
+    }
+
+    private static String describe(int status) {
+        switch (status) {
+            case AdvertisingSetCallback.ADVERTISE_FAILED_ALREADY_STARTED:
+                return "Already started";
+
+            case AdvertisingSetCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS:
+                return "Too many advertisers";
+
+            case AdvertisingSetCallback.ADVERTISE_FAILED_DATA_TOO_LARGE:
+                return "Data too large";
+
+            case AdvertisingSetCallback.ADVERTISE_FAILED_INTERNAL_ERROR:
+                return "Internal error";
+
+            case AdvertisingSetCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED:
+                return "Feature unsupported";
+
+            default:
+                return "default";
+        }
+    }
 }
@@ -1,53 +1,653 @@
 package it.uniba.sms2122.operassimulator;
 
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothManager;
 import android.content.Context;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import it.uniba.sms2122.operassimulator.control.ControlServer;
+import it.uniba.sms2122.operassimulator.controller.AdvertiserCommandQueue;
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.controller.StanzaDiff;
+import it.uniba.sms2122.operassimulator.metrics.AdvertiserEventLog;
+import it.uniba.sms2122.operassimulator.metrics.AdvertiserMetrics;
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.OperaMap;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.radio.AdvertiserBackend;
+import it.uniba.sms2122.operassimulator.radio.AdvertisingModeComparison;
+import it.uniba.sms2122.operassimulator.radio.PackedAdvertisingPlan;
+import it.uniba.sms2122.operassimulator.radio.RadioProfile;
+import it.uniba.sms2122.operassimulator.radio.ServiceUuidIndex;
+import it.uniba.sms2122.operassimulator.radio.SimulatedRadio;
+import it.uniba.sms2122.operassimulator.scenario.Scenario;
+import it.uniba.sms2122.operassimulator.scenario.ScenarioEvent;
+import it.uniba.sms2122.operassimulator.scenario.ScenarioPlayer;
+import it.uniba.sms2122.operassimulator.scenario.StressRunner;
+import it.uniba.sms2122.operassimulator.scheduler.AdvertisingScheduler;
+import it.uniba.sms2122.operassimulator.scheduler.FairnessPolicy;
+import it.uniba.sms2122.operassimulator.scheduler.RoomSchedules;
+import it.uniba.sms2122.operassimulator.scheduler.ScheduleRunner;
+import it.uniba.sms2122.operassimulator.session.SessionSnapshot;
+import it.uniba.sms2122.operassimulator.session.SessionStore;
+import it.uniba.sms2122.operassimulator.utility.HandlerTaskScheduler;
+
+/**
+ * Service che fa l'advertising delle opere della stanza caricata.
+ * <br>
+ * La stanza e le opere attive vengono salvate in uno {@link SessionSnapshot} ad ogni cambio: il service è sticky
+ * e, se il processo viene ucciso, al riavvio rimette in onda le stesse opere in un solo passaggio. Finché ci sono opere
+ * in onda il service resta in foreground, con una notifica da cui si può fermare tutto.
+ * <br>
+ * Le azioni di debug ({@link #ACTION_PLAY_SCENARIO}, {@link #ACTION_STRESS}, {@link #ACTION_CONTROL},
+ * {@link #ACTION_DUMP_EVENTS}) si mandano da un banco di test firmato con la stessa chiave dell'app, ad esempio
+ * un test di strumentazione: il service è protetto dal permesso di firma {@link #PERMISSION_DEBUG_CONTROL},
+ * e le altre app non possono avviarlo.
+ */
 public class OperaAdvertiserService extends Service {
     private static final String TAG = "OperaAdvertiserService";
+    private static final String NOTIFICATION_CHANNEL = "advertising";
+    private static final int NOTIFICATION_ID = 1;
+    private static final String SESSION_FILE = "session.bin";
+    private static final long SNAPSHOT_DELAY_MILLIS = 500;    // I cambi ravvicinati vengono salvati insieme
+    private static final String CONTROL_TOKEN_FILE = "control.token";
+
+    /**
+     * Il permesso, con livello di protezione signature, richiesto per avviare il service da fuori dall'app.
+     */
+    public static final String PERMISSION_DEBUG_CONTROL = "it.uniba.sms2122.operassimulator.permission.DEBUG_CONTROL";
+
+    /**
+     * Azione dell'intent di start che chiude la sessione, stoppando tutte le opere.
+     */
+    public static final String ACTION_STOP = "it.uniba.sms2122.operassimulator.STOP";
+
+    /**
+     * Azione dell'intent di start che esegue lo {@link Scenario} del file indicato dai dati dell'intent, sulla stanza caricata.
+     * La velocità si indica con {@link #EXTRA_SPEED}.
+     * <br>
+     * Da fuori dall'app l'azione si può mandare solo con il permesso {@link #PERMISSION_DEBUG_CONTROL}: lo scenario
+     * accende e spegne le opere della stanza, e un'app qualunque non deve poterlo fare.
+     */
+    public static final String ACTION_PLAY_SCENARIO = "it.uniba.sms2122.operassimulator.PLAY_SCENARIO";
+
+    /**
+     * Extra float dell'intent {@link #ACTION_PLAY_SCENARIO}: la velocità dello scenario, 1 se assente.
+     */
+    public static final String EXTRA_SPEED = "speed";
+
+    /**
+     * Azione dell'intent di start che esegue uno {@link StressRunner}: accende e spegne a caso le prime opere della stanza
+     * caricata, o di una stanza generata se non ce n'è una, e scrive il resoconto nel log. La stanza generata
+     * non viene salvata come sessione.
+     */
+    public static final String ACTION_STRESS = "it.uniba.sms2122.operassimulator.STRESS";
+
+    /**
+     * Extra int dell'intent {@link #ACTION_STRESS}: quante opere accendere e spegnere, 8 se assente.
+     */
+    public static final String EXTRA_OPERAS = "operas";
+
+    /**
+     * Extra float dell'intent {@link #ACTION_STRESS}: quanti cambi al secondo, 20 se assente.
+     */
+    public static final String EXTRA_RATE = "rate";
+
+    /**
+     * Extra long dell'intent {@link #ACTION_STRESS}: la durata in millisecondi, 60000 se assente.
+     */
+    public static final String EXTRA_DURATION = "duration";
+
+    /**
+     * Azione dell'intent di start che apre il {@link ControlServer} sulla porta di loopback indicata, per pilotare
+     * il service da un banco di test, ad esempio dopo un {@code adb forward tcp:8765 tcp:8765}. Con {@link #EXTRA_ENABLED}
+     * a false il server viene chiuso. Il token da mandare nell'header {@link ControlServer#TOKEN_HEADER} viene scritto
+     * nel file {@code control.token} della cartella privata dell'app, leggibile dal test di strumentazione
+     * o con {@code adb shell run-as} sulle build di debug.
+     */
+    public static final String ACTION_CONTROL = "it.uniba.sms2122.operassimulator.CONTROL";
 
-    private static Map<String, OperaAdvertiser> activeAdvertisers; // Gli advertiser attivi.
+    /**
+     * Extra int dell'intent {@link #ACTION_CONTROL}: la porta, {@link ControlServer#DEFAULT_PORT} se assente.
+     */
+    public static final String EXTRA_PORT = "port";
+
+    /**
+     * Extra booleano dell'intent {@link #ACTION_CONTROL}: false per chiudere il server, true se assente.
+     */
+    public static final String EXTRA_ENABLED = "enabled";
+
+    /**
+     * Azione dell'intent di start che scrive gli eventi della radio in un file csv nella cartella dei file dell'app.
+     */
+    public static final String ACTION_DUMP_EVENTS = "it.uniba.sms2122.operassimulator.DUMP_EVENTS";
+
+    /**
+     * Listener della sessione in corso nel service.
+     */
+    public interface SessionListener {
+        /**
+         * @param snapshot La stanza caricata nel service e le opere attive, ad esempio dopo un riavvio del processo.
+         */
+        void onSessionAvailable(SessionSnapshot snapshot);
+    }
+
+    /**
+     * Listener del ricaricamento della stanza, chiamato sul thread della UI.
+     */
+    public interface ReloadListener {
+        /**
+         * @param diff Le opere aggiunte e rimosse.
+         * @param activeIds Le opere attive dopo il ricaricamento.
+         */
+        void onReloaded(StanzaDiff diff, Set<String> activeIds);
+    }
+
+    /**
+     * Extra booleano dell'intent di bind: se vero, il service usa una {@link SimulatedRadio} al posto del bluetooth.
+     */
+    public static final String EXTRA_SIMULATED_RADIO = "it.uniba.sms2122.operassimulator.SIMULATED_RADIO";
+
+    private HandlerThread advertiserThread;     // Il thread su cui gira il controller, fuori dal thread della UI.
+    private HandlerTaskScheduler taskScheduler;
+    private AdvertiserController controller; // Tiene i payload e ruota le opere attive sugli slot della radio.
+    private AdvertiserCommandQueue commands;  // Porta i comandi della UI sul thread del controller.
     private final IBinder binder = new LocalBinder();
     private boolean bound = false;
 
+    private SessionStore sessionStore;
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();  // Scrive gli snapshot e legge gli scenari
+    private Handler mainHandler;
+    private ControlServer controlServer;     // Il server di controllo su loopback, o null; usato dal thread della UI
+    private SessionListener sessionListener;
+    private boolean foreground = false;
+    private volatile long lastRestoreNanos = -1;
+    private volatile boolean lowPower = false;  // Lo stato richiesto, letto dalla UI
+    private ScenarioPlayer scenarioPlayer;      // Lo scenario in corso, usato solo dal thread del controller
+    private StressRunner stressRunner;          // Lo stress test in corso, usato solo dal thread del controller
+    private Stanza stressStanza;                // La stanza generata dallo stress test, da non salvare come sessione
+    private boolean sessionClosed = false;      // La sessione è stata chiusa, usato solo dal thread del controller
+    private AdvertiserBackend backend;
+    private AdvertiserEventLog eventLog;        // Gli eventi della radio, scritti dal thread del controller e letti da chiunque
+    private volatile int operasPerSet = 1;      // Quante opere trasmette ogni set della radio, più di una con l'advertising esteso
+    private final Runnable snapshotTask = () -> commands.execute(this::takeSnapshot);   // Dopo i comandi già in coda
+
     @Override
     public void onCreate() {
         super.onCreate();
-        activeAdvertisers = new HashMap<>();
+        advertiserThread = new HandlerThread("OperaAdvertiser");
+        advertiserThread.start();
+        taskScheduler = new HandlerTaskScheduler(advertiserThread.getLooper());
+        eventLog = new AdvertiserEventLog(taskScheduler);
+        mainHandler = new Handler(getMainLooper());
+        sessionStore = new SessionStore(new File(getFilesDir(), SESSION_FILE));
+
+        NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL, getString(R.string.notification_channel),
+                NotificationManager.IMPORTANCE_LOW);
+        getSystemService(NotificationManager.class).createNotificationChannel(channel);
     }
 
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
+        ensureController(intent);
         bound = true;
         return binder;
     }
 
+    @Override
+    public void onRebind(Intent intent) {
+        bound = true;
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        return START_NOT_STICKY;
+        // Se il processo viene ucciso, il sistema riavvia il service con un intent nullo
+        ensureController(intent);
+        if(intent != null && ACTION_STOP.equals(intent.getAction())) {
+            closeSession();
+        } else if(intent != null && ACTION_PLAY_SCENARIO.equals(intent.getAction()) && intent.getData() != null) {
+            playScenario(intent.getData(), intent.getFloatExtra(EXTRA_SPEED, 1), null);
+        } else if(intent != null && ACTION_STRESS.equals(intent.getAction())) {
+            runStressTest(intent.getIntExtra(EXTRA_OPERAS, 8), intent.getFloatExtra(EXTRA_RATE, 20),
+                    intent.getLongExtra(EXTRA_DURATION, 60000), null);
+        } else if(intent != null && ACTION_CONTROL.equals(intent.getAction())) {
+            if(intent.getBooleanExtra(EXTRA_ENABLED, true)) {
+                startControlServer(intent.getIntExtra(EXTRA_PORT, ControlServer.DEFAULT_PORT));
+            } else {
+                stopControlServer();
+            }
+        } else if(intent != null && ACTION_DUMP_EVENTS.equals(intent.getAction())) {
+            ioExecutor.execute(() -> {
+                try {
+                    Log.i(TAG, "dumpEvents: written to " + dumpEvents().getAbsolutePath());
+                } catch(IOException ex) {
+                    Log.e(TAG, "dumpEvents: " + ex.getMessage());
+                }
+            });
+        }
+        return START_STICKY;
     }
 
     /**
-     * Crea un advertiser e fa partire l'advertising.
-     * @param operaId L'id dell'opera di cui fare l'advertising
-     * @param serviceUuid Il service uuid dell'adveriser
+     * Crea il controller alla prima richiesta e ripristina la sessione salvata, se c'è.
+     * @param intent L'intent che ha avviato o legato il service
+     */
+    private void ensureController(Intent intent) {
+        if(controller == null) {
+            backend = createBackend(intent);
+            controller = new AdvertiserController(backend, taskScheduler);
+            commands = new AdvertiserCommandQueue(controller, taskScheduler);
+            commands.setListener(ex -> Log.e(TAG, "command failed", ex));
+            controller.setStanzaListener(createSchedules());
+            if(operasPerSet > 1) {
+                commands.execute(() -> controller.setMaxSlots(AdvertisingScheduler.DEFAULT_SLOTS * operasPerSet));
+            }
+            ioExecutor.execute(this::restoreSession);
+        }
+    }
+
+    /**
+     * Sceglie la radio su cui fare l'advertising, sulla base dell'intent di bind.
+     * @param intent L'intent di bind
+     * @return La radio da usare
      */
-    public void startAdvertising(String operaId, String serviceUuid) {
-        if(!activeAdvertisers.containsKey(operaId)) {
-            OperaAdvertiser operaAdvertiser = new OperaAdvertiser(this, operaId, serviceUuid);
-            activeAdvertisers.put(operaId, operaAdvertiser);
-            operaAdvertiser.startAdvertising();
+    private AdvertiserBackend createBackend(Intent intent) {
+        if(intent != null && intent.getBooleanExtra(EXTRA_SIMULATED_RADIO, false)) {
+            Log.i(TAG, "createBackend: using simulated radio");
+            return new SimulatedRadio(taskScheduler, System.nanoTime());
         }
+        BluetoothAdvertiserBackend legacy = new BluetoothAdvertiserBackend(this, advertiserThread.getLooper(), eventLog);
+        BluetoothAdapter adapter = getBluetoothAdapter();
+        int maxDataLength = adapter != null && adapter.isLeExtendedAdvertisingSupported() ? adapter.getLeMaximumAdvertisingDataLength() : 0;
+        int capacity = PackedAdvertisingPlan.capacity(maxDataLength);
+        if(capacity > 1) {
+            Log.i(TAG, "createBackend: extended advertising, " + capacity + " operas per set (" + maxDataLength + " bytes)");
+            operasPerSet = capacity;
+            return new PackedAdvertiserBackend(this, advertiserThread.getLooper(), maxDataLength, legacy, eventLog);
+        }
+        Log.i(TAG, "createBackend: legacy advertising, one opera per set");
+        return legacy;
+    }
+
+    @Nullable
+    private BluetoothAdapter getBluetoothAdapter() {
+        BluetoothManager manager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+        return manager != null ? manager.getAdapter() : null;
+    }
+
+    /**
+     * @return true se le opere vengono trasmesse con l'advertising esteso, più di una per set.
+     */
+    public boolean isExtendedAdvertising() {
+        return operasPerSet > 1;
+    }
+
+    /**
+     * Confronta l'advertising legacy e quello esteso sulla radio del dispositivo, con gli slot configurati e i parametri radio di default.
+     * @return Il confronto, oppure null se la radio non supporta l'advertising esteso.
+     */
+    @Nullable
+    public AdvertisingModeComparison getAdvertisingModeComparison() {
+        BluetoothAdapter adapter = getBluetoothAdapter();
+        if(adapter == null || !adapter.isLeExtendedAdvertisingSupported()) {
+            return null;
+        }
+        return AdvertisingModeComparison.compare(AdvertisingScheduler.DEFAULT_SLOTS, adapter.getLeMaximumAdvertisingDataLength(), RadioProfile.DEFAULT);
+    }
+
+    /**
+     * Prepara i payload di advertising di tutte le opere della stanza, così che gli avvii non debbano ricalcolarli.
+     * @param stanza La stanza caricata
+     */
+    public void loadStanza(Stanza stanza) {
+        commands.execute(() -> prepareStanza(stanza));
+        // Il service deve sopravvivere all'activity: da qui in poi è anche avviato, oltre che legato
+        startService(new Intent(this, OperaAdvertiserService.class));
+        scheduleSnapshot();
+    }
+
+    /**
+     * Sostituisce la stanza caricata con una sua nuova versione, fermando e avviando solo le opere rimosse e aggiunte:
+     * le opere invariate restano in onda, con lo stesso service uuid.
+     * @param stanza La nuova versione della stanza
+     * @param listener Il listener da chiamare a ricaricamento avvenuto, o null
+     */
+    public void reloadStanza(Stanza stanza, ReloadListener listener) {
+        commands.execute(() -> {
+            StanzaDiff diff = controller.reloadStanza(stanza);
+            Log.i(TAG, "reloadStanza: " + diff);
+            ServiceUuidIndex index = controller.getServiceUuidIndex();
+            if(!index.getReassigned().isEmpty()) {
+                Log.w(TAG, String.format(Locale.ROOT, "reloadStanza: %d service uuid collisions reassigned", index.getReassigned().size()));
+            }
+            if(!controller.getInvalidOperaIds().isEmpty()) {
+                Log.w(TAG, "reloadStanza: skipped operas with an invalid id: " + controller.getInvalidOperaIds());
+            }
+            scheduleSnapshot();
+            if(listener != null) {
+                SessionSnapshot snapshot = controller.snapshotSession();
+                mainHandler.post(() -> listener.onReloaded(diff, snapshot.getActiveIds()));
+            }
+        });
+    }
+
+    /**
+     * Carica la stanza nel controller e segnala le opere a cui è stato cambiato il service uuid per evitare collisioni,
+     * e quelle saltate perché il loro id non è valido.
+     * Va chiamato dal thread del controller.
+     * @param stanza La stanza
+     */
+    private void prepareStanza(Stanza stanza) {
+        controller.loadStanza(stanza);
+        ServiceUuidIndex index = controller.getServiceUuidIndex();
+        if(!index.getReassigned().isEmpty()) {
+            Log.w(TAG, String.format(Locale.ROOT, "loadStanza: %d service uuid collisions reassigned: %s",
+                    index.getReassigned().size(), index.getReassigned()));
+        }
+        if(index.getUnresolvedCount() > 0) {
+            Log.w(TAG, "loadStanza: " + index.getUnresolvedCount() + " operas share a service uuid, the room has too many operas");
+        }
+        if(!controller.getInvalidOperaIds().isEmpty()) {
+            Log.w(TAG, "loadStanza: skipped operas with an invalid id: " + controller.getInvalidOperaIds());
+        }
+    }
+
+    /**
+     * Gli orari della stanza caricata, che il controller aggiorna a ogni cambio di stanza: le opere con un orario
+     * vengono accese e spente da sole, e gli orari della stanza precedente vengono fermati.
+     */
+    private RoomSchedules createSchedules() {
+        return new RoomSchedules(controller, taskScheduler, System::currentTimeMillis, ZoneId.systemDefault(), new RoomSchedules.Listener() {
+            @Override
+            public void onMissed(String operaId, boolean on, long lateMillis) {
+                eventLog.record(AdvertiserEventLog.SCHEDULE_MISSED, operaId, on ? 1 : 0, TimeUnit.MILLISECONDS.toNanos(lateMillis));
+                Log.d(TAG, "schedule: " + (on ? "start" : "stop") + " of " + operaId + " missed by " + lateMillis + " ms");
+            }
+
+            @Override
+            public void onStarted(ScheduleRunner runner) {
+                Log.i(TAG, "startSchedule: " + runner.getScheduledCount() + " scheduled operas");
+            }
+
+            @Override
+            public void onStopped(ScheduleRunner runner) {
+                Log.i(TAG, "stopSchedule: " + runner);
+            }
+
+            @Override
+            public void onInvalidSchedule(Stanza stanza, IllegalArgumentException ex) {
+                Log.e(TAG, "startSchedule: invalid schedule, " + ex.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Legge uno scenario e lo esegue sulla stanza caricata, interrompendo quello in corso.
+     * Gli eventi vengono eseguiti direttamente sul thread del controller, senza passare dalla coda dei comandi.
+     * @param uri L'uri del file della timeline
+     * @param speed La velocità: 1 per il tempo reale, di più per accelerare
+     * @param listener Il listener da notificare sul thread principale, o null
+     */
+    public void playScenario(Uri uri, double speed, ScenarioPlayer.Listener listener) {
+        ScenarioPlayer.Listener mainListener = onMainThread(listener);
+        ioExecutor.execute(() -> {
+            Scenario scenario;
+            try (Reader reader = new InputStreamReader(getContentResolver().openInputStream(uri), StandardCharsets.UTF_8)) {
+                scenario = Scenario.parse(reader);
+            } catch(IOException | RuntimeException ex) {
+                Log.e(TAG, "playScenario: " + ex.getMessage());
+                return;
+            }
+            commands.execute(() -> startScenarioPlayer(scenario, speed, mainListener));
+        });
+    }
+
+    /**
+     * Interrompe lo scenario in corso. Le opere già avviate restano in onda.
+     */
+    public void stopScenario() {
+        commands.execute(this::stopScenarioPlayer);
+    }
+
+    private void startScenarioPlayer(Scenario scenario, double speed, ScenarioPlayer.Listener listener) {
+        stopScenarioPlayer();
+        Log.i(TAG, "playScenario: " + scenario.size() + " events over " + scenario.getDurationMillis() + " ms at " + speed + "x");
+        scenarioPlayer = new ScenarioPlayer(controller, taskScheduler, scenario, speed, new ScenarioPlayer.Listener() {
+            @Override
+            public void onEvent(ScenarioEvent event, long skewNanos) {
+                scheduleSnapshot();
+                if(listener != null) {
+                    listener.onEvent(event, skewNanos);
+                }
+            }
+
+            @Override
+            public void onFinished(ScenarioPlayer.Report report) {
+                Log.i(TAG, "playScenario: " + report);
+                scenarioPlayer = null;
+                if(listener != null) {
+                    listener.onFinished(report);
+                }
+            }
+        });
+        scenarioPlayer.start();
+    }
+
+    private void stopScenarioPlayer() {
+        if(scenarioPlayer != null) {
+            scenarioPlayer.stop();
+            Log.i(TAG, "stopScenario: " + scenarioPlayer.getReport());
+            scenarioPlayer = null;
+        }
+    }
+
+    /**
+     * Esegue uno stress test sulle prime opere della stanza caricata, interrompendo quello in corso. Se non c'è una stanza
+     * ne viene caricata una generata, con opere dagli id casuali. Con la radio simulata gli advertiser persi o fermi
+     * vengono rilevati confrontando il controller con la radio; con il bluetooth ci si può basare solo sul controller.
+     * @param operas Quante opere accendere e spegnere
+     * @param rate Quanti cambi al secondo
+     * @param durationMillis Per quanto tempo fare i cambi
+     * @param listener Il listener da notificare sul thread principale, o null
+     */
+    public void runStressTest(int operas, double rate, long durationMillis, StressRunner.Listener listener) {
+        commands.execute(() -> {
+            stopStressRunner();
+            List<String> operaIds = new ArrayList<>();
+            Stanza stanza = controller.getStanza();
+            if(stanza == null) {
+                Map<String, Opera> opere = new OperaMap();
+                Random random = new Random();
+                for(int i=0; i<operas; i++) {
+                    String operaId = String.format(Locale.ROOT, "%08x%08x%08x%08x%08x", random.nextInt(), random.nextInt(),
+                            random.nextInt(), random.nextInt(), random.nextInt());
+                    opere.put(operaId, new Opera(operaId));
+                }
+                stanza = new Stanza("stress", "Stress", null, opere);
+                stressStanza = stanza;
+                controller.loadStanza(stanza);
+            }
+            for(Opera opera : stanza.getOpere().values()) {
+                if(operaIds.size() == operas) {
+                    break;
+                }
+                operaIds.add(opera.getId());
+            }
+            if(operaIds.isEmpty()) {
+                Log.e(TAG, "runStressTest: no operas");
+                return;
+            }
+
+            StressRunner.RadioProbe probe = backend instanceof SimulatedRadio ? ((SimulatedRadio) backend)::isOnAir : null;
+            Log.i(TAG, "runStressTest: " + operaIds.size() + " operas at " + rate + " toggles/s for " + durationMillis + " ms");
+            stressRunner = new StressRunner(controller, taskScheduler, operaIds, rate, durationMillis, System.nanoTime(), probe);
+            stressRunner.setListener(report -> {
+                Log.i(TAG, "runStressTest: " + report);
+                stressRunner = null;
+                scheduleSnapshot();
+                if(listener != null) {
+                    mainHandler.post(() -> listener.onFinished(report));
+                }
+            });
+            stressRunner.start();
+        });
+    }
+
+    /**
+     * Apre il server di controllo sull'interfaccia di loopback, chiudendo quello già aperto.
+     * @param port La porta su cui ascoltare
+     */
+    public void startControlServer(int port) {
+        stopControlServer();
+        ControlServer server = new ControlServer(controller, commands);
+        server.setListener(count -> scheduleSnapshot());
+        controlServer = server;
+        // L'apertura del socket non deve bloccare il thread della UI
+        ioExecutor.execute(() -> {
+            try {
+                int localPort = server.start(port);
+                writeControlToken(server.getToken());
+                Log.i(TAG, "startControlServer: listening on 127.0.0.1:" + localPort);
+            } catch(IOException ex) {
+                Log.e(TAG, "startControlServer: " + ex.getMessage());
+                server.stop();
+            }
+        });
+    }
+
+    public void stopControlServer() {
+        if(controlServer != null) {
+            controlServer.stop();
+            controlServer = null;
+            ioExecutor.execute(() -> getControlTokenFile().delete());
+        }
+    }
+
+    /**
+     * Scrive il token del server di controllo nella cartella privata dell'app, leggibile solo dall'app stessa.
+     */
+    private void writeControlToken(String token) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(getControlTokenFile()), StandardCharsets.UTF_8)) {
+            writer.write(token);
+        }
+    }
+
+    private File getControlTokenFile() {
+        return new File(getFilesDir(), CONTROL_TOKEN_FILE);
+    }
+
+    /**
+     * Interrompe lo stress test in corso, spegnendo le opere che ha acceso.
+     */
+    public void stopStressTest() {
+        commands.execute(this::stopStressRunner);
+    }
+
+    private void stopStressRunner() {
+        if(stressRunner != null) {
+            StressRunner runner = stressRunner;
+            stressRunner = null;
+            runner.setListener(null);
+            runner.stop();
+            Log.i(TAG, "stopStressTest: " + runner.getReport());
+        }
+    }
+
+    /**
+     * @return I service uuid delle opere della stanza caricata, o null se non ce n'è una
+     */
+    public ServiceUuidIndex getServiceUuidIndex() {
+        return controller != null ? controller.getServiceUuidIndex() : null;
+    }
+
+    /**
+     * Chiude la sessione: stoppa tutte le opere, dimentica la stanza e cancella lo snapshot salvato.
+     */
+    public void closeSession() {
+        taskScheduler.removeCallbacks(snapshotTask);
+        commands.execute(() -> {
+            stopScenarioPlayer();
+            stopStressRunner();
+            controller.close();
+            sessionClosed = true;
+            // Dal thread del controller, così che la cancellazione segua i salvataggi già richiesti
+            ioExecutor.execute(sessionStore::clear);
+        });
+        updateForeground(null);
+        stopSelf();
+    }
+
+    /**
+     * Registra il listener della sessione. Se nel service c'è già una stanza caricata, il listener viene notificato subito
+     * con il suo stato, dopo i comandi già in coda.
+     * @param listener Il listener, notificato sul thread principale, o null per rimuoverlo
+     */
+    public void setSessionListener(SessionListener listener) {
+        sessionListener = listener;
+        if(listener != null) {
+            commands.execute(() -> {
+                SessionSnapshot snapshot = controller.snapshotSession();
+                if(snapshot != null) {
+                    mainHandler.post(() -> {
+                        if(sessionListener != null) {
+                            sessionListener.onSessionAvailable(snapshot);
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * @return Quanti millisecondi ha impiegato l'ultimo ripristino a rimettere in onda tutte le opere, -1 se non c'è stato
+     */
+    public long getLastRestoreMillis() {
+        long nanos = lastRestoreNanos;
+        return nanos >= 0 ? TimeUnit.NANOSECONDS.toMillis(nanos) : -1;
+    }
+
+    /**
+     * Aggiunge un'opera alla rotazione degli advertiser. Se c'è uno slot libero, l'advertising parte subito.
+     * Il service uuid è quello assegnato all'opera quando è stata caricata la stanza.
+     * @param operaId L'id dell'opera di cui fare l'advertising
+     */
+    public void startAdvertising(String operaId) {
+        commands.setActive(operaId, null, true);
+        scheduleSnapshot();
     }
 
     /**
@@ -55,38 +655,340 @@ public class OperaAdvertiserService extends Service {
      * @param operaId L'id dell'opera di cui si vuole stoppare l'advertising
      */
     public void stopAdverting(String operaId) {
-        if(activeAdvertisers.containsKey(operaId)) {
-            OperaAdvertiser operaAdvertiser = activeAdvertisers.get(operaId);
-            operaAdvertiser.stopAdvertising();
-            activeAdvertisers.remove(operaId);
-        }
+        commands.setActive(operaId, null, false);
+        scheduleSnapshot();
+    }
+
+    /**
+     * Manda in onda tutte le opere della stanza, a blocchi.
+     * @param stanza La stanza
+     * @param listener Il listener da notificare, sul thread principale, quando la radio conferma in onda tutte le opere
+     */
+    public void startAll(Stanza stanza, AdvertiserController.RoomListener listener) {
+        AdvertiserController.RoomListener mainListener = onMainThread(listener);
+        commands.execute(() -> controller.startAll(stanza, mainListener));
+        scheduleSnapshot();
+    }
+
+    /**
+     * Stoppa tutte le opere, a blocchi.
+     * @param listener Il listener da notificare, sul thread principale, quando tutte le opere sono state stoppate
+     */
+    public void stopAll(AdvertiserController.RoomListener listener) {
+        AdvertiserController.RoomListener mainListener = onMainThread(listener);
+        commands.execute(() -> controller.stopAll(mainListener));
+        scheduleSnapshot();
+    }
+
+    /**
+     * Passa a un'altra stanza del museo e ne manda in onda tutte le opere, con un unico cambio di stato a blocchi:
+     * vengono stoppate solo le opere della stanza precedente che la nuova non contiene.
+     * @param stanza La stanza in cui passare
+     * @param listener Il listener da notificare, sul thread principale, quando la radio conferma in onda tutte le opere
+     */
+    public void switchRoom(Stanza stanza, AdvertiserController.RoomListener listener) {
+        AdvertiserController.RoomListener mainListener = onMainThread(listener);
+        commands.execute(() -> {
+            StanzaDiff diff = controller.switchRoom(stanza, mainListener);
+            Log.i(TAG, "switchRoom: " + stanza.getId() + " " + diff);
+        });
+        startService(new Intent(this, OperaAdvertiserService.class));
+        scheduleSnapshot();
+    }
+
+    /**
+     * Porta le opere in onda a quelle indicate, avviando e stoppando solo quelle che cambiano.
+     * @param operaIds Gli id delle opere da mandare in onda
+     * @param listener Il listener da notificare, sul thread principale, quando la radio conferma in onda le opere
+     */
+    public void applyState(Set<String> operaIds, AdvertiserController.RoomListener listener) {
+        AdvertiserController.RoomListener mainListener = onMainThread(listener);
+        commands.execute(() -> controller.applyState(operaIds, mainListener));
+        scheduleSnapshot();
     }
 
     /**
      * Stoppa tutti gli advertising attivi.
      */
     public void stopAllAdvertising() {
-        if(activeAdvertisers.size() > 0) {
-            for(Map.Entry<String, OperaAdvertiser> entry : activeAdvertisers.entrySet()) {
-                OperaAdvertiser operaAdvertiser = activeAdvertisers.get(entry.getKey());
-                operaAdvertiser.stopAdvertising();
+        commands.stopAll();
+        scheduleSnapshot();
+    }
+
+    /**
+     * Cambia potenza e intervallo di un'opera. Se è in onda il cambio viene applicato senza fermarla.
+     * @param operaId L'id dell'opera
+     * @param profile I nuovi parametri radio
+     */
+    public void setRadioProfile(String operaId, RadioProfile profile) {
+        commands.execute(() -> controller.setRadioProfile(operaId, profile));
+    }
+
+    /**
+     * Attiva o disattiva la modalità a basso consumo: le opere senza un profilo proprio vanno in onda con un intervallo di 1 s.
+     * @param lowPower true per attivarla
+     */
+    public void setLowPowerMode(boolean lowPower) {
+        this.lowPower = lowPower;
+        commands.execute(() -> controller.setLowPowerMode(lowPower));
+    }
+
+    public boolean isLowPowerMode() {
+        return lowPower;
+    }
+
+    /**
+     * @return Per ogni opera attiva, quanti nanosecondi ha impiegato l'ultimo cambio ad andare in onda.
+     * Il valore è letto sul thread del controller, dopo i comandi già in coda.
+     */
+    public Future<Map<String, Long>> getSwitchLatencies() {
+        return commands.submit(controller::getSwitchLatencies);
+    }
+
+    /**
+     * Configura la rotazione delle opere quando sono più degli slot disponibili.
+     * @param slots Il numero massimo di advertiser contemporanei
+     * @param dwellMillis Per quanto tempo un'opera resta in onda prima di cedere lo slot
+     * @param policy La politica con cui scegliere le opere da mandare in onda
+     */
+    public void configureRotation(int slots, long dwellMillis, FairnessPolicy policy) {
+        // Gli slot sono set della radio: con l'advertising esteso ogni set trasmette più opere
+        commands.execute(() -> controller.configureRotation(slots * operasPerSet, dwellMillis, policy));
+    }
+
+    /**
+     * @return Il duty cycle ottenuto finora da ogni opera attiva, letto sul thread del controller
+     */
+    public Future<Map<String, Double>> getDutyCycles() {
+        return commands.submit(controller::getDutyCycles);
+    }
+
+    /**
+     * @return Una copia delle metriche dell'advertising, presa sul thread del controller
+     */
+    public Future<AdvertiserMetrics> getMetrics() {
+        return commands.submit(controller::snapshotMetrics);
+    }
+
+    /**
+     * Scrive gli eventi della radio ancora nel registro in un file csv nella cartella dei file dell'app.
+     * La lettura del registro non blocca chi scrive, ma la scrittura del file sì: va chiamato in background.
+     * @return Il file scritto
+     * @throws IOException Se il file non si può scrivere, anche perché la memoria esterna non è disponibile
+     */
+    public File dumpEvents() throws IOException {
+        File dir = getExternalFilesDir(null);
+        if(dir == null) {
+            throw new IOException("external files dir not available");
+        }
+        File file = new File(dir, "events-" + System.currentTimeMillis() + ".csv");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            eventLog.writeCsv(writer);
+        }
+        return file;
+    }
+
+    /**
+     * Azzera le metriche dell'advertising.
+     */
+    public void resetMetrics() {
+        commands.execute(controller::resetMetrics);
+    }
+
+    /**
+     * @return Il numero di comandi della UI ancora in attesa di arrivare alla radio
+     */
+    public int getQueueDepth() {
+        return commands.getQueueDepth();
+    }
+
+    /**
+     * @return Il numero di comandi della UI fusi o annullati prima di arrivare alla radio
+     */
+    public long getCoalescedCount() {
+        return commands.getCoalescedCount();
+    }
+
+    private void scheduleSnapshot() {
+        taskScheduler.removeCallbacks(snapshotTask);
+        taskScheduler.postDelayed(snapshotTask, SNAPSHOT_DELAY_MILLIS);
+    }
+
+    /**
+     * Fotografa la sessione e la salva in background. Gira sul thread del controller.
+     * La stanza generata dallo stress test non viene salvata: al riavvio non va rimessa in onda.
+     */
+    private void takeSnapshot() {
+        SessionSnapshot snapshot = controller.snapshotSession();
+        if(snapshot == null) {
+            return;
+        }
+        mainHandler.post(() -> updateForeground(snapshot));
+        if(snapshot.getStanza() == stressStanza) {
+            return;
+        }
+        ioExecutor.execute(() -> {
+            try {
+                sessionStore.save(snapshot);
+            } catch(IOException ex) {
+                Log.e(TAG, "takeSnapshot: " + ex.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Rimette in onda le opere dello snapshot salvato, in un solo cambio di stato della stanza. Gira sull'ioExecutor,
+     * che legge e verifica lo snapshot prima dei salvataggi successivi; al thread del controller passa solo la stanza già letta.
+     */
+    private void restoreSession() {
+        long startedAt = taskScheduler.nanoTime();
+        SessionSnapshot snapshot;
+        try {
+            snapshot = sessionStore.load();
+        } catch(IOException ex) {
+            Log.w(TAG, "restoreSession: discarding snapshot, " + ex.getMessage());
+            sessionStore.clear();
+            return;
+        }
+        if(snapshot == null) {
+            return;
+        }
+
+        long readNanos = taskScheduler.nanoTime() - startedAt;
+        commands.execute(() -> applySession(snapshot, startedAt, readNanos));
+    }
+
+    /**
+     * Carica la stanza dello snapshot e ne rimette in onda le opere. Gira sul thread del controller.
+     * Se nel frattempo è stata caricata un'altra stanza, ad esempio dalla UI, o la sessione è stata chiusa,
+     * lo snapshot è superato e viene ignorato.
+     */
+    private void applySession(SessionSnapshot snapshot, long startedAt, long readNanos) {
+        if(controller.getStanza() != null || sessionClosed) {
+            Log.i(TAG, "applySession: the session changed while reading the snapshot, skipping it");
+            return;
+        }
+        prepareStanza(snapshot.getStanza());
+        controller.applyState(snapshot.getActiveIds(), new AdvertiserController.RoomListener() {
+            @Override
+            public void onProgress(int confirmed, int total) {
+            }
+
+            @Override
+            public void onRoomConfirmed(int total, long elapsedNanos) {
+                lastRestoreNanos = taskScheduler.nanoTime() - startedAt;
+                Log.i(TAG, String.format(Locale.ROOT, "restoreSession: %d operas back on air in %d ms (snapshot read in %d ms)",
+                        total, TimeUnit.NANOSECONDS.toMillis(lastRestoreNanos), TimeUnit.NANOSECONDS.toMillis(readNanos)));
+            }
+        });
+        mainHandler.post(() -> {
+            startService(new Intent(this, OperaAdvertiserService.class));
+            updateForeground(snapshot);
+        });
+    }
+
+    /**
+     * Mette il service in foreground finché ci sono opere in onda. Va chiamato sul thread principale.
+     * @param snapshot Lo stato della sessione, o null se non c'è una sessione
+     */
+    private void updateForeground(SessionSnapshot snapshot) {
+        boolean advertising = snapshot != null && !snapshot.getActiveIds().isEmpty();
+        if(advertising) {
+            try {
+                startForeground(NOTIFICATION_ID, buildNotification(snapshot));
+                foreground = true;
+            } catch(IllegalStateException ex) {
+                // Da Android 12 il sistema può negare il foreground a un service avviato in background
+                Log.w(TAG, "updateForeground: " + ex.getMessage());
             }
-            activeAdvertisers.clear();
+        } else if(foreground) {
+            stopForeground(true);
+            foreground = false;
         }
     }
 
+    private Notification buildNotification(SessionSnapshot snapshot) {
+        PendingIntent openIntent = PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class),
+                PendingIntent.FLAG_IMMUTABLE);
+        PendingIntent stopIntent = PendingIntent.getService(this, 0,
+                new Intent(this, OperaAdvertiserService.class).setAction(ACTION_STOP), PendingIntent.FLAG_IMMUTABLE);
+        return new Notification.Builder(this, NOTIFICATION_CHANNEL)
+                .setSmallIcon(android.R.drawable.stat_sys_data_bluetooth)
+                .setContentTitle(snapshot.getStanza().getNome())
+                .setContentText(getString(R.string.notification_text, snapshot.getActiveIds().size()))
+                .setContentIntent(openIntent)
+                .addAction(new Notification.Action.Builder(null, getString(R.string.stop_all), stopIntent).build())
+                .setOngoing(true)
+                .build();
+    }
+
+    /**
+     * I callback del controller arrivano sul suo thread: vengono riportati su quello principale per la UI.
+     */
+    private AdvertiserController.RoomListener onMainThread(AdvertiserController.RoomListener listener) {
+        if(listener == null) {
+            return null;
+        }
+        Handler mainHandler = new Handler(getMainLooper());
+        return new AdvertiserController.RoomListener() {
+            @Override
+            public void onProgress(int confirmed, int total) {
+                mainHandler.post(() -> listener.onProgress(confirmed, total));
+            }
+
+            @Override
+            public void onRoomConfirmed(int total, long elapsedNanos) {
+                mainHandler.post(() -> listener.onRoomConfirmed(total, elapsedNanos));
+            }
+        };
+    }
+
+    private ScenarioPlayer.Listener onMainThread(ScenarioPlayer.Listener listener) {
+        if(listener == null) {
+            return null;
+        }
+        Handler mainHandler = new Handler(getMainLooper());
+        return new ScenarioPlayer.Listener() {
+            @Override
+            public void onEvent(ScenarioEvent event, long skewNanos) {
+                mainHandler.post(() -> listener.onEvent(event, skewNanos));
+            }
+
+            @Override
+            public void onFinished(ScenarioPlayer.Report report) {
+                mainHandler.post(() -> listener.onFinished(report));
+            }
+        };
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
+        stopControlServer();
+        taskScheduler.removeCallbacks(snapshotTask);
+        if(controller != null) {
+            // Il controller va chiuso sul suo thread, dopo i comandi ancora in coda, che possono ancora passare
+            // dei salvataggi all'ioExecutor (ad esempio quello di closeSession): solo dopo si possono fermare i thread
+            commands.execute(() -> {
+                stopScenarioPlayer();
+                stopStressRunner();
+                controller.close();
+                ioExecutor.shutdown();
+                advertiserThread.quitSafely();
+            });
+        } else {
+            ioExecutor.shutdown();
+            advertiserThread.quitSafely();
+        }
         Log.d(TAG, "onDestroy: service destroyed");
     }
 
     @Override
     public boolean onUnbind(Intent intent) {
+        // L'advertising continua: l'activity può essere stata solo ricreata, e la sessione si chiude con closeSession
         Log.d(TAG, "onUnbind: service unbounded");
-        stopAllAdvertising();
         bound = false;
-        return super.onUnbind(intent);
+        return true;
     }
 
     public boolean isBound() {
@@ -99,4 +1001,4 @@ public class OperaAdvertiserService extends Service {
         }
     }
 
-}
\ No newline at end of file
+}
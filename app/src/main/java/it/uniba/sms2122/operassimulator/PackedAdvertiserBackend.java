@@ -0,0 +1,295 @@
+package it.uniba.sms2122.operassimulator;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import it.uniba.sms2122.operassimulator.metrics.AdvertiserEventLog;
+import it.uniba.sms2122.operassimulator.radio.AdvertiserBackend;
+import it.uniba.sms2122.operassimulator.radio.OperaPayload;
+import it.uniba.sms2122.operassimulator.radio.PackedAdvertisingPlan;
+import it.uniba.sms2122.operassimulator.radio.RadioProfile;
+
+/**
+ * {@link AdvertiserBackend} che usa l'advertising esteso (bluetooth 5) per trasmettere più opere in un solo set.
+ * <br>
+ * Le opere vengono raggruppate dal {@link PackedAdvertisingPlan}: quelle con gli stessi parametri radio finiscono nello
+ * stesso set, finché c'è spazio nei dati. Ogni cambio di un set ne riscrive i dati, senza interrompere l'advertising.
+ * Se la radio non supporta i set estesi, le opere successive passano al backend legacy, un set per opera.
+ */
+public class PackedAdvertiserBackend implements AdvertiserBackend {
+    private static final String TAG = "PackedAdvertiserBackend";
+    private static final String SET_PREFIX = "set-";
+
+    private final Context context;
+    private final Looper looper;
+    private final AdvertiserEventLog eventLog;
+    private final AdvertiserBackend fallback;
+    private final PackedAdvertisingPlan plan;
+    private final Map<Integer, OperaAdvertiser> setAdvertisers = new HashMap<>();           // Gli advertiser dei set aperti
+    private final Map<OperaAdvertiser, Integer> advertiserSets = new IdentityHashMap<>();
+    private final ArrayDeque<OperaAdvertiser> idleAdvertisers = new ArrayDeque<>();        // I set liberi, il più recente in testa.
+    private final Map<String, OperaPayload> payloads = new HashMap<>();
+    private final Map<String, Callback> callbacks = new HashMap<>();
+    private final Set<String> pending = new HashSet<>();            // Le opere avviate di cui il set non è ancora in onda
+    private final Map<String, Long> requestedAt = new HashMap<>();  // Quando è stato chiesto l'ultimo cambio di ogni opera
+    private final Map<String, Long> switchLatencies = new HashMap<>();
+    private final Set<String> legacyOperas = new HashSet<>();       // Le opere passate al backend legacy
+    private boolean legacyOnly = false;
+
+    private final OperaAdvertiser.Listener listener = new OperaAdvertiser.Listener() {
+        @Override
+        public void onStarted(OperaAdvertiser advertiser, String setKey, long latencyNanos) {
+            confirm(advertiser);
+        }
+
+        @Override
+        public void onUpdated(OperaAdvertiser advertiser, String setKey, long latencyNanos) {
+            confirm(advertiser);
+        }
+
+        @Override
+        public void onFailed(OperaAdvertiser advertiser, String setKey, int errorCode) {
+            failSet(advertiser, errorCode);
+        }
+    };
+
+    /**
+     * @param context Il contesto.
+     * @param looper Il looper del thread che usa il backend, su cui arrivano anche i callback dei set.
+     * @param maxDataLength La dimensione massima dei dati di un set esteso, come da
+     *                      {@link android.bluetooth.BluetoothAdapter#getLeMaximumAdvertisingDataLength()}.
+     * @param fallback Il backend legacy a cui passare le opere se la radio rifiuta i set estesi.
+     * @param eventLog Il registro degli eventi della radio, in cui i set compaiono con la loro chiave al posto dell'opera.
+     */
+    public PackedAdvertiserBackend(Context context, Looper looper, int maxDataLength, AdvertiserBackend fallback, AdvertiserEventLog eventLog) {
+        this.context = context;
+        this.looper = looper;
+        this.eventLog = eventLog;
+        this.fallback = fallback;
+        this.plan = new PackedAdvertisingPlan(PackedAdvertisingPlan.capacity(maxDataLength), PackedAdvertisingPlan.UNLIMITED_SETS);
+    }
+
+    @Override
+    public void startAdvertising(OperaPayload payload, RadioProfile profile, Callback callback) {
+        String operaId = payload.getOperaId();
+        if(legacyOnly || legacyOperas.contains(operaId)) {
+            legacyOperas.add(operaId);
+            fallback.startAdvertising(payload, profile, callback);
+            return;
+        }
+        if(plan.getSet(operaId) != PackedAdvertisingPlan.NO_SET) {
+            callback.onStartFailure(operaId, ERROR_ALREADY_STARTED);
+            return;
+        }
+
+        int set = plan.add(operaId, profile);
+        if(set == PackedAdvertisingPlan.NO_SET) {
+            callback.onStartFailure(operaId, ERROR_TOO_MANY_ADVERTISERS);
+            return;
+        }
+        payloads.put(operaId, payload);
+        callbacks.put(operaId, callback);
+        pending.add(operaId);
+        requestedAt.put(operaId, SystemClock.elapsedRealtimeNanos());
+        push(set);
+    }
+
+    @Override
+    public void updateProfile(String operaId, RadioProfile profile) {
+        if(legacyOperas.contains(operaId)) {
+            fallback.updateProfile(operaId, profile);
+            return;
+        }
+        int oldSet = plan.getSet(operaId);
+        if(oldSet == PackedAdvertisingPlan.NO_SET || profile.equals(plan.getProfile(oldSet))) {
+            return;
+        }
+
+        // L'opera passa al set del nuovo profilo; se non c'è posto resta con il profilo vecchio
+        RadioProfile oldProfile = plan.getProfile(oldSet);
+        plan.remove(operaId);
+        int newSet = plan.add(operaId, profile);
+        if(newSet == PackedAdvertisingPlan.NO_SET) {
+            Log.w(TAG, "updateProfile: no set available for " + operaId + ", keeping " + oldProfile);
+            newSet = plan.add(operaId, oldProfile);
+        }
+        requestedAt.put(operaId, SystemClock.elapsedRealtimeNanos());
+        if(newSet != oldSet) {
+            push(oldSet);
+        }
+        push(newSet);
+    }
+
+    @Override
+    public void stopAdvertising(String operaId) {
+        if(legacyOperas.remove(operaId)) {
+            fallback.stopAdvertising(operaId);
+            return;
+        }
+        int set = plan.remove(operaId);
+        forget(operaId);
+        if(set != PackedAdvertisingPlan.NO_SET) {
+            push(set);
+        }
+    }
+
+    @Override
+    public void reset() {
+        for(OperaAdvertiser operaAdvertiser : setAdvertisers.values()) {
+            operaAdvertiser.close();
+        }
+        for(OperaAdvertiser operaAdvertiser : idleAdvertisers) {
+            operaAdvertiser.close();
+        }
+        setAdvertisers.clear();
+        advertiserSets.clear();
+        idleAdvertisers.clear();
+        plan.clear();
+        payloads.clear();
+        callbacks.clear();
+        pending.clear();
+        requestedAt.clear();
+        switchLatencies.clear();
+        legacyOperas.clear();
+        fallback.reset();
+    }
+
+    @Override
+    public long getSwitchLatencyNanos(String operaId) {
+        if(legacyOperas.contains(operaId)) {
+            return fallback.getSwitchLatencyNanos(operaId);
+        }
+        Long latency = switchLatencies.get(operaId);
+        return latency != null ? latency : -1;
+    }
+
+    /**
+     * @return true se la radio ha rifiutato i set estesi e le opere vengono avviate con il backend legacy.
+     */
+    public boolean isLegacyOnly() {
+        return legacyOnly;
+    }
+
+    /**
+     * @return Il numero di set estesi in onda.
+     */
+    public int getSetCount() {
+        return plan.getSetCount();
+    }
+
+    /**
+     * Allinea l'advertiser di un set al piano: se il set è vuoto lo libera, altrimenti gli assegna i dati di tutte le opere del set.
+     */
+    private void push(int set) {
+        if(!plan.isOpen(set)) {
+            OperaAdvertiser operaAdvertiser = setAdvertisers.remove(set);
+            if(operaAdvertiser != null) {
+                advertiserSets.remove(operaAdvertiser);
+                operaAdvertiser.release();
+                idleAdvertisers.addFirst(operaAdvertiser);
+            }
+            return;
+        }
+
+        OperaAdvertiser operaAdvertiser = setAdvertisers.get(set);
+        if(operaAdvertiser == null) {
+            operaAdvertiser = idleAdvertisers.pollFirst();
+            if(operaAdvertiser == null) {
+                operaAdvertiser = new OperaAdvertiser(context, listener, looper, true, eventLog);
+            }
+            setAdvertisers.put(set, operaAdvertiser);
+            advertiserSets.put(operaAdvertiser, set);
+        }
+
+        List<String> members = plan.getMembers(set);
+        List<OperaPayload> setPayloads = new ArrayList<>(members.size());
+        for(String operaId : members) {
+            setPayloads.add(payloads.get(operaId));
+        }
+        operaAdvertiser.assign(SET_PREFIX + set, OperaAdvertiser.buildPackedData(setPayloads), plan.getProfile(set));
+    }
+
+    /**
+     * I dati del set sono in onda: le opere del set in attesa vengono confermate.
+     */
+    private void confirm(OperaAdvertiser advertiser) {
+        Integer set = advertiserSets.get(advertiser);
+        if(set == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtimeNanos();
+        for(String operaId : plan.getMembers(set)) {
+            Long since = requestedAt.remove(operaId);
+            if(since != null) {
+                switchLatencies.put(operaId, now - since);
+            }
+            if(pending.remove(operaId)) {
+                Callback callback = callbacks.get(operaId);
+                if(callback != null) {
+                    callback.onStartSuccess(operaId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Il set non è potuto andare in onda. Se la radio ha finito gli slot tutte le opere del set falliscono, anche quelle
+     * già confermate in onda, così lo scheduler le rimette in coda, e il piano non apre altri set; per ogni altro errore
+     * i set estesi vengono abbandonati e le opere del set passano al backend legacy.
+     */
+    private void failSet(OperaAdvertiser advertiser, int errorCode) {
+        Integer set = advertiserSets.remove(advertiser);
+        if(set == null) {
+            return;
+        }
+        setAdvertisers.remove(set);
+        if(advertiser.isUsable()) {
+            advertiser.release();
+            idleAdvertisers.addLast(advertiser);
+        }
+
+        boolean outOfSlots = errorCode == ERROR_TOO_MANY_ADVERTISERS;
+        if(outOfSlots) {
+            plan.setMaxSets(Math.max(1, setAdvertisers.size()));
+            Log.w(TAG, "failSet: radio limit reached at " + plan.getMaxSets() + " extended sets");
+        } else if(!legacyOnly) {
+            legacyOnly = true;
+            Log.w(TAG, "failSet: extended advertising rejected (" + errorCode + "), falling back to legacy sets");
+        }
+
+        RadioProfile profile = plan.getProfile(set);
+        for(String operaId : plan.getMembers(set)) {
+            OperaPayload payload = payloads.get(operaId);
+            Callback callback = callbacks.get(operaId);
+            plan.remove(operaId);
+            forget(operaId);
+            if(callback == null) {
+                continue;
+            }
+            if(outOfSlots) {
+                callback.onStartFailure(operaId, errorCode);
+            } else {
+                legacyOperas.add(operaId);
+                fallback.startAdvertising(payload, profile, callback);
+            }
+        }
+    }
+
+    private void forget(String operaId) {
+        payloads.remove(operaId);
+        callbacks.remove(operaId);
+        pending.remove(operaId);
+        requestedAt.remove(operaId);
+    }
+}
@@ -7,22 +7,82 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.widget.SwitchCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
+import it.uniba.sms2122.operassimulator.list.OperaListModel;
+import it.uniba.sms2122.operassimulator.list.PagedOperaList;
 import it.uniba.sms2122.operassimulator.model.Opera;
 
-public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.OperaViewHolder> {
+/**
+ * Adapter della lista delle opere. Le differenze tra una lista e la successiva vengono calcolate da {@link ListAdapter}
+ * su un thread in background; le righe hanno id stabili e lo stato acceso/spento di ogni opera è tenuto nel modello,
+ * per cui non si perde quando una riga viene riciclata.
+ * <br>
+ * Le stanze già complete (un catalogo, una stanza del museo o quella ripristinata dal service) vengono invece mostrate
+ * a pagine con un {@link PagedOperaList}: l'adapter legge solo le opere attorno alla posizione di scorrimento,
+ * e le righe delle pagine non ancora lette restano vuote finché la pagina non arriva.
+ */
+public class RecyclerViewAdapter extends ListAdapter<Opera, RecyclerViewAdapter.OperaViewHolder> {
+    private static final Object PAYLOAD_STATE = new Object();     // Il rebind deve aggiornare solo lo switch
+
+    private static final DiffUtil.ItemCallback<Opera> DIFF_CALLBACK = new DiffUtil.ItemCallback<Opera>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Opera oldItem, @NonNull Opera newItem) {
+            return oldItem.getId().equals(newItem.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Opera oldItem, @NonNull Opera newItem) {
+            // Della riga viene mostrato solo l'id
+            return oldItem.getId().equals(newItem.getId());
+        }
+    };
+
     private final MainActivity mainActivity;
-    private static ArrayList<Opera> opere;
-    private static HashMap<String, String> serviceUuids;
+    private final OperaListModel opere = new OperaListModel();
+    private final Executor pageExecutor;
+    private PagedOperaList paged;     // Non null quando la stanza è mostrata a pagine
 
-    public RecyclerViewAdapter(MainActivity mainActivity) {
+    private final RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            if(paged != null && recyclerView.getLayoutManager() instanceof LinearLayoutManager) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                paged.setVisibleRange(layoutManager.findFirstVisibleItemPosition(), layoutManager.findLastVisibleItemPosition());
+            }
+        }
+    };
+
+    /**
+     * Costruttore pubblico di {@link RecyclerViewAdapter}.
+     * @param mainActivity L'activity della lista
+     * @param pageExecutor L'executor su cui leggere le pagine delle stanze mostrate a pagine
+     */
+    public RecyclerViewAdapter(MainActivity mainActivity, Executor pageExecutor) {
+        super(DIFF_CALLBACK);
         this.mainActivity = mainActivity;
-        opere = new ArrayList<>();
-        serviceUuids = new HashMap<>();
+        this.pageExecutor = pageExecutor;
+        setHasStableIds(true);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        recyclerView.addOnScrollListener(scrollListener);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        recyclerView.removeOnScrollListener(scrollListener);
     }
 
     @NonNull
@@ -30,51 +90,163 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapte
     public OperaViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         LayoutInflater inflater = LayoutInflater.from(mainActivity);
         View view = inflater.inflate(R.layout.opera_list_row, parent, false);
-        return new OperaViewHolder(view);
-    }
-
-    @Override
-    public void onBindViewHolder(@NonNull OperaViewHolder holder, int position) {
-        String operaId = opere.get(position).getId();
-        holder.btSwitch.setText(operaId);
-        holder.btSwitch.setChecked(false);
-        serviceUuids.put(operaId, operaId.substring(operaId.length()-4));
+        OperaViewHolder holder = new OperaViewHolder(view);
 
+        // Il listener viene impostato una volta sola e agisce sull'opera legata in quel momento alla riga
         holder.btSwitch.setOnCheckedChangeListener((compoundButton, bChecked) -> {
+            String operaId = holder.operaId;
+            int position = holder.getBindingAdapterPosition();
+            if(operaId == null || position == RecyclerView.NO_POSITION || bChecked == isActive(operaId, position)) {
+                return;     // Cambio fatto dal bind, non dall'utente
+            }
+            if(paged != null) {
+                paged.setActive(position, bChecked);
+            } else {
+                opere.setActive(operaId, bChecked);
+            }
             if(bChecked) {
-                mainActivity.startAdvertising(operaId, serviceUuids.get(operaId));
+                mainActivity.startAdvertising(operaId);
                 Toast.makeText(mainActivity, mainActivity.getString(R.string.bt_started, operaId), Toast.LENGTH_SHORT).show();
             } else {
                 mainActivity.stopAdvertising(operaId);
                 Toast.makeText(mainActivity, mainActivity.getString(R.string.bt_stopped, operaId), Toast.LENGTH_SHORT).show();
             }
         });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull OperaViewHolder holder, int position) {
+        // Con le pagine l'id è null finché la pagina della riga non è stata letta
+        String operaId = paged != null ? paged.getOperaId(position) : getItem(position).getId();
+        holder.operaId = operaId;
+        holder.btSwitch.setText(operaId);
+        holder.btSwitch.setEnabled(operaId != null);
+        holder.btSwitch.setChecked(isActive(operaId, position));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull OperaViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if(payloads.contains(PAYLOAD_STATE)) {
+            holder.btSwitch.setChecked(isActive(holder.operaId, position));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    @Override
+    public long getItemId(int position) {
+        // Le posizioni di una stanza mostrata a pagine non cambiano finché non viene sostituita
+        return paged != null ? position : opere.getStableId(getItem(position).getId());
+    }
+
+    @Override
+    public int getItemCount() {
+        return paged != null ? paged.size() : super.getItemCount();
     }
 
     /**
      * Pulisce la recycler view
      */
     public void clear() {
+        closePaged();
+        opere.clear();
+        submitList(Collections.emptyList());
+    }
+
+    /**
+     * Mostra una stanza già completa leggendone le opere a pagine, attorno alla posizione di scorrimento.
+     * Lo stato delle opere parte tutto spento.
+     * @param source Le opere della stanza
+     */
+    public void showOperas(PagedOperaList.Source source) {
+        closePaged();
         opere.clear();
-        serviceUuids.clear();
+        submitList(null);
+
+        PagedOperaList list = new PagedOperaList(source, pageExecutor, mainActivity::runOnUiThread);
+        list.setListener(new PagedOperaList.Listener() {
+            @Override
+            public void onPageLoaded(int from, int count) {
+                notifyItemRangeChanged(from, count);
+            }
+
+            @Override
+            public void onStateChanged() {
+                notifyItemRangeChanged(0, getItemCount(), PAYLOAD_STATE);
+            }
+        });
+        paged = list;
+        notifyDataSetChanged();
     }
 
     /**
-     * Aggiunge le opere alla recycler view
+     * Aggiunge le opere alla recycler view. Le righe nuove vengono inserite quando il diff in background è pronto.
      * @param opere Le opere da aggiungere
      */
-    public void addOperas(ArrayList<Opera> opere) {
-        RecyclerViewAdapter.opere.addAll(opere);
+    public void addOperas(List<Opera> opere) {
+        closePaged();
+        this.opere.addOperas(opere);
+        submitList(this.opere.snapshot());
     }
 
-    @Override
-    public int getItemCount() {
-        return opere.size();
+    /**
+     * @return Gli id delle opere accese. Con le pagine vengono letti dalla sorgente, uno per opera accesa.
+     */
+    public Set<String> getActiveIds() {
+        return paged != null ? paged.getActiveIds() : opere.getActiveIds();
     }
 
+    /**
+     * Segna come attive o inattive tutte le opere, senza notificare il service
+     * @param isActive true per attivarle, false per disattivarle
+     */
+    public void setAllActive(boolean isActive) {
+        if(paged != null) {
+            paged.setAllActive(isActive);
+        } else {
+            opere.setAllActive(isActive);
+        }
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_STATE);
+    }
+
+    /**
+     * Segna come attive le opere indicate, ad esempio quelle ripristinate dal service. Con le pagine le opere
+     * vengono cercate in background e le righe aggiornate alla fine.
+     * @param operaIds Gli id delle opere attive
+     */
+    public void setActive(Set<String> operaIds) {
+        if(paged != null) {
+            paged.applyActiveIds(operaIds);
+            return;
+        }
+        for(String operaId : operaIds) {
+            opere.setActive(operaId, true);
+        }
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_STATE);
+    }
+
+    private boolean isActive(String operaId, int position) {
+        if(paged != null) {
+            return paged.isActive(position);
+        }
+        return operaId != null && opere.isActive(operaId);
+    }
+
+    /**
+     * Smette di mostrare la stanza a pagine, scartando le pagine lette.
+     */
+    private void closePaged() {
+        if(paged != null) {
+            paged.close();
+            paged = null;
+            notifyDataSetChanged();
+        }
+    }
 
     static class OperaViewHolder extends RecyclerView.ViewHolder {
         SwitchCompat btSwitch;
+        String operaId;
 
         public OperaViewHolder(@NonNull View itemView) {
             super(itemView);
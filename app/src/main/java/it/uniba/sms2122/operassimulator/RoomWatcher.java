@@ -0,0 +1,128 @@
+package it.uniba.sms2122.operassimulator;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Osserva il file della stanza caricata e avvisa quando cambia. Molti content provider non notificano le modifiche,
+ * per cui oltre a registrare un {@link ContentObserver} il file viene controllato periodicamente: la sua impronta è
+ * la dimensione insieme alla data di ultima modifica, se il provider la fornisce.
+ * <br>
+ * I controlli e il listener girano su un thread in background, su cui si può quindi rileggere il file.
+ */
+public class RoomWatcher {
+    private static final String TAG = "RoomWatcher";
+    public static final long DEFAULT_INTERVAL_MILLIS = 2000;
+
+    /**
+     * Listener delle modifiche del file, chiamato sul thread del watcher.
+     */
+    public interface Listener {
+        /**
+         * @param uri L'uri del file modificato.
+         */
+        void onChanged(Uri uri);
+    }
+
+    private final ContentResolver resolver;
+    private final Uri uri;
+    private final Listener listener;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final ContentObserver observer = new ContentObserver(new Handler(Looper.getMainLooper())) {
+        @Override
+        public void onChange(boolean selfChange) {
+            if(!executor.isShutdown()) {
+                executor.execute(RoomWatcher.this::check);
+            }
+        }
+    };
+    private String fingerprint;     // Letta e scritta solo dal thread del watcher
+
+    public RoomWatcher(ContentResolver resolver, Uri uri, Listener listener) {
+        this.resolver = resolver;
+        this.uri = uri;
+        this.listener = listener;
+    }
+
+    /**
+     * Inizia a osservare il file. Il contenuto attuale è quello già caricato, per cui non viene segnalato.
+     * @param intervalMillis Ogni quanto controllare il file.
+     */
+    public void start(long intervalMillis) {
+        executor.execute(() -> fingerprint = readFingerprint());
+        executor.scheduleWithFixedDelay(this::check, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        try {
+            resolver.registerContentObserver(uri, false, observer);
+        } catch(SecurityException ex) {
+            Log.w(TAG, "start: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Smette di osservare il file. Un controllo già in corso può ancora chiamare il listener.
+     */
+    public void stop() {
+        resolver.unregisterContentObserver(observer);
+        executor.shutdownNow();
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    private void check() {
+        String current = readFingerprint();
+        if(current == null || current.equals(fingerprint)) {
+            return;
+        }
+        boolean changed = fingerprint != null;
+        fingerprint = current;
+        if(changed) {
+            Log.i(TAG, "check: " + uri + " changed (" + current + ")");
+            try {
+                listener.onChanged(uri);
+            } catch(RuntimeException ex) {
+                // Un errore nella rilettura non deve fermare il controllo periodico
+                Log.e(TAG, "check: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return La dimensione e la data di ultima modifica del file, oppure null se il provider non le fornisce.
+     */
+    private String readFingerprint() {
+        long size = query(OpenableColumns.SIZE);
+        long lastModified = query(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+        if(size < 0 && lastModified < 0) {
+            return null;
+        }
+        return size + "@" + lastModified;
+    }
+
+    /**
+     * @param column La colonna da leggere, interrogata da sola perché non tutti i provider la supportano.
+     * @return Il valore della colonna, oppure -1 se il provider non la fornisce.
+     */
+    private long query(String column) {
+        try (Cursor cursor = resolver.query(uri, new String[] {column}, null, null, null)) {
+            if(cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } catch(Exception ex) {
+            Log.d(TAG, "query " + column + ": " + ex.getMessage());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,31 @@
+package it.uniba.sms2122.operassimulator.utility;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * {@link TaskScheduler} basato su un {@link Handler}: i task vengono eseguiti sul thread del {@link Looper} indicato.
+ */
+public class HandlerTaskScheduler implements TaskScheduler {
+    private final Handler handler;
+
+    public HandlerTaskScheduler(Looper looper) {
+        handler = new Handler(looper);
+    }
+
+    @Override
+    public long nanoTime() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        handler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        handler.removeCallbacks(task);
+    }
+}
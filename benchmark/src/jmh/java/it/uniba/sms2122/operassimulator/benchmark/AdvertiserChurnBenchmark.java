@@ -0,0 +1,81 @@
+package it.uniba.sms2122.operassimulator.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.radio.PayloadCache;
+import it.uniba.sms2122.operassimulator.radio.SimulatedRadio;
+import it.uniba.sms2122.operassimulator.scheduler.FairnessPolicy;
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+/**
+ * Avvio e stop degli advertiser attraverso la logica del service, su una radio simulata con 4 slot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AdvertiserChurnBenchmark {
+    private static final long DWELL_MILLIS = 100;
+
+    @Param({"4", "64", "1024"})
+    public int operas;
+
+    private VirtualTaskScheduler taskScheduler;
+    private AdvertiserController controller;
+    private String[] operaIds;
+    private String[] serviceUuids;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        taskScheduler = new VirtualTaskScheduler();
+        SimulatedRadio radio = new SimulatedRadio(taskScheduler, 1);
+        radio.setSlots(4);
+        controller = new AdvertiserController(radio, taskScheduler);
+        controller.configureRotation(4, DWELL_MILLIS, FairnessPolicy.ROUND_ROBIN);
+
+        Stanza stanza = Rooms.stanza(operas);
+        controller.loadStanza(stanza);
+        operaIds = new String[operas];
+        serviceUuids = new String[operas];
+        int i = 0;
+        for(Opera opera : stanza.getOpere().values()) {
+            operaIds[i] = opera.getId();
+            serviceUuids[i] = PayloadCache.defaultServiceUuid(opera.getId());
+            controller.startAdvertising(operaIds[i], serviceUuids[i]);
+            i++;
+        }
+        taskScheduler.advanceBy(0);
+    }
+
+    /**
+     * Un toggle off/on di un'opera, come quando si preme due volte lo switch nella lista.
+     */
+    @Benchmark
+    public void toggle() {
+        int index = next++ % operas;
+        controller.stopAdvertising(operaIds[index]);
+        controller.startAdvertising(operaIds[index], serviceUuids[index]);
+        taskScheduler.advanceBy(0);
+    }
+
+    /**
+     * Una rotazione completa degli slot.
+     */
+    @Benchmark
+    public void rotation() {
+        taskScheduler.advanceBy(DWELL_MILLIS);
+    }
+}
@@ -0,0 +1,96 @@
+package it.uniba.sms2122.operassimulator.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.loader.StanzaStreamLoader;
+import it.uniba.sms2122.operassimulator.model.Museo;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.radio.SimulatedRadio;
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+/**
+ * Caricamento di una stanza dal json fino al controller del service, come fa l'app: parsing in streaming,
+ * indice dei service uuid e cache dei payload. {@link #main} stampa l'heap trattenuto per opera dalla stanza,
+ * dal controller con la stanza caricata e da un museo che la contiene, misurato dopo una gc.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoadedRoomBenchmark {
+
+    @Param({"10000", "100000"})
+    public int operas;
+
+    private String json;
+
+    @Setup
+    public void setUp() {
+        json = Rooms.json(operas);
+    }
+
+    @Benchmark
+    public Object loadRoom() throws IOException {
+        Stanza stanza = parse();
+        AdvertiserController controller = newController();
+        controller.loadStanza(stanza);
+        return controller;
+    }
+
+    private Stanza parse() throws IOException {
+        return new StanzaStreamLoader().parse(new StringReader(json));
+    }
+
+    private static AdvertiserController newController() {
+        VirtualTaskScheduler taskScheduler = new VirtualTaskScheduler();
+        return new AdvertiserController(new SimulatedRadio(taskScheduler, 1), taskScheduler);
+    }
+
+    /**
+     * Stampa l'heap trattenuto per opera da una stanza caricata.
+     * @param args Il numero di opere, 100000 se assente.
+     * @throws IOException Mai, il json è in memoria.
+     */
+    public static void main(String[] args) throws IOException {
+        LoadedRoomBenchmark benchmark = new LoadedRoomBenchmark();
+        benchmark.operas = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        benchmark.setUp();
+        AdvertiserController controller = newController();
+
+        long before = usedHeap();
+        Stanza stanza = benchmark.parse();
+        long afterParse = usedHeap();
+        controller.loadStanza(stanza);
+        long afterLoad = usedHeap();
+        Museo museo = Museo.build(Collections.singletonList(stanza));
+        long afterMuseo = usedHeap();
+
+        double operas = benchmark.operas;
+        System.out.printf("stanza             %.1f bytes/opera%n", (afterParse - before) / operas);
+        System.out.printf("controller         %.1f bytes/opera%n", (afterLoad - afterParse) / operas);
+        System.out.printf("museo              %.1f bytes/opera%n", (afterMuseo - afterLoad) / operas);
+        System.out.printf("total              %.1f bytes/opera%n", (afterMuseo - before) / operas);
+        // I riferimenti devono restare vivi fino all'ultima misura
+        System.out.println(stanza.getOpere().size() + controller.getServiceUuidIndex().size() + museo.getOperaCount());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i=0; i<3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
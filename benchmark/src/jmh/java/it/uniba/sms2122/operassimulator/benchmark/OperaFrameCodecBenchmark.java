@@ -0,0 +1,77 @@
+package it.uniba.sms2122.operassimulator.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.codec.OperaFrameCodec;
+import it.uniba.sms2122.operassimulator.codec.OperaFrameParser;
+
+/**
+ * Throughput del codec di {@link OperaFrameCodec} su buffer riusati, come nel ciclo di rotazione e in quello di scansione.
+ * Con il profiler gc {@code gc.alloc.rate.norm} deve restare a 0 byte per operazione.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OperaFrameCodecBenchmark {
+    private static final int PACKED_OPERAS = 16;
+
+    private final byte[] frame = new byte[31];
+    private final byte[] packed = new byte[OperaFrameCodec.packedLength(PACKED_OPERAS)];
+    private final byte[] ids = new byte[PACKED_OPERAS * OperaFrameCodec.ID_LENGTH];
+    private final int[] shortUuids = new int[PACKED_OPERAS];
+    private final char[] chars = new char[OperaFrameCodec.ID_CHARS];
+    private final OperaFrameParser parser = new OperaFrameParser();
+    private String operaId;
+
+    @Setup
+    public void setUp() {
+        operaId = Rooms.operaId(1);
+        OperaFrameCodec.encodeFrame(operaId, 0x1234, frame, 0);
+        for(int i=0; i<PACKED_OPERAS; i++) {
+            OperaFrameCodec.encodeId(Rooms.operaId(i), ids, i * OperaFrameCodec.ID_LENGTH);
+            shortUuids[i] = 0x1000 + i;
+        }
+        OperaFrameCodec.encodePackedFrame(ids, shortUuids, PACKED_OPERAS, packed, 0);
+    }
+
+    @Benchmark
+    public byte[] encodeFrame() {
+        OperaFrameCodec.encodeFrame(operaId, 0x1234, frame, 0);
+        return frame;
+    }
+
+    /**
+     * Il lavoro dello scanner per ogni pacchetto ricevuto: lettura e decodifica dell'id.
+     */
+    @Benchmark
+    public char[] parseFrame() {
+        if(parser.parse(frame) > 0) {
+            parser.decodeId(0, chars, 0);
+        }
+        return chars;
+    }
+
+    @Benchmark
+    public byte[] encodePackedFrame() {
+        OperaFrameCodec.encodePackedFrame(ids, shortUuids, PACKED_OPERAS, packed, 0);
+        return packed;
+    }
+
+    @Benchmark
+    public int parsePackedFrame() {
+        int count = parser.parse(packed);
+        int uuids = 0;
+        for(int i=0; i<count; i++) {
+            uuids += parser.getShortUuid(i);
+        }
+        return uuids;
+    }
+}
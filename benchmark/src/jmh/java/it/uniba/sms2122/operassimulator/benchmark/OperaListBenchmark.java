@@ -0,0 +1,60 @@
+package it.uniba.sms2122.operassimulator.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.list.OperaListModel;
+import it.uniba.sms2122.operassimulator.model.Opera;
+
+/**
+ * Riempimento e svuotamento della lista delle opere, cioè quello che fanno
+ * {@code RecyclerViewAdapter.addOperas} e {@code RecyclerViewAdapter.clear}, più il primo bind di ogni riga
+ * (id stabile e stato dello switch).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OperaListBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int operas;
+
+    private List<Opera> opere;
+    private final OperaListModel model = new OperaListModel();
+
+    @Setup
+    public void setUp() {
+        opere = new ArrayList<>(Rooms.stanza(operas).getOpere().values());
+    }
+
+    @Benchmark
+    public int addAndClear() {
+        model.addOperas(opere);
+        int size = model.size();
+        model.clear();
+        return size;
+    }
+
+    @Benchmark
+    public int addBindAndClear() {
+        model.addOperas(opere);
+        int size = model.size();
+        for(int i=0; i<size; i++) {
+            String operaId = model.get(i).getId();
+            model.getStableId(operaId);
+            model.isActive(operaId);
+        }
+        model.clear();
+        return size;
+    }
+}
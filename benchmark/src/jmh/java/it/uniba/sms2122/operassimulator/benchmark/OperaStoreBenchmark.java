@@ -0,0 +1,94 @@
+package it.uniba.sms2122.operassimulator.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.model.OperaStore;
+
+/**
+ * Costo per opera dell'indice da id a slot: la {@code HashMap<String, Integer>} usata prima dallo store degli stati
+ * e l'{@link OperaStore}. Gli id vengono letti come stringhe nuove, come dal parser, per cui con il profiler gc
+ * {@code gc.alloc.rate.norm / operas} misura i byte di heap per opera, stringhe comprese nella versione con la mappa.
+ * {@link #main} stampa invece l'heap trattenuto, misurato dopo una gc.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OperaStoreBenchmark {
+
+    @Param({"10000", "100000"})
+    public int operas;
+
+    private char[][] ids;
+
+    @Setup
+    public void setUp() {
+        ids = new char[operas][];
+        for(int i=0; i<operas; i++) {
+            ids[i] = Rooms.operaId(i).toCharArray();
+        }
+    }
+
+    @Benchmark
+    public Object hashMap() {
+        Map<String, Integer> indices = new HashMap<>();
+        for(char[] id : ids) {
+            String operaId = new String(id);
+            if(!indices.containsKey(operaId)) {
+                indices.put(operaId, indices.size());
+            }
+        }
+        return indices;
+    }
+
+    @Benchmark
+    public Object operaStore() {
+        OperaStore store = new OperaStore();
+        for(char[] id : ids) {
+            store.add(new String(id));
+        }
+        return store;
+    }
+
+    /**
+     * Stampa l'heap trattenuto per opera dalle due rappresentazioni.
+     * @param args Il numero di opere, 100000 se assente.
+     */
+    public static void main(String[] args) {
+        int operas = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        OperaStoreBenchmark benchmark = new OperaStoreBenchmark();
+        benchmark.operas = operas;
+        benchmark.setUp();
+
+        List<Object> kept = new ArrayList<>();
+        long before = usedHeap();
+        kept.add(benchmark.hashMap());
+        long afterMap = usedHeap();
+        kept.add(benchmark.operaStore());
+        long afterStore = usedHeap();
+
+        System.out.printf("HashMap<String, Integer>  %.1f bytes/opera%n", (afterMap - before) / (double) operas);
+        System.out.printf("OperaStore                %.1f bytes/opera (arrays %.1f)%n", (afterStore - afterMap) / (double) operas,
+                ((OperaStore) kept.get(1)).getFootprintBytes() / (double) operas);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i=0; i<3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
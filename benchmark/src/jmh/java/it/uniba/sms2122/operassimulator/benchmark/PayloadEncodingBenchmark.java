@@ -0,0 +1,57 @@
+package it.uniba.sms2122.operassimulator.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.radio.OperaPayload;
+import it.uniba.sms2122.operassimulator.radio.PayloadCache;
+
+/**
+ * Conversione dell'id esadecimale di un'opera nei 20 byte di service data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PayloadEncodingBenchmark {
+    private String operaId;
+    private PayloadCache payloadCache;
+
+    @Setup
+    public void setUp() {
+        operaId = Rooms.operaId(1);
+        payloadCache = new PayloadCache();
+        payloadCache.preload(Rooms.stanza(2));
+    }
+
+    /**
+     * La conversione che faceva {@code OperaAdvertiser.startAdvertising} ad ogni avvio, come riferimento.
+     */
+    @Benchmark
+    public byte[] legacyEncoding() {
+        byte[] serviceData = new byte[20];
+        for(int i=0; i<serviceData.length; i++) {
+            serviceData[i] = (byte) (Integer.parseInt(operaId.toUpperCase().substring(i*2, i*2+2), 16) & 0xFF);
+        }
+        return serviceData;
+    }
+
+    @Benchmark
+    public byte[] encodeServiceData() {
+        return OperaPayload.encodeServiceData(operaId);
+    }
+
+    /**
+     * Il percorso di un riavvio: il payload viene solo letto dalla cache.
+     */
+    @Benchmark
+    public OperaPayload cachedPayload() {
+        return payloadCache.get(operaId, PayloadCache.defaultServiceUuid(operaId));
+    }
+}
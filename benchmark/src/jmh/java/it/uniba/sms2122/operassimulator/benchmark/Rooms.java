@@ -0,0 +1,50 @@
+package it.uniba.sms2122.operassimulator.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+
+/**
+ * Genera stanze sintetiche per i benchmark, sempre uguali a parità di dimensione.
+ */
+final class Rooms {
+
+    private Rooms() { }
+
+    /**
+     * @param index L'indice dell'opera.
+     * @return Un id di 40 caratteri esadecimali, come quelli dei file json reali.
+     */
+    static String operaId(int index) {
+        Random random = new Random(index);
+        StringBuilder operaId = new StringBuilder(40);
+        for(int i=0; i<40; i++) {
+            operaId.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return operaId.toString();
+    }
+
+    static Stanza stanza(int operas) {
+        Map<String, Opera> opere = new LinkedHashMap<>();
+        for(int i=0; i<operas; i++) {
+            opere.put("opera" + i, new Opera(operaId(i)));
+        }
+        return new Stanza("stanza", "Sala " + operas, "Stanza generata per i benchmark", opere);
+    }
+
+    static String json(int operas) {
+        StringBuilder json = new StringBuilder(operas * 64);
+        json.append("{\"id\":\"stanza\",\"nome\":\"Sala ").append(operas)
+                .append("\",\"descrizione\":\"Stanza generata per i benchmark\",\"opere\":{");
+        for(int i=0; i<operas; i++) {
+            if(i > 0) {
+                json.append(',');
+            }
+            json.append("\"opera").append(i).append("\":{\"id\":\"").append(operaId(i)).append("\"}");
+        }
+        return json.append("}}").toString();
+    }
+}
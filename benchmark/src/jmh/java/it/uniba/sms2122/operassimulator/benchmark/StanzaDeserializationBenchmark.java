@@ -0,0 +1,90 @@
+package it.uniba.sms2122.operassimulator.benchmark;
+
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.catalog.CatalogConverter;
+import it.uniba.sms2122.operassimulator.catalog.RoomCatalog;
+import it.uniba.sms2122.operassimulator.loader.StanzaStreamLoader;
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+
+/**
+ * Deserializzazione del file json di una stanza, con Gson e con il loader in streaming,
+ * confrontata con l'apertura e la lettura completa del catalogo binario.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StanzaDeserializationBenchmark {
+    private static final StanzaStreamLoader.Listener IGNORE = new StanzaStreamLoader.Listener() {
+        @Override
+        public void onBatch(List<Opera> batch) { }
+
+        @Override
+        public void onProgress(long readChars, long totalChars) { }
+
+        @Override
+        public void onComplete(Stanza stanza) { }
+
+        @Override
+        public void onError(Exception exception) { }
+    };
+
+    @Param({"100", "10000", "100000"})
+    public int operas;
+
+    private String json;
+    private ByteBuffer catalog;
+    private final Gson gson = new Gson();
+    private final StanzaStreamLoader loader = new StanzaStreamLoader();
+
+    @Setup
+    public void setUp() throws IOException {
+        json = Rooms.json(operas);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CatalogConverter.write(Rooms.stanza(operas), out);
+        catalog = ByteBuffer.allocateDirect(out.size());
+        catalog.put(out.toByteArray());
+    }
+
+    @Benchmark
+    public Stanza gson() {
+        return gson.fromJson(new StringReader(json), Stanza.class);
+    }
+
+    @Benchmark
+    public Stanza streaming() throws IOException {
+        return loader.parse(new StringReader(json), json.length(), IGNORE);
+    }
+
+    @Benchmark
+    public RoomCatalog catalogOpen() throws IOException {
+        return new RoomCatalog(catalog);
+    }
+
+    @Benchmark
+    public int catalogScan() throws IOException {
+        RoomCatalog room = new RoomCatalog(catalog);
+        int hash = 0;
+        for(Opera opera : room.asList()) {
+            hash += opera.getId().hashCode();
+        }
+        return hash;
+    }
+}
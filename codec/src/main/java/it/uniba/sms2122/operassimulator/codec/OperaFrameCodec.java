@@ -0,0 +1,240 @@
+package it.uniba.sms2122.operassimulator.codec;
+
+/**
+ * Il formato con cui un'opera viene trasmessa via bluetooth, senza dipendenze da Android.
+ * <br>
+ * L'id dell'opera, 40 caratteri esadecimali, diventa 20 byte di service data associati a un service uuid a 16 bit.
+ * L'uuid a 16 bit è l'abbreviazione dell'uuid a 128 bit {@code 0000xxxx-0000-1000-8000-00805F9B34FB}, ottenuto dal
+ * Bluetooth Base UUID sostituendo i bit 96..111. Nei dati di advertising un'opera occupa due strutture AD:
+ * <pre>
+ *   03 03 uu uu              lista completa dei service uuid a 16 bit (little endian)
+ *   17 16 uu uu id*20        service data per l'uuid a 16 bit
+ * </pre>
+ * in tutto {@value #FRAME_LENGTH} byte, entro i 31 di un advertising legacy. Un set esteso trasmette più opere
+ * con una sola lista degli uuid, seguita dal service data di ciascuna.
+ * <br>
+ * Tutti i metodi lavorano su array forniti dal chiamante e non allocano nulla: si possono usare nel ciclo di
+ * scansione o di rotazione senza generare garbage. Per la lettura dei dati ricevuti vedi {@link OperaFrameParser}.
+ */
+public final class OperaFrameCodec {
+    /**
+     * La lunghezza in byte dell'id di un'opera, e quindi del suo service data.
+     */
+    public static final int ID_LENGTH = 20;
+
+    /**
+     * La lunghezza in caratteri dell'id esadecimale di un'opera.
+     */
+    public static final int ID_CHARS = ID_LENGTH * 2;
+
+    public static final int AD_TYPE_INCOMPLETE_16BIT_UUIDS = 0x02;
+    public static final int AD_TYPE_COMPLETE_16BIT_UUIDS = 0x03;
+    public static final int AD_TYPE_SERVICE_DATA_16BIT = 0x16;
+
+    /**
+     * I byte del service data di un'opera: lunghezza, tipo, uuid e id.
+     */
+    public static final int SERVICE_DATA_AD_LENGTH = 1 + 1 + 2 + ID_LENGTH;
+
+    /**
+     * I byte della lista degli uuid, esclusi i 2 di ogni uuid.
+     */
+    public static final int UUID_LIST_OVERHEAD = 2;
+
+    /**
+     * I byte dei dati di advertising di una sola opera.
+     */
+    public static final int FRAME_LENGTH = UUID_LIST_OVERHEAD + 2 + SERVICE_DATA_AD_LENGTH;
+
+    /**
+     * La metà meno significativa del Bluetooth Base UUID, comune a tutti gli uuid a 16 bit.
+     */
+    public static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long SHORT_UUID_MASK = 0xFFFF00000000L;
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private OperaFrameCodec() { }
+
+    /**
+     * Scrive i 20 byte dell'id di un'opera.
+     * @param operaId L'id, di esattamente 40 caratteri esadecimali ASCII, maiuscoli o minuscoli.
+     * @param dst L'array di destinazione.
+     * @param offset La posizione da cui scrivere.
+     * @return La posizione dopo l'ultimo byte scritto.
+     * @throws IllegalArgumentException Se l'id non è lungo 40 caratteri o non è esadecimale. In questo caso dst può essere stato scritto in parte.
+     */
+    public static int encodeId(CharSequence operaId, byte[] dst, int offset) {
+        if(operaId == null || operaId.length() != ID_CHARS) {
+            throw new IllegalArgumentException("opera id must have " + ID_CHARS + " hex chars: " + operaId);
+        }
+        for(int i=0; i<ID_LENGTH; i++) {
+            int high = hexDigit(operaId.charAt(i*2));
+            int low = hexDigit(operaId.charAt(i*2+1));
+            if(high < 0 || low < 0) {
+                throw new IllegalArgumentException("opera id is not hexadecimal: " + operaId);
+            }
+            dst[offset + i] = (byte) ((high << 4) | low);
+        }
+        return offset + ID_LENGTH;
+    }
+
+    /**
+     * Scrive l'id di un'opera in esadecimale minuscolo.
+     * @param src L'array con i 20 byte dell'id.
+     * @param srcOffset La posizione del primo byte.
+     * @param dst L'array di caratteri di destinazione, con almeno 40 posizioni libere.
+     * @param dstOffset La posizione da cui scrivere.
+     * @return La posizione dopo l'ultimo carattere scritto.
+     */
+    public static int decodeId(byte[] src, int srcOffset, char[] dst, int dstOffset) {
+        for(int i=0; i<ID_LENGTH; i++) {
+            int b = src[srcOffset + i] & 0xFF;
+            dst[dstOffset + i*2] = DIGITS[b >>> 4];
+            dst[dstOffset + i*2 + 1] = DIGITS[b & 0x0F];
+        }
+        return dstOffset + ID_CHARS;
+    }
+
+    /**
+     * @param serviceUuid Il service uuid a 16 bit, di 4 caratteri esadecimali.
+     * @return Il valore dell'uuid, tra 0 e 0xFFFF.
+     * @throws IllegalArgumentException Se l'uuid non è di 4 caratteri esadecimali.
+     */
+    public static int parseShortUuid(CharSequence serviceUuid) {
+        if(serviceUuid == null || serviceUuid.length() != 4) {
+            throw new IllegalArgumentException("service uuid must have 4 hex chars: " + serviceUuid);
+        }
+        int uuid = 0;
+        for(int i=0; i<4; i++) {
+            int digit = hexDigit(serviceUuid.charAt(i));
+            if(digit < 0) {
+                throw new IllegalArgumentException("service uuid is not hexadecimal: " + serviceUuid);
+            }
+            uuid = (uuid << 4) | digit;
+        }
+        return uuid;
+    }
+
+    /**
+     * Come {@link Character#digit(char, int)} in base 16, ma accetta solo le cifre ASCII: le cifre Unicode come
+     * quelle a larghezza piena non fanno parte di un id.
+     * @return Il valore della cifra, o -1 se il carattere non è una cifra esadecimale ASCII.
+     */
+    private static int hexDigit(char c) {
+        if(c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if(c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if(c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * @param shortUuid Il service uuid a 16 bit.
+     * @return La metà più significativa dell'uuid a 128 bit corrispondente; l'altra è {@link #BASE_UUID_LSB}.
+     */
+    public static long uuidMostSignificantBits(int shortUuid) {
+        return ((long) (shortUuid & 0xFFFF) << 32) | BASE_UUID_MSB;
+    }
+
+    /**
+     * @param mostSignificantBits La metà più significativa di un uuid a 128 bit.
+     * @param leastSignificantBits La metà meno significativa.
+     * @return L'uuid a 16 bit, oppure -1 se l'uuid non deriva dal Bluetooth Base UUID.
+     */
+    public static int shortUuidOf(long mostSignificantBits, long leastSignificantBits) {
+        if(leastSignificantBits != BASE_UUID_LSB || (mostSignificantBits & ~SHORT_UUID_MASK) != BASE_UUID_MSB) {
+            return -1;
+        }
+        return (int) (mostSignificantBits >>> 32) & 0xFFFF;
+    }
+
+    /**
+     * Scrive i dati di advertising di una sola opera: la lista con il suo uuid e il suo service data.
+     * @param operaId L'id dell'opera.
+     * @param shortUuid Il service uuid a 16 bit.
+     * @param dst L'array di destinazione, con almeno {@value #FRAME_LENGTH} posizioni libere.
+     * @param offset La posizione da cui scrivere.
+     * @return La posizione dopo l'ultimo byte scritto.
+     */
+    public static int encodeFrame(CharSequence operaId, int shortUuid, byte[] dst, int offset) {
+        dst[offset] = 3;
+        dst[offset + 1] = AD_TYPE_COMPLETE_16BIT_UUIDS;
+        writeShortUuid(shortUuid, dst, offset + 2);
+        return encodeServiceData(operaId, shortUuid, dst, offset + 4);
+    }
+
+    /**
+     * Scrive i dati di advertising di più opere, come in un set esteso: una sola lista con tutti gli uuid,
+     * seguita dal service data di ogni opera.
+     * @param ids I 20 byte dell'id di ogni opera, uno di seguito all'altro.
+     * @param shortUuids Il service uuid a 16 bit di ogni opera, tutti diversi.
+     * @param count Il numero di opere.
+     * @param dst L'array di destinazione, con almeno {@link #packedLength(int)} posizioni libere.
+     * @param offset La posizione da cui scrivere.
+     * @return La posizione dopo l'ultimo byte scritto.
+     */
+    public static int encodePackedFrame(byte[] ids, int[] shortUuids, int count, byte[] dst, int offset) {
+        if(count < 1 || 1 + count * 2 > 0xFF) {
+            throw new IllegalArgumentException("invalid opera count " + count);
+        }
+        dst[offset] = (byte) (1 + count * 2);
+        dst[offset + 1] = AD_TYPE_COMPLETE_16BIT_UUIDS;
+        int position = offset + 2;
+        for(int i=0; i<count; i++) {
+            position = writeShortUuid(shortUuids[i], dst, position);
+        }
+        for(int i=0; i<count; i++) {
+            dst[position] = SERVICE_DATA_AD_LENGTH - 1;
+            dst[position + 1] = AD_TYPE_SERVICE_DATA_16BIT;
+            writeShortUuid(shortUuids[i], dst, position + 2);
+            System.arraycopy(ids, i * ID_LENGTH, dst, position + 4, ID_LENGTH);
+            position += SERVICE_DATA_AD_LENGTH;
+        }
+        return position;
+    }
+
+    /**
+     * @param count Il numero di opere.
+     * @return I byte dei dati di advertising di un set con tante opere.
+     */
+    public static int packedLength(int count) {
+        return UUID_LIST_OVERHEAD + count * (2 + SERVICE_DATA_AD_LENGTH);
+    }
+
+    /**
+     * Scrive la struttura AD del service data di un'opera, senza la lista degli uuid.
+     * @param operaId L'id dell'opera.
+     * @param shortUuid Il service uuid a 16 bit.
+     * @param dst L'array di destinazione, con almeno {@value #SERVICE_DATA_AD_LENGTH} posizioni libere.
+     * @param offset La posizione da cui scrivere.
+     * @return La posizione dopo l'ultimo byte scritto.
+     */
+    public static int encodeServiceData(CharSequence operaId, int shortUuid, byte[] dst, int offset) {
+        dst[offset] = SERVICE_DATA_AD_LENGTH - 1;
+        dst[offset + 1] = AD_TYPE_SERVICE_DATA_16BIT;
+        writeShortUuid(shortUuid, dst, offset + 2);
+        return encodeId(operaId, dst, offset + 4);
+    }
+
+    /**
+     * @param src L'array di origine.
+     * @param offset La posizione del primo byte.
+     * @return L'uuid a 16 bit, letto in little endian come nei dati di advertising.
+     */
+    public static int readShortUuid(byte[] src, int offset) {
+        return (src[offset] & 0xFF) | (src[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int writeShortUuid(int shortUuid, byte[] dst, int offset) {
+        dst[offset] = (byte) shortUuid;
+        dst[offset + 1] = (byte) (shortUuid >>> 8);
+        return offset + 2;
+    }
+}
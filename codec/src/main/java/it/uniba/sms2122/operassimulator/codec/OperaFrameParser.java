@@ -0,0 +1,184 @@
+package it.uniba.sms2122.operassimulator.codec;
+
+/**
+ * Legge le opere dai dati di advertising grezzi, come li riceve uno scanner (ad esempio
+ * {@code ScanRecord.getBytes()} su Android). Il parser è riusabile: le posizioni delle opere trovate vengono tenute
+ * in array allocati una volta sola, e gli id restano nell'array letto, da cui si copiano o decodificano
+ * in buffer del chiamante. Leggere un pacchetto non alloca quindi nulla.
+ * <br>
+ * Sono opere i service data a 16 bit lunghi esattamente 20 byte. Le altre strutture AD vengono saltate,
+ * e la lettura si ferma alla prima struttura di lunghezza 0 (il riempimento finale) o che esce dai dati.
+ * <br>
+ * Il parser non è thread safe: ogni thread di scansione deve averne uno.
+ */
+public final class OperaFrameParser {
+    /**
+     * Il numero massimo di opere di default: quante ne entrano nei 1650 byte di un advertising esteso.
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final int[] idOffsets;
+    private final int[] shortUuids;
+    private final int[] listedUuids;
+    private byte[] data;
+    private int count;
+    private int listedCount;
+    private boolean truncated;
+    private boolean complete;
+
+    public OperaFrameParser() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Il numero massimo di opere lette da un pacchetto. Le opere oltre questo numero vengono ignorate.
+     */
+    public OperaFrameParser(int capacity) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        idOffsets = new int[capacity];
+        shortUuids = new int[capacity];
+        listedUuids = new int[capacity];
+    }
+
+    /**
+     * Legge i dati di advertising di un pacchetto. I risultati restano validi fino alla lettura successiva,
+     * e si riferiscono all'array indicato, che nel frattempo non va modificato.
+     * @param data I dati di advertising.
+     * @param offset La posizione della prima struttura AD.
+     * @param length La lunghezza dei dati.
+     * @return Il numero di opere trovate.
+     */
+    public int parse(byte[] data, int offset, int length) {
+        this.data = data;
+        count = 0;
+        listedCount = 0;
+        truncated = false;
+        complete = false;
+
+        int end = offset + length;
+        int position = offset;
+        while(position < end) {
+            int adLength = data[position] & 0xFF;
+            if(adLength == 0) {
+                break;      // Riempimento
+            }
+            if(position + 1 + adLength > end) {
+                truncated = true;
+                break;
+            }
+            int type = data[position + 1] & 0xFF;
+            int payload = position + 2;
+            int payloadLength = adLength - 1;
+
+            if(type == OperaFrameCodec.AD_TYPE_SERVICE_DATA_16BIT && payloadLength == 2 + OperaFrameCodec.ID_LENGTH) {
+                if(count < idOffsets.length) {
+                    shortUuids[count] = OperaFrameCodec.readShortUuid(data, payload);
+                    idOffsets[count] = payload + 2;
+                    count++;
+                } else {
+                    truncated = true;
+                }
+            } else if(type == OperaFrameCodec.AD_TYPE_COMPLETE_16BIT_UUIDS || type == OperaFrameCodec.AD_TYPE_INCOMPLETE_16BIT_UUIDS) {
+                complete |= type == OperaFrameCodec.AD_TYPE_COMPLETE_16BIT_UUIDS;
+                for(int i=0; i+1<payloadLength && listedCount<listedUuids.length; i+=2) {
+                    listedUuids[listedCount++] = OperaFrameCodec.readShortUuid(data, payload + i);
+                }
+            }
+            position += 1 + adLength;
+        }
+        return count;
+    }
+
+    /**
+     * @param data I dati di advertising, dall'inizio alla fine dell'array.
+     * @return Il numero di opere trovate.
+     */
+    public int parse(byte[] data) {
+        return parse(data, 0, data.length);
+    }
+
+    /**
+     * @return Il numero di opere trovate nell'ultima lettura.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @param index L'indice dell'opera, tra 0 e {@link #getCount()} escluso.
+     * @return Il service uuid a 16 bit dell'opera.
+     */
+    public int getShortUuid(int index) {
+        checkIndex(index);
+        return shortUuids[index];
+    }
+
+    /**
+     * @param index L'indice dell'opera.
+     * @return La posizione dei 20 byte dell'id nell'array letto.
+     */
+    public int getIdOffset(int index) {
+        checkIndex(index);
+        return idOffsets[index];
+    }
+
+    /**
+     * Copia i 20 byte dell'id di un'opera.
+     * @param index L'indice dell'opera.
+     * @param dst L'array di destinazione.
+     * @param offset La posizione da cui scrivere.
+     * @return La posizione dopo l'ultimo byte scritto.
+     */
+    public int copyId(int index, byte[] dst, int offset) {
+        System.arraycopy(data, getIdOffset(index), dst, offset, OperaFrameCodec.ID_LENGTH);
+        return offset + OperaFrameCodec.ID_LENGTH;
+    }
+
+    /**
+     * Scrive l'id di un'opera in esadecimale minuscolo.
+     * @param index L'indice dell'opera.
+     * @param dst L'array di caratteri di destinazione, con almeno 40 posizioni libere.
+     * @param offset La posizione da cui scrivere.
+     * @return La posizione dopo l'ultimo carattere scritto.
+     */
+    public int decodeId(int index, char[] dst, int offset) {
+        return OperaFrameCodec.decodeId(data, getIdOffset(index), dst, offset);
+    }
+
+    /**
+     * @param index L'indice dell'opera.
+     * @return true se l'uuid dell'opera è anche nella lista dei service uuid, come nei pacchetti del simulatore.
+     */
+    public boolean isListed(int index) {
+        int shortUuid = getShortUuid(index);
+        for(int i=0; i<listedCount; i++) {
+            if(listedUuids[i] == shortUuid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true se il pacchetto contiene la lista completa dei service uuid a 16 bit.
+     */
+    public boolean hasCompleteUuidList() {
+        return complete;
+    }
+
+    /**
+     * @return true se l'ultima lettura si è fermata su una struttura che usciva dai dati, o ha ignorato opere
+     * oltre la capacità del parser.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index " + index + ", count " + count);
+        }
+    }
+}
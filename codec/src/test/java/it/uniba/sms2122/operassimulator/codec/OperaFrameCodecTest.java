@@ -0,0 +1,185 @@
+package it.uniba.sms2122.operassimulator.codec;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Proprietà di andata e ritorno su id e uuid casuali, con un seme fisso per rendere ripetibili i fallimenti.
+ */
+public class OperaFrameCodecTest {
+    private static final int ROUNDS = 2000;
+
+    private final Random random = new Random(22);
+
+    @Test
+    public void idsSurviveEncodeAndDecode() {
+        byte[] bytes = new byte[OperaFrameCodec.ID_LENGTH + 3];
+        char[] chars = new char[OperaFrameCodec.ID_CHARS + 5];
+        for(int i=0; i<ROUNDS; i++) {
+            String id = randomId();
+            assertEquals(3 + OperaFrameCodec.ID_LENGTH, OperaFrameCodec.encodeId(id, bytes, 3));
+            assertEquals(5 + OperaFrameCodec.ID_CHARS, OperaFrameCodec.decodeId(bytes, 3, chars, 5));
+            assertEquals(id, new String(chars, 5, OperaFrameCodec.ID_CHARS));
+
+            OperaFrameCodec.encodeId(id.toUpperCase(), bytes, 3);
+            OperaFrameCodec.decodeId(bytes, 3, chars, 5);
+            assertEquals(id, new String(chars, 5, OperaFrameCodec.ID_CHARS));
+        }
+    }
+
+    @Test
+    public void framesAreReadBackByTheParser() {
+        byte[] frame = new byte[31];
+        char[] chars = new char[OperaFrameCodec.ID_CHARS];
+        OperaFrameParser parser = new OperaFrameParser();
+        for(int i=0; i<ROUNDS; i++) {
+            String id = randomId();
+            int shortUuid = random.nextInt(0x10000);
+            assertEquals(OperaFrameCodec.FRAME_LENGTH, OperaFrameCodec.encodeFrame(id, shortUuid, frame, 0));
+
+            // Il resto del pacchetto legacy è riempito di zeri, come lo riceve lo scanner
+            assertEquals(1, parser.parse(frame));
+            assertEquals(shortUuid, parser.getShortUuid(0));
+            assertTrue(parser.isListed(0));
+            assertTrue(parser.hasCompleteUuidList());
+            assertFalse(parser.isTruncated());
+            parser.decodeId(0, chars, 0);
+            assertEquals(id, new String(chars));
+        }
+    }
+
+    @Test
+    public void packedFramesKeepEveryOpera() {
+        OperaFrameParser parser = new OperaFrameParser();
+        char[] chars = new char[OperaFrameCodec.ID_CHARS];
+        byte[] copy = new byte[OperaFrameCodec.ID_LENGTH];
+        for(int round=0; round<200; round++) {
+            int count = 1 + random.nextInt(OperaFrameParser.DEFAULT_CAPACITY);
+            String[] operaIds = new String[count];
+            byte[] ids = new byte[count * OperaFrameCodec.ID_LENGTH];
+            int[] shortUuids = new int[count];
+            for(int i=0; i<count; i++) {
+                operaIds[i] = randomId();
+                OperaFrameCodec.encodeId(operaIds[i], ids, i * OperaFrameCodec.ID_LENGTH);
+                shortUuids[i] = (round * 64 + i) & 0xFFFF;
+            }
+            byte[] data = new byte[OperaFrameCodec.packedLength(count) + 2];
+            int end = OperaFrameCodec.encodePackedFrame(ids, shortUuids, count, data, 2);
+            assertEquals(data.length, end);
+
+            assertEquals(count, parser.parse(data, 2, data.length - 2));
+            for(int i=0; i<count; i++) {
+                assertEquals(shortUuids[i], parser.getShortUuid(i));
+                assertTrue(parser.isListed(i));
+                parser.decodeId(i, chars, 0);
+                assertEquals(operaIds[i], new String(chars));
+                parser.copyId(i, copy, 0);
+                for(int b=0; b<OperaFrameCodec.ID_LENGTH; b++) {
+                    assertEquals(ids[i * OperaFrameCodec.ID_LENGTH + b], copy[b]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shortUuidsMatchTheBluetoothBaseUuid() {
+        for(int i=0; i<ROUNDS; i++) {
+            int shortUuid = random.nextInt(0x10000);
+            String text = String.format("%04x", shortUuid);
+            UUID expected = UUID.fromString("0000" + text + "-0000-1000-8000-00805F9B34FB");
+
+            assertEquals(shortUuid, OperaFrameCodec.parseShortUuid(text));
+            assertEquals(shortUuid, OperaFrameCodec.parseShortUuid(text.toUpperCase()));
+            assertEquals(expected.getMostSignificantBits(), OperaFrameCodec.uuidMostSignificantBits(shortUuid));
+            assertEquals(expected.getLeastSignificantBits(), OperaFrameCodec.BASE_UUID_LSB);
+            assertEquals(shortUuid, OperaFrameCodec.shortUuidOf(expected.getMostSignificantBits(), expected.getLeastSignificantBits()));
+        }
+        UUID custom = UUID.randomUUID();
+        assertEquals(-1, OperaFrameCodec.shortUuidOf(custom.getMostSignificantBits(), custom.getLeastSignificantBits()));
+        assertEquals(-1, OperaFrameCodec.shortUuidOf(OperaFrameCodec.uuidMostSignificantBits(1) | 1L << 60, OperaFrameCodec.BASE_UUID_LSB));
+    }
+
+    @Test
+    public void invalidIdsAreRejected() {
+        byte[] bytes = new byte[OperaFrameCodec.ID_LENGTH];
+        String[] invalid = { null, "", randomId().substring(1), randomId().substring(1) + "g", " " + randomId().substring(1),
+                randomId() + "0", randomId() + randomId(), "\uFF10" + randomId().substring(1), randomId().substring(1) + "\u0660" };
+        for(String id : invalid) {
+            try {
+                OperaFrameCodec.encodeId(id, bytes, 0);
+                fail(id);
+            } catch(IllegalArgumentException ex) {
+                // Atteso
+            }
+        }
+        for(String uuid : new String[] { null, "123", "12345", "12g4", "12\uFF134" }) {
+            try {
+                OperaFrameCodec.parseShortUuid(uuid);
+                fail(uuid);
+            } catch(IllegalArgumentException ex) {
+                // Atteso
+            }
+        }
+    }
+
+    @Test
+    public void truncatedAndForeignDataIsSkipped() {
+        byte[] frame = new byte[OperaFrameCodec.FRAME_LENGTH];
+        OperaFrameCodec.encodeFrame(randomId(), 0x1234, frame, 0);
+        OperaFrameParser parser = new OperaFrameParser();
+
+        assertEquals(0, parser.parse(frame, 0, frame.length - 1));
+        assertTrue(parser.isTruncated());
+        assertTrue(parser.hasCompleteUuidList());
+
+        // Flag e manufacturer data prima dell'opera
+        byte[] mixed = new byte[3 + 5 + OperaFrameCodec.FRAME_LENGTH];
+        mixed[0] = 2; mixed[1] = 0x01; mixed[2] = 0x06;
+        mixed[3] = 4; mixed[4] = (byte) 0xFF; mixed[5] = 0x4C; mixed[6] = 0x00; mixed[7] = 0x02;
+        System.arraycopy(frame, 0, mixed, 8, frame.length);
+        assertEquals(1, parser.parse(mixed));
+        assertEquals(0x1234, parser.getShortUuid(0));
+        assertFalse(parser.isTruncated());
+
+        OperaFrameParser small = new OperaFrameParser(1);
+        byte[] ids = new byte[2 * OperaFrameCodec.ID_LENGTH];
+        byte[] packed = new byte[OperaFrameCodec.packedLength(2)];
+        OperaFrameCodec.encodePackedFrame(ids, new int[] { 1, 2 }, 2, packed, 0);
+        assertEquals(1, small.parse(packed));
+        assertTrue(small.isTruncated());
+        try {
+            small.getShortUuid(1);
+            fail();
+        } catch(IndexOutOfBoundsException ex) {
+            // Atteso
+        }
+    }
+
+    @Test
+    public void randomBytesNeverBreakTheParser() {
+        OperaFrameParser parser = new OperaFrameParser(4);
+        char[] chars = new char[OperaFrameCodec.ID_CHARS];
+        for(int i=0; i<ROUNDS * 5; i++) {
+            byte[] data = new byte[random.nextInt(64)];
+            random.nextBytes(data);
+            int count = parser.parse(data);
+            assertTrue(count <= 4);
+            for(int j=0; j<count; j++) {
+                assertTrue(parser.getIdOffset(j) + OperaFrameCodec.ID_LENGTH <= data.length);
+                parser.decodeId(j, chars, 0);
+            }
+        }
+    }
+
+    private String randomId() {
+        StringBuilder id = new StringBuilder(OperaFrameCodec.ID_CHARS);
+        for(int i=0; i<OperaFrameCodec.ID_CHARS; i++) {
+            id.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return id.toString();
+    }
+}
@@ -0,0 +1,192 @@
+package it.uniba.sms2122.operassimulator.catalog;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import it.uniba.sms2122.operassimulator.loader.StanzaStreamLoader;
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.utility.HexId;
+
+/**
+ * Conversione tra il file json di una stanza e il {@link RoomCatalog} binario.
+ * <br>
+ * Gli id delle opere devono essere di 40 caratteri esadecimali, e nel catalogo vengono salvati in minuscolo.
+ * Da riga di comando: {@code CatalogConverter stanza.json stanza.bin} o {@code CatalogConverter stanza.bin stanza.json}.
+ */
+public final class CatalogConverter {
+
+    private CatalogConverter() { }
+
+    /**
+     * Scrive il catalogo binario di una stanza.
+     * @param stanza La stanza.
+     * @param out Lo stream su cui scrivere. Non viene chiuso.
+     * @throws IOException Se la scrittura fallisce.
+     * @throws IllegalArgumentException Se l'id di un'opera non è di 40 caratteri esadecimali.
+     */
+    public static void write(Stanza stanza, OutputStream out) throws IOException {
+        Map<String, Opera> opere = stanza.getOpere() != null ? stanza.getOpere() : Collections.emptyMap();
+        Strings strings = new Strings();
+        int idString = strings.indexOf(stanza.getId());
+        int nomeString = strings.indexOf(stanza.getNome());
+        int descrizioneString = strings.indexOf(stanza.getDescrizione());
+
+        byte[] records = new byte[opere.size() * RoomCatalog.RECORD_SIZE];
+        int offset = 0;
+        for(Map.Entry<String, Opera> entry : opere.entrySet()) {
+            String operaId = entry.getValue().getId() != null ? entry.getValue().getId().toLowerCase(Locale.ROOT) : null;
+            if(!HexId.isEncodable(operaId)) {
+                throw new IllegalArgumentException("opera id must have " + HexId.LENGTH * 2 + " hex chars: " + entry.getValue().getId());
+            }
+            HexId.encode(operaId, records, offset);
+            int key = entry.getKey().equals(operaId) ? RoomCatalog.NO_STRING : strings.indexOf(entry.getKey());
+            records[offset + HexId.LENGTH] = (byte) (key >>> 24);
+            records[offset + HexId.LENGTH + 1] = (byte) (key >>> 16);
+            records[offset + HexId.LENGTH + 2] = (byte) (key >>> 8);
+            records[offset + HexId.LENGTH + 3] = (byte) key;
+            offset += RoomCatalog.RECORD_SIZE;
+        }
+
+        int recordsOffset = RoomCatalog.HEADER_SIZE;
+        int stringsOffset = recordsOffset + records.length;
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(RoomCatalog.MAGIC);
+        data.writeInt(RoomCatalog.VERSION);
+        data.writeInt(opere.size());
+        data.writeInt(recordsOffset);
+        data.writeInt(stringsOffset);
+        data.writeInt(strings.size());
+        data.writeInt(idString);
+        data.writeInt(nomeString);
+        data.writeInt(descrizioneString);
+        data.write(records);
+
+        int stringOffset = stringsOffset + strings.size() * 4;
+        for(byte[] string : strings.encoded) {
+            data.writeInt(stringOffset);
+            stringOffset += 2 + string.length;
+        }
+        for(byte[] string : strings.encoded) {
+            data.writeShort(string.length);
+            data.write(string);
+        }
+        data.flush();
+    }
+
+    /**
+     * Converte il file json di una stanza in un catalogo binario.
+     * @param json Il reader del file json.
+     * @param out Lo stream su cui scrivere il catalogo. Non viene chiuso.
+     * @throws IOException Se la lettura o la scrittura falliscono.
+     */
+    public static void jsonToCatalog(Reader json, OutputStream out) throws IOException {
+        Stanza stanza = new StanzaStreamLoader().parse(json, -1, new StanzaStreamLoader.Listener() {
+            @Override
+            public void onBatch(List<Opera> batch) { }
+
+            @Override
+            public void onProgress(long readChars, long totalChars) { }
+
+            @Override
+            public void onComplete(Stanza stanza) { }
+
+            @Override
+            public void onError(Exception exception) { }
+        });
+        write(stanza, out);
+    }
+
+    /**
+     * Converte un catalogo binario nel file json della stanza.
+     * @param catalog Il catalogo.
+     * @param out Il writer su cui scrivere il json. Non viene chiuso.
+     * @throws IOException Se la scrittura fallisce.
+     */
+    public static void catalogToJson(RoomCatalog catalog, Writer out) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject();
+        json.name("id").value(catalog.getId());
+        json.name("nome").value(catalog.getNome());
+        json.name("descrizione").value(catalog.getDescrizione());
+        json.name("opere").beginObject();
+        for(int i=0; i<catalog.size(); i++) {
+            json.name(catalog.getKey(i)).beginObject();
+            json.name("id").value(catalog.getOperaId(i));
+            json.endObject();
+        }
+        json.endObject();
+        json.endObject();
+        json.flush();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length != 2) {
+            System.err.println("usage: CatalogConverter <input.json|input.bin> <output.bin|output.json>");
+            System.exit(2);
+        }
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+        try (FileInputStream in = new FileInputStream(input)) {
+            FileChannel channel = in.getChannel();
+            if(RoomCatalog.isCatalog(channel)) {
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8)) {
+                    catalogToJson(RoomCatalog.map(channel), writer);
+                }
+            } else {
+                try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+                     OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+                    jsonToCatalog(reader, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * La tabella delle stringhe, senza duplicati.
+     */
+    private static class Strings {
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final List<byte[]> encoded = new ArrayList<>();
+
+        private int indexOf(String string) {
+            if(string == null) {
+                return RoomCatalog.NO_STRING;
+            }
+            Integer index = indices.get(string);
+            if(index == null) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                if(bytes.length > 0xFFFF) {
+                    throw new IllegalArgumentException("string too long for the catalog: " + bytes.length + " bytes");
+                }
+                index = encoded.size();
+                indices.put(string, index);
+                encoded.add(bytes);
+            }
+            return index;
+        }
+
+        private int size() {
+            return encoded.size();
+        }
+    }
+}
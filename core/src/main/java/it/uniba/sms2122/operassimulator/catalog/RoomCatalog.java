@@ -0,0 +1,231 @@
+package it.uniba.sms2122.operassimulator.catalog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.utility.HexId;
+
+/**
+ * Catalogo binario di una stanza, letto da un {@link ByteBuffer}, tipicamente mappato in memoria da un file.
+ * <br>
+ * Formato (big endian):
+ * <pre>
+ * header   magic "OSC1", versione, numero di opere, offset dei record, offset della tabella delle stringhe,
+ *          numero di stringhe, indici delle stringhe di id, nome e descrizione della stanza
+ * record   per ogni opera, 20 byte dell'id e l'indice della stringa della chiave (-1 se la chiave è l'id)
+ * stringhe gli offset assoluti di ogni stringa, poi le stringhe: lunghezza in byte (unsigned short) e UTF-8
+ * </pre>
+ * Aprire il catalogo legge solo l'header: le opere vengono materializzate solo quando servono, per cui una stanza
+ * di 100000 opere non occupa heap finché non viene scorsa.
+ */
+public class RoomCatalog {
+    static final int MAGIC = 0x4F534331;     // "OSC1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 36;
+    static final int RECORD_SIZE = HexId.LENGTH + 4;
+    static final int NO_STRING = -1;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int recordsOffset;
+    private final int stringsOffset;
+    private final int stringCount;
+    private final String id;
+    private final String nome;
+    private final String descrizione;
+
+    /**
+     * Costruttore pubblico di {@link RoomCatalog}.
+     * @param buffer Il contenuto del catalogo. Il buffer non viene copiato, e la sua posizione non viene usata.
+     * @throws IOException Se il buffer non contiene un catalogo valido.
+     */
+    public RoomCatalog(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if(buffer.limit() < HEADER_SIZE || this.buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a room catalog");
+        }
+        if(this.buffer.getInt(4) != VERSION) {
+            throw new IOException("unsupported catalog version: " + this.buffer.getInt(4));
+        }
+        size = this.buffer.getInt(8);
+        recordsOffset = this.buffer.getInt(12);
+        stringsOffset = this.buffer.getInt(16);
+        stringCount = this.buffer.getInt(20);
+        if(size < 0 || stringCount < 0 || recordsOffset < HEADER_SIZE
+                || (long) recordsOffset + (long) size * RECORD_SIZE > stringsOffset
+                || (long) stringsOffset + stringCount * 4L > buffer.limit()) {
+            throw new IOException("corrupted room catalog");
+        }
+        id = getString(this.buffer.getInt(24));
+        nome = getString(this.buffer.getInt(28));
+        descrizione = getString(this.buffer.getInt(32));
+    }
+
+    /**
+     * Mappa in memoria un catalogo. Il canale si può chiudere subito dopo: la mappatura resta valida.
+     * @param channel Il canale del file.
+     * @return Il catalogo.
+     * @throws IOException Se il file non si può mappare o non contiene un catalogo valido.
+     */
+    public static RoomCatalog map(FileChannel channel) throws IOException {
+        return new RoomCatalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+
+    /**
+     * Controlla se un file è un catalogo binario, leggendone solo i primi byte.
+     * @param channel Il canale del file. La sua posizione non viene modificata.
+     * @return true se il file inizia con il magic del catalogo.
+     * @throws IOException Se il file non si può leggere.
+     */
+    public static boolean isCatalog(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(4);
+        while(head.hasRemaining()) {
+            if(channel.read(head, head.position()) < 0) {
+                return false;
+            }
+        }
+        return head.getInt(0) == MAGIC;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getNome() {
+        return nome;
+    }
+
+    public String getDescrizione() {
+        return descrizione;
+    }
+
+    /**
+     * @return Il numero di opere.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index L'indice dell'opera, nell'ordine della stanza.
+     * @return L'id dell'opera.
+     */
+    public String getOperaId(int index) {
+        return HexId.decode(buffer, recordOffset(index));
+    }
+
+    /**
+     * @param index L'indice dell'opera, nell'ordine della stanza.
+     * @return La chiave dell'opera nella mappa delle opere della stanza.
+     */
+    public String getKey(int index) {
+        int key = buffer.getInt(recordOffset(index) + HexId.LENGTH);
+        return key == NO_STRING ? getOperaId(index) : getString(key);
+    }
+
+    /**
+     * @param index L'indice dell'opera, nell'ordine della stanza.
+     * @return Una nuova {@link Opera}.
+     */
+    public Opera getOpera(int index) {
+        return new Opera(getOperaId(index));
+    }
+
+    /**
+     * @return Una vista delle opere, materializzate solo quando vengono lette. La lista non è modificabile.
+     */
+    public List<Opera> asList() {
+        return new AbstractList<Opera>() {
+            @Override
+            public Opera get(int index) {
+                return getOpera(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return La stanza del catalogo. La mappa delle opere è una vista di sola lettura, come {@link #asList()}.
+     */
+    public Stanza asStanza() {
+        return new Stanza(id, nome, descrizione, new CatalogMap());
+    }
+
+    private int recordOffset(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        return recordsOffset + index * RECORD_SIZE;
+    }
+
+    private String getString(int index) {
+        if(index == NO_STRING) {
+            return null;
+        }
+        if(index < 0 || index >= stringCount) {
+            throw new IndexOutOfBoundsException("string: " + index + ", strings: " + stringCount);
+        }
+        int offset = buffer.getInt(stringsOffset + index * 4);
+        int length = buffer.getShort(offset) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset + 2);
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * La mappa delle opere della stanza, chiave per chiave, letta dal catalogo durante l'iterazione.
+     */
+    private class CatalogMap extends AbstractMap<String, Opera> {
+        private final Set<Map.Entry<String, Opera>> entries = new AbstractSet<Map.Entry<String, Opera>>() {
+            @Override
+            public Iterator<Map.Entry<String, Opera>> iterator() {
+                return new Iterator<Map.Entry<String, Opera>>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Opera> next() {
+                        if(next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        int index = next++;
+                        return new SimpleImmutableEntry<>(getKey(index), getOpera(index));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+
+        @Override
+        public Set<Map.Entry<String, Opera>> entrySet() {
+            return entries;
+        }
+    }
+}
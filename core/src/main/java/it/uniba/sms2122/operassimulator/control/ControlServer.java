@@ -0,0 +1,640 @@
+package it.uniba.sms2122.operassimulator.control;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserCommandQueue;
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.controller.StanzaDiff;
+import it.uniba.sms2122.operassimulator.model.OperaMap;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.radio.RadioProfile;
+import it.uniba.sms2122.operassimulator.scheduler.AdvertisingScheduler;
+
+/**
+ * Server HTTP minimale, in ascolto solo sull'interfaccia di loopback, per pilotare il controller da un banco di test
+ * (ad esempio dopo un {@code adb forward}). Non serve nessuna libreria: le richieste sono poche e semplici.
+ * <ul>
+ *     <li>{@code POST /commands}: un array json di comandi, eseguiti in ordine sul thread del controller come un unico
+ *     comando della {@link AdvertiserCommandQueue}. La risposta è un array con l'esito di ogni comando.</li>
+ *     <li>{@code GET /status}: la stanza caricata e il numero di opere attive e in onda.</li>
+ *     <li>{@code GET /events}: uno stream chunked di eventi json, uno per riga, finché il client non chiude.</li>
+ * </ul>
+ * I comandi sono oggetti con un campo {@code op}: {@code load}, {@code reload} e {@code switch} con la stanza in {@code room};
+ * {@code start}, {@code stop} e {@code apply} con gli id in {@code operas}; {@code startAll}, {@code stopAll};
+ * {@code profile} con {@code operas}, {@code txPower} e {@code interval}, o senza questi ultimi per tornare al default;
+ * {@code lowPower} con {@code enabled}.
+ * <br>
+ * Le connessioni restano aperte tra una richiesta e l'altra, per cui un client può inviare centinaia di comandi
+ * al secondo anche senza raggrupparli.
+ * <br>
+ * Il loopback è raggiungibile da qualsiasi app del telefono e dalle pagine aperte nel browser, per cui ogni richiesta
+ * deve portare nell'header {@value #TOKEN_HEADER} il token generato all'apertura del server ({@link #getToken()}),
+ * e le richieste con un header {@code Origin}, cioè quelle fatte da un browser, vengono rifiutate.
+ */
+public class ControlServer {
+    public static final int DEFAULT_PORT = 8765;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+    public static final String TOKEN_HEADER = "X-Control-Token";
+    private static final int MAX_BODY_BYTES = 512 * 1024;
+    private static final int TOKEN_BYTES = 16;
+    private static final int MAX_LINE_BYTES = 8192;
+    private static final int EVENT_QUEUE_SIZE = 4096;
+
+    /**
+     * Listener dei blocchi di comandi eseguiti, chiamato sul thread del controller.
+     */
+    public interface Listener {
+        /**
+         * @param commands Il numero di comandi del blocco.
+         */
+        void onBatchExecuted(int commands);
+    }
+
+    private final AdvertiserController controller;
+    private final AdvertiserCommandQueue commands;
+    private final Gson gson = new Gson();
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final Set<Socket> clients = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private final AdvertisingScheduler.Listener onAirListener = operaId -> publish("onAir", operaId);
+
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+    private volatile byte[] token;
+    private volatile Listener listener;
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    /**
+     * Costruttore pubblico di {@link ControlServer}.
+     * @param controller Il controller da pilotare.
+     * @param commands La coda dei comandi del controller, usata per eseguirli sul suo thread.
+     */
+    public ControlServer(AdvertiserController controller, AdvertiserCommandQueue commands) {
+        this.controller = controller;
+        this.commands = commands;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param timeoutMillis Quanto aspettare l'esecuzione di un blocco di comandi prima di rispondere con un errore.
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Apre il server sull'interfaccia di loopback.
+     * @param port La porta, oppure 0 per una porta libera qualsiasi.
+     * @return La porta su cui il server è in ascolto.
+     * @throws IOException Se la porta non si può aprire.
+     */
+    public synchronized int start(int port) throws IOException {
+        if(serverSocket != null) {
+            throw new IllegalStateException("server already started");
+        }
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder(TOKEN_BYTES * 2);
+        for(byte b : random) {
+            hex.append(String.format(Locale.ROOT, "%02x", b & 0xFF));
+        }
+        token = hex.toString().getBytes(StandardCharsets.ISO_8859_1);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "control-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        commands.execute(() -> controller.addOnAirListener(onAirListener));
+        ServerSocket socket = serverSocket;
+        executor.execute(() -> accept(socket));
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Chiude il server e tutte le connessioni aperte, compresi gli stream di eventi.
+     */
+    public synchronized void stop() {
+        if(serverSocket == null) {
+            return;
+        }
+        closeQuietly(serverSocket);
+        for(Socket client : clients) {
+            closeQuietly(client);
+        }
+        executor.shutdownNow();
+        commands.execute(() -> controller.removeOnAirListener(onAirListener));
+        serverSocket = null;
+        executor = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return serverSocket != null;
+    }
+
+    /**
+     * @return Il token che le richieste devono portare nell'header {@value #TOKEN_HEADER}, generato a ogni apertura
+     * del server, oppure null se il server non è mai stato aperto.
+     */
+    public String getToken() {
+        byte[] token = this.token;
+        return token != null ? new String(token, StandardCharsets.ISO_8859_1) : null;
+    }
+
+    /**
+     * Manda un evento a tutti gli stream aperti. Se un client non legge abbastanza in fretta, i suoi eventi in eccesso
+     * vengono scartati e contati, senza rallentare il thread del controller.
+     * @param event Il nome dell'evento.
+     * @param operaId L'opera a cui si riferisce, o null.
+     */
+    public void publish(String event, String operaId) {
+        if(subscribers.isEmpty()) {
+            return;
+        }
+        String line = eventLine(event, operaId, System.nanoTime());
+        for(Subscriber subscriber : subscribers) {
+            if(!subscriber.queue.offer(line)) {
+                subscriber.dropped.incrementAndGet();
+            }
+        }
+    }
+
+    private void accept(ServerSocket socket) {
+        while(!socket.isClosed()) {
+            try {
+                Socket client = socket.accept();
+                client.setTcpNoDelay(true);
+                clients.add(client);
+                executor.execute(() -> serve(client));
+            } catch(IOException ex) {
+                // Il server è stato chiuso
+                return;
+            } catch(RuntimeException ex) {
+                // L'executor è stato fermato mentre arrivava una connessione
+                return;
+            }
+        }
+    }
+
+    /**
+     * Serve le richieste di una connessione, finché il client non la chiude.
+     */
+    private void serve(Socket client) {
+        try (Socket socket = client;
+             InputStream in = new BufferedInputStream(socket.getInputStream());
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+            while(true) {
+                Request request;
+                try {
+                    request = Request.read(in);
+                } catch(ProtocolException ex) {
+                    // Il resto della richiesta non si può separare dalla successiva: si risponde e si chiude
+                    respond(out, 400, error(ex.getMessage()), false);
+                    return;
+                }
+                if(request == null) {
+                    return;
+                }
+                if(request.origin) {
+                    respond(out, 403, error("cross-origin requests are not allowed"), false);
+                    return;
+                }
+                if(request.token == null || !MessageDigest.isEqual(token, request.token.getBytes(StandardCharsets.ISO_8859_1))) {
+                    respond(out, 401, error("missing or wrong " + TOKEN_HEADER), false);
+                    return;
+                }
+                if(request.method.equals("GET") && request.path.equals("/events")) {
+                    streamEvents(out);
+                    return;
+                }
+                handle(request, out);
+                if(!request.keepAlive) {
+                    return;
+                }
+            }
+        } catch(IOException ex) {
+            // Connessione chiusa dal client o dallo stop del server
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private void handle(Request request, OutputStream out) throws IOException {
+        if(request.method.equals("POST") && request.path.equals("/commands")) {
+            JsonArray batch;
+            try {
+                JsonElement body = JsonParser.parseString(new String(request.body, StandardCharsets.UTF_8));
+                if(body.isJsonArray()) {
+                    batch = body.getAsJsonArray();
+                } else if(body.isJsonObject()) {
+                    batch = new JsonArray();
+                    batch.add(body);
+                } else {
+                    throw new JsonParseException("expected an array of commands");
+                }
+            } catch(JsonParseException | IllegalStateException ex) {
+                respond(out, 400, error(ex.getMessage()), request.keepAlive);
+                return;
+            }
+            Future<String> results = commands.submit(() -> execute(batch));
+            try {
+                respond(out, 200, results.get(timeoutMillis, TimeUnit.MILLISECONDS), request.keepAlive);
+            } catch(TimeoutException ex) {
+                respond(out, 503, error("controller timeout"), request.keepAlive);
+            } catch(ExecutionException ex) {
+                respond(out, 500, error(String.valueOf(ex.getCause())), request.keepAlive);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("server stopped");
+            }
+        } else if(request.method.equals("GET") && request.path.equals("/status")) {
+            try {
+                respond(out, 200, commands.submit(this::status).get(timeoutMillis, TimeUnit.MILLISECONDS), request.keepAlive);
+            } catch(TimeoutException | ExecutionException ex) {
+                respond(out, 503, error("controller timeout"), request.keepAlive);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("server stopped");
+            }
+        } else {
+            respond(out, 404, error("unknown endpoint " + request.method + " " + request.path), request.keepAlive);
+        }
+    }
+
+    /**
+     * Esegue un blocco di comandi. Gira sul thread del controller.
+     * @return L'array json degli esiti.
+     */
+    private String execute(JsonArray batch) throws IOException {
+        StringWriter buffer = new StringWriter();
+        JsonWriter writer = new JsonWriter(buffer);
+        writer.beginArray();
+        for(JsonElement element : batch) {
+            writer.beginObject();
+            try {
+                executeCommand(element.getAsJsonObject(), writer);
+                writer.name("ok").value(true);
+            } catch(RuntimeException ex) {
+                writer.name("ok").value(false);
+                writer.name("error").value(String.valueOf(ex.getMessage()));
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.flush();
+
+        Listener listener = this.listener;
+        if(listener != null) {
+            listener.onBatchExecuted(batch.size());
+        }
+        return buffer.toString();
+    }
+
+    private void executeCommand(JsonObject command, JsonWriter writer) throws IOException {
+        String op = command.has("op") ? command.get("op").getAsString() : "";
+        switch(op) {
+            case "load": {
+                Stanza stanza = readRoom(command);
+                controller.loadStanza(stanza);
+                publish("load", null);
+                writer.name("operas").value(stanza.getOpere().size());
+                break;
+            }
+            case "reload":
+            case "switch": {
+                Stanza stanza = readRoom(command);
+                StanzaDiff diff = op.equals("reload") ? controller.reloadStanza(stanza) : controller.switchRoom(stanza, null);
+                publish(op, null);
+                writer.name("added").value(diff.getAdded().size());
+                writer.name("removed").value(diff.getRemoved().size());
+                break;
+            }
+            case "start":
+                for(String operaId : readOperas(command)) {
+                    controller.startAdvertising(operaId, null);
+                }
+                break;
+            case "stop":
+                for(String operaId : readOperas(command)) {
+                    controller.stopAdvertising(operaId);
+                }
+                break;
+            case "apply":
+                controller.applyState(readOperas(command), null);
+                break;
+            case "startAll":
+                requireRoom();
+                controller.startAll(controller.getStanza(), null);
+                break;
+            case "stopAll":
+                controller.stopAll(null);
+                break;
+            case "profile": {
+                RadioProfile profile = RadioProfile.DEFAULT;
+                if(command.has("txPower") || command.has("interval")) {
+                    if(!command.has("txPower") || !command.has("interval")) {
+                        throw new IllegalArgumentException("profile needs both txPower and interval");
+                    }
+                    profile = new RadioProfile(command.get("txPower").getAsInt(), command.get("interval").getAsInt());
+                }
+                for(String operaId : readOperas(command)) {
+                    controller.setRadioProfile(operaId, profile);
+                }
+                break;
+            }
+            case "lowPower":
+                if(!command.has("enabled")) {
+                    throw new IllegalArgumentException("missing enabled");
+                }
+                controller.setLowPowerMode(command.get("enabled").getAsBoolean());
+                break;
+            default:
+                throw new IllegalArgumentException("unknown op '" + op + "'");
+        }
+    }
+
+    private Stanza readRoom(JsonObject command) {
+        if(!command.has("room") || !command.get("room").isJsonObject()) {
+            throw new IllegalArgumentException("missing room");
+        }
+        Stanza stanza = gson.fromJson(command.get("room"), Stanza.class);
+        // Le opere lette da Gson passano in un OperaMap, come quelle dei file
+        stanza.setOpere(stanza.getOpere() != null ? new OperaMap(stanza.getOpere()) : new OperaMap());
+        return stanza;
+    }
+
+    private static Set<String> readOperas(JsonObject command) {
+        if(!command.has("operas") || !command.get("operas").isJsonArray()) {
+            throw new IllegalArgumentException("missing operas");
+        }
+        Set<String> operaIds = new LinkedHashSet<>();
+        for(JsonElement operaId : command.getAsJsonArray("operas")) {
+            operaIds.add(operaId.getAsString());
+        }
+        return operaIds;
+    }
+
+    private void requireRoom() {
+        if(controller.getStanza() == null) {
+            throw new IllegalStateException("no room loaded");
+        }
+    }
+
+    /**
+     * @return Lo stato del controller in json. Gira sul thread del controller.
+     */
+    private String status() {
+        AdvertisingScheduler scheduler = controller.getScheduler();
+        JsonObject status = new JsonObject();
+        Stanza stanza = controller.getStanza();
+        status.addProperty("room", stanza != null ? stanza.getId() : null);
+        status.addProperty("operas", stanza != null && stanza.getOpere() != null ? stanza.getOpere().size() : 0);
+        status.addProperty("active", scheduler.size());
+        status.addProperty("onAir", scheduler.getOnAirCount());
+        status.addProperty("slots", scheduler.getSlots());
+        status.addProperty("lowPower", controller.isLowPowerMode());
+        return gson.toJson(status);
+    }
+
+    /**
+     * Tiene aperta la risposta chunked e vi scrive gli eventi man mano che arrivano, finché il client non chiude.
+     */
+    private void streamEvents(OutputStream out) throws IOException {
+        out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/x-ndjson\r\nTransfer-Encoding: chunked\r\n"
+                + "Cache-Control: no-cache\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        Subscriber subscriber = new Subscriber();
+        subscribers.add(subscriber);
+        try {
+            writeChunk(out, eventLine("hello", null, System.nanoTime()));
+            out.flush();
+            List<String> lines = new ArrayList<>();
+            while(true) {
+                String line = subscriber.queue.poll(1, TimeUnit.SECONDS);
+                if(line == null) {
+                    // Nessun evento: una riga vuota fa scoprire se il client ha chiuso
+                    writeChunk(out, "\n");
+                    out.flush();
+                    continue;
+                }
+                lines.add(line);
+                subscriber.queue.drainTo(lines);
+                int dropped = subscriber.dropped.getAndSet(0);
+                if(dropped > 0) {
+                    lines.add(String.format(Locale.ROOT, "{\"event\":\"dropped\",\"count\":%d}\n", dropped));
+                }
+                StringBuilder chunk = new StringBuilder();
+                for(String pending : lines) {
+                    chunk.append(pending);
+                }
+                lines.clear();
+                writeChunk(out, chunk.toString());
+                out.flush();
+            }
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscribers.remove(subscriber);
+        }
+    }
+
+    private static String eventLine(String event, String operaId, long nanoTime) {
+        StringBuilder line = new StringBuilder(96);
+        line.append("{\"event\":\"").append(event).append('"');
+        if(operaId != null) {
+            line.append(",\"opera\":").append(new JsonPrimitive(operaId));
+        }
+        return line.append(",\"t\":").append(nanoTime).append("}\n").toString();
+    }
+
+    private static void writeChunk(OutputStream out, String text) throws IOException {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        out.write((Integer.toHexString(data.length) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.write(data);
+        out.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static void respond(OutputStream out, int status, String body, boolean keepAlive) throws IOException {
+        byte[] data = body.getBytes(StandardCharsets.UTF_8);
+        String header = "HTTP/1.1 " + status + " " + reason(status) + "\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + data.length + "\r\n"
+                + (keepAlive ? "" : "Connection: close\r\n")
+                + "\r\n";
+        out.write(header.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(data);
+        out.flush();
+    }
+
+    private static String reason(int status) {
+        switch(status) {
+            case 200: return "OK";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 503: return "Service Unavailable";
+            default: return "Internal Server Error";
+        }
+    }
+
+    private String error(String message) {
+        JsonObject error = new JsonObject();
+        error.addProperty("error", message);
+        return gson.toJson(error);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch(IOException ex) {
+            // Nulla da fare
+        }
+    }
+
+    /**
+     * La coda degli eventi di uno stream aperto.
+     */
+    private static class Subscriber {
+        private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(EVENT_QUEUE_SIZE);
+        private final AtomicInteger dropped = new AtomicInteger();
+    }
+
+    /**
+     * Una richiesta HTTP/1.1, con il corpo già letto.
+     */
+    private static class Request {
+        private String method;
+        private String path;
+        private boolean keepAlive;
+        private boolean origin;
+        private String token;
+        private byte[] body;
+
+        /**
+         * @return La richiesta, oppure null se il client ha chiuso la connessione.
+         * @throws ProtocolException Se la richiesta non è valida.
+         * @throws IOException Se la connessione si interrompe.
+         */
+        private static Request read(InputStream in) throws IOException {
+            String requestLine = readLine(in);
+            if(requestLine == null) {
+                return null;
+            }
+            String[] parts = requestLine.split(" ");
+            if(parts.length != 3) {
+                throw new ProtocolException("malformed request line: " + requestLine);
+            }
+            Request request = new Request();
+            request.method = parts[0];
+            int query = parts[1].indexOf('?');
+            request.path = query >= 0 ? parts[1].substring(0, query) : parts[1];
+            request.keepAlive = parts[2].equals("HTTP/1.1");
+
+            int contentLength = 0;
+            String line;
+            while((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if(colon < 0) {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = line.substring(colon + 1).trim();
+                if(name.equals("content-length")) {
+                    try {
+                        contentLength = Integer.parseInt(value);
+                    } catch(NumberFormatException ex) {
+                        throw new ProtocolException("invalid content length " + value);
+                    }
+                } else if(name.equals("origin")) {
+                    request.origin = true;
+                } else if(name.equals(TOKEN_HEADER.toLowerCase(Locale.ROOT))) {
+                    request.token = value;
+                } else if(name.equals("connection")) {
+                    request.keepAlive = !value.equalsIgnoreCase("close")
+                            && (request.keepAlive || value.equalsIgnoreCase("keep-alive"));
+                } else if(name.equals("transfer-encoding")) {
+                    throw new ProtocolException("chunked requests are not supported");
+                }
+            }
+            if(contentLength < 0 || contentLength > MAX_BODY_BYTES) {
+                throw new ProtocolException("invalid content length " + contentLength);
+            }
+
+            request.body = new byte[contentLength];
+            int read = 0;
+            while(read < contentLength) {
+                int count = in.read(request.body, read, contentLength - read);
+                if(count < 0) {
+                    throw new IOException("connection closed while reading the body");
+                }
+                read += count;
+            }
+            return request;
+        }
+
+        /**
+         * @return La riga senza il terminatore, oppure null se lo stream è finito prima di qualsiasi carattere.
+         */
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+            int c;
+            while((c = in.read()) >= 0) {
+                if(c == '\n') {
+                    break;
+                }
+                if(line.size() >= MAX_LINE_BYTES) {
+                    throw new ProtocolException("header line too long");
+                }
+                line.write(c);
+            }
+            if(c < 0 && line.size() == 0) {
+                return null;
+            }
+            String text = new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+            return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package it.uniba.sms2122.operassimulator.controller;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import it.uniba.sms2122.operassimulator.metrics.AdvertiserMetrics;
+import it.uniba.sms2122.operassimulator.utility.TaskScheduler;
+
+/**
+ * Coda dei comandi per l'{@link AdvertiserController}. I comandi possono essere accodati da qualsiasi thread,
+ * ma vengono eseguiti solo sul thread del {@link TaskScheduler} del controller, a blocchi di {@code batchSize} per tick.
+ * <br>
+ * I comandi di accensione e spegnimento di una stessa opera ancora in coda vengono fusi: alla radio arriva solo lo stato finale.
+ * Gli altri comandi fanno da barriera, per cui l'ordine tra, ad esempio, il caricamento di una stanza e i toggle
+ * delle sue opere viene rispettato.
+ * <br>
+ * Il tempo di attesa di ogni comando e lo stato della coda vengono registrati nelle {@link AdvertiserMetrics} del controller.
+ * Un comando che termina con un'eccezione viene contato nelle metriche e notificato al {@link Listener}, e la coda
+ * prosegue con i comandi successivi.
+ */
+public class AdvertiserCommandQueue {
+    /**
+     * Listener dei comandi falliti.
+     */
+    public interface Listener {
+        /**
+         * Un comando è terminato con un'eccezione. Viene chiamato sul thread del controller.
+         * @param ex L'eccezione lanciata dal comando.
+         */
+        void onCommandFailed(RuntimeException ex);
+    }
+
+    public static final long DEFAULT_TICK_MILLIS = 20;
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final AdvertiserController controller;
+    private final TaskScheduler taskScheduler;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Command> pending = new ArrayDeque<>();
+    private final Map<String, Toggle> pendingToggles = new HashMap<>();   // I toggle in coda dopo l'ultima barriera
+    private boolean tickScheduled = false;
+    private long tickMillis = DEFAULT_TICK_MILLIS;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private long enqueued = 0;
+    private long coalesced = 0;
+    private long executed = 0;
+    private int maxDepth = 0;
+    private volatile Listener listener;
+
+    private final Runnable tickTask = this::tick;
+
+    /**
+     * Costruttore pubblico di {@link AdvertiserCommandQueue}.
+     * @param controller Il controller su cui eseguire i comandi.
+     * @param taskScheduler Lo scheduler del thread su cui vive il controller.
+     */
+    public AdvertiserCommandQueue(AdvertiserController controller, TaskScheduler taskScheduler) {
+        this.controller = controller;
+        this.taskScheduler = taskScheduler;
+    }
+
+    /**
+     * @param tickMillis Ogni quanti millisecondi viene eseguito un blocco di comandi. È anche la finestra entro cui
+     *                   i toggle di una stessa opera vengono fusi.
+     * @param batchSize Il numero massimo di comandi eseguiti per tick.
+     */
+    public void configure(long tickMillis, int batchSize) {
+        if(tickMillis < 0 || batchSize < 1) {
+            throw new IllegalArgumentException("invalid tick configuration");
+        }
+        synchronized(lock) {
+            this.tickMillis = tickMillis;
+            this.batchSize = batchSize;
+        }
+    }
+
+    /**
+     * @param listener Il listener dei comandi falliti, o null.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Accoda l'accensione o lo spegnimento di un'opera. Se c'è già un toggle in coda per la stessa opera,
+     * viene sostituito da questo.
+     * @param operaId L'id dell'opera.
+     * @param serviceUuid Il service uuid dell'opera, o null per quello assegnato dalla stanza; serve solo per l'accensione.
+     * @param active true per accendere l'opera, false per spegnerla.
+     */
+    public void setActive(String operaId, String serviceUuid, boolean active) {
+        synchronized(lock) {
+            enqueued++;
+            Toggle toggle = pendingToggles.get(operaId);
+            if(toggle != null) {
+                toggle.active = active;
+                if(serviceUuid != null) {
+                    toggle.serviceUuid = serviceUuid;
+                }
+                coalesced++;
+                return;
+            }
+
+            toggle = new Toggle(operaId, serviceUuid, active, taskScheduler.nanoTime());
+            pendingToggles.put(operaId, toggle);
+            append(toggle);
+        }
+    }
+
+    /**
+     * Accoda lo spegnimento di tutte le opere. I toggle ancora in coda vengono scartati, perché sarebbero annullati.
+     */
+    public void stopAll() {
+        synchronized(lock) {
+            enqueued++;
+            Iterator<Command> iterator = pending.iterator();
+            while(iterator.hasNext()) {
+                if(iterator.next() instanceof Toggle) {
+                    iterator.remove();
+                    coalesced++;
+                }
+            }
+            pendingToggles.clear();
+            append(new Command(controller::stopAllAdvertising, taskScheduler.nanoTime()));
+        }
+    }
+
+    /**
+     * Accoda un comando generico, da eseguire sul thread del controller dopo quelli già in coda.
+     * @param command Il comando.
+     */
+    public void execute(Runnable command) {
+        synchronized(lock) {
+            enqueued++;
+            pendingToggles.clear();
+            append(new Command(command, taskScheduler.nanoTime()));
+        }
+    }
+
+    /**
+     * Accoda la lettura di un valore dal controller.
+     * @param query La lettura da eseguire sul thread del controller.
+     * @return Il future del valore letto.
+     */
+    public <T> Future<T> submit(Callable<T> query) {
+        FutureTask<T> task = new FutureTask<>(query);
+        execute(task);
+        return task;
+    }
+
+    /**
+     * @return Il numero di comandi in attesa di essere eseguiti.
+     */
+    public int getQueueDepth() {
+        synchronized(lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return Il massimo numero di comandi in attesa raggiunto finora.
+     */
+    public int getMaxQueueDepth() {
+        synchronized(lock) {
+            return maxDepth;
+        }
+    }
+
+    /**
+     * @return Il numero di comandi accodati finora.
+     */
+    public long getEnqueuedCount() {
+        synchronized(lock) {
+            return enqueued;
+        }
+    }
+
+    /**
+     * @return Il numero di comandi che non sono arrivati al controller perché fusi con altri o annullati.
+     */
+    public long getCoalescedCount() {
+        synchronized(lock) {
+            return coalesced;
+        }
+    }
+
+    public long getExecutedCount() {
+        synchronized(lock) {
+            return executed;
+        }
+    }
+
+    private void append(Command command) {
+        pending.addLast(command);
+        maxDepth = Math.max(maxDepth, pending.size());
+        if(!tickScheduled) {
+            tickScheduled = true;
+            taskScheduler.postDelayed(tickTask, tickMillis);
+        }
+    }
+
+    /**
+     * Esegue un blocco di comandi. Gira sul thread del controller.
+     */
+    private void tick() {
+        Command[] batch;
+        int count = 0;
+        int depth;
+        int maxDepth;
+        long coalesced;
+        synchronized(lock) {
+            batch = new Command[Math.min(batchSize, pending.size())];
+            while(count < batch.length) {
+                Command command = pending.pollFirst();
+                if(command instanceof Toggle) {
+                    pendingToggles.remove(((Toggle) command).operaId);
+                }
+                batch[count++] = command;
+            }
+            executed += count;
+            tickScheduled = !pending.isEmpty();
+            if(tickScheduled) {
+                taskScheduler.postDelayed(tickTask, tickMillis);
+            }
+            depth = pending.size();
+            maxDepth = this.maxDepth;
+            coalesced = this.coalesced;
+        }
+
+        AdvertiserMetrics metrics = controller.getMetrics();
+        metrics.onQueueChanged(depth, maxDepth, coalesced);
+        for(int i=0; i<count; i++) {
+            metrics.onCommandExecuted(taskScheduler.nanoTime() - batch[i].enqueuedAt);
+            try {
+                batch[i].run();
+            } catch(RuntimeException ex) {
+                // Un comando fallito non deve fermare quelli dopo di lui, né il thread del controller
+                metrics.onCommandFailed();
+                Listener listener = this.listener;
+                if(listener != null) {
+                    listener.onCommandFailed(ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Un comando in coda.
+     */
+    private static class Command implements Runnable {
+        private final Runnable action;
+        private final long enqueuedAt;
+
+        private Command(Runnable action, long enqueuedAt) {
+            this.action = action;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        @Override
+        public void run() {
+            action.run();
+        }
+    }
+
+    /**
+     * Accensione o spegnimento di un'opera. Finché è in coda può essere aggiornato da altri toggle della stessa opera.
+     */
+    private class Toggle extends Command {
+        private final String operaId;
+        private String serviceUuid;
+        private boolean active;
+
+        private Toggle(String operaId, String serviceUuid, boolean active, long enqueuedAt) {
+            super(null, enqueuedAt);
+            this.operaId = operaId;
+            this.serviceUuid = serviceUuid;
+            this.active = active;
+        }
+
+        @Override
+        public void run() {
+            // Lo stato viene letto qui, sul thread del controller, dopo che il toggle è uscito dalla coda
+            boolean on;
+            String uuid;
+            synchronized(lock) {
+                on = active;
+                uuid = serviceUuid;
+            }
+            if(on) {
+                controller.startAdvertising(operaId, uuid);
+            } else {
+                controller.stopAdvertising(operaId);
+            }
+        }
+    }
+}
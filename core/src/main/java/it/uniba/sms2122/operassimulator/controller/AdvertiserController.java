@@ -0,0 +1,604 @@
+package it.uniba.sms2122.operassimulator.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import it.uniba.sms2122.operassimulator.metrics.AdvertiserMetrics;
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.radio.AdvertiserBackend;
+import it.uniba.sms2122.operassimulator.radio.OperaPayload;
+import it.uniba.sms2122.operassimulator.radio.PayloadCache;
+import it.uniba.sms2122.operassimulator.radio.RadioProfile;
+import it.uniba.sms2122.operassimulator.radio.ServiceUuidIndex;
+import it.uniba.sms2122.operassimulator.scheduler.AdvertisingScheduler;
+import it.uniba.sms2122.operassimulator.session.SessionSnapshot;
+import it.uniba.sms2122.operassimulator.scheduler.FairnessPolicy;
+import it.uniba.sms2122.operassimulator.utility.TaskScheduler;
+
+/**
+ * La logica di advertising del service, indipendente da Android: tiene la cache dei payload e lo scheduler
+ * che ruota le opere attive sulla radio. Con una {@link it.uniba.sms2122.operassimulator.radio.SimulatedRadio}
+ * e un {@link it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler} si può eseguire sulla JVM.
+ * <br>
+ * Va usato dal thread del {@link TaskScheduler}.
+ */
+public class AdvertiserController {
+    /**
+     * Listener dei cambi di stato dell'intera stanza.
+     */
+    public interface RoomListener {
+        /**
+         * @param confirmed Le opere richieste che la radio ha confermato in onda almeno una volta.
+         * @param total Le opere richieste.
+         */
+        void onProgress(int confirmed, int total);
+
+        /**
+         * Tutte le opere richieste sono andate in onda almeno una volta, e tutte le altre sono state stoppate.
+         * @param total Le opere richieste.
+         * @param elapsedNanos Il tempo trascorso dalla richiesta.
+         */
+        void onRoomConfirmed(int total, long elapsedNanos);
+    }
+
+    /**
+     * Listener dei cambi della stanza caricata, da qualunque parte arrivino: chi tiene uno stato legato alla stanza,
+     * come gli orari delle opere, lo aggiorna qui invece che in ogni punto che carica una stanza.
+     */
+    public interface StanzaListener {
+        /**
+         * Chiamato sul thread del controller dopo {@link #loadStanza(Stanza)}, {@link #reloadStanza(Stanza)},
+         * {@link #switchRoom(Stanza, RoomListener)} e {@link #close()}.
+         * @param stanza La stanza ora caricata, o null se il controller è stato chiuso.
+         */
+        void onStanzaChanged(Stanza stanza);
+    }
+
+    public static final int DEFAULT_BULK_BATCH_SIZE = 32;
+    public static final long DEFAULT_BULK_INTERVAL_MILLIS = 10;
+
+    private final AdvertiserBackend backend;
+    private final TaskScheduler taskScheduler;
+    private final AdvertisingScheduler scheduler;
+    private final AdvertiserMetrics metrics = new AdvertiserMetrics();
+    private final PayloadCache payloadCache = new PayloadCache();
+    private final Map<String, RadioProfile> profiles = new HashMap<>();   // I profili diversi da quello di default
+
+    private int bulkBatchSize = DEFAULT_BULK_BATCH_SIZE;
+    private long bulkIntervalMillis = DEFAULT_BULK_INTERVAL_MILLIS;
+    private Transition transition;      // Il cambio di stato della stanza in corso, o null
+    private Stanza stanza;              // La stanza caricata, o null
+    private boolean lowPower = false;   // Le opere senza profilo vanno in onda con RadioProfile.LOW_POWER
+    private volatile ServiceUuidIndex serviceUuids;     // Pubblicato agli altri thread, o null
+    private final List<AdvertisingScheduler.Listener> onAirListeners = new ArrayList<>();
+    private StanzaListener stanzaListener;
+
+    /**
+     * Costruttore pubblico di {@link AdvertiserController}.
+     * @param backend La radio su cui fare l'advertising.
+     * @param taskScheduler Lo scheduler che fornisce il tempo ed esegue le rotazioni.
+     */
+    public AdvertiserController(AdvertiserBackend backend, TaskScheduler taskScheduler) {
+        this.backend = backend;
+        this.taskScheduler = taskScheduler;
+        this.scheduler = new AdvertisingScheduler(backend, taskScheduler, metrics);
+        scheduler.setListener(operaId -> {
+            if(transition != null) {
+                transition.confirm(operaId);
+            }
+            for(int i=0; i<onAirListeners.size(); i++) {
+                onAirListeners.get(i).onOnAir(operaId);
+            }
+        });
+    }
+
+    /**
+     * @param listener Un listener da notificare ogni volta che la radio conferma in onda un'opera.
+     */
+    public void addOnAirListener(AdvertisingScheduler.Listener listener) {
+        onAirListeners.add(listener);
+    }
+
+    public void removeOnAirListener(AdvertisingScheduler.Listener listener) {
+        onAirListeners.remove(listener);
+    }
+
+    /**
+     * @param listener Il listener da notificare a ogni cambio della stanza caricata, o null.
+     */
+    public void setStanzaListener(StanzaListener listener) {
+        this.stanzaListener = listener;
+    }
+
+    /**
+     * Prepara la cache dei payload di advertising per le opere della stanza, stoppando quelle della stanza precedente.
+     * I service uuid vengono assegnati dal {@link ServiceUuidIndex}, per cui due opere della stanza non ne hanno mai lo stesso.
+     * I payload vengono calcolati al primo avvio di ogni opera.
+     * @param stanza La stanza caricata.
+     */
+    public void loadStanza(Stanza stanza) {
+        load(stanza);
+        notifyStanzaChanged();
+    }
+
+    private void load(Stanza stanza) {
+        stopAllAdvertising();
+        backend.reset();
+        profiles.clear();
+        ServiceUuidIndex index = ServiceUuidIndex.build(stanza);
+        payloadCache.preload(index);
+        this.stanza = stanza;
+        this.serviceUuids = index;
+    }
+
+    /**
+     * Sostituisce la stanza caricata con una sua nuova versione, senza interrompere le opere rimaste. Vengono stoppate
+     * solo le opere rimosse, e le opere invariate tengono il loro service uuid. Le opere aggiunte vengono avviate solo se
+     * tutte le opere della versione precedente erano in onda; altrimenti restano spente, come ogni opera appena caricata.
+     * Se non c'è una stanza caricata equivale a {@link #loadStanza(Stanza)}.
+     * @param stanza La nuova versione della stanza.
+     * @return Le opere aggiunte e rimosse.
+     */
+    public StanzaDiff reloadStanza(Stanza stanza) {
+        if(this.stanza == null || serviceUuids == null) {
+            StanzaDiff diff = StanzaDiff.compute(null, stanza);
+            loadStanza(stanza);
+            return diff;
+        }
+
+        boolean allActive = serviceUuids.size() > 0 && scheduler.size() == serviceUuids.size();
+        StanzaDiff diff = replaceStanza(stanza);
+        for(String operaId : diff.getRemoved()) {
+            stopAdvertising(operaId);
+        }
+        if(allActive) {
+            for(String operaId : diff.getAdded()) {
+                startAdvertising(operaId, null);
+            }
+        }
+        notifyStanzaChanged();
+        return diff;
+    }
+
+    /**
+     * Passa a un'altra stanza, ad esempio di un {@link it.uniba.sms2122.operassimulator.model.Museo}, mandandone in onda
+     * tutte le opere. Il passaggio è un unico cambio di stato, come {@link #applyState(Set, RoomListener)}: vengono stoppate
+     * le opere della stanza precedente e avviate quelle della nuova, a blocchi, e le opere comuni alle due restano in onda
+     * con lo stesso service uuid. Il costo dipende solo dalle opere delle due stanze.
+     * @param stanza La stanza in cui passare.
+     * @param listener Il listener da notificare quando la radio conferma in onda le opere della stanza, o null.
+     * @return Le opere aggiunte e rimosse rispetto alla stanza precedente.
+     */
+    public StanzaDiff switchRoom(Stanza stanza, RoomListener listener) {
+        StanzaDiff diff;
+        if(this.stanza == null || serviceUuids == null) {
+            diff = StanzaDiff.compute(null, stanza);
+            load(stanza);
+        } else {
+            diff = replaceStanza(stanza);
+        }
+
+        applyState(operaIds(stanza), listener);
+        notifyStanzaChanged();
+        return diff;
+    }
+
+    /**
+     * Sostituisce la stanza caricata e il suo indice dei service uuid, tenendo quelli delle opere rimaste.
+     * Non avvia né stoppa nessuna opera.
+     */
+    private StanzaDiff replaceStanza(Stanza stanza) {
+        ServiceUuidIndex previous = serviceUuids;
+        StanzaDiff diff = StanzaDiff.compute(previous, stanza);
+        for(String operaId : diff.getRemoved()) {
+            profiles.remove(operaId);
+        }
+
+        ServiceUuidIndex index = ServiceUuidIndex.build(stanza, previous);
+        payloadCache.preload(index);
+        this.stanza = stanza;
+        this.serviceUuids = index;
+        return diff;
+    }
+
+    /**
+     * @return I service uuid delle opere della stanza caricata, o null se non ce n'è una. Si può leggere da qualsiasi thread.
+     */
+    public ServiceUuidIndex getServiceUuidIndex() {
+        return serviceUuids;
+    }
+
+    /**
+     * @return La stanza caricata, o null se non ce n'è una.
+     */
+    public Stanza getStanza() {
+        return stanza;
+    }
+
+    /**
+     * Fotografa lo stato della sessione. Se è in corso un cambio di stato della stanza, le opere attive sono quelle
+     * che lo saranno alla sua fine.
+     * @return Lo snapshot, o null se non è stata caricata nessuna stanza.
+     */
+    public SessionSnapshot snapshotSession() {
+        if(stanza == null) {
+            return null;
+        }
+        Set<String> activeIds = new LinkedHashSet<>(scheduler.getOperaIds());
+        if(transition != null) {
+            transition.applyTo(activeIds);
+        }
+        return new SessionSnapshot(stanza, activeIds);
+    }
+
+    /**
+     * @return Gli id delle opere della stanza caricata che sono state saltate perché non validi.
+     */
+    public Set<String> getInvalidOperaIds() {
+        return payloadCache.getInvalidIds();
+    }
+
+    /**
+     * Aggiunge un'opera alla rotazione degli advertiser. Se c'è uno slot libero, l'advertising parte subito.
+     * Se l'id o il service uuid non sono validi l'opera non viene aggiunta, e l'errore viene segnalato
+     * come un avvio fallito con {@link AdvertiserBackend#ERROR_INTERNAL}.
+     * @param operaId L'id dell'opera.
+     * @param serviceUuid Il service uuid a 16 bit dell'opera, o null per quello assegnato dal {@link ServiceUuidIndex}.
+     * @return true se l'opera è nella rotazione.
+     */
+    public boolean startAdvertising(String operaId, String serviceUuid) {
+        OperaPayload payload = serviceUuid != null ? payloadCache.get(operaId, serviceUuid) : payloadCache.get(operaId);
+        if(payload == null) {
+            scheduler.reportStartFailure(operaId, AdvertiserBackend.ERROR_INTERNAL);
+            return false;
+        }
+        scheduler.add(payload, getRadioProfile(operaId));
+        return true;
+    }
+
+    /**
+     * Stoppa l'advertising di una determinata opera.
+     * @param operaId L'id dell'opera.
+     */
+    public void stopAdvertising(String operaId) {
+        scheduler.remove(operaId);
+        if(transition != null) {
+            transition.forget(operaId);
+        }
+    }
+
+    /**
+     * Stoppa subito tutti gli advertising attivi, annullando l'eventuale cambio di stato della stanza in corso.
+     */
+    public void stopAllAdvertising() {
+        cancelTransition();
+        scheduler.removeAll();
+    }
+
+    /**
+     * Manda in onda tutte le opere della stanza.
+     * @see #applyState(Set, RoomListener)
+     */
+    public void startAll(Stanza stanza, RoomListener listener) {
+        applyState(operaIds(stanza), listener);
+    }
+
+    /**
+     * @return Gli id delle opere della stanza, in ordine, saltando le opere senza id.
+     */
+    private static Set<String> operaIds(Stanza stanza) {
+        Set<String> operaIds = new LinkedHashSet<>();
+        if(stanza.getOpere() != null) {
+            for(Opera opera : stanza.getOpere().values()) {
+                if(opera.getId() != null) {
+                    operaIds.add(opera.getId());
+                }
+            }
+        }
+        return operaIds;
+    }
+
+    /**
+     * Stoppa tutte le opere, a blocchi come gli altri cambi di stato della stanza.
+     * @see #applyState(Set, RoomListener)
+     */
+    public void stopAll(RoomListener listener) {
+        applyState(Collections.emptySet(), listener);
+    }
+
+    /**
+     * Porta le opere attive a quelle indicate. Vengono stoppate solo le opere attive non richieste e avviate solo
+     * quelle richieste non ancora attive, a blocchi di {@code bulkBatchSize} ogni {@code bulkIntervalMillis}.
+     * <br>
+     * Un nuovo cambio di stato sostituisce quello in corso, il cui listener non viene più notificato.
+     * @param operaIds Gli id delle opere da mandare in onda.
+     * @param listener Il listener da notificare quando la radio conferma in onda le opere richieste, o null.
+     */
+    public void applyState(Set<String> operaIds, RoomListener listener) {
+        cancelTransition();
+
+        List<String> changes = new ArrayList<>();
+        for(String operaId : scheduler.getOperaIds()) {
+            if(!operaIds.contains(operaId)) {
+                changes.add(operaId);
+            }
+        }
+        int stops = changes.size();
+        Set<String> unconfirmed = new HashSet<>();
+        for(String operaId : operaIds) {
+            if(!scheduler.contains(operaId)) {
+                changes.add(operaId);
+            }
+            if(!scheduler.isOnAir(operaId)) {
+                unconfirmed.add(operaId);
+            }
+        }
+
+        transition = new Transition(changes, stops, unconfirmed, operaIds.size(), listener);
+        transition.run();
+    }
+
+    /**
+     * @param batchSize Quante opere avviare o stoppare per blocco nei cambi di stato della stanza.
+     * @param intervalMillis Ogni quanti millisecondi eseguire un blocco.
+     */
+    public void configureBulk(int batchSize, long intervalMillis) {
+        if(batchSize < 1 || intervalMillis < 0) {
+            throw new IllegalArgumentException("invalid bulk configuration");
+        }
+        bulkBatchSize = batchSize;
+        bulkIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * Cambia i parametri radio di un'opera. Se l'opera è in onda il cambio viene applicato senza fermarla,
+     * altrimenti verrà usato al prossimo avvio. Con {@link RadioProfile#DEFAULT} l'opera torna a non avere un profilo
+     * proprio, e segue la modalità a basso consumo.
+     * @param operaId L'id dell'opera.
+     * @param profile I nuovi parametri radio.
+     */
+    public void setRadioProfile(String operaId, RadioProfile profile) {
+        if(RadioProfile.DEFAULT.equals(profile)) {
+            profiles.remove(operaId);
+        } else {
+            profiles.put(operaId, profile);
+        }
+        scheduler.setProfile(operaId, getRadioProfile(operaId));
+    }
+
+    /**
+     * @param operaId L'id dell'opera.
+     * @return Il profilo con cui l'opera va in onda: il suo, o quello delle opere senza profilo.
+     */
+    public RadioProfile getRadioProfile(String operaId) {
+        RadioProfile profile = profiles.get(operaId);
+        return profile != null ? profile : getIdleProfile();
+    }
+
+    /**
+     * Attiva o disattiva la modalità a basso consumo: le opere senza un profilo proprio, a cui nessuno sta facendo
+     * cambiare distanza o potenza, vanno in onda con {@link RadioProfile#LOW_POWER}. Le opere in onda vengono
+     * aggiornate senza fermarle.
+     * @param lowPower true per attivarla.
+     */
+    public void setLowPowerMode(boolean lowPower) {
+        if(this.lowPower == lowPower) {
+            return;
+        }
+        this.lowPower = lowPower;
+        RadioProfile idle = getIdleProfile();
+        for(String operaId : scheduler.getOperaIds()) {
+            if(!profiles.containsKey(operaId)) {
+                scheduler.setProfile(operaId, idle);
+            }
+        }
+    }
+
+    public boolean isLowPowerMode() {
+        return lowPower;
+    }
+
+    private RadioProfile getIdleProfile() {
+        return lowPower ? RadioProfile.LOW_POWER : RadioProfile.DEFAULT;
+    }
+
+    /**
+     * @return Per ogni opera attiva, il tempo in nanosecondi impiegato dall'ultimo cambio per andare in onda.
+     * Le opere per cui non è stato misurato non sono presenti.
+     */
+    public Map<String, Long> getSwitchLatencies() {
+        Map<String, Long> latencies = new LinkedHashMap<>();
+        for(String operaId : scheduler.getOperaIds()) {
+            long latency = backend.getSwitchLatencyNanos(operaId);
+            if(latency >= 0) {
+                latencies.put(operaId, latency);
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Configura la rotazione delle opere quando sono più degli slot disponibili.
+     * @param slots Il numero massimo di advertiser contemporanei.
+     * @param dwellMillis Per quanto tempo un'opera resta in onda prima di cedere lo slot.
+     * @param policy La politica con cui scegliere le opere da mandare in onda.
+     */
+    public void configureRotation(int slots, long dwellMillis, FairnessPolicy policy) {
+        scheduler.setDwellMillis(dwellMillis);
+        scheduler.setFairnessPolicy(policy);
+        scheduler.setMaxSlots(slots);
+    }
+
+    /**
+     * @param slots Il numero massimo di opere contemporaneamente in onda, ad esempio quando la radio ne trasmette più di una per set.
+     */
+    public void setMaxSlots(int slots) {
+        scheduler.setMaxSlots(slots);
+    }
+
+    /**
+     * @return Il numero di opere che possono essere in onda insieme, vedi {@link AdvertisingScheduler#getSlots()}.
+     */
+    public int getSlots() {
+        return scheduler.getSlots();
+    }
+
+    /**
+     * @return Il duty cycle ottenuto finora da ogni opera attiva.
+     */
+    public Map<String, Double> getDutyCycles() {
+        return scheduler.getDutyCycles();
+    }
+
+    /**
+     * @return Le metriche aggiornate dal controller. Vanno lette e scritte solo dal thread del controller.
+     */
+    public AdvertiserMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Una copia delle metriche, leggibile da qualsiasi thread.
+     */
+    public AdvertiserMetrics snapshotMetrics() {
+        return scheduler.snapshotMetrics();
+    }
+
+    /**
+     * Azzera le metriche.
+     */
+    public void resetMetrics() {
+        metrics.reset();
+        metrics.onSlotsChanged(scheduler.getOnAirCount());
+    }
+
+    public AdvertisingScheduler getScheduler() {
+        return scheduler;
+    }
+
+    private void cancelTransition() {
+        if(transition != null) {
+            taskScheduler.removeCallbacks(transition);
+            transition = null;
+        }
+    }
+
+    /**
+     * Rilascia la radio. Va chiamato quando il service viene distrutto.
+     */
+    public void close() {
+        stopAllAdvertising();
+        backend.reset();
+        profiles.clear();
+        payloadCache.clear();
+        stanza = null;
+        serviceUuids = null;
+        notifyStanzaChanged();
+    }
+
+    private void notifyStanzaChanged() {
+        if(stanzaListener != null) {
+            stanzaListener.onStanzaChanged(stanza);
+        }
+    }
+
+    /**
+     * Un cambio di stato della stanza: applica i cambi a blocchi e tiene traccia delle opere non ancora confermate in onda.
+     */
+    private class Transition implements Runnable {
+        private final List<String> changes;         // Prima le opere da stoppare, poi quelle da avviare
+        private final int stops;
+        private final Set<String> unconfirmed;
+        private final Set<String> forgotten = new HashSet<>();
+        private final int total;
+        private final RoomListener listener;
+        private final long requestedAt;
+        private int next = 0;
+
+        private Transition(List<String> changes, int stops, Set<String> unconfirmed, int total, RoomListener listener) {
+            this.changes = changes;
+            this.stops = stops;
+            this.unconfirmed = unconfirmed;
+            this.total = total;
+            this.listener = listener;
+            this.requestedAt = taskScheduler.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            int end = Math.min(changes.size(), next + bulkBatchSize);
+            for(; next < end; next++) {
+                String operaId = changes.get(next);
+                if(next < stops) {
+                    scheduler.remove(operaId);
+                } else if(!forgotten.contains(operaId)) {
+                    OperaPayload payload = payloadCache.get(operaId);
+                    if(payload != null) {
+                        scheduler.add(payload, getRadioProfile(operaId));
+                    } else {
+                        // Non andrà mai in onda: non la si aspetta
+                        scheduler.reportStartFailure(operaId, AdvertiserBackend.ERROR_INTERNAL);
+                        unconfirmed.remove(operaId);
+                    }
+                }
+            }
+
+            if(next < changes.size()) {
+                taskScheduler.postDelayed(this, bulkIntervalMillis);
+            } else {
+                checkConfirmed();
+            }
+        }
+
+        /**
+         * Applica a un insieme di opere attive i cambi non ancora eseguiti.
+         */
+        private void applyTo(Set<String> activeIds) {
+            for(int i=next; i<changes.size(); i++) {
+                String operaId = changes.get(i);
+                if(i < stops) {
+                    activeIds.remove(operaId);
+                } else if(!forgotten.contains(operaId)) {
+                    activeIds.add(operaId);
+                }
+            }
+        }
+
+        private void confirm(String operaId) {
+            if(unconfirmed.remove(operaId)) {
+                if(listener != null) {
+                    listener.onProgress(total - unconfirmed.size(), total);
+                }
+                checkConfirmed();
+            }
+        }
+
+        /**
+         * L'opera è stata stoppata singolarmente: non va più avviata né attesa.
+         */
+        private void forget(String operaId) {
+            forgotten.add(operaId);
+            if(unconfirmed.remove(operaId)) {
+                checkConfirmed();
+            }
+        }
+
+        private void checkConfirmed() {
+            if(transition != this || next < changes.size() || !unconfirmed.isEmpty()) {
+                return;
+            }
+            transition = null;
+            if(listener != null) {
+                listener.onRoomConfirmed(total, taskScheduler.nanoTime() - requestedAt);
+            }
+        }
+    }
+}
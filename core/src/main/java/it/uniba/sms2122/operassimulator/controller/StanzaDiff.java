@@ -0,0 +1,79 @@
+package it.uniba.sms2122.operassimulator.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import it.uniba.sms2122.operassimulator.model.OperaStore;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.radio.ServiceUuidIndex;
+
+/**
+ * Le differenze tra due versioni della stessa stanza: le opere aggiunte e quelle rimosse, confrontate per id.
+ * Le opere presenti in entrambe sono invariate, perché di un'opera conta solo l'id.
+ */
+public final class StanzaDiff {
+    private final List<String> added;
+    private final List<String> removed;
+    private final int unchanged;
+
+    private StanzaDiff(List<String> added, List<String> removed, int unchanged) {
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.unchanged = unchanged;
+    }
+
+    /**
+     * Confronta la nuova versione della stanza con le opere indicizzate dalla precedente. Si usa l'indice e non la stanza
+     * precedente perché una stanza letta da un catalogo mappato in memoria potrebbe già riflettere il file nuovo.
+     * @param previous L'indice dei service uuid della versione precedente, o null se non c'era una stanza.
+     * @param stanza La nuova versione della stanza.
+     * @return Le differenze, con le opere nell'ordine della nuova stanza e, per le rimosse, in quello dell'indice.
+     */
+    public static StanzaDiff compute(ServiceUuidIndex previous, Stanza stanza) {
+        // Lo store della stanza ha già un solo slot per id distinto, nell'ordine della stanza
+        OperaStore current = stanza.getOpere() != null ? stanza.getOperaStore() : new OperaStore();
+        int count = current.size();
+        List<String> added = new ArrayList<>();
+        for(int slot=0; slot<count; slot++) {
+            String operaId = current.getId(slot);
+            if(previous == null || !previous.contains(operaId)) {
+                added.add(operaId);
+            }
+        }
+
+        List<String> removed = new ArrayList<>();
+        int size = previous != null ? previous.size() : 0;
+        for(int slot=0; slot<size; slot++) {
+            String operaId = previous.getOperaId(slot);
+            if(!current.contains(operaId)) {
+                removed.add(operaId);
+            }
+        }
+        return new StanzaDiff(added, removed, count - added.size());
+    }
+
+    public List<String> getAdded() {
+        return added;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return Quante opere sono in entrambe le versioni.
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "+" + added.size() + " -" + removed.size() + " =" + unchanged;
+    }
+}
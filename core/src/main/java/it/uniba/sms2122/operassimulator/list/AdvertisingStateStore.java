@@ -0,0 +1,105 @@
+package it.uniba.sms2122.operassimulator.list;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import it.uniba.sms2122.operassimulator.model.OperaStore;
+
+/**
+ * Lo stato acceso/spento delle opere della lista. Ogni opera riceve un indice progressivo la prima volta che viene vista,
+ * e lo stato è un bit di un {@link BitSet} a quell'indice: per una stanza di 100000 opere bastano circa 12 KB.
+ * <br>
+ * L'indice non cambia finché lo store non viene svuotato, per cui è usato anche come id stabile delle righe.
+ * Gli indici sono gli slot di un {@link OperaStore}, che tiene gli id come byte invece che come stringhe.
+ */
+public class AdvertisingStateStore {
+    private final OperaStore indices = new OperaStore();
+    private final BitSet active = new BitSet();
+
+    /**
+     * Restituisce l'indice di un'opera, assegnandolo se è la prima volta che viene vista.
+     * @param operaId L'id dell'opera.
+     * @return L'indice dell'opera.
+     */
+    public int indexOf(String operaId) {
+        return indices.add(operaId);
+    }
+
+    public boolean isActive(String operaId) {
+        int index = indices.slotOf(operaId);
+        return index != OperaStore.NO_SLOT && active.get(index);
+    }
+
+    public void setActive(String operaId, boolean isActive) {
+        active.set(indexOf(operaId), isActive);
+    }
+
+    /**
+     * Accende o spegne tutte le opere viste finora.
+     * @param isActive true per accenderle, false per spegnerle.
+     */
+    public void setAll(boolean isActive) {
+        if(isActive) {
+            active.set(0, indices.size());
+        } else {
+            active.clear();
+        }
+    }
+
+    /**
+     * Spegne le opere che non sono tra quelle indicate, ad esempio quelle rimosse dalla stanza. Le opere restano nello store,
+     * così gli indici delle altre non cambiano.
+     * @param present Gli indici delle opere da tenere.
+     */
+    void retain(BitSet present) {
+        active.and(present);
+    }
+
+    /**
+     * Accende o spegne un'opera a partire dal suo indice.
+     */
+    void setActive(int index, boolean isActive) {
+        active.set(index, isActive);
+    }
+
+    /**
+     * @return Il numero di opere accese.
+     */
+    public int getActiveCount() {
+        return active.cardinality();
+    }
+
+    /**
+     * @return Gli id delle opere accese. L'insieme è una copia.
+     */
+    public Set<String> getActiveIds() {
+        Set<String> activeIds = new HashSet<>();
+        for(int index=active.nextSetBit(0); index>=0; index=active.nextSetBit(index+1)) {
+            activeIds.add(indices.getId(index));
+        }
+        return activeIds;
+    }
+
+    /**
+     * @return Il numero di opere viste.
+     */
+    public int size() {
+        return indices.size();
+    }
+
+    /**
+     * @return Gli id delle opere viste, per indice. Lo store va usato solo dal thread dello store degli stati.
+     */
+    OperaStore getOperaStore() {
+        return indices;
+    }
+
+    /**
+     * Dimentica tutte le opere e il loro stato.
+     */
+    public void clear() {
+        indices.clear();
+        active.clear();
+    }
+}
@@ -0,0 +1,124 @@
+package it.uniba.sms2122.operassimulator.list;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.OperaStore;
+
+/**
+ * I dati mostrati dalla lista delle opere: le opere, nell'ordine di caricamento, e quali sono attive,
+ * tenute in un {@link AdvertisingStateStore}. I service uuid li assegna il service, senza collisioni.
+ * È separato dall'adapter per poterlo usare e misurare anche fuori da Android.
+ * <br>
+ * Le righe non tengono oggetti {@link Opera}: sono gli indici delle opere nello store degli stati, in un array di int,
+ * e le opere vengono create solo quando l'adapter le legge.
+ */
+public class OperaListModel {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] rows = new int[INITIAL_CAPACITY];     // L'indice nello store di ogni riga
+    private int size = 0;
+    private final AdvertisingStateStore states = new AdvertisingStateStore();
+
+    /**
+     * Aggiunge le opere in fondo alla lista.
+     * @param opere Le opere da aggiungere.
+     */
+    public void addOperas(List<Opera> opere) {
+        if(size + opere.size() > rows.length) {
+            // Le liste già restituite da snapshot() tengono l'array vecchio
+            rows = Arrays.copyOf(rows, Math.max(rows.length * 2, size + opere.size()));
+        }
+        for(Opera opera : opere) {
+            if(opera.getId() != null) {     // Senza id l'opera non si può né mostrare né trasmettere
+                rows[size++] = states.indexOf(opera.getId());
+            }
+        }
+    }
+
+    /**
+     * Sostituisce le opere della lista con quelle di una nuova versione della stanza. Le opere rimaste tengono
+     * il loro stato e il loro id stabile, quelle rimosse vengono spente.
+     * @param opere Le opere della nuova versione.
+     */
+    public void setOperas(List<Opera> opere) {
+        rows = new int[Math.max(INITIAL_CAPACITY, opere.size())];
+        size = 0;
+        addOperas(opere);
+
+        BitSet present = new BitSet(states.size());
+        for(int i=0; i<size; i++) {
+            present.set(rows[i]);
+        }
+        states.retain(present);
+    }
+
+    /**
+     * Svuota la lista.
+     */
+    public void clear() {
+        rows = new int[INITIAL_CAPACITY];
+        size = 0;
+        states.clear();
+    }
+
+    public Opera get(int position) {
+        if(position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + size);
+        }
+        return new Opera(states.getOperaStore().getId(rows[position]));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return La lista delle opere da passare all'adapter. Non cambia con le aggiunte successive,
+     * per cui il diff si può calcolare in background.
+     */
+    public List<Opera> snapshot() {
+        return states.getOperaStore().snapshot(rows, size);
+    }
+
+    /**
+     * @param operaId L'id dell'opera.
+     * @return Un id che identifica l'opera finché la lista non viene svuotata.
+     */
+    public long getStableId(String operaId) {
+        return states.indexOf(operaId);
+    }
+
+    public boolean isActive(String operaId) {
+        return states.isActive(operaId);
+    }
+
+    public void setActive(String operaId, boolean isActive) {
+        states.setActive(operaId, isActive);
+    }
+
+    /**
+     * Segna come attive o inattive tutte le opere della lista.
+     * @param isActive true per attivarle, false per disattivarle.
+     */
+    public void setAllActive(boolean isActive) {
+        if(!isActive || size == states.size()) {
+            states.setAll(isActive);
+            return;
+        }
+        // Dopo un ricaricamento lo store tiene anche le opere rimosse, che devono restare spente
+        for(int i=0; i<size; i++) {
+            states.setActive(rows[i], true);
+        }
+    }
+
+    /**
+     * @return Gli id delle opere attive. L'insieme è una copia.
+     */
+    public Set<String> getActiveIds() {
+        return states.getActiveIds();
+    }
+}
@@ -0,0 +1,380 @@
+package it.uniba.sms2122.operassimulator.list;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import it.uniba.sms2122.operassimulator.catalog.RoomCatalog;
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.OperaStore;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+
+/**
+ * La lista delle opere di una stanza letta a pagine. Gli id vengono letti da una {@link Source}, ad esempio un
+ * {@link RoomCatalog} mappato in memoria, su un executor in background, solo per le pagine attorno alla posizione
+ * di scorrimento. Le pagine lontane vengono scartate, per cui in memoria restano al più {@code maxPages * pageSize} id
+ * qualunque sia la dimensione della stanza.
+ * <br>
+ * Lo stato acceso/spento è tenuto per posizione in un {@link BitSet} su tutta la stanza, non nelle pagine:
+ * le opere fuori dallo schermo non perdono il loro stato quando la loro pagina viene scartata.
+ * <br>
+ * Tutti i metodi, e i callback del {@link Listener}, vanno usati dal thread dell'executor dei callback (il thread UI).
+ */
+public class PagedOperaList {
+    public static final int DEFAULT_PAGE_SIZE = 200;
+    public static final int DEFAULT_MAX_PAGES = 8;
+    public static final int DEFAULT_PREFETCH_PAGES = 2;
+
+    /**
+     * Le opere da leggere, per posizione. I metodi vengono chiamati dall'executor in background.
+     */
+    public interface Source {
+        int size();
+
+        /**
+         * @param index La posizione dell'opera.
+         * @return L'id dell'opera.
+         */
+        String getOperaId(int index);
+    }
+
+    public interface Listener {
+        /**
+         * Una pagina è stata letta: le righe indicate vanno aggiornate.
+         * @param from La posizione della prima opera della pagina.
+         * @param count Il numero di opere della pagina.
+         */
+        void onPageLoaded(int from, int count);
+
+        /**
+         * Lo stato di opere fuori dalle pagine lette è cambiato, dopo {@link #applyActiveIds(Set)}.
+         */
+        void onStateChanged();
+    }
+
+    private final Source source;
+    private final int size;
+    private final int pageSize;
+    private final int maxPages;
+    private final int prefetchPages;
+    private final Executor loader;
+    private final Executor callback;
+
+    private final String[][] pages;                     // Gli id di ogni pagina letta, null per le altre
+    private final BitSet loaded = new BitSet();
+    private final BitSet requested = new BitSet();      // Le pagine in lettura
+    private final BitSet active;
+    private int loadedCount = 0;
+    private long loadCount = 0;
+    private int firstVisiblePage = -1;
+    private int lastVisiblePage = -1;
+    private volatile boolean closed = false;        // Letto anche dall'executor in background
+    private Listener listener;
+
+    /**
+     * Costruttore di {@link PagedOperaList} con la finestra di default.
+     * @param source Le opere da leggere.
+     * @param loader L'executor su cui leggere le pagine.
+     * @param callback L'executor del thread che usa la lista.
+     */
+    public PagedOperaList(Source source, Executor loader, Executor callback) {
+        this(source, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES, DEFAULT_PREFETCH_PAGES, loader, callback);
+    }
+
+    /**
+     * Costruttore pubblico di {@link PagedOperaList}.
+     * @param source Le opere da leggere.
+     * @param pageSize Il numero di opere per pagina.
+     * @param maxPages Il numero massimo di pagine in memoria; viene superato solo se sono visibili più pagine.
+     *                 Deve lasciare spazio alle pagine precaricate prima e dopo quelle visibili.
+     * @param prefetchPages Quante pagine leggere in anticipo prima e dopo quelle visibili.
+     * @param loader L'executor su cui leggere le pagine.
+     * @param callback L'executor del thread che usa la lista.
+     */
+    public PagedOperaList(Source source, int pageSize, int maxPages, int prefetchPages, Executor loader, Executor callback) {
+        if(pageSize < 1 || prefetchPages < 0 || maxPages <= 2 * prefetchPages) {
+            throw new IllegalArgumentException("invalid window: pageSize " + pageSize + ", maxPages " + maxPages
+                    + ", prefetchPages " + prefetchPages);
+        }
+        this.source = source;
+        this.size = source.size();
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.prefetchPages = prefetchPages;
+        this.loader = loader;
+        this.callback = callback;
+        pages = new String[(size + pageSize - 1) / pageSize][];
+        active = new BitSet(size);
+    }
+
+    /**
+     * @param catalog Il catalogo della stanza.
+     * @return Le opere del catalogo, lette direttamente dal file.
+     */
+    public static Source of(RoomCatalog catalog) {
+        return new Source() {
+            @Override
+            public int size() {
+                return catalog.size();
+            }
+
+            @Override
+            public String getOperaId(int index) {
+                return catalog.getOperaId(index);
+            }
+        };
+    }
+
+    /**
+     * @param opere Le opere di una stanza già letta. La lista non deve cambiare finché viene usata.
+     * @return Le opere della lista.
+     */
+    public static Source of(List<Opera> opere) {
+        return new Source() {
+            @Override
+            public int size() {
+                return opere.size();
+            }
+
+            @Override
+            public String getOperaId(int index) {
+                return opere.get(index).getId();
+            }
+        };
+    }
+
+    /**
+     * @param opere Lo store degli id di una stanza già letta, {@link Stanza#getOperaStore()}. Le opere sono quelle
+     *              presenti alla chiamata, una per id, e lo store non deve cambiare finché la lista viene usata.
+     * @return Le opere dello store, lette senza copiarle.
+     */
+    public static Source of(OperaStore opere) {
+        int size = opere.size();
+        return new Source() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public String getOperaId(int index) {
+                return opere.getId(index);
+            }
+        };
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Restituisce l'id di un'opera, se la sua pagina è già stata letta. Altrimenti ne chiede la lettura,
+     * e quando è pronta viene chiamato {@link Listener#onPageLoaded(int, int)}.
+     * @param position La posizione dell'opera.
+     * @return L'id dell'opera, oppure null se la sua pagina non è ancora in memoria.
+     */
+    public String getOperaId(int position) {
+        checkPosition(position);
+        int page = position / pageSize;
+        String[] ids = pages[page];
+        if(ids == null) {
+            request(page);
+            return null;
+        }
+        return ids[position - page * pageSize];
+    }
+
+    /**
+     * Aggiorna le posizioni visibili: le pagine attorno vengono lette in anticipo, e quelle lontane scartate
+     * se si supera la finestra.
+     * @param first La prima posizione visibile.
+     * @param last L'ultima posizione visibile.
+     */
+    public void setVisibleRange(int first, int last) {
+        if(size == 0 || first < 0 || last < first) {
+            return;
+        }
+        firstVisiblePage = Math.min(first, size - 1) / pageSize;
+        lastVisiblePage = Math.min(last, size - 1) / pageSize;
+        int from = Math.max(0, firstVisiblePage - prefetchPages);
+        int to = Math.min(pages.length - 1, lastVisiblePage + prefetchPages);
+        for(int page=from; page<=to; page++) {
+            request(page);
+        }
+        evict();
+    }
+
+    public boolean isActive(int position) {
+        checkPosition(position);
+        return active.get(position);
+    }
+
+    public void setActive(int position, boolean isActive) {
+        checkPosition(position);
+        active.set(position, isActive);
+    }
+
+    /**
+     * Accende o spegne tutte le opere, comprese quelle mai lette.
+     * @param isActive true per accenderle, false per spegnerle.
+     */
+    public void setAllActive(boolean isActive) {
+        if(isActive) {
+            active.set(0, size);
+        } else {
+            active.clear();
+        }
+    }
+
+    /**
+     * Segna come attive le opere indicate, ad esempio quelle ripristinate dal service. Le loro posizioni vengono cercate
+     * scorrendo la sorgente in background, senza tenerne gli id; alla fine viene chiamato {@link Listener#onStateChanged()}.
+     * @param operaIds Gli id delle opere attive.
+     */
+    public void applyActiveIds(Set<String> operaIds) {
+        if(operaIds.isEmpty() || closed) {
+            return;
+        }
+        loader.execute(() -> {
+            BitSet found = new BitSet(size);
+            for(int i=0; i<size && !closed; i++) {
+                if(operaIds.contains(source.getOperaId(i))) {
+                    found.set(i);
+                }
+            }
+            callback.execute(() -> {
+                if(closed) {
+                    return;
+                }
+                active.or(found);
+                if(listener != null) {
+                    listener.onStateChanged();
+                }
+            });
+        });
+    }
+
+    /**
+     * @return Il numero di opere accese.
+     */
+    public int getActiveCount() {
+        return active.cardinality();
+    }
+
+    /**
+     * @return Gli id delle opere accese. Vengono letti dalla sorgente su questo thread, uno per opera accesa.
+     */
+    public Set<String> getActiveIds() {
+        Set<String> activeIds = new HashSet<>();
+        for(int position=active.nextSetBit(0); position>=0; position=active.nextSetBit(position+1)) {
+            activeIds.add(source.getOperaId(position));
+        }
+        return activeIds;
+    }
+
+    /**
+     * @return Il numero di pagine in memoria.
+     */
+    public int getLoadedPageCount() {
+        return loadedCount;
+    }
+
+    /**
+     * @return Il numero di pagine lette finora, comprese quelle rilette dopo essere state scartate.
+     */
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    /**
+     * Scarta tutte le pagine e ignora le letture ancora in corso. La lista non va più usata.
+     */
+    public void close() {
+        closed = true;
+        for(int page=loaded.nextSetBit(0); page>=0; page=loaded.nextSetBit(page+1)) {
+            pages[page] = null;
+        }
+        loaded.clear();
+        loadedCount = 0;
+    }
+
+    private void request(int page) {
+        if(closed || loaded.get(page) || requested.get(page)) {
+            return;
+        }
+        requested.set(page);
+        int from = page * pageSize;
+        int count = Math.min(pageSize, size - from);
+        loader.execute(() -> {
+            String[] ids = new String[count];
+            for(int i=0; i<count && !closed; i++) {
+                ids[i] = source.getOperaId(from + i);
+            }
+            callback.execute(() -> onLoaded(page, ids));
+        });
+    }
+
+    private void onLoaded(int page, String[] ids) {
+        requested.clear(page);
+        if(closed || distance(page) > prefetchPages) {
+            return;     // Nel frattempo la lista è stata scorsa lontano
+        }
+        pages[page] = ids;
+        loaded.set(page);
+        loadedCount++;
+        loadCount++;
+        evict();
+        if(listener != null && pages[page] != null) {
+            listener.onPageLoaded(page * pageSize, ids.length);
+        }
+    }
+
+    /**
+     * Scarta le pagine più lontane da quelle visibili finché si resta nella finestra. Le pagine visibili non vengono
+     * mai scartate.
+     */
+    private void evict() {
+        while(loadedCount > maxPages) {
+            int farthest = -1;
+            int farthestDistance = 0;
+            for(int page=loaded.nextSetBit(0); page>=0; page=loaded.nextSetBit(page+1)) {
+                int distance = distance(page);
+                if(distance > farthestDistance) {
+                    farthest = page;
+                    farthestDistance = distance;
+                }
+            }
+            if(farthest < 0) {
+                return;
+            }
+            pages[farthest] = null;
+            loaded.clear(farthest);
+            loadedCount--;
+        }
+    }
+
+    /**
+     * @return Quante pagine separano una pagina da quelle visibili, 0 se è visibile o se non si sa ancora cosa lo sia.
+     */
+    private int distance(int page) {
+        if(firstVisiblePage < 0) {
+            return 0;
+        }
+        if(page < firstVisiblePage) {
+            return firstVisiblePage - page;
+        }
+        return Math.max(0, page - lastVisiblePage);
+    }
+
+    private void checkPosition(int position) {
+        if(position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + size);
+        }
+    }
+}
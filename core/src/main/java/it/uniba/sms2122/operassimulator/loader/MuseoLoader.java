@@ -0,0 +1,77 @@
+package it.uniba.sms2122.operassimulator.loader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import it.uniba.sms2122.operassimulator.model.Museo;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+
+/**
+ * Carica le stanze di un {@link Museo} in parallelo. Ogni stanza viene letta da un task dell'executor,
+ * per cui con un pool di più thread i file vengono letti insieme; l'indice globale viene costruito alla fine,
+ * sul thread chiamante, nell'ordine delle sorgenti.
+ */
+public class MuseoLoader {
+    private final ExecutorService executor;
+
+    /**
+     * @param executor L'executor su cui leggere le stanze, tipicamente un pool di qualche thread.
+     */
+    public MuseoLoader(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Legge tutte le stanze e costruisce il museo. Se una stanza non si legge, le letture ancora in corso vengono cancellate.
+     * @param sources Le sorgenti delle stanze, ad esempio il parsing di un json o l'apertura di un catalogo.
+     * @return Il museo, con le stanze nell'ordine delle sorgenti.
+     * @throws IOException Se una stanza non si può leggere, o se due stanze hanno lo stesso id.
+     * @throws InterruptedIOException Se il thread chiamante viene interrotto durante l'attesa.
+     */
+    public Museo load(List<Callable<Stanza>> sources) throws IOException {
+        List<Future<Stanza>> futures = new ArrayList<>(sources.size());
+        for(Callable<Stanza> source : sources) {
+            futures.add(executor.submit(source));
+        }
+
+        List<Stanza> stanze = new ArrayList<>(sources.size());
+        try {
+            for(int i=0; i<futures.size(); i++) {
+                stanze.add(futures.get(i).get());
+            }
+            return Museo.build(stanze);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("loading cancelled");
+        } catch(ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException("room " + stanze.size() + ": " + cause, cause);
+        } catch(IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        } finally {
+            for(Future<Stanza> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @param loader Il loader dei json delle stanze.
+     * @param source Fornisce il reader del file, che viene chiuso alla fine.
+     * @return La sorgente di una stanza letta da un file json.
+     */
+    public static Callable<Stanza> json(StanzaStreamLoader loader, Callable<Reader> source) {
+        return () -> {
+            try (Reader reader = source.call()) {
+                return loader.parse(reader);
+            }
+        };
+    }
+}
@@ -0,0 +1,340 @@
+package it.uniba.sms2122.operassimulator.loader;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.OperaMap;
+import it.uniba.sms2122.operassimulator.model.Orario;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+
+/**
+ * Loader del file json di una stanza basato sul {@link JsonReader} di Gson.
+ * A differenza di {@code new Gson().fromJson(reader, Stanza.class)} legge il file in streaming e consegna le opere
+ * a blocchi di {@code batchSize}, senza tenere in memoria il testo del file né un albero del json.
+ * <br>
+ * Le opere lette restano comunque tutte nella stanza restituita, per cui la memoria cresce con il numero di opere:
+ * vengono tenute in un {@link OperaMap}, che per opera occupa una frazione di una mappa di oggetti {@link Opera}.
+ * Solo i buffer del parsing e i blocchi consegnati al listener hanno una dimensione fissa.
+ */
+public class StanzaStreamLoader {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final int batchSize;
+
+    private static final Listener NO_OP_LISTENER = new Listener() {
+        @Override
+        public void onBatch(List<Opera> batch) {}
+
+        @Override
+        public void onProgress(long readChars, long totalChars) {}
+
+        @Override
+        public void onComplete(Stanza stanza) {}
+
+        @Override
+        public void onError(Exception exception) {}
+    };
+
+    /**
+     * Listener del caricamento. Con {@link #loadAsync} i metodi vengono chiamati sul {@code callbackExecutor}.
+     */
+    public interface Listener {
+        /**
+         * @param batch Le opere lette dall'ultimo blocco, nell'ordine del file.
+         */
+        void onBatch(List<Opera> batch);
+
+        /**
+         * @param readChars I caratteri letti finora.
+         * @param totalChars I caratteri totali del file, oppure -1 se non si conoscono.
+         */
+        void onProgress(long readChars, long totalChars);
+
+        void onComplete(Stanza stanza);
+
+        void onError(Exception exception);
+    }
+
+    public StanzaStreamLoader() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    public StanzaStreamLoader(int batchSize) {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Carica una stanza su un thread in background.
+     * @param source Fornisce il reader del file; viene chiamato sul thread in background e il reader viene chiuso alla fine.
+     * @param totalChars La dimensione del file, oppure -1 se non si conosce.
+     * @param executor L'executor su cui fare il parsing.
+     * @param callbackExecutor L'executor su cui notificare il listener, tipicamente il main thread.
+     * @param listener Il listener da notificare.
+     * @return Il future del caricamento. Cancellandolo con interruzione il parsing si ferma al primo blocco utile.
+     */
+    public Future<?> loadAsync(Callable<Reader> source, long totalChars, ExecutorService executor,
+                               Executor callbackExecutor, Listener listener) {
+        Listener forwarder = new Listener() {
+            @Override
+            public void onBatch(List<Opera> batch) {
+                callbackExecutor.execute(() -> listener.onBatch(batch));
+            }
+
+            @Override
+            public void onProgress(long readChars, long total) {
+                callbackExecutor.execute(() -> listener.onProgress(readChars, total));
+            }
+
+            @Override
+            public void onComplete(Stanza stanza) {
+                callbackExecutor.execute(() -> listener.onComplete(stanza));
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                callbackExecutor.execute(() -> listener.onError(exception));
+            }
+        };
+
+        return executor.submit(() -> {
+            try (Reader reader = source.call()) {
+                Stanza stanza = parse(reader, totalChars, forwarder);
+                forwarder.onComplete(stanza);
+            } catch(InterruptedIOException ex) {
+                // Caricamento cancellato: non si notifica nulla
+            } catch(Exception ex) {
+                forwarder.onError(ex);
+            }
+        });
+    }
+
+    /**
+     * Esegue il parsing sul thread corrente, senza notificare i blocchi e il progresso.
+     * @param reader Il reader del file json.
+     * @return La stanza letta, con le opere nell'ordine del file.
+     * @throws IOException Se il file non si può leggere o non è un json valido.
+     */
+    public Stanza parse(Reader reader) throws IOException {
+        return parse(reader, -1, NO_OP_LISTENER);
+    }
+
+    /**
+     * Esegue il parsing sul thread corrente. Il listener riceve i blocchi e il progresso, ma non {@code onComplete}.
+     * @param reader Il reader del file json.
+     * @param totalChars La dimensione del file, oppure -1 se non si conosce.
+     * @param listener Il listener da notificare.
+     * @return La stanza letta, con le opere nell'ordine del file.
+     * @throws IOException Se il file non si può leggere o non è un json valido.
+     */
+    public Stanza parse(Reader reader, long totalChars, Listener listener) throws IOException {
+        CountingReader countingReader = new CountingReader(reader);
+        JsonReader jsonReader = new JsonReader(countingReader);
+        jsonReader.setLenient(true);   // Come Gson.fromJson
+
+        Stanza stanza = new Stanza();
+        Map<String, Opera> opere = new OperaMap();
+        stanza.setOpere(opere);
+
+        jsonReader.beginObject();
+        while(jsonReader.hasNext()) {
+            switch(jsonReader.nextName()) {
+                case "id":
+                    stanza.setId(nextString(jsonReader));
+                    break;
+
+                case "nome":
+                    stanza.setNome(nextString(jsonReader));
+                    break;
+
+                case "descrizione":
+                    stanza.setDescrizione(nextString(jsonReader));
+                    break;
+
+                case "orari":
+                    stanza.setOrari(readOrari(jsonReader));
+                    break;
+
+                case "opere":
+                    readOpere(jsonReader, countingReader, totalChars, opere, listener);
+                    break;
+
+                default:
+                    jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+        listener.onProgress(countingReader.count, totalChars);
+        return stanza;
+    }
+
+    private void readOpere(JsonReader jsonReader, CountingReader countingReader, long totalChars,
+                           Map<String, Opera> opere, Listener listener) throws IOException {
+        if(jsonReader.peek() == JsonToken.NULL) {
+            jsonReader.nextNull();
+            return;
+        }
+
+        List<Opera> batch = new ArrayList<>(batchSize);
+        jsonReader.beginObject();
+        while(jsonReader.hasNext()) {
+            String key = jsonReader.nextName();
+            Opera opera = readOpera(jsonReader);
+            if(opera == null) {
+                continue;
+            }
+
+            opere.put(key, opera);
+            batch.add(opera);
+            if(batch.size() >= batchSize) {
+                if(Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("loading cancelled");
+                }
+                listener.onBatch(batch);
+                listener.onProgress(countingReader.count, totalChars);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        jsonReader.endObject();
+
+        if(!batch.isEmpty()) {
+            listener.onBatch(batch);
+        }
+    }
+
+    private static Opera readOpera(JsonReader jsonReader) throws IOException {
+        if(jsonReader.peek() == JsonToken.NULL) {
+            jsonReader.nextNull();
+            return null;
+        }
+
+        Opera opera = new Opera();
+        jsonReader.beginObject();
+        while(jsonReader.hasNext()) {
+            switch(jsonReader.nextName()) {
+                case "id":
+                    opera.setId(nextString(jsonReader));
+                    break;
+
+                case "orari":
+                    opera.setOrari(readOrari(jsonReader));
+                    break;
+
+                default:
+                    jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+        return opera;
+    }
+
+    /**
+     * Legge le fasce orarie di una stanza o di un'opera. La validità degli orari viene controllata quando vengono usati.
+     */
+    private static List<Orario> readOrari(JsonReader jsonReader) throws IOException {
+        if(jsonReader.peek() == JsonToken.NULL) {
+            jsonReader.nextNull();
+            return null;
+        }
+
+        List<Orario> orari = new ArrayList<>();
+        jsonReader.beginArray();
+        while(jsonReader.hasNext()) {
+            if(jsonReader.peek() == JsonToken.NULL) {
+                jsonReader.nextNull();
+                continue;
+            }
+            Orario orario = new Orario();
+            jsonReader.beginObject();
+            while(jsonReader.hasNext()) {
+                switch(jsonReader.nextName()) {
+                    case "giorni":
+                        orario.setGiorni(readGiorni(jsonReader));
+                        break;
+
+                    case "dalle":
+                        orario.setDalle(nextString(jsonReader));
+                        break;
+
+                    case "alle":
+                        orario.setAlle(nextString(jsonReader));
+                        break;
+
+                    default:
+                        jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+            orari.add(orario);
+        }
+        jsonReader.endArray();
+        return orari;
+    }
+
+    private static List<Integer> readGiorni(JsonReader jsonReader) throws IOException {
+        if(jsonReader.peek() == JsonToken.NULL) {
+            jsonReader.nextNull();
+            return null;
+        }
+
+        List<Integer> giorni = new ArrayList<>(7);
+        jsonReader.beginArray();
+        while(jsonReader.hasNext()) {
+            giorni.add(jsonReader.nextInt());
+        }
+        jsonReader.endArray();
+        return giorni;
+    }
+
+    private static String nextString(JsonReader jsonReader) throws IOException {
+        if(jsonReader.peek() == JsonToken.NULL) {
+            jsonReader.nextNull();
+            return null;
+        }
+        return jsonReader.nextString();
+    }
+
+    /**
+     * Reader che conta i caratteri letti, per calcolare il progresso.
+     */
+    private static class CountingReader extends FilterReader {
+        private long count;
+
+        private CountingReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if(c >= 0) {
+                count++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if(read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
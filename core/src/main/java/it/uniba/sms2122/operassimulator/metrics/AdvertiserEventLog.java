@@ -0,0 +1,227 @@
+package it.uniba.sms2122.operassimulator.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import it.uniba.sms2122.operassimulator.utility.Clock;
+
+/**
+ * Registro circolare degli eventi della radio: richieste di avvio, avvii confermati, errori con il loro codice e stop,
+ * ognuno con l'istante in nanosecondi. Serve a ricostruire cosa è successo alla radio anche quando le righe di logcat
+ * si perdono sotto carico.
+ * <br>
+ * Il registro ha una dimensione fissa, e i nuovi eventi sovrascrivono i più vecchi. La scrittura è lock-free e non alloca:
+ * ogni thread prende il suo numero di sequenza con un incremento atomico, scrive l'evento negli array preallocati
+ * e lo pubblica scrivendo per ultimo il numero di sequenza dello slot. Chi legge ({@link #snapshot()}, {@link #writeCsv(Writer)})
+ * ricontrolla il numero di sequenza dopo aver letto lo slot, e scarta gli eventi sovrascritti nel frattempo.
+ * Un thread aspetta un altro solo se trova il suo slot ancora in scrittura, cioè se durante quella scrittura sono stati
+ * registrati tanti eventi quanti ne tiene il registro.
+ */
+public class AdvertiserEventLog {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    public static final int START_REQUESTED = 1;
+    public static final int STARTED = 2;
+    public static final int UPDATED = 3;
+    public static final int FAILED = 4;
+    public static final int STOPPED = 5;
+    public static final int SCHEDULE_MISSED = 6;
+
+    private static final String[] NAMES = { "unknown", "start_requested", "started", "updated", "failed", "stopped",
+            "schedule_missed" };
+    private static final int FIELDS = 3;        // Istante, tipo e codice, valore
+    private static final long EMPTY = -1;
+    private static final long WRITING = -2;
+
+    private final Clock clock;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLongArray sequences;    // Il numero di sequenza dell'evento pubblicato in ogni slot
+    private final AtomicLongArray fields;
+    private final AtomicReferenceArray<String> operaIds;
+
+    /**
+     * @param clock L'orologio con cui datare gli eventi.
+     */
+    public AdvertiserEventLog(Clock clock) {
+        this(clock, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param clock L'orologio con cui datare gli eventi.
+     * @param capacity Il numero di eventi tenuti, una potenza di 2.
+     */
+    public AdvertiserEventLog(Clock clock, int capacity) {
+        if(capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2: " + capacity);
+        }
+        this.clock = clock;
+        this.mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for(int i=0; i<capacity; i++) {
+            sequences.set(i, EMPTY);
+        }
+        fields = new AtomicLongArray(capacity * FIELDS);
+        operaIds = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Registra un evento. Si può chiamare da qualsiasi thread.
+     * @param type Il tipo dell'evento, ad esempio {@link #FAILED}.
+     * @param operaId L'opera coinvolta, o null.
+     * @param code Il codice di errore per {@link #FAILED}, 1 per un {@link #SCHEDULE_MISSED} che doveva accendere l'opera,
+     *             0 per gli altri eventi.
+     * @param value La latenza in nanosecondi per {@link #STARTED} e {@link #UPDATED}, il ritardo in nanosecondi
+     *              per {@link #SCHEDULE_MISSED}, 0 per gli altri eventi.
+     */
+    public void record(int type, String operaId, int code, long value) {
+        long time = clock.nanoTime();
+        long sequence = next.getAndIncrement();
+        int slot = (int) sequence & mask;
+
+        // Chi legge lo slot durante la scrittura lo scarta. Se un altro thread lo sta ancora scrivendo, vuol dire che
+        // nel frattempo il registro è stato doppiato: si aspetta che finisca, per non mescolare i due eventi
+        long current;
+        while((current = sequences.get(slot)) == WRITING || !sequences.compareAndSet(slot, current, WRITING)) {
+            Thread.yield();
+        }
+        fields.lazySet(slot * FIELDS, time);
+        fields.lazySet(slot * FIELDS + 1, (long) type << 32 | (code & 0xFFFFFFFFL));
+        fields.lazySet(slot * FIELDS + 2, value);
+        operaIds.lazySet(slot, operaId);
+        sequences.lazySet(slot, sequence);
+    }
+
+    public void record(int type, String operaId) {
+        record(type, operaId, 0, 0);
+    }
+
+    /**
+     * @return Il numero di eventi registrati finora, compresi quelli già sovrascritti.
+     */
+    public long getRecordedCount() {
+        return next.get();
+    }
+
+    /**
+     * @return Il numero di eventi sovrascritti da quelli più recenti.
+     */
+    public long getOverwrittenCount() {
+        return Math.max(0, next.get() - capacity());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return Gli eventi ancora nel registro, dal più vecchio. Gli eventi in scrittura durante la lettura vengono saltati.
+     */
+    public List<Event> snapshot() {
+        long end = next.get();
+        long start = Math.max(0, end - capacity());
+        List<Event> events = new ArrayList<>((int) (end - start));
+        for(long sequence=start; sequence<end; sequence++) {
+            int slot = (int) sequence & mask;
+            if(sequences.get(slot) != sequence) {
+                continue;
+            }
+            long time = fields.get(slot * FIELDS);
+            long typeAndCode = fields.get(slot * FIELDS + 1);
+            long value = fields.get(slot * FIELDS + 2);
+            String operaId = operaIds.get(slot);
+            if(sequences.get(slot) == sequence) {
+                events.add(new Event(sequence, time, (int) (typeAndCode >>> 32), (int) typeAndCode, operaId, value));
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Scrive gli eventi ancora nel registro in csv, una riga per evento, con l'intestazione
+     * {@code sequence,timeNanos,event,operaId,code,value}.
+     * @param writer Dove scrivere. Non viene chiuso.
+     * @throws IOException Se la scrittura fallisce.
+     */
+    public void writeCsv(Writer writer) throws IOException {
+        writer.write("sequence,timeNanos,event,operaId,code,value\n");
+        for(Event event : snapshot()) {
+            writer.write(Long.toString(event.getSequence()));
+            writer.write(',');
+            writer.write(Long.toString(event.getTimeNanos()));
+            writer.write(',');
+            writer.write(nameOf(event.getType()));
+            writer.write(',');
+            writer.write(event.getOperaId() != null ? event.getOperaId() : "");
+            writer.write(',');
+            writer.write(Integer.toString(event.getCode()));
+            writer.write(',');
+            writer.write(Long.toString(event.getValue()));
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    /**
+     * @param type Il tipo di un evento.
+     * @return Il nome del tipo, usato nel csv.
+     */
+    public static String nameOf(int type) {
+        return type > 0 && type < NAMES.length ? NAMES[type] : NAMES[0];
+    }
+
+    /**
+     * Un evento letto dal registro.
+     */
+    public static class Event {
+        private final long sequence;
+        private final long timeNanos;
+        private final int type;
+        private final int code;
+        private final String operaId;
+        private final long value;
+
+        Event(long sequence, long timeNanos, int type, int code, String operaId, long value) {
+            this.sequence = sequence;
+            this.timeNanos = timeNanos;
+            this.type = type;
+            this.code = code;
+            this.operaId = operaId;
+            this.value = value;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimeNanos() {
+            return timeNanos;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public String getOperaId() {
+            return operaId;
+        }
+
+        public long getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return sequence + " " + nameOf(type) + " " + operaId + " " + code + " " + value + " @" + timeNanos;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package it.uniba.sms2122.operassimulator.metrics;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import it.uniba.sms2122.operassimulator.radio.AdvertiserBackend;
+import it.uniba.sms2122.operassimulator.radio.PowerModel;
+import it.uniba.sms2122.operassimulator.radio.RadioProfile;
+
+/**
+ * Le metriche dell'advertising: latenza tra la richiesta di avvio e la conferma della radio, errori per codice,
+ * slot occupati, tempo in onda per opera e per profilo radio, riavvii e latenza della coda dei comandi.
+ * <br>
+ * I contatori sono tipi primitivi aggiornati dal thread del controller, senza sincronizzazione né allocazioni
+ * (a parte la prima volta che un'opera va in onda). Per leggerli da altri thread si usa {@link #copy()},
+ * chiamato sul thread del controller.
+ */
+public class AdvertiserMetrics {
+    /**
+     * Gli errori con un codice sconosciuto vengono contati in questa posizione.
+     */
+    public static final int OTHER_ERROR = 0;
+
+    private final LatencyHistogram startLatency = new LatencyHistogram();
+    private final LatencyHistogram commandLatency = new LatencyHistogram();
+    private final long[] failures = new long[AdvertiserBackend.ERROR_FEATURE_UNSUPPORTED + 1];
+    private final Map<String, long[]> airtime = new HashMap<>();   // Nanosecondi in onda per opera
+    private final Map<RadioProfile, long[]> profileAirtime = new LinkedHashMap<>();   // Nanosecondi in onda per profilo
+
+    private long startRequests;
+    private long starts;
+    private long restarts;
+    private long stops;
+    private int activeSlots;
+    private int maxActiveSlots;
+    private int queueDepth;
+    private int maxQueueDepth;
+    private long coalescedCommands;
+    private long failedCommands;
+
+    /**
+     * È stato chiesto alla radio di avviare un'opera.
+     * @param restart true se l'opera era già stata avviata in precedenza (rotazione o nuovo tentativo dopo un errore).
+     */
+    public void onStartRequested(boolean restart) {
+        startRequests++;
+        if(restart) {
+            restarts++;
+        }
+    }
+
+    /**
+     * @param latencyNanos Il tempo tra la richiesta di avvio e la conferma della radio.
+     */
+    public void onStarted(long latencyNanos) {
+        starts++;
+        startLatency.record(latencyNanos);
+    }
+
+    /**
+     * @param errorCode Il codice di errore della radio, uno di quelli di {@link AdvertiserBackend}.
+     */
+    public void onStartFailed(int errorCode) {
+        failures[errorCode > 0 && errorCode < failures.length ? errorCode : OTHER_ERROR]++;
+    }
+
+    /**
+     * Un'opera ha lasciato lo slot.
+     * @param operaId L'id dell'opera.
+     * @param airtimeNanos Per quanto tempo è rimasta in onda dall'ultimo avvio.
+     */
+    public void onStopped(String operaId, long airtimeNanos) {
+        stops++;
+        addAirtime(operaId, airtimeNanos);
+    }
+
+    /**
+     * @param activeSlots Il numero di slot occupati.
+     */
+    public void onSlotsChanged(int activeSlots) {
+        this.activeSlots = activeSlots;
+        if(activeSlots > maxActiveSlots) {
+            maxActiveSlots = activeSlots;
+        }
+    }
+
+    /**
+     * @param latencyNanos Il tempo trascorso tra l'accodamento di un comando e la sua esecuzione.
+     */
+    public void onCommandExecuted(long latencyNanos) {
+        commandLatency.record(latencyNanos);
+    }
+
+    /**
+     * Un comando della coda è terminato con un'eccezione.
+     */
+    public void onCommandFailed() {
+        failedCommands++;
+    }
+
+    /**
+     * Aggiorna lo stato della coda dei comandi.
+     */
+    public void onQueueChanged(int depth, int maxDepth, long coalesced) {
+        queueDepth = depth;
+        maxQueueDepth = maxDepth;
+        coalescedCommands = coalesced;
+    }
+
+    /**
+     * Aggiunge del tempo in onda a un'opera.
+     * @param operaId L'id dell'opera.
+     * @param airtimeNanos I nanosecondi da aggiungere.
+     */
+    public void addAirtime(String operaId, long airtimeNanos) {
+        if(airtimeNanos <= 0) {
+            return;
+        }
+        long[] total = airtime.get(operaId);
+        if(total == null) {
+            total = new long[1];
+            airtime.put(operaId, total);
+        }
+        total[0] += airtimeNanos;
+    }
+
+    /**
+     * Aggiunge del tempo in onda a un profilo radio.
+     * @param profile Il profilo con cui le opere sono state in onda.
+     * @param airtimeNanos I nanosecondi da aggiungere.
+     */
+    public void addProfileAirtime(RadioProfile profile, long airtimeNanos) {
+        if(airtimeNanos <= 0) {
+            return;
+        }
+        long[] total = profileAirtime.get(profile);
+        if(total == null) {
+            total = new long[1];
+            profileAirtime.put(profile, total);
+        }
+        total[0] += airtimeNanos;
+    }
+
+    public LatencyHistogram getStartLatency() {
+        return startLatency;
+    }
+
+    public LatencyHistogram getCommandLatency() {
+        return commandLatency;
+    }
+
+    /**
+     * @param errorCode Il codice di errore, o {@link #OTHER_ERROR}.
+     * @return Quanti avvii sono falliti con quel codice.
+     */
+    public long getFailures(int errorCode) {
+        return errorCode >= 0 && errorCode < failures.length ? failures[errorCode] : 0;
+    }
+
+    public long getTotalFailures() {
+        long total = 0;
+        for(long count : failures) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long getStartRequests() {
+        return startRequests;
+    }
+
+    public long getStarts() {
+        return starts;
+    }
+
+    public long getRestarts() {
+        return restarts;
+    }
+
+    public long getStops() {
+        return stops;
+    }
+
+    public int getActiveSlots() {
+        return activeSlots;
+    }
+
+    public int getMaxActiveSlots() {
+        return maxActiveSlots;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getCoalescedCommands() {
+        return coalescedCommands;
+    }
+
+    public long getFailedCommands() {
+        return failedCommands;
+    }
+
+    /**
+     * @param operaId L'id dell'opera.
+     * @return I nanosecondi passati in onda dall'opera.
+     */
+    public long getAirtime(String operaId) {
+        long[] total = airtime.get(operaId);
+        return total != null ? total[0] : 0;
+    }
+
+    /**
+     * @return Il tempo in onda di ogni opera andata in onda almeno una volta. La mappa è una copia.
+     */
+    public Map<String, Long> getAirtimes() {
+        Map<String, Long> airtimes = new LinkedHashMap<>();
+        for(Map.Entry<String, long[]> entry : airtime.entrySet()) {
+            airtimes.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return airtimes;
+    }
+
+    /**
+     * @return Il tempo in onda di ogni profilo radio usato, sommato su tutte le opere. La mappa è una copia.
+     */
+    public Map<RadioProfile, Long> getProfileAirtimes() {
+        Map<RadioProfile, Long> airtimes = new LinkedHashMap<>();
+        for(Map.Entry<RadioProfile, long[]> entry : profileAirtime.entrySet()) {
+            airtimes.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return airtimes;
+    }
+
+    /**
+     * @return Una copia indipendente delle metriche, leggibile da qualsiasi thread.
+     */
+    public AdvertiserMetrics copy() {
+        AdvertiserMetrics copy = new AdvertiserMetrics();
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    /**
+     * Azzera tutte le metriche.
+     */
+    public void reset() {
+        copyFrom(new AdvertiserMetrics());
+    }
+
+    private void copyFrom(AdvertiserMetrics other) {
+        startLatency.reset();
+        startLatency.merge(other.startLatency);
+        commandLatency.reset();
+        commandLatency.merge(other.commandLatency);
+        System.arraycopy(other.failures, 0, failures, 0, failures.length);
+        airtime.clear();
+        for(Map.Entry<String, long[]> entry : other.airtime.entrySet()) {
+            airtime.put(entry.getKey(), new long[] {entry.getValue()[0]});
+        }
+        profileAirtime.clear();
+        for(Map.Entry<RadioProfile, long[]> entry : other.profileAirtime.entrySet()) {
+            profileAirtime.put(entry.getKey(), new long[] {entry.getValue()[0]});
+        }
+        startRequests = other.startRequests;
+        starts = other.starts;
+        restarts = other.restarts;
+        stops = other.stops;
+        activeSlots = other.activeSlots;
+        maxActiveSlots = other.maxActiveSlots;
+        queueDepth = other.queueDepth;
+        maxQueueDepth = other.maxQueueDepth;
+        coalescedCommands = other.coalescedCommands;
+        failedCommands = other.failedCommands;
+    }
+
+    /**
+     * Esporta le metriche in json, per confrontare dispositivi e firmware diversi.
+     * @param writer Dove scrivere il json. Non viene chiuso.
+     * @param device Le informazioni sul dispositivo da includere nell'esportazione (modello, versione, firmware...).
+     * @throws IOException Se la scrittura fallisce.
+     */
+    public void writeJson(Writer writer, Map<String, String> device) throws IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.setIndent("  ");
+        json.beginObject();
+
+        json.name("device").beginObject();
+        for(Map.Entry<String, String> entry : device.entrySet()) {
+            json.name(entry.getKey()).value(entry.getValue());
+        }
+        json.endObject();
+
+        json.name("startRequests").value(startRequests);
+        json.name("starts").value(starts);
+        json.name("restarts").value(restarts);
+        json.name("stops").value(stops);
+        json.name("activeSlots").value(activeSlots);
+        json.name("maxActiveSlots").value(maxActiveSlots);
+        json.name("queueDepth").value(queueDepth);
+        json.name("maxQueueDepth").value(maxQueueDepth);
+        json.name("coalescedCommands").value(coalescedCommands);
+        json.name("failedCommands").value(failedCommands);
+
+        json.name("failures").beginObject();
+        for(int errorCode=0; errorCode<failures.length; errorCode++) {
+            json.name(errorCode == OTHER_ERROR ? "other" : String.valueOf(errorCode)).value(failures[errorCode]);
+        }
+        json.endObject();
+
+        json.name("startLatencyNanos");
+        writeHistogram(json, startLatency);
+        json.name("commandLatencyNanos");
+        writeHistogram(json, commandLatency);
+
+        json.name("airtimeNanos").beginObject();
+        for(Map.Entry<String, long[]> entry : airtime.entrySet()) {
+            json.name(entry.getKey()).value(entry.getValue()[0]);
+        }
+        json.endObject();
+
+        // Tempo in onda e costo stimato di ogni profilo, vedi PowerModel
+        json.name("profiles").beginArray();
+        for(Map.Entry<RadioProfile, long[]> entry : profileAirtime.entrySet()) {
+            PowerModel.Estimate estimate = PowerModel.estimate(entry.getKey(), entry.getValue()[0]);
+            json.beginObject();
+            json.name("txPowerLevel").value(entry.getKey().getTxPowerLevel());
+            json.name("interval").value(entry.getKey().getInterval());
+            json.name("airtimeNanos").value(estimate.getOnAirNanos());
+            json.name("events").value(estimate.getEvents());
+            json.name("radioNanos").value(estimate.getRadioNanos());
+            json.name("microAmpHours").value(estimate.getMicroAmpHours());
+            json.endObject();
+        }
+        json.endArray();
+
+        json.endObject();
+        json.flush();
+    }
+
+    private static void writeHistogram(JsonWriter json, LatencyHistogram histogram) throws IOException {
+        json.beginObject();
+        json.name("count").value(histogram.getCount());
+        json.name("mean").value(histogram.getMean());
+        json.name("p50").value(histogram.getPercentile(50));
+        json.name("p90").value(histogram.getPercentile(90));
+        json.name("p99").value(histogram.getPercentile(99));
+        json.name("max").value(histogram.getMax());
+        json.name("buckets").beginArray();
+        for(int i=0; i<histogram.getBucketCount(); i++) {
+            if(histogram.getBucket(i) > 0) {
+                json.beginObject();
+                json.name("le").value(LatencyHistogram.upperBound(i));
+                json.name("count").value(histogram.getBucket(i));
+                json.endObject();
+            }
+        }
+        json.endArray();
+        json.endObject();
+    }
+}
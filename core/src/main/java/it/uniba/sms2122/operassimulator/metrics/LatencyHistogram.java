@@ -0,0 +1,116 @@
+package it.uniba.sms2122.operassimulator.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Istogramma di latenze in nanosecondi, con bucket a potenze di 2. Registrare un valore costa un confronto e un incremento,
+ * senza allocazioni; i percentili sono approssimati per eccesso al limite superiore del bucket.
+ * <br>
+ * Non è thread safe: va scritto da un solo thread e letto tramite {@link #copy()}.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final long[] buckets = new long[BUCKETS];   // Il bucket i contiene i valori in [2^(i-1), 2^i), il bucket 0 lo zero
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * @param nanos La latenza da registrare. I valori negativi vengono registrati come zero.
+     */
+    public void record(long nanos) {
+        if(nanos < 0) {
+            nanos = 0;
+        }
+        buckets[BUCKETS - Long.numberOfLeadingZeros(nanos)]++;
+        count++;
+        sum += nanos;
+        if(nanos > max) {
+            max = nanos;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return La media delle latenze registrate, 0 se non ce ne sono.
+     */
+    public long getMean() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    /**
+     * @param percentile Il percentile, tra 0 e 100.
+     * @return Il limite superiore del bucket in cui cade il percentile, mai oltre il massimo registrato. 0 se non ci sono valori.
+     */
+    public long getPercentile(double percentile) {
+        if(count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+        long seen = 0;
+        for(int i=0; i<BUCKETS; i++) {
+            seen += buckets[i];
+            if(seen >= rank && seen > 0) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return Il numero di bucket.
+     */
+    public int getBucketCount() {
+        return BUCKETS;
+    }
+
+    /**
+     * @param bucket L'indice del bucket.
+     * @return Quanti valori sono caduti nel bucket.
+     */
+    public long getBucket(int bucket) {
+        return buckets[bucket];
+    }
+
+    /**
+     * @param bucket L'indice del bucket.
+     * @return Il massimo valore contenuto nel bucket.
+     */
+    public static long upperBound(int bucket) {
+        return bucket == 0 ? 0 : (1L << bucket) - 1;   // Per l'ultimo bucket vale Long.MAX_VALUE
+    }
+
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * Aggiunge a questo istogramma i valori di un altro.
+     * @param other L'istogramma da aggiungere.
+     */
+    public void merge(LatencyHistogram other) {
+        for(int i=0; i<BUCKETS; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+}
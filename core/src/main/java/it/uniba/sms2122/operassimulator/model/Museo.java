@@ -0,0 +1,156 @@
+package it.uniba.sms2122.operassimulator.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Un museo: più stanze caricate insieme, con un indice da id dell'opera alla stanza che la contiene.
+ * <br>
+ * L'indice non copia gli id: usa l'{@link OperaStore} di ogni stanza, {@link Stanza#getOperaStore()}, per cui
+ * la ricerca della stanza di un'opera costa una ricerca nello store per stanza, fino a quella che la contiene.
+ * Se un'opera compare in più stanze, appartiene alla prima e viene contata tra i duplicati.
+ * <br>
+ * Il museo non cambia dopo la costruzione, per cui si può leggere da qualsiasi thread.
+ * Le opere aggiunte in seguito alle stanze non vengono viste.
+ */
+public final class Museo {
+    public static final int NO_ROOM = -1;
+
+    private final List<Stanza> stanze;
+    private final Map<String, Integer> roomIndices;     // Dall'id della stanza alla sua posizione
+    private final OperaStore[] opere;                   // Lo store degli id di ogni stanza
+    private final int[] sizes;                          // Gli slot di ogni store presenti alla costruzione
+    private final int operaCount;
+    private final Map<String, List<String>> duplicates;
+
+    private Museo(List<Stanza> stanze, Map<String, Integer> roomIndices, OperaStore[] opere, int[] sizes, int operaCount,
+                  Map<String, List<String>> duplicates) {
+        this.stanze = stanze;
+        this.roomIndices = roomIndices;
+        this.opere = opere;
+        this.sizes = sizes;
+        this.operaCount = operaCount;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * Costruisce il museo e il suo indice.
+     * @param stanze Le stanze, nell'ordine in cui vanno mostrate. Non possono esserci due stanze con lo stesso id,
+     *               mentre le stanze senza id si possono cercare solo per posizione.
+     * @return Il museo.
+     */
+    public static Museo build(List<Stanza> stanze) {
+        Map<String, Integer> roomIndices = new HashMap<>();
+        OperaStore[] opere = new OperaStore[stanze.size()];
+        int[] sizes = new int[stanze.size()];
+        int operaCount = 0;
+        Map<String, List<String>> duplicates = new LinkedHashMap<>();
+
+        for(int room=0; room<stanze.size(); room++) {
+            Stanza stanza = stanze.get(room);
+            if(stanza.getId() != null && roomIndices.put(stanza.getId(), room) != null) {
+                throw new IllegalArgumentException("duplicate room id " + stanza.getId());
+            }
+            if(stanza.getOpere() == null) {
+                continue;
+            }
+            OperaStore store = stanza.getOperaStore();
+            opere[room] = store;
+            sizes[room] = store.size();
+            for(int slot=0; slot<sizes[room]; slot++) {
+                String operaId = store.getId(slot);
+                if(find(opere, sizes, room, operaId) == NO_ROOM) {
+                    operaCount++;
+                    continue;
+                }
+                List<String> rooms = duplicates.get(operaId);
+                if(rooms == null) {
+                    rooms = new ArrayList<>();
+                    duplicates.put(operaId, rooms);
+                }
+                rooms.add(stanza.getId());
+            }
+        }
+        return new Museo(Collections.unmodifiableList(new ArrayList<>(stanze)), roomIndices, opere, sizes, operaCount,
+                Collections.unmodifiableMap(duplicates));
+    }
+
+    /**
+     * @return Le stanze, nell'ordine di costruzione. La lista non è modificabile.
+     */
+    public List<Stanza> getStanze() {
+        return stanze;
+    }
+
+    public int getRoomCount() {
+        return stanze.size();
+    }
+
+    /**
+     * @param room La posizione della stanza.
+     * @return La stanza.
+     */
+    public Stanza getStanza(int room) {
+        return stanze.get(room);
+    }
+
+    /**
+     * @param stanzaId L'id della stanza.
+     * @return La posizione della stanza, oppure {@link #NO_ROOM} se non è nel museo.
+     */
+    public int indexOfRoom(String stanzaId) {
+        Integer room = roomIndices.get(stanzaId);
+        return room != null ? room : NO_ROOM;
+    }
+
+    /**
+     * @param operaId L'id dell'opera.
+     * @return La posizione della stanza che contiene l'opera, oppure {@link #NO_ROOM} se nessuna la contiene.
+     */
+    public int roomOf(String operaId) {
+        return find(opere, sizes, opere.length, operaId);
+    }
+
+    /**
+     * @param operaId L'id dell'opera.
+     * @return La stanza che contiene l'opera, oppure null se nessuna la contiene.
+     */
+    public Stanza getStanzaOf(String operaId) {
+        int room = roomOf(operaId);
+        return room != NO_ROOM ? stanze.get(room) : null;
+    }
+
+    /**
+     * @return Il numero di opere distinte del museo.
+     */
+    public int getOperaCount() {
+        return operaCount;
+    }
+
+    /**
+     * @return Le opere presenti in più stanze, con gli id delle stanze oltre alla prima. La mappa non è modificabile.
+     */
+    public Map<String, List<String>> getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @param rooms Quante stanze considerare, dalla prima.
+     * @return La posizione della prima stanza che contiene l'opera, oppure {@link #NO_ROOM}.
+     */
+    private static int find(OperaStore[] opere, int[] sizes, int rooms, String operaId) {
+        for(int room=0; room<rooms; room++) {
+            if(opere[room] != null) {
+                int slot = opere[room].slotOf(operaId);
+                if(slot != OperaStore.NO_SLOT && slot < sizes[room]) {
+                    return room;
+                }
+            }
+        }
+        return NO_ROOM;
+    }
+}
@@ -0,0 +1,41 @@
+package it.uniba.sms2122.operassimulator.model;
+
+import java.util.List;
+
+/**
+ * Classe che rappresenta parzialmente un'opera all'interno del museo.
+ * Per questioni di compatibilità con il file Json della stanza, vengono rappresentati solo l'id e gli orari.
+ * Gli altri dati sono superflui.
+ * <br>
+ * Le opere delle stanze caricate sono tenute in un {@link OperaMap}, che crea gli oggetti Opera quando vengono letti.
+ */
+public class Opera {
+    private String id;
+    private List<Orario> orari;
+
+    public Opera() { }
+
+    public Opera(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * @return Le fasce orarie in cui l'opera è in onda, che prendono il posto di quelle della stanza. Null se l'opera
+     * segue gli orari della stanza; una lista vuota se l'opera non segue nessun orario e si accende solo a mano.
+     */
+    public List<Orario> getOrari() {
+        return orari;
+    }
+
+    public void setOrari(List<Orario> orari) {
+        this.orari = orari;
+    }
+}
@@ -0,0 +1,272 @@
+package it.uniba.sms2122.operassimulator.model;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Le opere di una stanza, per chiave, senza un oggetto per opera. Gli id sono tenuti in un {@link OperaStore}, e di ogni
+ * opera restano solo lo slot del suo id, la chiave se è diversa dall'id e gli orari se ne ha. Le chiavi si cercano con
+ * una tabella di int a indirizzamento aperto. Con le chiavi uguali agli id, come nei file della stanza, un'opera occupa
+ * circa 50 byte di heap, contro gli oltre 200 di una {@code LinkedHashMap} di oggetti {@link Opera}.
+ * <br>
+ * Gli oggetti {@link Opera} vengono creati quando si leggono, per cui modificarli non cambia la mappa: un'opera
+ * si aggiorna con {@link #put}. La mappa tiene l'ordine di inserimento e non supporta la rimozione. Non è thread safe.
+ */
+public final class OperaMap extends AbstractMap<String, Opera> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private OperaStore ids = new OperaStore();
+    private int[] slots = new int[INITIAL_CAPACITY];        // Lo slot dell'id di ogni opera, NO_SLOT se non ha id
+    private int[] hashes = new int[INITIAL_CAPACITY];       // L'hash della chiave di ogni opera
+    private String[] keys;              // La chiave di ogni opera, null se coincide con l'id; null finché non ne arriva una diversa
+    private List<Orario>[] orari;       // Gli orari di ogni opera; null finché non ne arriva una con degli orari
+    private int[] table = new int[INITIAL_CAPACITY * 2];    // L'indice + 1 dell'opera di ogni cella, 0 se la cella è vuota
+    private int size;
+    private boolean orphans = false;    // Un'opera sostituita ha lasciato nello store un id che non è più nella mappa
+
+    public OperaMap() { }
+
+    /**
+     * @param opere Le opere da copiare, nell'ordine della mappa.
+     */
+    public OperaMap(Map<String, Opera> opere) {
+        putAll(opere);
+    }
+
+    /**
+     * @return Lo store con gli id delle opere, uno slot per id distinto nell'ordine in cui gli id sono arrivati.
+     * Le opere aggiunte in seguito vengono aggiunte allo stesso store, senza cambiare gli slot esistenti.
+     */
+    public OperaStore getOperaStore() {
+        if(orphans) {
+            // Gli id rimasti senza opera vengono tolti in uno store nuovo: quello vecchio resta valido per chi lo usa
+            OperaStore compact = new OperaStore();
+            for(int i=0; i<size; i++) {
+                if(slots[i] != OperaStore.NO_SLOT) {
+                    slots[i] = compact.add(ids.getId(slots[i]));
+                }
+            }
+            ids = compact;
+            orphans = false;
+        }
+        return ids;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) >= 0;
+    }
+
+    @Override
+    public Opera get(Object key) {
+        int index = find(key);
+        return index >= 0 ? operaAt(index) : null;
+    }
+
+    /**
+     * Aggiunge un'opera, o sostituisce quella con la stessa chiave tenendone la posizione.
+     * @param key La chiave, non null.
+     * @param opera L'opera, non null.
+     * @return L'opera sostituita, o null.
+     */
+    @Override
+    public Opera put(String key, Opera opera) {
+        if(key == null || opera == null) {
+            throw new NullPointerException("null key or opera");
+        }
+        int index = find(key);
+        if(index >= 0) {
+            Opera previous = operaAt(index);
+            set(index, key, opera);
+            if(previous.getId() != null && !previous.getId().equals(opera.getId())) {
+                orphans = true;
+            }
+            return previous;
+        }
+
+        index = size;
+        if(index == slots.length) {
+            int capacity = slots.length * 2;
+            slots = Arrays.copyOf(slots, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            if(keys != null) {
+                keys = Arrays.copyOf(keys, capacity);
+            }
+            if(orari != null) {
+                orari = Arrays.copyOf(orari, capacity);
+            }
+        }
+        hashes[index] = key.hashCode();
+        set(index, key, opera);
+        table[emptyCell(hashes[index])] = index + 1;
+        size++;
+
+        // Fattore di carico massimo 1/2, come nello store
+        if(size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return null;
+    }
+
+    @Override
+    public Set<Entry<String, Opera>> entrySet() {
+        return new AbstractSet<Entry<String, Opera>>() {
+            @Override
+            public Iterator<Entry<String, Opera>> iterator() {
+                return new OperaIterator<Entry<String, Opera>>() {
+                    @Override
+                    Entry<String, Opera> at(int index) {
+                        Opera opera = operaAt(index);
+                        String key = keys != null && keys[index] != null ? keys[index] : opera.getId();
+                        return new SimpleImmutableEntry<>(key, opera);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Collection<Opera> values() {
+        // Senza passare dalle entry, che per le chiavi uguali all'id ricostruirebbero l'id due volte
+        return new AbstractCollection<Opera>() {
+            @Override
+            public Iterator<Opera> iterator() {
+                return new OperaIterator<Opera>() {
+                    @Override
+                    Opera at(int index) {
+                        return operaAt(index);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private void set(int index, String key, Opera opera) {
+        String operaId = opera.getId();
+        slots[index] = operaId != null ? ids.add(operaId) : OperaStore.NO_SLOT;
+        if(operaId == null || !operaId.equals(key)) {
+            if(keys == null) {
+                keys = new String[slots.length];
+            }
+            keys[index] = key;
+        } else if(keys != null) {
+            keys[index] = null;
+        }
+        if(opera.getOrari() != null) {
+            if(orari == null) {
+                orari = (List<Orario>[]) new List<?>[slots.length];
+            }
+            orari[index] = opera.getOrari();
+        } else if(orari != null) {
+            orari[index] = null;
+        }
+    }
+
+    private Opera operaAt(int index) {
+        Opera opera = new Opera(slots[index] != OperaStore.NO_SLOT ? ids.getId(slots[index]) : null);
+        if(orari != null) {
+            opera.setOrari(orari[index]);
+        }
+        return opera;
+    }
+
+    /**
+     * @return La posizione dell'opera con la chiave indicata, o -1 se non c'è.
+     */
+    private int find(Object key) {
+        if(!(key instanceof String)) {
+            return -1;
+        }
+        String text = (String) key;
+        int hash = text.hashCode();
+        int mask = table.length - 1;
+        int cell = mix(hash) & mask;
+        int slot = -2;      // Lo slot della chiave come id, cercato solo se serve
+        while(table[cell] != 0) {
+            int index = table[cell] - 1;
+            if(hashes[index] == hash) {
+                if(keys != null && keys[index] != null) {
+                    if(keys[index].equals(text)) {
+                        return index;
+                    }
+                } else {
+                    if(slot == -2) {
+                        slot = ids.slotOf(text);
+                    }
+                    if(slot == slots[index]) {
+                        return index;
+                    }
+                }
+            }
+            cell = (cell + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int emptyCell(int hash) {
+        int mask = table.length - 1;
+        int cell = mix(hash) & mask;
+        while(table[cell] != 0) {
+            cell = (cell + 1) & mask;
+        }
+        return cell;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for(int i=0; i<size; i++) {
+            table[emptyCell(hashes[i])] = i + 1;
+        }
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Iteratore sulle posizioni delle opere. Non supporta la rimozione.
+     */
+    private abstract class OperaIterator<E> implements Iterator<E> {
+        private int next = 0;
+
+        abstract E at(int index);
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public E next() {
+            if(next >= size) {
+                throw new NoSuchElementException();
+            }
+            return at(next++);
+        }
+    }
+}
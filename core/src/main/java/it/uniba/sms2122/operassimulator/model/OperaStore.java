@@ -0,0 +1,257 @@
+package it.uniba.sms2122.operassimulator.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import it.uniba.sms2122.operassimulator.utility.HexId;
+
+/**
+ * Insieme compatto degli id delle opere. Ogni id riceve uno slot progressivo la prima volta che viene aggiunto,
+ * e lo slot non cambia finché lo store non viene svuotato: lo stato delle opere si può quindi tenere in array
+ * di primitivi indicizzati per slot.
+ * <br>
+ * Gli id di 40 caratteri esadecimali minuscoli, quelli dei file della stanza, sono tenuti come 20 byte in un unico array;
+ * gli altri come stringhe, in un array allocato solo quando ne arriva uno. L'indice da id a slot è una tabella di int
+ * a indirizzamento aperto. Un'opera occupa così circa 36 byte di heap, contro gli oltre 150 di un id {@code String}
+ * in una {@code HashMap}.
+ * <br>
+ * Lo store non è thread safe. Le liste di {@link #snapshot()} invece non cambiano più, e si possono leggere da altri thread.
+ */
+public final class OperaStore {
+    public static final int NO_SLOT = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private byte[] ids;         // I 20 byte dell'id di ogni slot
+    private String[] texts;     // Gli id non esadecimali, per slot; null finché non ne arriva uno
+    private int[] table;        // Lo slot + 1 di ogni cella, 0 se la cella è vuota
+    private int size;
+
+    public OperaStore() {
+        clear();
+    }
+
+    /**
+     * Aggiunge un id, se non è già presente.
+     * @param operaId L'id dell'opera, non null.
+     * @return Lo slot dell'id.
+     */
+    public int add(String operaId) {
+        boolean hex = HexId.isEncodable(operaId);
+        int cell = find(operaId, hex);
+        if(table[cell] != 0) {
+            return table[cell] - 1;
+        }
+
+        int slot = size;
+        if((slot + 1) * HexId.LENGTH > ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+            if(texts != null) {
+                texts = Arrays.copyOf(texts, ids.length / HexId.LENGTH);
+            }
+        }
+        if(hex) {
+            HexId.encode(operaId, ids, slot * HexId.LENGTH);
+        } else {
+            if(texts == null) {
+                texts = new String[ids.length / HexId.LENGTH];
+            }
+            texts[slot] = operaId;
+        }
+        table[cell] = slot + 1;
+        size++;
+
+        // Fattore di carico massimo 1/2: le sequenze di scansione restano corte
+        if(size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return slot;
+    }
+
+    /**
+     * @param operaId L'id dell'opera.
+     * @return Lo slot dell'id, oppure {@link #NO_SLOT} se non è presente.
+     */
+    public int slotOf(String operaId) {
+        if(operaId == null) {
+            return NO_SLOT;
+        }
+        int cell = find(operaId, HexId.isEncodable(operaId));
+        return table[cell] - 1;
+    }
+
+    public boolean contains(String operaId) {
+        return slotOf(operaId) != NO_SLOT;
+    }
+
+    /**
+     * @param slot Lo slot, tra 0 e {@link #size()} escluso.
+     * @return L'id dello slot. Per gli id esadecimali la stringa viene ricostruita ad ogni chiamata.
+     */
+    public String getId(int slot) {
+        if(slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("slot " + slot + ", size " + size);
+        }
+        return idAt(ids, texts, slot);
+    }
+
+    /**
+     * @param slot Lo slot, tra 0 e {@link #size()} escluso.
+     * @return true se l'id dello slot è di 40 caratteri esadecimali minuscoli, ed è tenuto come 20 byte.
+     */
+    public boolean isHex(int slot) {
+        if(slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("slot " + slot + ", size " + size);
+        }
+        return texts == null || texts[slot] == null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Dimentica tutti gli id. Gli array vengono sostituiti, non azzerati, così le liste già restituite restano valide.
+     */
+    public void clear() {
+        ids = new byte[INITIAL_CAPACITY * HexId.LENGTH];
+        texts = null;
+        table = new int[INITIAL_CAPACITY * 2];
+        size = 0;
+    }
+
+    /**
+     * @return Una lista non modificabile delle opere, una per slot, che non vede le aggiunte successive.
+     * Le opere vengono create quando si leggono.
+     */
+    public List<Opera> snapshot() {
+        return new SnapshotList(ids, texts, null, size);
+    }
+
+    /**
+     * @param slots Gli slot delle opere, nell'ordine della lista. L'array non viene copiato, e le posizioni
+     *              fino a {@code count} non devono più cambiare.
+     * @param count Quanti slot usare.
+     * @return Una lista non modificabile delle opere degli slot indicati, che non vede le aggiunte successive.
+     */
+    public List<Opera> snapshot(int[] slots, int count) {
+        return new SnapshotList(ids, texts, slots, count);
+    }
+
+    /**
+     * @return I byte di heap occupati dagli array dello store, esclusi gli id non esadecimali.
+     */
+    public long getFootprintBytes() {
+        return ids.length + table.length * 4L + (texts != null ? texts.length * 4L : 0);
+    }
+
+    /**
+     * @return La cella della tabella che contiene l'id, oppure la cella vuota in cui andrebbe inserito.
+     */
+    private int find(String operaId, boolean hex) {
+        int mask = table.length - 1;
+        int cell = mix(hex ? hexHash(operaId) : operaId.hashCode()) & mask;
+        while(table[cell] != 0) {
+            if(matches(table[cell] - 1, operaId, hex)) {
+                return cell;
+            }
+            cell = (cell + 1) & mask;
+        }
+        return cell;
+    }
+
+    private boolean matches(int slot, String operaId, boolean hex) {
+        String text = texts != null ? texts[slot] : null;
+        if(!hex) {
+            return operaId.equals(text);
+        }
+        if(text != null) {
+            return false;
+        }
+        int offset = slot * HexId.LENGTH;
+        for(int i=0; i<HexId.LENGTH; i++) {
+            int value = (Character.digit(operaId.charAt(i*2), 16) << 4) | Character.digit(operaId.charAt(i*2+1), 16);
+            if(ids[offset + i] != (byte) value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for(int slot=0; slot<size; slot++) {
+            String text = texts != null ? texts[slot] : null;
+            int cell = mix(text != null ? text.hashCode() : byteHash(slot)) & mask;
+            while(table[cell] != 0) {
+                cell = (cell + 1) & mask;
+            }
+            table[cell] = slot + 1;
+        }
+    }
+
+    /**
+     * L'hash di un id esadecimale, calcolato sui suoi 20 byte letti dai caratteri: coincide con {@link #byteHash(int)}.
+     * Si usano tutti i byte perché gli id generati possono avere un prefisso comune.
+     */
+    private static int hexHash(String operaId) {
+        int hash = 0;
+        for(int i=0; i<HexId.LENGTH; i++) {
+            int value = (Character.digit(operaId.charAt(i*2), 16) << 4) | Character.digit(operaId.charAt(i*2+1), 16);
+            hash = 31 * hash + value;
+        }
+        return hash;
+    }
+
+    private int byteHash(int slot) {
+        int offset = slot * HexId.LENGTH;
+        int hash = 0;
+        for(int i=0; i<HexId.LENGTH; i++) {
+            hash = 31 * hash + (ids[offset + i] & 0xFF);
+        }
+        return hash;
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static String idAt(byte[] ids, String[] texts, int slot) {
+        String text = texts != null ? texts[slot] : null;
+        return text != null ? text : HexId.decode(ids, slot * HexId.LENGTH);
+    }
+
+    /**
+     * Vista sugli array dello store al momento della sua creazione. Le aggiunte successive scrivono oltre {@code size},
+     * o in array nuovi, per cui la vista non cambia.
+     */
+    private static final class SnapshotList extends AbstractList<Opera> implements RandomAccess {
+        private final byte[] ids;
+        private final String[] texts;
+        private final int[] slots;
+        private final int size;
+
+        private SnapshotList(byte[] ids, String[] texts, int[] slots, int size) {
+            this.ids = ids;
+            this.texts = texts;
+            this.slots = slots;
+            this.size = size;
+        }
+
+        @Override
+        public Opera get(int index) {
+            if(index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+            }
+            return new Opera(idAt(ids, texts, slots != null ? slots[index] : index));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
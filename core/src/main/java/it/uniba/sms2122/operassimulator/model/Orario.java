@@ -0,0 +1,49 @@
+package it.uniba.sms2122.operassimulator.model;
+
+import java.util.List;
+
+/**
+ * Una fascia oraria in cui un'opera è in onda, letta dal file json della stanza nel campo {@code orari}:
+ * <pre>
+ * "orari": [ { "giorni": [1, 2, 3, 4, 5], "dalle": "09:00", "alle": "18:30" } ]
+ * </pre>
+ * I giorni vanno da 1 (lunedì) a 7 (domenica); se mancano la fascia vale per tutti i giorni.
+ * Se {@code alle} viene prima di {@code dalle} la fascia finisce il giorno dopo, se sono uguali dura tutto il giorno.
+ */
+public class Orario {
+    private List<Integer> giorni;
+    private String dalle;
+    private String alle;
+
+    public Orario() { }
+
+    public Orario(List<Integer> giorni, String dalle, String alle) {
+        this.giorni = giorni;
+        this.dalle = dalle;
+        this.alle = alle;
+    }
+
+    public List<Integer> getGiorni() {
+        return giorni;
+    }
+
+    public void setGiorni(List<Integer> giorni) {
+        this.giorni = giorni;
+    }
+
+    public String getDalle() {
+        return dalle;
+    }
+
+    public void setDalle(String dalle) {
+        this.dalle = dalle;
+    }
+
+    public String getAlle() {
+        return alle;
+    }
+
+    public void setAlle(String alle) {
+        this.alle = alle;
+    }
+}
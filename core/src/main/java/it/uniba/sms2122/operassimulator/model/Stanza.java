@@ -0,0 +1,96 @@
+package it.uniba.sms2122.operassimulator.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classe che rappresenta una semplice stanza di un museo. Qui verranno prese le informazioni circa le opere presenti.
+ * <br>
+ * Le stanze caricate dai file tengono le opere in un {@link OperaMap}, il cui {@link OperaStore} è condiviso da chi
+ * indicizza le opere della stanza per slot, senza costruirne un altro.
+ */
+public class Stanza {
+    private String id;
+    private String nome;
+    private String descrizione;
+    private Map<String, Opera> opere;
+    private List<Orario> orari;
+    private transient OperaStore operaStore;    // Costruito alla prima richiesta se le opere non sono un OperaMap
+
+    public Stanza() {}
+
+    public Stanza(String id, String nome, String descrizione, Map<String, Opera> opere) {
+        this.id = id;
+        this.descrizione = descrizione;
+        this.nome = nome;
+        this.opere = opere;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getNome() {
+        return nome;
+    }
+
+    public void setNome(String nome) {
+        this.nome = nome;
+    }
+
+    public String getDescrizione() {
+        return descrizione;
+    }
+
+    public void setDescrizione(String descrizione) {
+        this.descrizione = descrizione;
+    }
+
+    public Map<String, Opera> getOpere() {
+        return opere;
+    }
+
+    public synchronized void setOpere(Map<String, Opera> opere) {
+        this.opere = opere;
+        this.operaStore = null;
+    }
+
+    /**
+     * Restituisce lo store degli id delle opere della stanza, uno slot per id distinto nell'ordine delle opere.
+     * Con un {@link OperaMap} è il suo store; altrimenti viene costruito alla prima richiesta, per cui va chiesto
+     * dopo aver riempito la stanza. Lo store non va modificato, e dopo il caricamento si può leggere da qualsiasi thread.
+     * @return Lo store delle opere.
+     */
+    public synchronized OperaStore getOperaStore() {
+        if(opere instanceof OperaMap) {
+            return ((OperaMap) opere).getOperaStore();
+        }
+        if(operaStore == null) {
+            operaStore = new OperaStore();
+            if(opere != null) {
+                for(Opera opera : opere.values()) {
+                    if(opera.getId() != null) {
+                        operaStore.add(opera.getId());
+                    }
+                }
+            }
+        }
+        return operaStore;
+    }
+
+    /**
+     * @return Le fasce orarie in cui sono in onda le opere della stanza che non hanno orari propri, o null se la stanza
+     * non ha orari e le opere si accendono a mano.
+     */
+    public List<Orario> getOrari() {
+        return orari;
+    }
+
+    public void setOrari(List<Orario> orari) {
+        this.orari = orari;
+    }
+}
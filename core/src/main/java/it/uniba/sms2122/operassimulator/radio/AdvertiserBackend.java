@@ -0,0 +1,59 @@
+package it.uniba.sms2122.operassimulator.radio;
+
+/**
+ * Astrazione della radio che si occupa dell'advertising delle opere.
+ * I codici di errore hanno gli stessi valori di quelli di {@code android.bluetooth.le.AdvertiseCallback},
+ * così da poter essere inoltrati senza conversioni.
+ */
+public interface AdvertiserBackend {
+    int ERROR_DATA_TOO_LARGE = 1;
+    int ERROR_TOO_MANY_ADVERTISERS = 2;
+    int ERROR_ALREADY_STARTED = 3;
+    int ERROR_INTERNAL = 4;
+    int ERROR_FEATURE_UNSUPPORTED = 5;
+
+    /**
+     * Fa partire l'advertising di un'opera. L'esito viene notificato in modo asincrono sul callback.
+     * @param payload Il payload dell'opera, già calcolato.
+     * @param profile I parametri radio con cui trasmettere.
+     * @param callback Il callback su cui notificare l'esito.
+     */
+    void startAdvertising(OperaPayload payload, RadioProfile profile, Callback callback);
+
+    /**
+     * Cambia i parametri radio di un'opera in advertising, senza stopparla e farla ripartire.
+     * Se l'opera non è in advertising non fa nulla.
+     * @param operaId L'id dell'opera.
+     * @param profile I nuovi parametri radio.
+     */
+    void updateProfile(String operaId, RadioProfile profile);
+
+    /**
+     * Stoppa l'advertising di un'opera. Se l'opera non è in advertising non fa nulla.
+     * @param operaId L'id dell'opera.
+     */
+    void stopAdvertising(String operaId);
+
+    /**
+     * Stoppa tutti gli advertising e libera le risorse associate alle opere, ad esempio quando si cambia stanza.
+     */
+    void reset();
+
+    /**
+     * @param operaId L'id dell'opera.
+     * @return Il tempo impiegato dall'ultimo cambio (avvio o aggiornamento) dell'opera per andare in onda,
+     * in nanosecondi, oppure -1 se non è stato misurato.
+     */
+    long getSwitchLatencyNanos(String operaId);
+
+    /**
+     * Callback per l'esito dell'avvio dell'advertising.
+     * {@link #onStartFailure} può arrivare anche per un'opera già confermata in onda, se la radio smette di trasmetterla
+     * senza che sia stata stoppata: l'opera va considerata ferma.
+     */
+    interface Callback {
+        void onStartSuccess(String operaId);
+
+        void onStartFailure(String operaId, int errorCode);
+    }
+}
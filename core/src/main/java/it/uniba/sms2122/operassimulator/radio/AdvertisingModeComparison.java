@@ -0,0 +1,120 @@
+package it.uniba.sms2122.operassimulator.radio;
+
+import java.util.Locale;
+
+/**
+ * Confronto tra l'advertising legacy, un'opera per set, e quello esteso, più opere per set: quante opere si possono
+ * emulare, quanti pacchetti di opere al secondo arrivano agli scanner e quanto tempo trasmette la radio.
+ * <br>
+ * L'advertising esteso trasmette sui 3 canali primari solo un breve puntatore (ADV_EXT_IND, {@value #EXT_PRIMARY_PDU_BYTES}
+ * byte), e i dati in un solo pacchetto su un canale secondario (AUX_ADV_IND, più AUX_CHAIN_IND ogni
+ * {@value #EXT_PDU_DATA_BYTES} byte di dati). Le stime usano il PHY a 1 Mbps, 8 µs per byte.
+ */
+public final class AdvertisingModeComparison {
+    public static final int EXT_PRIMARY_PDU_BYTES = 17;
+    public static final int EXT_AUX_OVERHEAD_BYTES = 23;
+    public static final int EXT_PDU_DATA_BYTES = 245;
+    private static final long BYTE_NANOS = 8_000;
+
+    private final Mode legacy;
+    private final Mode extended;
+
+    private AdvertisingModeComparison(Mode legacy, Mode extended) {
+        this.legacy = legacy;
+        this.extended = extended;
+    }
+
+    /**
+     * @param sets Quanti advertising set può aprire la radio.
+     * @param maxDataLength La lunghezza massima dei dati di advertising estesi, 0 se la radio non li supporta.
+     * @param profile I parametri radio delle opere.
+     * @return Il confronto.
+     */
+    public static AdvertisingModeComparison compare(int sets, int maxDataLength, RadioProfile profile) {
+        double eventsPerSecond = 1e9 / PowerModel.eventPeriodNanos(profile);
+        Mode legacy = new Mode(sets, 1, sets * eventsPerSecond,
+                sets * eventsPerSecond * PowerModel.PDU_BYTES * PowerModel.CHANNELS * BYTE_NANOS / 1e3);
+
+        int perSet = PackedAdvertisingPlan.capacity(maxDataLength);
+        if(perSet == 0) {
+            return new AdvertisingModeComparison(legacy, new Mode(0, 0, 0, 0));
+        }
+        int dataBytes = PackedAdvertisingPlan.SET_OVERHEAD_BYTES + perSet * PackedAdvertisingPlan.OPERA_BYTES;
+        int pdus = (dataBytes + EXT_PDU_DATA_BYTES - 1) / EXT_PDU_DATA_BYTES;
+        long eventBytes = (long) EXT_PRIMARY_PDU_BYTES * PowerModel.CHANNELS + (long) pdus * EXT_AUX_OVERHEAD_BYTES + dataBytes;
+        Mode extended = new Mode(sets * perSet, perSet, sets * perSet * eventsPerSecond,
+                sets * eventsPerSecond * eventBytes * BYTE_NANOS / 1e3);
+        return new AdvertisingModeComparison(legacy, extended);
+    }
+
+    public Mode getLegacy() {
+        return legacy;
+    }
+
+    /**
+     * @return Il modo esteso, con capacità 0 se la radio non lo supporta.
+     */
+    public Mode getExtended() {
+        return extended;
+    }
+
+    @Override
+    public String toString() {
+        return "legacy " + legacy + ", extended " + extended;
+    }
+
+    /**
+     * Le prestazioni di un modo di advertising, con tutti i set pieni.
+     */
+    public static final class Mode {
+        private final int capacity;
+        private final int operasPerSet;
+        private final double operaPacketsPerSecond;
+        private final double radioMicrosPerSecond;
+
+        private Mode(int capacity, int operasPerSet, double operaPacketsPerSecond, double radioMicrosPerSecond) {
+            this.capacity = capacity;
+            this.operasPerSet = operasPerSet;
+            this.operaPacketsPerSecond = operaPacketsPerSecond;
+            this.radioMicrosPerSecond = radioMicrosPerSecond;
+        }
+
+        /**
+         * @return Quante opere si possono trasmettere contemporaneamente.
+         */
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public int getOperasPerSet() {
+            return operasPerSet;
+        }
+
+        /**
+         * @return Quanti service data di opere vengono trasmessi al secondo.
+         */
+        public double getOperaPacketsPerSecond() {
+            return operaPacketsPerSecond;
+        }
+
+        /**
+         * @return I microsecondi al secondo in cui la radio trasmette.
+         */
+        public double getRadioMicrosPerSecond() {
+            return radioMicrosPerSecond;
+        }
+
+        /**
+         * @return I microsecondi di trasmissione per ogni service data di opera trasmesso.
+         */
+        public double getRadioMicrosPerOperaPacket() {
+            return operaPacketsPerSecond > 0 ? radioMicrosPerSecond / operaPacketsPerSecond : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d operas (%d per set), %.0f opera packets/s, %.0f us radio/s",
+                    capacity, operasPerSet, operaPacketsPerSecond, radioMicrosPerSecond);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package it.uniba.sms2122.operassimulator.radio;
+
+import java.util.UUID;
+
+import it.uniba.sms2122.operassimulator.codec.OperaFrameCodec;
+
+/**
+ * Il payload di advertising di un'opera: i 20 byte di service data ricavati dall'id esadecimale e il service uuid,
+ * nel formato di {@link OperaFrameCodec}. Viene calcolato una sola volta e riusato ad ogni avvio dell'advertising,
+ * per non generare garbage durante le rotazioni.
+ */
+public final class OperaPayload {
+    public static final int SERVICE_DATA_LENGTH = OperaFrameCodec.ID_LENGTH;
+
+    private final String operaId;
+    private final String serviceUuid;
+    private final UUID uuid;
+    private final byte[] serviceData;
+
+    /**
+     * Costruttore pubblico di {@link OperaPayload}.
+     * @param operaId L'id dell'opera, di 40 caratteri esadecimali.
+     * @param serviceUuid Il service uuid a 16 bit, di 4 caratteri esadecimali.
+     */
+    public OperaPayload(String operaId, String serviceUuid) {
+        this.operaId = operaId;
+        this.serviceUuid = serviceUuid;
+        // L'uuid a 16 bit abbrevia un uuid a 128 bit derivato dal Bluetooth Base UUID: usarne uno diverso porta
+        // ad errori come "Data too large"
+        this.uuid = new UUID(OperaFrameCodec.uuidMostSignificantBits(OperaFrameCodec.parseShortUuid(serviceUuid)),
+                OperaFrameCodec.BASE_UUID_LSB);
+        this.serviceData = encodeServiceData(operaId);
+    }
+
+    public String getOperaId() {
+        return operaId;
+    }
+
+    /**
+     * @return Il service uuid a 16 bit, di 4 caratteri esadecimali.
+     */
+    public String getServiceUuid() {
+        return serviceUuid;
+    }
+
+    /**
+     * @return Il service uuid completo a 128 bit.
+     */
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    /**
+     * @return I byte di service data. L'array è condiviso e non va modificato.
+     */
+    public byte[] getServiceData() {
+        return serviceData;
+    }
+
+    /**
+     * Converte l'id esadecimale di un'opera nei 20 byte di service data.
+     * @param operaId L'id dell'opera, di 40 caratteri esadecimali.
+     * @return I byte di service data.
+     */
+    public static byte[] encodeServiceData(String operaId) {
+        byte[] serviceData = new byte[SERVICE_DATA_LENGTH];
+        OperaFrameCodec.encodeId(operaId, serviceData, 0);
+        return serviceData;
+    }
+}
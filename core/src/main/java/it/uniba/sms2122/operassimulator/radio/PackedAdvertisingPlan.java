@@ -0,0 +1,188 @@
+package it.uniba.sms2122.operassimulator.radio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * La distribuzione delle opere sugli advertising set estesi (bluetooth 5), in cui ogni set trasmette il service data
+ * di più opere nello stesso pacchetto.
+ * <br>
+ * Tutte le opere di un set condividono potenza e intervallo, per cui un'opera entra solo in un set con il suo stesso
+ * {@link RadioProfile} e ancora spazio libero; altrimenti viene aperto un nuovo set, se la radio ne ha ancora.
+ * Cambiare il profilo di un'opera la sposta in un altro set.
+ */
+public class PackedAdvertisingPlan {
+    /**
+     * I byte di un'opera nel pacchetto: la struttura di service data (lunghezza, tipo, uuid a 16 bit e 20 byte di dati)
+     * e il suo uuid nella lista dei service uuid.
+     */
+    public static final int OPERA_BYTES = 1 + 1 + 2 + OperaPayload.SERVICE_DATA_LENGTH + 2;
+    /**
+     * I byte fissi del pacchetto: lunghezza e tipo della lista dei service uuid.
+     */
+    public static final int SET_OVERHEAD_BYTES = 2;
+    public static final int UNLIMITED_SETS = Integer.MAX_VALUE;
+    public static final int NO_SET = -1;
+
+    private final int operasPerSet;
+    private int maxSets;
+    private int nextId = 0;
+    private final Map<Integer, PackedSet> sets = new LinkedHashMap<>();
+    private final Map<String, PackedSet> setsByOpera = new HashMap<>();
+
+    /**
+     * Costruttore pubblico di {@link PackedAdvertisingPlan}.
+     * @param operasPerSet Quante opere entrano in un set, vedi {@link #capacity(int)}.
+     * @param maxSets Quanti set può aprire la radio, o {@link #UNLIMITED_SETS} se non si sa.
+     */
+    public PackedAdvertisingPlan(int operasPerSet, int maxSets) {
+        if(operasPerSet < 1 || maxSets < 1) {
+            throw new IllegalArgumentException("invalid plan: " + operasPerSet + " operas per set, " + maxSets + " sets");
+        }
+        this.operasPerSet = operasPerSet;
+        this.maxSets = maxSets;
+    }
+
+    /**
+     * @param maxDataLength La lunghezza massima dei dati di advertising della radio,
+     *                      {@code BluetoothAdapter.getLeMaximumAdvertisingDataLength()}.
+     * @return Quante opere entrano in un set.
+     */
+    public static int capacity(int maxDataLength) {
+        return Math.max(0, (maxDataLength - SET_OVERHEAD_BYTES) / OPERA_BYTES);
+    }
+
+    /**
+     * Inserisce un'opera in un set.
+     * @param operaId L'id dell'opera, che non deve essere già presente.
+     * @param profile I parametri radio dell'opera.
+     * @return Il set dell'opera, o {@link #NO_SET} se tutti i set con quel profilo sono pieni e non se ne possono aprire altri.
+     */
+    public int add(String operaId, RadioProfile profile) {
+        if(setsByOpera.containsKey(operaId)) {
+            throw new IllegalStateException("opera already planned: " + operaId);
+        }
+        PackedSet target = null;
+        for(PackedSet set : sets.values()) {
+            if(set.profile.equals(profile) && set.members.size() < operasPerSet) {
+                target = set;
+                break;
+            }
+        }
+        if(target == null) {
+            if(sets.size() >= maxSets) {
+                return NO_SET;
+            }
+            target = new PackedSet(nextId++, profile);
+            sets.put(target.id, target);
+        }
+        target.members.add(operaId);
+        setsByOpera.put(operaId, target);
+        return target.id;
+    }
+
+    /**
+     * Toglie un'opera dal suo set. Un set che resta vuoto viene chiuso.
+     * @param operaId L'id dell'opera.
+     * @return Il set in cui era l'opera, o {@link #NO_SET} se non c'era.
+     */
+    public int remove(String operaId) {
+        PackedSet set = setsByOpera.remove(operaId);
+        if(set == null) {
+            return NO_SET;
+        }
+        set.members.remove(operaId);
+        if(set.members.isEmpty()) {
+            sets.remove(set.id);
+        }
+        return set.id;
+    }
+
+    /**
+     * @param operaId L'id dell'opera.
+     * @return Il set dell'opera, o {@link #NO_SET} se non è presente.
+     */
+    public int getSet(String operaId) {
+        PackedSet set = setsByOpera.get(operaId);
+        return set != null ? set.id : NO_SET;
+    }
+
+    /**
+     * @param set Il set.
+     * @return true se il set è aperto, cioè ha almeno un'opera.
+     */
+    public boolean isOpen(int set) {
+        return sets.containsKey(set);
+    }
+
+    /**
+     * @param set Il set.
+     * @return Le opere del set, nell'ordine di inserimento. La lista è una copia, vuota se il set è chiuso.
+     */
+    public List<String> getMembers(int set) {
+        PackedSet packedSet = sets.get(set);
+        return packedSet != null ? new ArrayList<>(packedSet.members) : Collections.<String>emptyList();
+    }
+
+    /**
+     * @param set Il set.
+     * @return I parametri radio del set, o null se il set è chiuso.
+     */
+    public RadioProfile getProfile(int set) {
+        PackedSet packedSet = sets.get(set);
+        return packedSet != null ? packedSet.profile : null;
+    }
+
+    /**
+     * @return I set aperti.
+     */
+    public Set<Integer> getSets() {
+        return Collections.unmodifiableSet(sets.keySet());
+    }
+
+    public int getSetCount() {
+        return sets.size();
+    }
+
+    public int size() {
+        return setsByOpera.size();
+    }
+
+    public int getOperasPerSet() {
+        return operasPerSet;
+    }
+
+    /**
+     * @param maxSets Quanti set può aprire la radio, ad esempio dopo un errore per troppi advertiser.
+     *                I set già aperti restano aperti.
+     */
+    public void setMaxSets(int maxSets) {
+        this.maxSets = Math.max(1, maxSets);
+    }
+
+    public int getMaxSets() {
+        return maxSets;
+    }
+
+    public void clear() {
+        sets.clear();
+        setsByOpera.clear();
+    }
+
+    private static class PackedSet {
+        private final int id;
+        private final RadioProfile profile;
+        private final Set<String> members = new LinkedHashSet<>();
+
+        private PackedSet(int id, RadioProfile profile) {
+            this.id = id;
+            this.profile = profile;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package it.uniba.sms2122.operassimulator.radio;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import it.uniba.sms2122.operassimulator.codec.OperaFrameCodec;
+import it.uniba.sms2122.operassimulator.model.OperaStore;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+
+/**
+ * Cache dei payload di advertising. I payload delle opere della stanza caricata sono in un array indicizzato per slot
+ * del {@link ServiceUuidIndex}, e vengono calcolati al primo avvio di ogni opera: una stanza caricata non occupa
+ * un payload per opera, ma solo un riferimento per slot. Le opere fuori dalla stanza vanno in una mappa a parte.
+ * <br>
+ * Le opere il cui id non è di 40 caratteri esadecimali non hanno un payload: vengono saltate e ricordate
+ * in {@link #getInvalidIds()}, senza impedire il caricamento delle altre.
+ */
+public class PayloadCache {
+    private OperaPayload[] payloads = new OperaPayload[0];     // Il payload di ogni slot dell'indice, null finché non serve
+    private final Map<String, OperaPayload> others = new HashMap<>();   // I payload delle opere fuori dalla stanza
+    private final Set<String> invalidIds = new LinkedHashSet<>();
+    private ServiceUuidIndex serviceUuids;
+
+    /**
+     * Prepara la cache per le opere della stanza, svuotandola.
+     * I service uuid sono quelli del {@link ServiceUuidIndex} della stanza, senza collisioni.
+     * @param stanza La stanza caricata.
+     */
+    public void preload(Stanza stanza) {
+        preload(ServiceUuidIndex.build(stanza));
+    }
+
+    /**
+     * Prepara la cache per le opere dell'indice, svuotandola. I payload vengono calcolati al primo avvio di ogni opera;
+     * qui vengono solo controllati gli id che non sono tenuti come byte dallo store, e saltati quelli non validi.
+     * @param serviceUuids I service uuid delle opere della stanza caricata.
+     */
+    public void preload(ServiceUuidIndex serviceUuids) {
+        payloads = new OperaPayload[serviceUuids.size()];
+        others.clear();
+        invalidIds.clear();
+        this.serviceUuids = serviceUuids;
+
+        byte[] scratch = new byte[OperaPayload.SERVICE_DATA_LENGTH];
+        OperaStore store = serviceUuids.getOperaStore();
+        for(int slot=0; slot<serviceUuids.size(); slot++) {
+            if(store.isHex(slot)) {
+                continue;   // 20 byte validi per costruzione
+            }
+            String operaId = serviceUuids.getOperaId(slot);
+            try {
+                OperaFrameCodec.encodeId(operaId, scratch, 0);
+            } catch(IllegalArgumentException ex) {
+                invalidIds.add(operaId);
+            }
+        }
+    }
+
+    /**
+     * Restituisce il payload di un'opera, calcolandolo solo se non è in cache o se il service uuid è cambiato.
+     * @param operaId L'id dell'opera.
+     * @param serviceUuid Il service uuid a 16 bit.
+     * @return Il payload dell'opera, o null se l'id o il service uuid non sono validi.
+     */
+    public OperaPayload get(String operaId, String serviceUuid) {
+        int slot = serviceUuids != null ? serviceUuids.slotOf(operaId) : OperaStore.NO_SLOT;
+        OperaPayload payload = slot != OperaStore.NO_SLOT ? payloads[slot] : others.get(operaId);
+        if(payload == null || !payload.getServiceUuid().equals(serviceUuid)) {
+            payload = create(slot, operaId, serviceUuid, false);
+        }
+        return payload;
+    }
+
+    /**
+     * Restituisce il payload di un'opera con il service uuid già in cache, o con quello dell'indice se non è in cache.
+     * @param operaId L'id dell'opera.
+     * @return Il payload dell'opera, o null se l'id non è valido.
+     */
+    public OperaPayload get(String operaId) {
+        if(!invalidIds.isEmpty() && invalidIds.contains(operaId)) {
+            return null;
+        }
+        int slot = serviceUuids != null ? serviceUuids.slotOf(operaId) : OperaStore.NO_SLOT;
+        OperaPayload payload = slot != OperaStore.NO_SLOT ? payloads[slot] : others.get(operaId);
+        if(payload != null) {
+            return payload;
+        }
+        String serviceUuid = slot != OperaStore.NO_SLOT ? serviceUuids.getServiceUuid(slot)
+                : serviceUuids != null ? serviceUuids.get(operaId) : defaultServiceUuid(operaId);
+        return create(slot, operaId, serviceUuid, true);
+    }
+
+    /**
+     * @return Gli id delle opere saltate perché non validi, nell'ordine in cui sono stati trovati. L'insieme non è modificabile.
+     */
+    public Set<String> getInvalidIds() {
+        return Collections.unmodifiableSet(invalidIds);
+    }
+
+    /**
+     * @return Il numero di payload calcolati.
+     */
+    public int size() {
+        int size = others.size();
+        for(OperaPayload payload : payloads) {
+            if(payload != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        payloads = new OperaPayload[0];
+        others.clear();
+        invalidIds.clear();
+        serviceUuids = null;
+    }
+
+    /**
+     * Calcola e mette in cache il payload di un'opera.
+     * @param slot Lo slot dell'opera nell'indice, o {@link OperaStore#NO_SLOT} se non è nella stanza.
+     * @param remember true per ricordare l'id tra quelli non validi se il payload non si può calcolare.
+     * @return Il payload, o null se l'id o il service uuid non sono validi.
+     */
+    private OperaPayload create(int slot, String operaId, String serviceUuid, boolean remember) {
+        try {
+            OperaPayload payload = new OperaPayload(operaId, serviceUuid);
+            if(slot != OperaStore.NO_SLOT) {
+                payloads[slot] = payload;
+            } else {
+                others.put(operaId, payload);
+            }
+            return payload;
+        } catch(IllegalArgumentException ex) {
+            if(remember) {
+                invalidIds.add(operaId);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Il service uuid a 16 bit di un'opera, ricavato dagli ultimi 4 caratteri dell'id.
+     * Opere diverse possono averne lo stesso: per quello effettivo si usa il {@link ServiceUuidIndex}.
+     * @param operaId L'id dell'opera.
+     * @return Il service uuid, o l'id stesso se è più corto di 4 caratteri.
+     */
+    public static String defaultServiceUuid(String operaId) {
+        return operaId.length() >= 4 ? operaId.substring(operaId.length()-4) : operaId;
+    }
+}
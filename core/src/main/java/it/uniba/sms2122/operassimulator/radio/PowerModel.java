@@ -0,0 +1,111 @@
+package it.uniba.sms2122.operassimulator.radio;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stima del tempo di trasmissione effettivo e della carica consumata dall'advertising con un certo {@link RadioProfile}.
+ * <br>
+ * Un evento di advertising legacy trasmette lo stesso pacchetto sui 3 canali di advertising. Il nostro pacchetto
+ * (flag, service uuid a 16 bit e 20 byte di service data) occupa {@value #PDU_BYTES} byte con preambolo, indirizzi e CRC,
+ * cioè 8 µs per byte a 1 Mbps. Tra un evento e l'altro passa l'intervallo del profilo più un ritardo casuale di
+ * 0-10 ms, in media {@value #AVERAGE_ADV_DELAY_MILLIS} ms.
+ * <br>
+ * La corrente in trasmissione dipende dalla potenza: il modello la approssima con una retta tra i valori tipici di un
+ * SoC bluetooth low energy, {@value #TX_CURRENT_MIN_MA} mA a {@value RadioProfile#TX_POWER_ULTRA_LOW} dBm e
+ * {@value #TX_CURRENT_MAX_MA} mA a {@value RadioProfile#TX_POWER_HIGH} dBm, più un costo fisso per evento per il
+ * risveglio della radio e i cambi di canale. I valori assoluti sono indicativi: servono a confrontare i profili.
+ */
+public final class PowerModel {
+    public static final int PDU_BYTES = 43;
+    public static final int CHANNELS = 3;
+    public static final double AVERAGE_ADV_DELAY_MILLIS = 5;
+    public static final double TX_CURRENT_MIN_MA = 5.0;
+    public static final double TX_CURRENT_MAX_MA = 8.5;
+    public static final double EVENT_OVERHEAD_MILLIS = 0.4;
+    public static final double EVENT_OVERHEAD_MA = 3.0;
+
+    private static final long BYTE_NANOS = 8_000;
+    private static final long EVENT_AIRTIME_NANOS = PDU_BYTES * BYTE_NANOS * CHANNELS;
+
+    private PowerModel() { }
+
+    /**
+     * @param profile Il profilo radio.
+     * @return Il tempo medio tra due eventi di advertising, in nanosecondi.
+     */
+    public static long eventPeriodNanos(RadioProfile profile) {
+        return (long) ((profile.getIntervalMillis() + AVERAGE_ADV_DELAY_MILLIS) * 1_000_000);
+    }
+
+    /**
+     * @param txPowerLevel La potenza in dBm.
+     * @return La corrente in trasmissione stimata, in mA.
+     */
+    public static double txCurrentMilliAmps(int txPowerLevel) {
+        double ratio = (double) (txPowerLevel - RadioProfile.TX_POWER_ULTRA_LOW) / (RadioProfile.TX_POWER_HIGH - RadioProfile.TX_POWER_ULTRA_LOW);
+        return TX_CURRENT_MIN_MA + Math.max(0, ratio) * (TX_CURRENT_MAX_MA - TX_CURRENT_MIN_MA);
+    }
+
+    /**
+     * Stima il costo di un'opera rimasta in onda per il tempo indicato con un profilo.
+     * @param profile Il profilo radio.
+     * @param onAirNanos Il tempo in onda, in nanosecondi.
+     * @return La stima.
+     */
+    public static Estimate estimate(RadioProfile profile, long onAirNanos) {
+        long events = onAirNanos / eventPeriodNanos(profile);
+        double txMillis = EVENT_AIRTIME_NANOS / 1e6;
+        double microAmpHoursPerEvent = (txMillis * txCurrentMilliAmps(profile.getTxPowerLevel())
+                + EVENT_OVERHEAD_MILLIS * EVENT_OVERHEAD_MA) * 1000 / TimeUnit.HOURS.toMillis(1);
+        return new Estimate(onAirNanos, events, events * EVENT_AIRTIME_NANOS, events * microAmpHoursPerEvent);
+    }
+
+    /**
+     * Il costo stimato dell'advertising con un profilo.
+     */
+    public static final class Estimate {
+        private final long onAirNanos;
+        private final long events;
+        private final long radioNanos;
+        private final double microAmpHours;
+
+        private Estimate(long onAirNanos, long events, long radioNanos, double microAmpHours) {
+            this.onAirNanos = onAirNanos;
+            this.events = events;
+            this.radioNanos = radioNanos;
+            this.microAmpHours = microAmpHours;
+        }
+
+        /**
+         * @return Il tempo in cui le opere hanno occupato uno slot.
+         */
+        public long getOnAirNanos() {
+            return onAirNanos;
+        }
+
+        public long getEvents() {
+            return events;
+        }
+
+        /**
+         * @return Il tempo in cui la radio ha effettivamente trasmesso.
+         */
+        public long getRadioNanos() {
+            return radioNanos;
+        }
+
+        /**
+         * @return La carica consumata, in µAh.
+         */
+        public double getMicroAmpHours() {
+            return microAmpHours;
+        }
+
+        /**
+         * @return La corrente media durante il tempo in onda, in µA.
+         */
+        public double getAverageMicroAmps() {
+            return onAirNanos > 0 ? microAmpHours * TimeUnit.HOURS.toNanos(1) / onAirNanos : 0;
+        }
+    }
+}
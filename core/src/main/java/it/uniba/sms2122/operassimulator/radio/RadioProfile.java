@@ -0,0 +1,90 @@
+package it.uniba.sms2122.operassimulator.radio;
+
+/**
+ * I parametri radio con cui viene fatto l'advertising di un'opera: potenza di trasmissione e intervallo.
+ * I valori sono quelli di {@code android.bluetooth.le.AdvertisingSetParameters}, così da poter essere usati senza conversioni.
+ */
+public final class RadioProfile {
+    public static final int TX_POWER_ULTRA_LOW = -21;
+    public static final int TX_POWER_LOW = -15;
+    public static final int TX_POWER_MEDIUM = -7;
+    public static final int TX_POWER_HIGH = 1;
+    public static final int TX_POWER_MIN = -127;
+
+    // Intervalli in unità di 0,625 ms
+    public static final int INTERVAL_LOW = 160;
+    public static final int INTERVAL_MEDIUM = 400;
+    public static final int INTERVAL_HIGH = 1600;
+
+    private static final int INTERVAL_MAX = 16777215;
+
+    /**
+     * Il profilo usato finora per tutte le opere: potenza media e intervallo di 100 ms.
+     */
+    public static final RadioProfile DEFAULT = new RadioProfile(TX_POWER_MEDIUM, INTERVAL_LOW);
+
+    /**
+     * Il profilo delle opere senza un profilo proprio in modalità a basso consumo: stessa potenza, per non cambiare
+     * la distanza apparente, ma un intervallo di 1 s.
+     */
+    public static final RadioProfile LOW_POWER = new RadioProfile(TX_POWER_MEDIUM, INTERVAL_HIGH);
+
+    private final int txPowerLevel;
+    private final int interval;
+
+    /**
+     * Costruttore pubblico di {@link RadioProfile}.
+     * @param txPowerLevel La potenza di trasmissione in dBm, tra -127 e 1.
+     * @param interval L'intervallo di advertising in unità di 0,625 ms, almeno {@value #INTERVAL_LOW}.
+     */
+    public RadioProfile(int txPowerLevel, int interval) {
+        if(txPowerLevel < TX_POWER_MIN || txPowerLevel > TX_POWER_HIGH) {
+            throw new IllegalArgumentException("txPowerLevel out of range: " + txPowerLevel);
+        }
+        if(interval < INTERVAL_LOW || interval > INTERVAL_MAX) {
+            throw new IllegalArgumentException("interval out of range: " + interval);
+        }
+        this.txPowerLevel = txPowerLevel;
+        this.interval = interval;
+    }
+
+    /**
+     * @return La potenza di trasmissione in dBm.
+     */
+    public int getTxPowerLevel() {
+        return txPowerLevel;
+    }
+
+    /**
+     * @return L'intervallo di advertising in unità di 0,625 ms.
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    public double getIntervalMillis() {
+        return interval * 0.625;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof RadioProfile)) {
+            return false;
+        }
+        RadioProfile other = (RadioProfile) o;
+        return txPowerLevel == other.txPowerLevel && interval == other.interval;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * txPowerLevel + interval;
+    }
+
+    @Override
+    public String toString() {
+        return "RadioProfile{txPower=" + txPowerLevel + "dBm, interval=" + getIntervalMillis() + "ms}";
+    }
+}
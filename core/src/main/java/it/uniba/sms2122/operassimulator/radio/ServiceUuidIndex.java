@@ -0,0 +1,270 @@
+package it.uniba.sms2122.operassimulator.radio;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.OperaStore;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+
+/**
+ * L'assegnazione dei service uuid a 16 bit alle opere di una stanza, senza collisioni.
+ * <br>
+ * Il service uuid di default sono gli ultimi 4 caratteri dell'id, per cui in una stanza grande due opere possono
+ * averne lo stesso, e uno scanner vedrebbe l'opera sbagliata. L'indice viene costruito in O(n) al caricamento della
+ * stanza: nell'ordine della stanza, ogni opera tiene il suo uuid di default se è libero; le altre ricevono il primo uuid
+ * libero a partire da un hash del loro id. A parità di stanza l'assegnazione è sempre la stessa.
+ * <br>
+ * Gli uuid sono tenuti in un array di char indicizzato per slot di un {@link OperaStore}, senza una stringa per opera.
+ * Per una {@link Stanza} lo store è quello della stanza, {@link Stanza#getOperaStore()}, per cui l'indice non tiene
+ * un'altra copia degli id. L'indice non è modificabile, per cui si può pubblicare e leggere da qualsiasi thread.
+ */
+public final class ServiceUuidIndex {
+    private static final int UUIDS = 1 << 16;
+
+    private final OperaStore opere;
+    private final int size;                 // Gli slot dello store indicizzati: quelli aggiunti dopo non fanno parte dell'indice
+    private final char[] serviceUuids;      // L'uuid di ogni slot, valido solo se il bit in custom è acceso
+    private final BitSet custom;            // Gli slot il cui uuid non è quello di default
+    private final Map<String, String> reassigned;
+    private final int unresolved;
+
+    private ServiceUuidIndex(OperaStore opere, int size, char[] serviceUuids, BitSet custom, Map<String, String> reassigned, int unresolved) {
+        this.opere = opere;
+        this.size = size;
+        this.serviceUuids = serviceUuids;
+        this.custom = custom;
+        this.reassigned = Collections.unmodifiableMap(reassigned);
+        this.unresolved = unresolved;
+    }
+
+    /**
+     * @param stanza La stanza.
+     * @return L'indice dei service uuid delle opere della stanza, sullo store della stanza.
+     */
+    public static ServiceUuidIndex build(Stanza stanza) {
+        return build(stanza, null);
+    }
+
+    /**
+     * Costruisce l'indice di una nuova versione della stanza, come {@link #build(Iterable, ServiceUuidIndex)},
+     * sullo store della stanza.
+     * @param stanza La nuova versione della stanza.
+     * @param previous L'indice della versione precedente della stanza, o null.
+     * @return L'indice dei service uuid delle opere della stanza.
+     */
+    public static ServiceUuidIndex build(Stanza stanza, ServiceUuidIndex previous) {
+        OperaStore store = stanza.getOperaStore();
+        return build(store, store.size(), previous);
+    }
+
+    /**
+     * @param opere Le opere, nell'ordine in cui hanno la precedenza sul proprio uuid di default.
+     * @return L'indice dei service uuid delle opere.
+     */
+    public static ServiceUuidIndex build(Iterable<Opera> opere) {
+        return build(opere, null);
+    }
+
+    /**
+     * Costruisce l'indice di una nuova versione della stanza: le opere già presenti nell'indice precedente tengono
+     * il loro uuid, così che uno scanner continui a vederle senza interruzioni, e le nuove si assegnano come in {@link #build(Iterable)}.
+     * Gli slot dell'indice seguono l'ordine delle opere, con prima quelle dell'indice precedente.
+     * @param opere Le opere, nell'ordine in cui le nuove hanno la precedenza sul proprio uuid di default.
+     * @param previous L'indice della versione precedente della stanza, o null.
+     * @return L'indice dei service uuid delle opere.
+     */
+    public static ServiceUuidIndex build(Iterable<Opera> opere, ServiceUuidIndex previous) {
+        OperaStore store = new OperaStore();
+        if(previous != null) {
+            for(Opera opera : opere) {
+                if(opera.getId() != null && previous.contains(opera.getId())) {
+                    store.add(opera.getId());
+                }
+            }
+        }
+        for(Opera opera : opere) {
+            if(opera.getId() != null) {
+                store.add(opera.getId());
+            }
+        }
+        return build(store, store.size(), previous);
+    }
+
+    /**
+     * Assegna gli uuid ai primi {@code size} slot dello store.
+     */
+    private static ServiceUuidIndex build(OperaStore store, int size, ServiceUuidIndex previous) {
+        char[] serviceUuids = new char[size];
+        BitSet custom = new BitSet();
+        BitSet used = new BitSet(UUIDS);
+        BitSet kept = new BitSet();                 // Gli slot che hanno ripreso l'uuid dell'indice precedente
+        List<String> colliding = new ArrayList<>();
+        Map<String, String> reassigned = new LinkedHashMap<>();
+
+        // Passata preliminare: le opere dell'indice precedente riprendono il loro uuid
+        if(previous != null) {
+            for(int slot=0; slot<size; slot++) {
+                String operaId = store.getId(slot);
+                int previousSlot = previous.slotOf(operaId);
+                if(previousSlot == OperaStore.NO_SLOT) {
+                    continue;
+                }
+                kept.set(slot);
+                int uuid = previous.custom.get(previousSlot) ? previous.serviceUuids[previousSlot] : parseDefault(operaId);
+                if(uuid < 0 || used.get(uuid)) {
+                    // Era rimasta in collisione: riprova con le nuove
+                    colliding.add(operaId);
+                    continue;
+                }
+                used.set(uuid);
+                if(uuid != parseDefault(operaId)) {
+                    serviceUuids[slot] = (char) uuid;
+                    custom.set(slot);
+                    reassigned.put(operaId, format(uuid));
+                }
+            }
+        }
+
+        // Prima passata: ogni opera prende il suo uuid di default, se nessuna l'ha già preso
+        for(int slot=0; slot<size; slot++) {
+            if(kept.get(slot)) {
+                continue;
+            }
+            String operaId = store.getId(slot);
+            int uuid = parseDefault(operaId);
+            if(uuid >= 0 && !used.get(uuid)) {
+                used.set(uuid);
+            } else {
+                colliding.add(operaId);
+            }
+        }
+
+        // Seconda passata: le opere in collisione prendono il primo uuid libero dopo l'hash del loro id
+        int unresolved = 0;
+        for(String operaId : colliding) {
+            int uuid = used.nextClearBit(hash(operaId));
+            if(uuid >= UUIDS) {
+                uuid = used.nextClearBit(0);
+            }
+            if(uuid >= UUIDS) {
+                // Più opere che uuid: non si può evitare la collisione
+                unresolved++;
+                if(parseDefault(operaId) < 0) {
+                    int slot = store.slotOf(operaId);
+                    serviceUuids[slot] = (char) hash(operaId);
+                    custom.set(slot);
+                }
+                continue;
+            }
+            used.set(uuid);
+            int slot = store.slotOf(operaId);
+            serviceUuids[slot] = (char) uuid;
+            custom.set(slot);
+            reassigned.put(operaId, format(uuid));
+        }
+        return new ServiceUuidIndex(store, size, serviceUuids, custom, reassigned, unresolved);
+    }
+
+    /**
+     * @param operaId L'id dell'opera.
+     * @return Il service uuid assegnato all'opera, o quello di default se l'opera non è nella stanza.
+     */
+    public String get(String operaId) {
+        int slot = slotOf(operaId);
+        return slot != OperaStore.NO_SLOT ? getServiceUuid(slot) : PayloadCache.defaultServiceUuid(operaId);
+    }
+
+    /**
+     * @param slot La posizione, tra 0 e {@link #size()} escluso.
+     * @return Il service uuid assegnato all'opera in quella posizione.
+     */
+    public String getServiceUuid(int slot) {
+        return custom.get(slot) ? format(serviceUuids[slot]) : PayloadCache.defaultServiceUuid(getOperaId(slot));
+    }
+
+    /**
+     * @param operaId L'id dell'opera.
+     * @return La posizione dell'opera nell'indice, oppure {@link OperaStore#NO_SLOT} se l'opera non è nella stanza.
+     */
+    public int slotOf(String operaId) {
+        int slot = opere.slotOf(operaId);
+        return slot < size ? slot : OperaStore.NO_SLOT;
+    }
+
+    /**
+     * @return Le opere a cui è stato assegnato un uuid diverso da quello di default, con il nuovo uuid,
+     * nell'ordine di assegnazione. La mappa non è modificabile.
+     */
+    public Map<String, String> getReassigned() {
+        return reassigned;
+    }
+
+    /**
+     * @return Quante opere sono rimaste in collisione perché la stanza ha più opere che service uuid.
+     */
+    public int getUnresolvedCount() {
+        return unresolved;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param operaId L'id dell'opera.
+     * @return true se l'opera è nell'indice.
+     */
+    public boolean contains(String operaId) {
+        return slotOf(operaId) != OperaStore.NO_SLOT;
+    }
+
+    /**
+     * @param slot La posizione, tra 0 e {@link #size()} escluso.
+     * @return L'id dell'opera in quella posizione. L'ordine è quello in cui le opere sono state indicizzate.
+     */
+    public String getOperaId(int slot) {
+        if(slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("slot " + slot + ", size " + size);
+        }
+        return opere.getId(slot);
+    }
+
+    /**
+     * @return Lo store degli id dell'indice. Va solo letto, e solo nei primi {@link #size()} slot.
+     */
+    OperaStore getOperaStore() {
+        return opere;
+    }
+
+    /**
+     * @return Il valore dell'uuid di default dell'opera, o -1 se gli ultimi 4 caratteri dell'id non sono esadecimali.
+     */
+    private static int parseDefault(String operaId) {
+        if(operaId.length() < 4) {
+            return -1;
+        }
+        int uuid = 0;
+        for(int i=operaId.length()-4; i<operaId.length(); i++) {
+            int digit = Character.digit(operaId.charAt(i), 16);
+            if(digit < 0) {
+                return -1;
+            }
+            uuid = (uuid << 4) | digit;
+        }
+        return uuid;
+    }
+
+    private static int hash(String operaId) {
+        int h = operaId.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (UUIDS - 1);
+    }
+
+    private static String format(int uuid) {
+        return String.format("%04x", uuid);
+    }
+}
@@ -0,0 +1,343 @@
+package it.uniba.sms2122.operassimulator.radio;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import it.uniba.sms2122.operassimulator.utility.TaskScheduler;
+
+/**
+ * Radio simulata, interamente in memoria. Può ospitare migliaia di beacon virtuali e modella il numero di slot,
+ * la latenza di avvio e i codici di errore della radio reale. I {@link ScanListener} registrati ricevono,
+ * ad ogni intervallo di scansione, le opere che uno scanner sentirebbe in quel momento.
+ * <br>
+ * Come le altre implementazioni di {@link AdvertiserBackend}, va usata dal thread del {@link TaskScheduler}.
+ */
+public class SimulatedRadio implements AdvertiserBackend {
+    public static final int UNLIMITED_SLOTS = Integer.MAX_VALUE;
+    public static final long DEFAULT_SCAN_INTERVAL_MILLIS = 100;
+
+    private final TaskScheduler taskScheduler;
+    private final Random random;
+    private final Map<String, Beacon> beacons = new LinkedHashMap<>();    // I beacon in avvio o in onda
+    private final Map<String, List<Failure>> failuresInFlight = new HashMap<>();  // Gli avvii falliti non ancora notificati
+    private final ArrayDeque<Integer> scriptedFailures = new ArrayDeque<>();
+    private final List<ScanListener> scanListeners = new CopyOnWriteArrayList<>();
+    private final Map<String, Long> switchLatencies = new HashMap<>();
+
+    private int slots = UNLIMITED_SLOTS;
+    private long startLatencyMillis = 0;
+    private long latencyJitterMillis = 0;
+    private double failureRate = 0;
+    private int failureCode = ERROR_INTERNAL;
+    private long scanIntervalMillis = DEFAULT_SCAN_INTERVAL_MILLIS;
+    private boolean scanScheduled = false;
+
+    private int onAirCount = 0;
+    private long starts = 0;
+    private long failures = 0;
+
+    private final Runnable scanTask = this::scan;
+
+    /**
+     * Ascoltatore di quello che sente uno scanner nelle vicinanze.
+     */
+    public interface ScanListener {
+        /**
+         * @param payload Il payload ricevuto.
+         * @param profile I parametri radio con cui è stato trasmesso.
+         * @param nanoTime L'istante della ricezione, secondo il {@link TaskScheduler} della radio.
+         */
+        void onAdvertisement(OperaPayload payload, RadioProfile profile, long nanoTime);
+    }
+
+    /**
+     * Costruttore pubblico di {@link SimulatedRadio}.
+     * @param taskScheduler Lo scheduler su cui simulare latenze e scansioni.
+     * @param seed Il seme per la latenza casuale e i fallimenti casuali, per avere simulazioni ripetibili.
+     */
+    public SimulatedRadio(TaskScheduler taskScheduler, long seed) {
+        this.taskScheduler = taskScheduler;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param slots Il numero massimo di advertiser contemporanei, come nel controller bluetooth di un dispositivo reale.
+     */
+    public void setSlots(int slots) {
+        this.slots = slots;
+    }
+
+    /**
+     * @param latencyMillis La latenza con cui viene notificato l'esito di un avvio.
+     * @param jitterMillis La variazione casuale massima della latenza, aggiunta alla latenza base.
+     */
+    public void setStartLatency(long latencyMillis, long jitterMillis) {
+        this.startLatencyMillis = latencyMillis;
+        this.latencyJitterMillis = jitterMillis;
+    }
+
+    /**
+     * @param rate La probabilità, tra 0 e 1, che un avvio fallisca.
+     * @param errorCode Il codice di errore dei fallimenti casuali.
+     */
+    public void setFailureRate(double rate, int errorCode) {
+        this.failureRate = rate;
+        this.failureCode = errorCode;
+    }
+
+    /**
+     * Fa fallire il prossimo avvio con il codice indicato. Le chiamate si accodano.
+     * @param errorCode Il codice di errore.
+     */
+    public void failNextStart(int errorCode) {
+        scriptedFailures.addLast(errorCode);
+    }
+
+    public void setScanIntervalMillis(long scanIntervalMillis) {
+        this.scanIntervalMillis = scanIntervalMillis;
+    }
+
+    public void addScanListener(ScanListener listener) {
+        scanListeners.add(listener);
+        scheduleScan();
+    }
+
+    public void removeScanListener(ScanListener listener) {
+        scanListeners.remove(listener);
+    }
+
+    @Override
+    public void startAdvertising(OperaPayload payload, RadioProfile profile, Callback callback) {
+        starts++;
+        String operaId = payload.getOperaId();
+        int errorCode = 0;
+        if(beacons.containsKey(operaId)) {
+            errorCode = ERROR_ALREADY_STARTED;
+        } else if(!scriptedFailures.isEmpty()) {
+            errorCode = scriptedFailures.pollFirst();
+        } else if(beacons.size() >= slots) {
+            errorCode = ERROR_TOO_MANY_ADVERTISERS;
+        } else if(failureRate > 0 && random.nextDouble() < failureRate) {
+            errorCode = failureCode;
+        }
+
+        if(errorCode != 0) {
+            failures++;
+            Failure failure = new Failure(operaId, errorCode, callback);
+            List<Failure> pending = failuresInFlight.get(operaId);
+            if(pending == null) {
+                pending = new ArrayList<>(1);
+                failuresInFlight.put(operaId, pending);
+            }
+            pending.add(failure);
+            taskScheduler.postDelayed(failure, nextLatency());
+            return;
+        }
+
+        // Lo slot viene occupato subito, come fa lo stack bluetooth alla richiesta di avvio
+        Beacon beacon = new Beacon(payload, profile, callback, taskScheduler.nanoTime());
+        beacons.put(operaId, beacon);
+        taskScheduler.postDelayed(beacon, nextLatency());
+    }
+
+    /**
+     * Annulla anche i fallimenti dell'opera non ancora notificati: un errore arrivato dopo lo stop,
+     * ad esempio {@link #ERROR_TOO_MANY_ADVERTISERS}, non deve più arrivare al chiamante.
+     */
+    @Override
+    public void stopAdvertising(String operaId) {
+        cancelFailures(operaId);
+        Beacon beacon = beacons.remove(operaId);
+        if(beacon == null) {
+            return;
+        }
+        if(beacon.onAir) {
+            onAirCount--;
+        } else {
+            taskScheduler.removeCallbacks(beacon);
+        }
+    }
+
+    /**
+     * Il nuovo profilo viene applicato dopo la latenza della radio; fino ad allora gli scanner sentono quello vecchio.
+     */
+    @Override
+    public void updateProfile(String operaId, RadioProfile profile) {
+        Beacon beacon = beacons.get(operaId);
+        if(beacon == null) {
+            return;
+        }
+
+        long requestedAt = taskScheduler.nanoTime();
+        taskScheduler.postDelayed(() -> {
+            if(beacons.get(operaId) == beacon) {
+                beacon.profile = profile;
+                switchLatencies.put(operaId, taskScheduler.nanoTime() - requestedAt);
+            }
+        }, nextLatency());
+    }
+
+    @Override
+    public void reset() {
+        for(Beacon beacon : beacons.values()) {
+            taskScheduler.removeCallbacks(beacon);
+        }
+        beacons.clear();
+        for(List<Failure> pending : failuresInFlight.values()) {
+            for(Failure failure : pending) {
+                taskScheduler.removeCallbacks(failure);
+            }
+        }
+        failuresInFlight.clear();
+        switchLatencies.clear();
+        onAirCount = 0;
+    }
+
+    @Override
+    public long getSwitchLatencyNanos(String operaId) {
+        Long latency = switchLatencies.get(operaId);
+        return latency != null ? latency : -1;
+    }
+
+    /**
+     * @param operaId L'id dell'opera.
+     * @return I parametri radio con cui l'opera è trasmessa, oppure null se non è in onda.
+     */
+    public RadioProfile getProfile(String operaId) {
+        Beacon beacon = beacons.get(operaId);
+        return beacon != null && beacon.onAir ? beacon.profile : null;
+    }
+
+    /**
+     * @return I payload che uno scanner sentirebbe in questo momento.
+     */
+    public List<OperaPayload> getOnAir() {
+        List<OperaPayload> onAir = new ArrayList<>(onAirCount);
+        for(Beacon beacon : beacons.values()) {
+            if(beacon.onAir) {
+                onAir.add(beacon.payload);
+            }
+        }
+        return onAir;
+    }
+
+    public boolean isOnAir(String operaId) {
+        Beacon beacon = beacons.get(operaId);
+        return beacon != null && beacon.onAir;
+    }
+
+    public int getOnAirCount() {
+        return onAirCount;
+    }
+
+    /**
+     * @return Il numero di slot occupati, dai beacon in onda e da quelli in avvio.
+     */
+    public int getUsedSlots() {
+        return beacons.size();
+    }
+
+    public long getStarts() {
+        return starts;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    private long nextLatency() {
+        if(latencyJitterMillis <= 0) {
+            return startLatencyMillis;
+        }
+        return startLatencyMillis + (long) (random.nextDouble() * (latencyJitterMillis + 1));
+    }
+
+    private void scan() {
+        scanScheduled = false;
+        if(scanListeners.isEmpty()) {
+            return;
+        }
+
+        long now = taskScheduler.nanoTime();
+        for(Beacon beacon : beacons.values()) {
+            if(beacon.onAir) {
+                for(ScanListener listener : scanListeners) {
+                    listener.onAdvertisement(beacon.payload, beacon.profile, now);
+                }
+            }
+        }
+        scheduleScan();
+    }
+
+    private void scheduleScan() {
+        if(!scanScheduled && !scanListeners.isEmpty()) {
+            scanScheduled = true;
+            taskScheduler.postDelayed(scanTask, scanIntervalMillis);
+        }
+    }
+
+    private void cancelFailures(String operaId) {
+        List<Failure> pending = failuresInFlight.remove(operaId);
+        if(pending != null) {
+            for(Failure failure : pending) {
+                taskScheduler.removeCallbacks(failure);
+            }
+        }
+    }
+
+    /**
+     * Un avvio fallito, notificato allo scadere della latenza come un avvio riuscito.
+     */
+    private class Failure implements Runnable {
+        private final String operaId;
+        private final int errorCode;
+        private final Callback callback;
+
+        private Failure(String operaId, int errorCode, Callback callback) {
+            this.operaId = operaId;
+            this.errorCode = errorCode;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            List<Failure> pending = failuresInFlight.get(operaId);
+            if(pending != null && pending.remove(this) && pending.isEmpty()) {
+                failuresInFlight.remove(operaId);
+            }
+            callback.onStartFailure(operaId, errorCode);
+        }
+    }
+
+    /**
+     * Un beacon virtuale. È anche il task che ne completa l'avvio allo scadere della latenza.
+     */
+    private class Beacon implements Runnable {
+        private final OperaPayload payload;
+        private final Callback callback;
+        private final long requestedAt;
+        private RadioProfile profile;
+        private boolean onAir = false;
+
+        private Beacon(OperaPayload payload, RadioProfile profile, Callback callback, long requestedAt) {
+            this.payload = payload;
+            this.profile = profile;
+            this.callback = callback;
+            this.requestedAt = requestedAt;
+        }
+
+        @Override
+        public void run() {
+            onAir = true;
+            onAirCount++;
+            switchLatencies.put(payload.getOperaId(), taskScheduler.nanoTime() - requestedAt);
+            callback.onStartSuccess(payload.getOperaId());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package it.uniba.sms2122.operassimulator.scenario;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.radio.RadioProfile;
+import it.uniba.sms2122.operassimulator.utility.TaskScheduler;
+
+/**
+ * Simula la distanza tra il visitatore e le opere cambiando nel tempo potenza e intervallo di advertising.
+ * <br>
+ * Il telefono che fa la scansione resta fermo, per cui allontanarsi di {@code d} metri equivale ad abbassare la potenza
+ * di {@code 10 n log10(d)} dB rispetto a quella a 1 m, con {@code n} l'esponente di path loss. Anche l'intervallo
+ * cresce con la distanza: un'opera lontana interessa meno, e non serve che consumi airtime.
+ * <br>
+ * Le rampe vengono aggiornate ogni {@link #DEFAULT_STEP_MILLIS} ms, e il controller viene chiamato solo quando
+ * il profilo cambia davvero. Va usato dal thread del {@link TaskScheduler} del controller.
+ */
+public class ProximityDriver implements Runnable {
+    public static final long DEFAULT_STEP_MILLIS = 100;
+    public static final double DEFAULT_PATH_LOSS_EXPONENT = 2.0;
+    public static final double DEFAULT_FAR_METERS = 10;
+
+    private final AdvertiserController controller;
+    private final TaskScheduler taskScheduler;
+    private final Map<String, Ramp> ramps = new LinkedHashMap<>();
+    private long stepMillis = DEFAULT_STEP_MILLIS;
+    private double pathLossExponent = DEFAULT_PATH_LOSS_EXPONENT;
+    private double farMeters = DEFAULT_FAR_METERS;
+    private boolean scheduled = false;
+
+    /**
+     * Costruttore pubblico di {@link ProximityDriver}.
+     * @param controller Il controller delle opere.
+     * @param taskScheduler Lo scheduler del controller.
+     */
+    public ProximityDriver(AdvertiserController controller, TaskScheduler taskScheduler) {
+        this.controller = controller;
+        this.taskScheduler = taskScheduler;
+    }
+
+    /**
+     * @param stepMillis Ogni quanti millisecondi aggiornare le rampe.
+     * @param pathLossExponent L'esponente di path loss: 2 in campo libero, fino a 4 in un ambiente chiuso e affollato.
+     * @param farMeters La distanza a cui l'intervallo raggiunge {@link RadioProfile#INTERVAL_HIGH}.
+     */
+    public void configure(long stepMillis, double pathLossExponent, double farMeters) {
+        if(stepMillis < 1 || !(pathLossExponent > 0) || !(farMeters > 1)) {
+            throw new IllegalArgumentException("invalid proximity configuration");
+        }
+        this.stepMillis = stepMillis;
+        this.pathLossExponent = pathLossExponent;
+        this.farMeters = farMeters;
+    }
+
+    /**
+     * Porta un'opera alla distanza indicata.
+     * @param operaId L'id dell'opera.
+     * @param meters La distanza di arrivo, in metri.
+     * @param rampMillis In quanto tempo arrivarci, partendo dalla distanza attuale. Con 0, o se l'opera non ha ancora
+     *                   una distanza, il cambio è immediato.
+     */
+    public void setDistance(String operaId, double meters, long rampMillis) {
+        if(!(meters > 0)) {
+            throw new IllegalArgumentException("distance must be positive: " + meters);
+        }
+        Ramp ramp = ramps.get(operaId);
+        long now = taskScheduler.nanoTime();
+        double from = ramp != null ? ramp.distanceAt(now) : meters;
+        ramp = new Ramp(from, meters, now, TimeUnit.MILLISECONDS.toNanos(Math.max(0, rampMillis)));
+        ramps.put(operaId, ramp);
+        apply(operaId, ramp.distanceAt(now));
+        if(!ramp.isDone(now) && !scheduled) {
+            scheduled = true;
+            taskScheduler.postDelayed(this, stepMillis);
+        }
+    }
+
+    /**
+     * @param operaId L'id dell'opera.
+     * @return La distanza simulata dell'opera adesso, o -1 se l'opera non è controllata dal driver.
+     */
+    public double getDistance(String operaId) {
+        Ramp ramp = ramps.get(operaId);
+        return ramp != null ? ramp.distanceAt(taskScheduler.nanoTime()) : -1;
+    }
+
+    /**
+     * Smette di controllare un'opera, che torna al profilo di default.
+     * @param operaId L'id dell'opera.
+     */
+    public void release(String operaId) {
+        if(ramps.remove(operaId) != null) {
+            controller.setRadioProfile(operaId, RadioProfile.DEFAULT);
+        }
+    }
+
+    /**
+     * Ferma tutte le rampe. Le opere restano con il profilo raggiunto.
+     */
+    public void stop() {
+        taskScheduler.removeCallbacks(this);
+        scheduled = false;
+        ramps.clear();
+    }
+
+    @Override
+    public void run() {
+        scheduled = false;
+        long now = taskScheduler.nanoTime();
+        boolean moving = false;
+        for(Map.Entry<String, Ramp> entry : ramps.entrySet()) {
+            Ramp ramp = entry.getValue();
+            if(ramp.applied) {
+                continue;
+            }
+            apply(entry.getKey(), ramp.distanceAt(now));
+            if(ramp.isDone(now)) {
+                ramp.applied = true;
+            } else {
+                moving = true;
+            }
+        }
+        if(moving) {
+            scheduled = true;
+            taskScheduler.postDelayed(this, stepMillis);
+        }
+    }
+
+    private void apply(String operaId, double meters) {
+        RadioProfile profile = profileAt(meters);
+        if(!profile.equals(controller.getRadioProfile(operaId))) {
+            controller.setRadioProfile(operaId, profile);
+        }
+    }
+
+    /**
+     * @param meters La distanza simulata.
+     * @return Il profilo che la simula: potenza ridotta secondo il path loss, intervallo crescente fino a {@code farMeters}.
+     */
+    public RadioProfile profileAt(double meters) {
+        double distance = Math.max(1, meters);
+        long txPower = Math.round(RadioProfile.TX_POWER_HIGH - 10 * pathLossExponent * Math.log10(distance));
+        double ratio = Math.min(1, (distance - 1) / (farMeters - 1));
+        long interval = Math.round(RadioProfile.INTERVAL_LOW + ratio * (RadioProfile.INTERVAL_HIGH - RadioProfile.INTERVAL_LOW));
+        return new RadioProfile((int) Math.max(RadioProfile.TX_POWER_MIN, txPower), (int) interval);
+    }
+
+    /**
+     * Una variazione lineare della distanza nel tempo.
+     */
+    private static class Ramp {
+        private final double from;
+        private final double to;
+        private final long startedAt;
+        private final long durationNanos;
+        private boolean applied;        // L'ultimo passo della rampa è già stato applicato
+
+        private Ramp(double from, double to, long startedAt, long durationNanos) {
+            this.from = from;
+            this.to = to;
+            this.startedAt = startedAt;
+            this.durationNanos = durationNanos;
+            this.applied = durationNanos == 0;
+        }
+
+        private double distanceAt(long now) {
+            if(isDone(now)) {
+                return to;
+            }
+            return from + (to - from) * (now - startedAt) / durationNanos;
+        }
+
+        private boolean isDone(long now) {
+            return now - startedAt >= durationNanos;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package it.uniba.sms2122.operassimulator.scenario;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * La timeline di una visita simulata: gli eventi ordinati per tempo, a parità di tempo nell'ordine del file.
+ * <br>
+ * Il file ha un evento per riga, con i tempi in millisecondi dall'inizio; le righe vuote e quelle che iniziano con
+ * {@code #} vengono ignorate:
+ * <pre>
+ * 0     start    &lt;id opera&gt;
+ * 1500  txpower  &lt;id opera&gt; -15
+ * 3000  interval &lt;id opera&gt; 400
+ * 3500  distance &lt;id opera&gt; 8 2000
+ * 4000  lowpower on
+ * 5000  stop     &lt;id opera&gt;
+ * 6000  stopall
+ * </pre>
+ * {@code distance} simula con il {@link ProximityDriver} una distanza in metri, raggiunta in modo lineare nei
+ * millisecondi indicati (0 se omessi).
+ */
+public final class Scenario {
+    private final List<ScenarioEvent> events;
+
+    /**
+     * Costruttore pubblico di {@link Scenario}.
+     * @param events Gli eventi, in qualsiasi ordine. La lista viene copiata.
+     */
+    public Scenario(List<ScenarioEvent> events) {
+        List<ScenarioEvent> sorted = new ArrayList<>(events);
+        // L'ordinamento è stabile: gli eventi allo stesso istante restano nell'ordine dato
+        Collections.sort(sorted, Comparator.comparingLong(ScenarioEvent::getAtMillis));
+        this.events = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * Legge uno scenario dal file della timeline.
+     * @param reader Il reader del file. Non viene chiuso.
+     * @return Lo scenario.
+     * @throws IOException Se il file non si può leggere o una riga non è valida.
+     */
+    public static Scenario parse(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        List<ScenarioEvent> events = new ArrayList<>();
+        String line;
+        int number = 0;
+        while((line = lines.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                events.add(parseEvent(line.split("\\s+")));
+            } catch(IllegalArgumentException ex) {
+                throw new IOException("line " + number + ": " + ex.getMessage(), ex);
+            }
+        }
+        return new Scenario(events);
+    }
+
+    private static ScenarioEvent parseEvent(String[] fields) {
+        if(fields.length < 2) {
+            throw new IllegalArgumentException("expected <millis> <action> [opera] [value]");
+        }
+        long atMillis = Long.parseLong(fields[0]);
+        String action = fields[1].toLowerCase(Locale.ROOT);
+        switch(action) {
+            case "start":
+                return new ScenarioEvent(atMillis, ScenarioEvent.Action.START, field(fields, 2), 0);
+            case "stop":
+                return new ScenarioEvent(atMillis, ScenarioEvent.Action.STOP, field(fields, 2), 0);
+            case "txpower":
+                return new ScenarioEvent(atMillis, ScenarioEvent.Action.TX_POWER, field(fields, 2), Integer.parseInt(field(fields, 3)));
+            case "interval":
+                return new ScenarioEvent(atMillis, ScenarioEvent.Action.INTERVAL, field(fields, 2), Integer.parseInt(field(fields, 3)));
+            case "distance":
+                return new ScenarioEvent(atMillis, field(fields, 2), Double.parseDouble(field(fields, 3)),
+                        fields.length > 4 ? Integer.parseInt(fields[4]) : 0);
+            case "lowpower":
+                return new ScenarioEvent(atMillis, ScenarioEvent.Action.LOW_POWER, null, parseSwitch(field(fields, 2)) ? 1 : 0);
+            case "stopall":
+                return new ScenarioEvent(atMillis, ScenarioEvent.Action.STOP_ALL, null, 0);
+            default:
+                throw new IllegalArgumentException("unknown action: " + fields[1]);
+        }
+    }
+
+    private static boolean parseSwitch(String value) {
+        switch(value.toLowerCase(Locale.ROOT)) {
+            case "on":
+                return true;
+            case "off":
+                return false;
+            default:
+                throw new IllegalArgumentException("expected on or off: " + value);
+        }
+    }
+
+    private static String field(String[] fields, int index) {
+        if(index >= fields.length) {
+            throw new IllegalArgumentException("missing field " + (index + 1) + " for " + fields[1]);
+        }
+        return fields[index];
+    }
+
+    /**
+     * @return Gli eventi in ordine di esecuzione. La lista non è modificabile.
+     */
+    public List<ScenarioEvent> getEvents() {
+        return events;
+    }
+
+    public int size() {
+        return events.size();
+    }
+
+    /**
+     * @return Il tempo in cui finisce l'ultimo evento, rampe di distanza comprese, a velocità 1×.
+     */
+    public long getDurationMillis() {
+        long duration = 0;
+        for(ScenarioEvent event : events) {
+            long end = event.getAtMillis() + (event.getAction() == ScenarioEvent.Action.DISTANCE ? event.getValue() : 0);
+            duration = Math.max(duration, end);
+        }
+        return duration;
+    }
+}
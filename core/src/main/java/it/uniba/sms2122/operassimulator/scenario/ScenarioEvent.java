@@ -0,0 +1,89 @@
+package it.uniba.sms2122.operassimulator.scenario;
+
+/**
+ * Un evento di uno {@link Scenario}: cosa fare, su quale opera e quando, in millisecondi dall'inizio dello scenario.
+ */
+public final class ScenarioEvent {
+    public enum Action {
+        START, STOP, TX_POWER, INTERVAL, DISTANCE, LOW_POWER, STOP_ALL
+    }
+
+    private final long atMillis;
+    private final Action action;
+    private final String operaId;
+    private final int value;
+    private final double distanceMeters;
+
+    /**
+     * Costruttore pubblico di {@link ScenarioEvent}.
+     * @param atMillis Quando eseguire l'evento, in millisecondi dall'inizio dello scenario.
+     * @param action L'azione.
+     * @param operaId L'id dell'opera, o null per {@link Action#STOP_ALL} e {@link Action#LOW_POWER}.
+     * @param value La potenza in dBm per {@link Action#TX_POWER}, l'intervallo in unità di 0,625 ms per
+     *              {@link Action#INTERVAL}, 1 o 0 per attivare o disattivare {@link Action#LOW_POWER}, ignorato altrimenti.
+     */
+    public ScenarioEvent(long atMillis, Action action, String operaId, int value) {
+        this(atMillis, action, operaId, value, 0);
+    }
+
+    /**
+     * Costruttore di un evento {@link Action#DISTANCE}.
+     * @param atMillis Quando eseguire l'evento, in millisecondi dall'inizio dello scenario.
+     * @param operaId L'id dell'opera.
+     * @param distanceMeters La distanza simulata da raggiungere, in metri.
+     * @param rampMillis In quanto tempo raggiungerla, 0 per un cambio immediato.
+     */
+    public ScenarioEvent(long atMillis, String operaId, double distanceMeters, int rampMillis) {
+        this(atMillis, Action.DISTANCE, operaId, rampMillis, distanceMeters);
+        if(!(distanceMeters > 0) || rampMillis < 0) {
+            throw new IllegalArgumentException("invalid distance ramp");
+        }
+    }
+
+    private ScenarioEvent(long atMillis, Action action, String operaId, int value, double distanceMeters) {
+        if(atMillis < 0) {
+            throw new IllegalArgumentException("atMillis must not be negative");
+        }
+        if(operaId == null && action != Action.STOP_ALL && action != Action.LOW_POWER) {
+            throw new IllegalArgumentException(action + " needs an opera id");
+        }
+        this.atMillis = atMillis;
+        this.action = action;
+        this.operaId = operaId;
+        this.value = value;
+        this.distanceMeters = distanceMeters;
+    }
+
+    public long getAtMillis() {
+        return atMillis;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    public String getOperaId() {
+        return operaId;
+    }
+
+    /**
+     * @return Il valore dell'evento; per {@link Action#DISTANCE} la durata della rampa in millisecondi.
+     */
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * @return La distanza da raggiungere per {@link Action#DISTANCE}, 0 altrimenti.
+     */
+    public double getDistanceMeters() {
+        return distanceMeters;
+    }
+
+    @Override
+    public String toString() {
+        return atMillis + " " + action + (operaId != null ? " " + operaId : "")
+                + (action == Action.DISTANCE ? " " + distanceMeters : "")
+                + (action != Action.START && action != Action.STOP && action != Action.STOP_ALL ? " " + value : "");
+    }
+}
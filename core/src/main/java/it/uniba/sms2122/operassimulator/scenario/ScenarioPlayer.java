@@ -0,0 +1,219 @@
+package it.uniba.sms2122.operassimulator.scenario;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.metrics.LatencyHistogram;
+import it.uniba.sms2122.operassimulator.radio.RadioProfile;
+import it.uniba.sms2122.operassimulator.utility.TaskScheduler;
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+/**
+ * Esegue uno {@link Scenario} su un {@link AdvertiserController}, alla velocità indicata, e misura per ogni evento
+ * di quanto è stato eseguito in ritardo rispetto al tempo previsto.
+ * <br>
+ * Va usato dal thread del {@link TaskScheduler} del controller, come il controller. Con un {@link VirtualTaskScheduler}
+ * (vedi {@link #runHeadless}) l'esecuzione è deterministica e istantanea, adatta ai test sulla JVM.
+ */
+public class ScenarioPlayer implements Runnable {
+    /**
+     * Listener dell'esecuzione, chiamato sul thread del controller.
+     */
+    public interface Listener {
+        /**
+         * @param event L'evento appena eseguito.
+         * @param skewNanos Il ritardo rispetto al tempo previsto. Gli eventi non vengono mai eseguiti in anticipo.
+         */
+        void onEvent(ScenarioEvent event, long skewNanos);
+
+        void onFinished(Report report);
+    }
+
+    private final AdvertiserController controller;
+    private final TaskScheduler taskScheduler;
+    private final Scenario scenario;
+    private final double speed;
+    private final Listener listener;
+    private final LatencyHistogram skews = new LatencyHistogram();
+    private ProximityDriver proximity;      // Creato al primo evento di distanza
+    private long startedAt = -1;
+    private int next = 0;
+
+    /**
+     * Costruttore pubblico di {@link ScenarioPlayer}.
+     * @param controller Il controller su cui eseguire gli eventi.
+     * @param taskScheduler Lo scheduler del controller.
+     * @param scenario Lo scenario.
+     * @param speed La velocità: 1 per il tempo reale, di più per accelerare.
+     * @param listener Il listener da notificare, o null.
+     */
+    public ScenarioPlayer(AdvertiserController controller, TaskScheduler taskScheduler, Scenario scenario,
+                          double speed, Listener listener) {
+        if(!(speed > 0) || Double.isInfinite(speed)) {
+            throw new IllegalArgumentException("speed must be positive: " + speed);
+        }
+        this.controller = controller;
+        this.taskScheduler = taskScheduler;
+        this.scenario = scenario;
+        this.speed = speed;
+        this.listener = listener;
+    }
+
+    /**
+     * Esegue uno scenario su uno scheduler virtuale, facendo avanzare il tempo fino alla fine dello scenario.
+     * @param controller Il controller, creato con lo stesso scheduler.
+     * @param taskScheduler Lo scheduler virtuale.
+     * @param scenario Lo scenario.
+     * @return Il resoconto dell'esecuzione.
+     */
+    public static Report runHeadless(AdvertiserController controller, VirtualTaskScheduler taskScheduler, Scenario scenario) {
+        ScenarioPlayer player = new ScenarioPlayer(controller, taskScheduler, scenario, 1, null);
+        player.start();
+        taskScheduler.advanceBy(scenario.getDurationMillis());
+        return player.getReport();
+    }
+
+    /**
+     * Inizia lo scenario: il tempo zero è adesso. Gli eventi a tempo zero vengono eseguiti subito.
+     */
+    public void start() {
+        if(startedAt >= 0) {
+            throw new IllegalStateException("scenario already started");
+        }
+        startedAt = taskScheduler.nanoTime();
+        run();
+    }
+
+    /**
+     * Interrompe lo scenario e le rampe di distanza. Le opere già avviate restano in onda, con l'ultimo profilo raggiunto.
+     */
+    public void stop() {
+        taskScheduler.removeCallbacks(this);
+        next = scenario.size();
+        if(proximity != null) {
+            proximity.stop();
+        }
+    }
+
+    public boolean isFinished() {
+        return startedAt >= 0 && next >= scenario.size();
+    }
+
+    @Override
+    public void run() {
+        while(next < scenario.size()) {
+            ScenarioEvent event = scenario.getEvents().get(next);
+            long elapsed = taskScheduler.nanoTime() - startedAt;
+            long skew = elapsed - plannedNanos(event);
+            if(skew < 0) {
+                // Il delay dello scheduler è in millisecondi: si aspetta il resto
+                taskScheduler.postDelayed(this, Math.max(1, TimeUnit.NANOSECONDS.toMillis(-skew + 999_999)));
+                return;
+            }
+            next++;
+            apply(event);
+            skews.record(skew);
+            if(listener != null) {
+                listener.onEvent(event, skew);
+            }
+        }
+        if(listener != null) {
+            listener.onFinished(getReport());
+        }
+    }
+
+    private long plannedNanos(ScenarioEvent event) {
+        return (long) (TimeUnit.MILLISECONDS.toNanos(event.getAtMillis()) / speed);
+    }
+
+    private void apply(ScenarioEvent event) {
+        String operaId = event.getOperaId();
+        switch(event.getAction()) {
+            case START:
+                controller.startAdvertising(operaId, null);
+                break;
+
+            case STOP:
+                controller.stopAdvertising(operaId);
+                break;
+
+            case TX_POWER:
+                controller.setRadioProfile(operaId,
+                        new RadioProfile(event.getValue(), controller.getRadioProfile(operaId).getInterval()));
+                break;
+
+            case INTERVAL:
+                controller.setRadioProfile(operaId,
+                        new RadioProfile(controller.getRadioProfile(operaId).getTxPowerLevel(), event.getValue()));
+                break;
+
+            case DISTANCE:
+                if(proximity == null) {
+                    proximity = new ProximityDriver(controller, taskScheduler);
+                }
+                proximity.setDistance(operaId, event.getDistanceMeters(), (long) (event.getValue() / speed));
+                break;
+
+            case LOW_POWER:
+                controller.setLowPowerMode(event.getValue() != 0);
+                break;
+
+            case STOP_ALL:
+                controller.stopAllAdvertising();
+                break;
+        }
+    }
+
+    /**
+     * @return Il resoconto degli eventi eseguiti finora.
+     */
+    public Report getReport() {
+        return new Report(next, scenario.size(), skews.copy(),
+                startedAt >= 0 ? taskScheduler.nanoTime() - startedAt : 0);
+    }
+
+    /**
+     * Il resoconto di un'esecuzione: quanti eventi sono stati eseguiti e con quale ritardo rispetto alla timeline.
+     */
+    public static final class Report {
+        private final int executed;
+        private final int total;
+        private final LatencyHistogram skews;
+        private final long elapsedNanos;
+
+        private Report(int executed, int total, LatencyHistogram skews, long elapsedNanos) {
+            this.executed = executed;
+            this.total = total;
+            this.skews = skews;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getExecuted() {
+            return executed;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return I ritardi degli eventi rispetto al tempo previsto, in nanosecondi.
+         */
+        public LatencyHistogram getSkews() {
+            return skews;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d/%d events in %d ms, skew mean %d us, p99 %d us, max %d us",
+                    executed, total, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    TimeUnit.NANOSECONDS.toMicros(skews.getMean()), TimeUnit.NANOSECONDS.toMicros(skews.getPercentile(99)),
+                    TimeUnit.NANOSECONDS.toMicros(skews.getMax()));
+        }
+    }
+}
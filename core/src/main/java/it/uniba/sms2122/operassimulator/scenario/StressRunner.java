@@ -0,0 +1,396 @@
+package it.uniba.sms2122.operassimulator.scenario;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.metrics.AdvertiserMetrics;
+import it.uniba.sms2122.operassimulator.metrics.LatencyHistogram;
+import it.uniba.sms2122.operassimulator.radio.AdvertiserBackend;
+import it.uniba.sms2122.operassimulator.scheduler.AdvertisingScheduler;
+import it.uniba.sms2122.operassimulator.utility.TaskScheduler;
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+/**
+ * Stress test dell'advertising: per una durata fissa accende e spegne opere a caso, a una frequenza data, attraverso
+ * un {@link AdvertiserController}, e misura quanto la radio impiega a confermare gli avvii e gli stop.
+ * <br>
+ * Finiti i cambi, aspetta che la radio si assesti e controlla che lo stato finale sia quello richiesto: le opere spente
+ * ancora in onda sono advertiser persi, quelle accese che il controller crede in onda ma la radio no si sono fermate
+ * senza avvisare, quelle accese che non sono partite pur avendo uno slot libero sono bloccate.
+ * <br>
+ * Va usato dal thread del {@link TaskScheduler} del controller. Con un {@link VirtualTaskScheduler} e una
+ * {@link it.uniba.sms2122.operassimulator.radio.SimulatedRadio} (vedi {@link #runHeadless}) gira sulla JVM, senza bluetooth.
+ */
+public class StressRunner implements Runnable {
+    public static final long DEFAULT_SETTLE_MILLIS = 2000;
+    private static final long TICK_MILLIS = 10;
+    private static final int MAX_REPORTED_IDS = 10;
+
+    /**
+     * Cosa sta trasmettendo davvero la radio, indipendentemente da quello che crede il controller.
+     */
+    public interface RadioProbe {
+        boolean isOnAir(String operaId);
+    }
+
+    /**
+     * Listener della fine del test, chiamato sul thread del controller.
+     */
+    public interface Listener {
+        void onFinished(Report report);
+    }
+
+    private final AdvertiserController controller;
+    private final TaskScheduler taskScheduler;
+    private final List<String> operaIds;
+    private final double rate;
+    private final long durationMillis;
+    private final RadioProbe probe;
+    private final Random random;
+    private final boolean[] wanted;         // Lo stato richiesto di ogni opera
+    private final Map<String, Long> startRequests = new LinkedHashMap<>();     // Gli avvii non ancora confermati
+    private final Map<String, Long> stopRequests = new LinkedHashMap<>();      // Gli stop non ancora confermati
+    private final LatencyHistogram startAcks = new LatencyHistogram();
+    private final LatencyHistogram stopAcks = new LatencyHistogram();
+    private long settleMillis = DEFAULT_SETTLE_MILLIS;
+    private Listener listener;
+
+    private AdvertiserMetrics baseline;
+    private long startedAt = -1;
+    private long toggles = 0;
+    private long starts = 0;
+    private long stops = 0;
+    private Report report;
+
+    private final AdvertisingScheduler.Listener onAirListener = new AdvertisingScheduler.Listener() {
+        @Override
+        public void onOnAir(String operaId) {
+            Long requestedAt = startRequests.remove(operaId);
+            if(requestedAt != null) {
+                startAcks.record(taskScheduler.nanoTime() - requestedAt);
+            }
+        }
+    };
+
+    /**
+     * Costruttore pubblico di {@link StressRunner}.
+     * @param controller Il controller su cui fare i cambi.
+     * @param taskScheduler Lo scheduler del controller.
+     * @param operaIds Le opere da accendere e spegnere. Devono essere nella stanza caricata nel controller.
+     * @param rate Quanti cambi al secondo, su tutte le opere.
+     * @param durationMillis Per quanto tempo fare i cambi.
+     * @param seed Il seme della scelta delle opere, per avere test ripetibili.
+     * @param probe Lo stato reale della radio, oppure null per fidarsi del controller.
+     */
+    public StressRunner(AdvertiserController controller, TaskScheduler taskScheduler, List<String> operaIds,
+                        double rate, long durationMillis, long seed, RadioProbe probe) {
+        if(operaIds.isEmpty()) {
+            throw new IllegalArgumentException("no operas to toggle");
+        }
+        if(!(rate > 0) || Double.isInfinite(rate) || durationMillis < 0) {
+            throw new IllegalArgumentException("invalid rate or duration: " + rate + ", " + durationMillis);
+        }
+        this.controller = controller;
+        this.taskScheduler = taskScheduler;
+        this.operaIds = new ArrayList<>(operaIds);
+        this.rate = rate;
+        this.durationMillis = durationMillis;
+        this.probe = probe != null ? probe : controller.getScheduler()::isOnAir;
+        this.random = new Random(seed);
+        this.wanted = new boolean[operaIds.size()];
+    }
+
+    /**
+     * Esegue il test su uno scheduler virtuale, facendo avanzare il tempo fino alla fine dell'assestamento.
+     * @return Il resoconto del test.
+     * @see #StressRunner
+     */
+    public static Report runHeadless(AdvertiserController controller, VirtualTaskScheduler taskScheduler, List<String> operaIds,
+                                     double rate, long durationMillis, long seed, RadioProbe probe) {
+        StressRunner runner = new StressRunner(controller, taskScheduler, operaIds, rate, durationMillis, seed, probe);
+        runner.start();
+        taskScheduler.advanceBy(durationMillis + runner.settleMillis + TICK_MILLIS);
+        return runner.getReport();
+    }
+
+    /**
+     * @param settleMillis Quanto aspettare dopo l'ultimo cambio prima di controllare lo stato della radio.
+     */
+    public void setSettleMillis(long settleMillis) {
+        this.settleMillis = settleMillis;
+    }
+
+    /**
+     * @param listener Il listener da notificare alla fine, o null.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Inizia il test: il tempo zero è adesso.
+     */
+    public void start() {
+        if(startedAt >= 0) {
+            throw new IllegalStateException("stress test already started");
+        }
+        startedAt = taskScheduler.nanoTime();
+        baseline = controller.getMetrics().copy();
+        controller.addOnAirListener(onAirListener);
+        run();
+    }
+
+    /**
+     * Interrompe il test, producendo subito il resoconto. Le opere accese dal test vengono spente.
+     */
+    public void stop() {
+        if(startedAt >= 0 && report == null) {
+            finish();
+        }
+    }
+
+    public boolean isFinished() {
+        return report != null;
+    }
+
+    /**
+     * @return Il resoconto, oppure null se il test non è finito.
+     */
+    public Report getReport() {
+        return report;
+    }
+
+    @Override
+    public void run() {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(taskScheduler.nanoTime() - startedAt);
+        long due = (long) (Math.min(elapsedMillis, durationMillis) * rate / 1000);
+        while(toggles < due) {
+            toggle();
+        }
+        pollStops();
+
+        if(elapsedMillis >= durationMillis + settleMillis) {
+            finish();
+            return;
+        }
+        taskScheduler.postDelayed(this, TICK_MILLIS);
+    }
+
+    /**
+     * Un cambio annulla la richiesta opposta non ancora confermata della stessa opera, che non viene misurata.
+     */
+    private void toggle() {
+        int index = random.nextInt(operaIds.size());
+        String operaId = operaIds.get(index);
+        long now = taskScheduler.nanoTime();
+        toggles++;
+        if(wanted[index]) {
+            wanted[index] = false;
+            stops++;
+            startRequests.remove(operaId);
+            stopRequests.put(operaId, now);
+            controller.stopAdvertising(operaId);
+        } else {
+            wanted[index] = true;
+            starts++;
+            stopRequests.remove(operaId);
+            startRequests.put(operaId, now);
+            controller.startAdvertising(operaId, null);
+        }
+    }
+
+    /**
+     * Gli stop non hanno un callback: si controlla la radio ad ogni passo.
+     */
+    private void pollStops() {
+        long now = taskScheduler.nanoTime();
+        for(Iterator<Map.Entry<String, Long>> iterator = stopRequests.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Long> request = iterator.next();
+            if(!probe.isOnAir(request.getKey())) {
+                stopAcks.record(now - request.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    private void finish() {
+        taskScheduler.removeCallbacks(this);
+        controller.removeOnAirListener(onAirListener);
+
+        AdvertisingScheduler scheduler = controller.getScheduler();
+        boolean freeSlot = scheduler.getOnAirCount() < scheduler.getSlots();
+        List<String> leaked = new ArrayList<>();
+        List<String> silent = new ArrayList<>();
+        List<String> stuck = new ArrayList<>();
+        for(int i=0; i<operaIds.size(); i++) {
+            String operaId = operaIds.get(i);
+            boolean onAir = probe.isOnAir(operaId);
+            if(!wanted[i] && onAir) {
+                leaked.add(operaId);
+            } else if(wanted[i] && scheduler.isOnAir(operaId) && !onAir) {
+                silent.add(operaId);
+            } else if(wanted[i] && !scheduler.isOnAir(operaId) && freeSlot) {
+                stuck.add(operaId);
+            }
+        }
+
+        AdvertiserMetrics metrics = controller.getMetrics();
+        Map<Integer, Long> errors = new LinkedHashMap<>();
+        for(int errorCode=AdvertiserMetrics.OTHER_ERROR; errorCode<=AdvertiserBackend.ERROR_FEATURE_UNSUPPORTED; errorCode++) {
+            long count = metrics.getFailures(errorCode) - baseline.getFailures(errorCode);
+            if(count > 0) {
+                errors.put(errorCode, count);
+            }
+        }
+
+        report = new Report(toggles, starts, stops, startAcks.copy(), stopAcks.copy(), startRequests.size(), stopRequests.size(),
+                errors, leaked, silent, stuck, taskScheduler.nanoTime() - startedAt);
+
+        // Le opere accese dal test vengono spente, per lasciare la radio come prima
+        for(int i=0; i<operaIds.size(); i++) {
+            if(wanted[i]) {
+                wanted[i] = false;
+                controller.stopAdvertising(operaIds.get(i));
+            }
+        }
+        if(listener != null) {
+            listener.onFinished(report);
+        }
+    }
+
+    /**
+     * Il resoconto di uno stress test.
+     */
+    public static final class Report {
+        private final long toggles;
+        private final long starts;
+        private final long stops;
+        private final LatencyHistogram startAcks;
+        private final LatencyHistogram stopAcks;
+        private final int unconfirmedStarts;
+        private final int unconfirmedStops;
+        private final Map<Integer, Long> errors;
+        private final List<String> leaked;
+        private final List<String> silentlyStopped;
+        private final List<String> stuck;
+        private final long elapsedNanos;
+
+        private Report(long toggles, long starts, long stops, LatencyHistogram startAcks, LatencyHistogram stopAcks,
+                       int unconfirmedStarts, int unconfirmedStops, Map<Integer, Long> errors, List<String> leaked,
+                       List<String> silentlyStopped, List<String> stuck, long elapsedNanos) {
+            this.toggles = toggles;
+            this.starts = starts;
+            this.stops = stops;
+            this.startAcks = startAcks;
+            this.stopAcks = stopAcks;
+            this.unconfirmedStarts = unconfirmedStarts;
+            this.unconfirmedStops = unconfirmedStops;
+            this.errors = Collections.unmodifiableMap(errors);
+            this.leaked = Collections.unmodifiableList(leaked);
+            this.silentlyStopped = Collections.unmodifiableList(silentlyStopped);
+            this.stuck = Collections.unmodifiableList(stuck);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getToggles() {
+            return toggles;
+        }
+
+        public long getStarts() {
+            return starts;
+        }
+
+        public long getStops() {
+            return stops;
+        }
+
+        /**
+         * @return Il tempo tra la richiesta di avvio e la conferma della radio, in nanosecondi.
+         */
+        public LatencyHistogram getStartAcks() {
+            return startAcks;
+        }
+
+        /**
+         * @return Il tempo tra la richiesta di stop e l'uscita dall'aria, in nanosecondi, con la risoluzione di un passo del test.
+         */
+        public LatencyHistogram getStopAcks() {
+            return stopAcks;
+        }
+
+        /**
+         * @return Gli avvii ancora senza conferma alla fine, comprese le opere che aspettano uno slot.
+         */
+        public int getUnconfirmedStarts() {
+            return unconfirmedStarts;
+        }
+
+        public int getUnconfirmedStops() {
+            return unconfirmedStops;
+        }
+
+        /**
+         * @return Quanti avvii sono falliti durante il test, per codice di errore.
+         */
+        public Map<Integer, Long> getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return Le opere spente che la radio trasmette ancora.
+         */
+        public List<String> getLeaked() {
+            return leaked;
+        }
+
+        /**
+         * @return Le opere accese che il controller crede in onda ma la radio non trasmette.
+         */
+        public List<String> getSilentlyStopped() {
+            return silentlyStopped;
+        }
+
+        /**
+         * @return Le opere accese non in onda nonostante uno slot libero.
+         */
+        public List<String> getStuck() {
+            return stuck;
+        }
+
+        /**
+         * @return true se lo stato finale della radio è quello richiesto.
+         */
+        public boolean isClean() {
+            return leaked.isEmpty() && silentlyStopped.isEmpty() && stuck.isEmpty();
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d toggles (%d starts, %d stops) in %d ms; start ack p50 %.1f p99 %.1f max %.1f ms; "
+                            + "stop ack p50 %.1f p99 %.1f max %.1f ms; unconfirmed %d/%d; errors %s; leaked %s; silently stopped %s; stuck %s",
+                    toggles, starts, stops, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    startAcks.getPercentile(50) / 1e6, startAcks.getPercentile(99) / 1e6, startAcks.getMax() / 1e6,
+                    stopAcks.getPercentile(50) / 1e6, stopAcks.getPercentile(99) / 1e6, stopAcks.getMax() / 1e6,
+                    unconfirmedStarts, unconfirmedStops, errors, ids(leaked), ids(silentlyStopped), ids(stuck));
+        }
+
+        private static String ids(List<String> operaIds) {
+            if(operaIds.size() <= MAX_REPORTED_IDS) {
+                return operaIds.toString();
+            }
+            return operaIds.subList(0, MAX_REPORTED_IDS) + " and " + (operaIds.size() - MAX_REPORTED_IDS) + " more";
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package it.uniba.sms2122.operassimulator.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.metrics.AdvertiserMetrics;
+import it.uniba.sms2122.operassimulator.radio.AdvertiserBackend;
+import it.uniba.sms2122.operassimulator.radio.OperaPayload;
+import it.uniba.sms2122.operassimulator.radio.RadioProfile;
+import it.uniba.sms2122.operassimulator.utility.TaskScheduler;
+
+/**
+ * Scheduler che fa ruotare N opere attive sui K slot di advertising messi a disposizione dalla radio.
+ * Se le opere sono al massimo K restano sempre in onda; altrimenti le opere in onda da almeno {@code dwell} millisecondi,
+ * contati dalla conferma della radio, lasciano il posto a quelle in attesa, secondo la {@link FairnessPolicy} scelta.
+ * <br>
+ * Il numero di slot è configurabile, ma viene ridotto automaticamente quando la radio risponde con
+ * {@link AdvertiserBackend#ERROR_TOO_MANY_ADVERTISERS}.
+ * <br>
+ * La classe non è thread safe: tutti i metodi vanno chiamati sul thread del {@link TaskScheduler}, lo stesso su cui
+ * il backend notifica i callback.
+ */
+public class AdvertisingScheduler {
+    /**
+     * Listener delle opere che vanno in onda.
+     */
+    public interface Listener {
+        /**
+         * La radio ha confermato che l'opera è in onda.
+         * @param operaId L'id dell'opera.
+         */
+        void onOnAir(String operaId);
+    }
+
+    public static final int DEFAULT_SLOTS = 4;
+    public static final long DEFAULT_DWELL_MILLIS = 1000;
+
+    private final AdvertiserBackend backend;
+    private final TaskScheduler taskScheduler;
+    private final AdvertiserMetrics metrics;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();  // Tutte le opere attive, in ordine di aggiunta
+    private final ArrayDeque<Entry> waiting = new ArrayDeque<>();      // Le opere che aspettano uno slot
+    private final List<Entry> onAir = new ArrayList<>();               // Le opere che occupano uno slot (in avvio o in onda)
+    private final List<Entry> candidates = new ArrayList<>();          // Riusata ad ogni rotazione
+
+    private int maxSlots = DEFAULT_SLOTS;
+    private int learnedSlots = Integer.MAX_VALUE;
+    private long dwellMillis = DEFAULT_DWELL_MILLIS;
+    private FairnessPolicy policy = FairnessPolicy.ROUND_ROBIN;
+    private boolean rotationScheduled = false;
+    private Listener listener;
+
+    private final Runnable rotateTask = this::rotate;
+    private final AdvertiserBackend.Callback callback = new AdvertiserBackend.Callback() {
+        @Override
+        public void onStartSuccess(String operaId) {
+            Entry entry = entries.get(operaId);
+            if(entry != null && entry.state == State.STARTING) {
+                entry.state = State.ON_AIR;
+                entry.onAirSince = taskScheduler.nanoTime();
+                entry.profileSince = entry.onAirSince;
+                metrics.onStarted(entry.onAirSince - entry.startRequestedAt);
+                scheduleRotation();
+                if(listener != null) {
+                    listener.onOnAir(operaId);
+                }
+            }
+        }
+
+        @Override
+        public void onStartFailure(String operaId, int errorCode) {
+            metrics.onStartFailed(errorCode);
+            Entry entry = entries.get(operaId);
+            if(entry == null || entry.state == State.WAITING) {
+                return;
+            }
+
+            if(errorCode == AdvertiserBackend.ERROR_ALREADY_STARTED) {
+                onStartSuccess(operaId);
+                return;
+            }
+
+            if(entry.state == State.ON_AIR) {
+                // La radio ha perso un'opera già in onda, ad esempio perché il set che la trasmetteva è stato chiuso
+                release(entry);
+            } else {
+                onAir.remove(entry);
+                metrics.onSlotsChanged(onAir.size());
+                entry.state = State.WAITING;
+            }
+            if(errorCode == AdvertiserBackend.ERROR_TOO_MANY_ADVERTISERS) {
+                // La radio ha meno slot di quelli configurati: ci si limita a quelli effettivamente occupati
+                learnedSlots = Math.max(1, onAir.size());
+                waiting.addFirst(entry);
+            } else {
+                // Si riprova alla prossima rotazione, per non entrare in un ciclo di errori
+                waiting.addLast(entry);
+            }
+            scheduleRotation();
+        }
+    };
+
+    /**
+     * Costruttore pubblico di {@link AdvertisingScheduler}.
+     * @param backend La radio su cui fare l'advertising.
+     * @param taskScheduler Lo scheduler che fornisce il tempo ed esegue le rotazioni.
+     */
+    public AdvertisingScheduler(AdvertiserBackend backend, TaskScheduler taskScheduler) {
+        this(backend, taskScheduler, new AdvertiserMetrics());
+    }
+
+    /**
+     * Costruttore pubblico di {@link AdvertisingScheduler}.
+     * @param backend La radio su cui fare l'advertising.
+     * @param taskScheduler Lo scheduler che fornisce il tempo ed esegue le rotazioni.
+     * @param metrics Le metriche da aggiornare.
+     */
+    public AdvertisingScheduler(AdvertiserBackend backend, TaskScheduler taskScheduler, AdvertiserMetrics metrics) {
+        this.backend = backend;
+        this.taskScheduler = taskScheduler;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Aggiunge un'opera alla rotazione. Se c'è uno slot libero, l'opera va subito in onda.
+     * @param payload Il payload dell'opera.
+     * @return true se l'opera è stata aggiunta, false se era già presente.
+     */
+    public boolean add(OperaPayload payload) {
+        return add(payload, RadioProfile.DEFAULT);
+    }
+
+    /**
+     * Aggiunge un'opera alla rotazione con i parametri radio indicati.
+     * @param payload Il payload dell'opera.
+     * @param profile I parametri radio dell'opera.
+     * @return true se l'opera è stata aggiunta, false se era già presente.
+     */
+    public boolean add(OperaPayload payload, RadioProfile profile) {
+        if(entries.containsKey(payload.getOperaId())) {
+            return false;
+        }
+
+        Entry entry = new Entry(payload, profile, taskScheduler.nanoTime());
+        entries.put(payload.getOperaId(), entry);
+        waiting.addLast(entry);
+        fillFreeSlots();
+        scheduleRotation();
+        return true;
+    }
+
+    /**
+     * Segnala un avvio fallito prima di arrivare alla radio, ad esempio per un'opera il cui id non si può trasmettere.
+     * L'errore viene contato nelle metriche come quelli notificati dalla radio; l'opera non entra nella rotazione.
+     * @param operaId L'id dell'opera.
+     * @param errorCode Il codice di errore, uno di quelli di {@link AdvertiserBackend}.
+     */
+    public void reportStartFailure(String operaId, int errorCode) {
+        callback.onStartFailure(operaId, errorCode);
+    }
+
+    /**
+     * Rimuove un'opera dalla rotazione, liberando subito il suo slot.
+     * @param operaId L'id dell'opera.
+     * @return true se l'opera era presente.
+     */
+    public boolean remove(String operaId) {
+        Entry entry = entries.remove(operaId);
+        if(entry == null) {
+            return false;
+        }
+
+        if(entry.state == State.WAITING) {
+            waiting.remove(entry);
+        } else {
+            release(entry);
+        }
+        fillFreeSlots();
+        return true;
+    }
+
+    /**
+     * Cambia i parametri radio di un'opera attiva. Se l'opera occupa uno slot, il cambio viene applicato senza fermarla.
+     * @param operaId L'id dell'opera.
+     * @param profile I nuovi parametri radio.
+     * @return true se l'opera è attiva.
+     */
+    public boolean setProfile(String operaId, RadioProfile profile) {
+        Entry entry = entries.get(operaId);
+        if(entry == null) {
+            return false;
+        }
+
+        if(entry.state == State.ON_AIR) {
+            // Il tempo in onda finora va al profilo precedente
+            long now = taskScheduler.nanoTime();
+            metrics.addProfileAirtime(entry.profile, now - entry.profileSince);
+            entry.profileSince = now;
+        }
+        entry.profile = profile;
+        if(entry.state != State.WAITING) {
+            backend.updateProfile(operaId, profile);
+        }
+        return true;
+    }
+
+    /**
+     * Rimuove tutte le opere, stoppando quelle in onda.
+     */
+    public void removeAll() {
+        // Gli stop sono asincroni: vengono richiesti tutti insieme e lo slot si libera senza aspettarne l'esito
+        long now = taskScheduler.nanoTime();
+        for(Entry entry : onAir) {
+            long airtime = entry.state == State.ON_AIR ? now - entry.onAirSince : 0;
+            entry.airtime += airtime;
+            if(entry.state == State.ON_AIR) {
+                metrics.addProfileAirtime(entry.profile, now - entry.profileSince);
+            }
+            entry.state = State.WAITING;
+            backend.stopAdvertising(entry.operaId);
+            metrics.onStopped(entry.operaId, airtime);
+        }
+        onAir.clear();
+        metrics.onSlotsChanged(0);
+        entries.clear();
+        waiting.clear();
+        taskScheduler.removeCallbacks(rotateTask);
+        rotationScheduled = false;
+    }
+
+    /**
+     * @param maxSlots Il numero massimo di opere contemporaneamente in onda. Azzera il limite appreso dagli errori della radio.
+     */
+    public void setMaxSlots(int maxSlots) {
+        if(maxSlots < 1) {
+            throw new IllegalArgumentException("maxSlots must be positive");
+        }
+        this.maxSlots = maxSlots;
+        learnedSlots = Integer.MAX_VALUE;
+        fillFreeSlots();
+    }
+
+    /**
+     * @param dwellMillis Per quanti millisecondi un'opera resta in onda prima di lasciare lo slot.
+     */
+    public void setDwellMillis(long dwellMillis) {
+        if(dwellMillis <= 0) {
+            throw new IllegalArgumentException("dwellMillis must be positive");
+        }
+        this.dwellMillis = dwellMillis;
+    }
+
+    /**
+     * @param listener Il listener da notificare quando un'opera va in onda, o null.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setFairnessPolicy(FairnessPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @return Il numero di slot effettivamente usati: il minimo tra quelli configurati e quelli appresi dalla radio.
+     */
+    public int getSlots() {
+        return Math.min(maxSlots, learnedSlots);
+    }
+
+    /**
+     * @return Il numero di opere attive, in onda o in attesa.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Gli id delle opere attive, in ordine di aggiunta. L'insieme non è modificabile.
+     */
+    public Set<String> getOperaIds() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public boolean contains(String operaId) {
+        return entries.containsKey(operaId);
+    }
+
+    public boolean isOnAir(String operaId) {
+        Entry entry = entries.get(operaId);
+        return entry != null && entry.state == State.ON_AIR;
+    }
+
+    /**
+     * @return Il numero di opere che occupano uno slot.
+     */
+    public int getOnAirCount() {
+        return onAir.size();
+    }
+
+    /**
+     * Calcola il duty cycle ottenuto da un'opera, ovvero la frazione del tempo, da quando è stata aggiunta, passata in onda.
+     * @param operaId L'id dell'opera.
+     * @return Il duty cycle, tra 0 e 1. Se l'opera non è attiva restituisce 0.
+     */
+    public double getDutyCycle(String operaId) {
+        Entry entry = entries.get(operaId);
+        return entry != null ? entry.dutyCycle(taskScheduler.nanoTime()) : 0;
+    }
+
+    /**
+     * @return Il duty cycle di tutte le opere attive, in ordine di aggiunta.
+     */
+    public Map<String, Double> getDutyCycles() {
+        long now = taskScheduler.nanoTime();
+        Map<String, Double> dutyCycles = new LinkedHashMap<>();
+        for(Entry entry : entries.values()) {
+            dutyCycles.put(entry.operaId, entry.dutyCycle(now));
+        }
+        return dutyCycles;
+    }
+
+    /**
+     * @return Una copia delle metriche, compreso il tempo in onda delle opere che sono ancora in onda.
+     */
+    public AdvertiserMetrics snapshotMetrics() {
+        AdvertiserMetrics snapshot = metrics.copy();
+        long now = taskScheduler.nanoTime();
+        for(Entry entry : onAir) {
+            if(entry.state == State.ON_AIR) {
+                snapshot.addAirtime(entry.operaId, now - entry.onAirSince);
+                snapshot.addProfileAirtime(entry.profile, now - entry.profileSince);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Esegue una rotazione: le opere in onda da almeno un dwell lasciano lo slot a quelle in attesa.
+     * Il dwell si conta dalla conferma della radio, per cui le opere ancora in avvio restano al loro posto.
+     */
+    private void rotate() {
+        rotationScheduled = false;
+        if(waiting.isEmpty()) {
+            return;
+        }
+
+        long now = taskScheduler.nanoTime();
+        long dwellNanos = TimeUnit.MILLISECONDS.toNanos(dwellMillis);
+        candidates.clear();
+        for(Entry entry : onAir) {
+            if(entry.state == State.ON_AIR && now - entry.onAirSince >= dwellNanos) {
+                candidates.add(entry);
+            }
+        }
+
+        if(policy == FairnessPolicy.LEAST_AIRTIME) {
+            Collections.sort(candidates, Collections.reverseOrder(byDutyCycle(now)));
+        } else {
+            Collections.sort(candidates, (first, second) -> Long.compare(first.onAirSince, second.onAirSince));
+        }
+
+        int swaps = Math.min(waiting.size(), candidates.size());
+        for(int i=0; i<swaps; i++) {
+            Entry entry = candidates.get(i);
+            release(entry);
+            waiting.addLast(entry);
+        }
+        candidates.clear();
+        fillFreeSlots();
+        scheduleRotation();
+    }
+
+    /**
+     * Manda in onda le opere in attesa finché ci sono slot liberi.
+     */
+    private void fillFreeSlots() {
+        while(onAir.size() < getSlots() && !waiting.isEmpty()) {
+            start(nextWaiting());
+        }
+    }
+
+    private Entry nextWaiting() {
+        if(policy == FairnessPolicy.LEAST_AIRTIME) {
+            long now = taskScheduler.nanoTime();
+            Entry best = null;
+            for(Entry entry : waiting) {
+                if(best == null || entry.dutyCycle(now) < best.dutyCycle(now)) {
+                    best = entry;
+                }
+            }
+            waiting.remove(best);
+            return best;
+        }
+        return waiting.pollFirst();
+    }
+
+    private void start(Entry entry) {
+        metrics.onStartRequested(entry.started);
+        entry.started = true;
+        entry.state = State.STARTING;
+        entry.startRequestedAt = taskScheduler.nanoTime();
+        onAir.add(entry);
+        metrics.onSlotsChanged(onAir.size());
+        backend.startAdvertising(entry.payload, entry.profile, callback);
+    }
+
+    private void release(Entry entry) {
+        long now = taskScheduler.nanoTime();
+        long airtime = entry.state == State.ON_AIR ? now - entry.onAirSince : 0;
+        entry.airtime += airtime;
+        if(entry.state == State.ON_AIR) {
+            metrics.addProfileAirtime(entry.profile, now - entry.profileSince);
+        }
+        entry.state = State.WAITING;
+        onAir.remove(entry);
+        backend.stopAdvertising(entry.operaId);
+        metrics.onStopped(entry.operaId, airtime);
+        metrics.onSlotsChanged(onAir.size());
+    }
+
+    /**
+     * Programma la prossima rotazione per quando la prima opera in onda finisce il suo dwell. Se ci sono slot liberi,
+     * lasciati da un avvio fallito, si riprova al più tardi dopo un dwell; se tutte le opere sono ancora in avvio
+     * la rotazione viene programmata alla prima conferma della radio.
+     */
+    private void scheduleRotation() {
+        if(rotationScheduled || waiting.isEmpty()) {
+            return;
+        }
+        long now = taskScheduler.nanoTime();
+        long dwellNanos = TimeUnit.MILLISECONDS.toNanos(dwellMillis);
+        long next = onAir.size() < getSlots() ? now + dwellNanos : Long.MAX_VALUE;
+        for(int i=0; i<onAir.size(); i++) {
+            Entry entry = onAir.get(i);
+            if(entry.state == State.ON_AIR) {
+                next = Math.min(next, entry.onAirSince + dwellNanos);
+            }
+        }
+        if(next == Long.MAX_VALUE) {
+            return;
+        }
+        rotationScheduled = true;
+        // Per eccesso, così alla rotazione il dwell è finito
+        long delayMillis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, next - now) + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+        taskScheduler.postDelayed(rotateTask, delayMillis);
+    }
+
+    private static Comparator<Entry> byDutyCycle(long now) {
+        return (first, second) -> Double.compare(first.dutyCycle(now), second.dutyCycle(now));
+    }
+
+    private enum State {
+        WAITING, STARTING, ON_AIR
+    }
+
+    private static class Entry {
+        private final String operaId;
+        private final OperaPayload payload;
+        private final long addedAt;
+        private RadioProfile profile;
+        private State state = State.WAITING;
+        private boolean started;            // L'opera è già stata avviata almeno una volta
+        private long startRequestedAt;
+        private long onAirSince;
+        private long profileSince;          // Da quando l'opera è in onda con il profilo attuale
+        private long airtime;
+
+        private Entry(OperaPayload payload, RadioProfile profile, long addedAt) {
+            this.operaId = payload.getOperaId();
+            this.payload = payload;
+            this.profile = profile;
+            this.addedAt = addedAt;
+        }
+
+        private double dutyCycle(long now) {
+            long elapsed = now - addedAt;
+            if(elapsed <= 0) {
+                return 0;
+            }
+            long total = airtime + (state == State.ON_AIR ? now - onAirSince : 0);
+            return (double) total / elapsed;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package it.uniba.sms2122.operassimulator.scheduler;
+
+/**
+ * Politica con cui {@link AdvertisingScheduler} sceglie quali opere mandare in onda quando ci sono più opere che slot.
+ */
+public enum FairnessPolicy {
+    /**
+     * Le opere si alternano in ordine di attesa: chi esce dall'onda si mette in coda.
+     */
+    ROUND_ROBIN,
+
+    /**
+     * Va in onda l'opera con il duty cycle più basso ed esce quella con il duty cycle più alto.
+     * Compensa le opere aggiunte tardi o penalizzate da errori di avvio.
+     */
+    LEAST_AIRTIME
+}
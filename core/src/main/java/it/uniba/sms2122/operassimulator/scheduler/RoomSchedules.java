@@ -0,0 +1,114 @@
+package it.uniba.sms2122.operassimulator.scheduler;
+
+import java.time.ZoneId;
+import java.util.function.LongSupplier;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.utility.TaskScheduler;
+
+/**
+ * Gli orari della stanza caricata nel controller. A ogni cambio di stanza ferma lo {@link ScheduleRunner} della precedente
+ * e ne avvia uno per la nuova, se ha delle opere con un orario; quando il controller viene chiuso lo ferma e basta.
+ * <br>
+ * Si registra come {@link AdvertiserController.StanzaListener} del controller, per cui gli orari seguono la stanza
+ * qualunque sia la strada da cui è arrivata: la UI, il ripristino della sessione o il server di controllo.
+ * Va usato dal thread del controller.
+ */
+public class RoomSchedules implements AdvertiserController.StanzaListener {
+
+    /**
+     * Listener degli orari, chiamato sul thread del controller.
+     */
+    public interface Listener extends ScheduleRunner.Listener {
+        /**
+         * Sono partiti gli orari di una stanza.
+         * @param runner Il runner degli orari.
+         */
+        void onStarted(ScheduleRunner runner);
+
+        /**
+         * Sono stati fermati gli orari di una stanza, perché la stanza è cambiata o il controller è stato chiuso.
+         * @param runner Il runner degli orari.
+         */
+        void onStopped(ScheduleRunner runner);
+
+        /**
+         * Gli orari di una stanza non sono validi: le sue opere restano manuali.
+         * @param stanza La stanza.
+         * @param ex L'errore, con l'id dell'opera o della stanza.
+         */
+        void onInvalidSchedule(Stanza stanza, IllegalArgumentException ex);
+    }
+
+    private final AdvertiserController controller;
+    private final TaskScheduler taskScheduler;
+    private final LongSupplier currentMillis;
+    private final ZoneId zone;
+    private final Listener listener;
+    private ScheduleRunner runner;      // Gli orari della stanza caricata, o null
+
+    /**
+     * Costruttore pubblico di {@link RoomSchedules}. Per ricevere i cambi di stanza va registrato con
+     * {@link AdvertiserController#setStanzaListener}.
+     * @param controller Il controller delle opere.
+     * @param taskScheduler Lo scheduler del controller.
+     * @param currentMillis L'ora attuale in millisecondi dall'epoch, letta a ogni cambio di stanza.
+     * @param zone Il fuso degli orari.
+     * @param listener Il listener da notificare, o null.
+     */
+    public RoomSchedules(AdvertiserController controller, TaskScheduler taskScheduler, LongSupplier currentMillis, ZoneId zone,
+                         Listener listener) {
+        this.controller = controller;
+        this.taskScheduler = taskScheduler;
+        this.currentMillis = currentMillis;
+        this.zone = zone;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onStanzaChanged(Stanza stanza) {
+        stop();
+        if(stanza == null) {
+            return;
+        }
+        ScheduleRunner next = new ScheduleRunner(controller, taskScheduler, currentMillis.getAsLong(), zone, listener);
+        try {
+            if(next.load(stanza) == 0) {
+                return;
+            }
+        } catch(IllegalArgumentException ex) {
+            if(listener != null) {
+                listener.onInvalidSchedule(stanza, ex);
+            }
+            return;
+        }
+        runner = next;
+        if(listener != null) {
+            listener.onStarted(next);
+        }
+        next.start();
+    }
+
+    /**
+     * Ferma gli orari della stanza caricata. Le opere restano nello stato in cui sono.
+     */
+    public void stop() {
+        if(runner == null) {
+            return;
+        }
+        ScheduleRunner stopped = runner;
+        runner = null;
+        stopped.stop();
+        if(listener != null) {
+            listener.onStopped(stopped);
+        }
+    }
+
+    /**
+     * @return Il runner degli orari della stanza caricata, o null se la stanza non ha orari.
+     */
+    public ScheduleRunner getRunner() {
+        return runner;
+    }
+}
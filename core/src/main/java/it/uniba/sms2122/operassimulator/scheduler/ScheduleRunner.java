@@ -0,0 +1,323 @@
+package it.uniba.sms2122.operassimulator.scheduler;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Orario;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.utility.TaskScheduler;
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+/**
+ * Accende e spegne le opere di una stanza secondo i loro orari ({@link Stanza#getOrari()} e {@link Opera#getOrari()}).
+ * <br>
+ * Ogni opera con un orario ha un solo timer in attesa, per il suo prossimo cambio di stato, in una {@link TimerWheel}
+ * a tick di {@code tickMillis}: a ogni tick i timer scaduti passano in una coda, da cui vengono applicati al massimo
+ * {@code maxChangesPerTick} cambi, così che l'apertura di una stanza con decine di migliaia di opere non blocchi il thread
+ * del controller. Il resto della coda passa al tick successivo. Dopo ogni cambio viene schedulato il successivo,
+ * a partire dall'ora a cui il cambio è stato applicato. Con la coda vuota il runner non gira a ogni tick,
+ * ma solo al tick indicato da {@link TimerWheel#nextDeadline()}.
+ * <br>
+ * Un cambio applicato con più di {@code missedAfterMillis} di ritardo, ad esempio perché il telefono era in sospensione
+ * o perché la coda era lunga, viene segnalato al {@link Listener}; se nel frattempo l'orario ha già cambiato di nuovo
+ * lo stato dell'opera, viene applicato direttamente lo stato attuale.
+ * <br>
+ * L'ora viene calcolata dall'ora di partenza più il tempo trascorso sul {@link TaskScheduler}: con un
+ * {@link VirtualTaskScheduler} l'esecuzione è deterministica. Va usato dal thread del controller.
+ */
+public class ScheduleRunner implements Runnable {
+    public static final long DEFAULT_TICK_MILLIS = 1000;
+    public static final int DEFAULT_MAX_CHANGES_PER_TICK = 500;
+    public static final long DEFAULT_MISSED_AFTER_MILLIS = 60000;
+
+    /**
+     * Listener dei cambi mancati, chiamato sul thread del controller.
+     */
+    public interface Listener {
+        /**
+         * Un cambio di stato non è stato applicato in tempo.
+         * @param operaId L'id dell'opera.
+         * @param on true se il cambio doveva accendere l'opera, false se doveva spegnerla.
+         * @param lateMillis Il ritardo rispetto all'orario.
+         */
+        void onMissed(String operaId, boolean on, long lateMillis);
+    }
+
+    private final AdvertiserController controller;
+    private final TaskScheduler taskScheduler;
+    private final ZoneId zone;
+    private final long originMillis;
+    private final long originNanos;
+    private final Listener listener;
+    private final TimerWheel<Entry> wheel = new TimerWheel<>(0);
+    private final ArrayDeque<Entry> backlog = new ArrayDeque<>();     // I cambi scaduti e non ancora applicati
+    private final TimerWheel.Listener<Entry> onExpired = backlog::add;
+
+    private long tickMillis = DEFAULT_TICK_MILLIS;
+    private int maxChangesPerTick = DEFAULT_MAX_CHANGES_PER_TICK;
+    private long missedAfterMillis = DEFAULT_MISSED_AFTER_MILLIS;
+    private int scheduledCount = 0;
+    private long appliedCount = 0;
+    private long missedCount = 0;
+    private boolean running = false;
+
+    /**
+     * Costruttore pubblico di {@link ScheduleRunner}.
+     * @param controller Il controller delle opere.
+     * @param taskScheduler Lo scheduler del controller.
+     * @param originMillis L'ora attuale, in millisecondi dall'epoch.
+     * @param zone Il fuso degli orari.
+     * @param listener Il listener da notificare, o null.
+     */
+    public ScheduleRunner(AdvertiserController controller, TaskScheduler taskScheduler, long originMillis, ZoneId zone,
+                          Listener listener) {
+        this.controller = controller;
+        this.taskScheduler = taskScheduler;
+        this.zone = zone;
+        this.originMillis = originMillis;
+        this.originNanos = taskScheduler.nanoTime();
+        this.listener = listener;
+    }
+
+    /**
+     * Configura il runner. Va chiamato prima di {@link #load(Stanza)}.
+     * @param tickMillis La durata di un tick, cioè la precisione dei cambi.
+     * @param maxChangesPerTick Quante opere accendere o spegnere al massimo a ogni tick.
+     * @param missedAfterMillis Il ritardo oltre cui un cambio viene segnalato come mancato.
+     */
+    public void configure(long tickMillis, int maxChangesPerTick, long missedAfterMillis) {
+        if(tickMillis < 1 || maxChangesPerTick < 1 || missedAfterMillis < 0) {
+            throw new IllegalArgumentException("invalid configuration: tickMillis " + tickMillis
+                    + ", maxChangesPerTick " + maxChangesPerTick + ", missedAfterMillis " + missedAfterMillis);
+        }
+        if(scheduledCount > 0 || running) {
+            throw new IllegalStateException("schedules already loaded");
+        }
+        this.tickMillis = tickMillis;
+        this.maxChangesPerTick = maxChangesPerTick;
+        this.missedAfterMillis = missedAfterMillis;
+    }
+
+    /**
+     * Compila gli orari delle opere della stanza e mette in coda, per ognuna, lo stato che deve avere adesso.
+     * Le opere senza orari, nemmeno quelli della stanza, restano manuali.
+     * @param stanza La stanza caricata nel controller.
+     * @return Il numero di opere con un orario.
+     * @throws IllegalArgumentException Se un orario non è valido.
+     */
+    public int load(Stanza stanza) {
+        if(running) {
+            throw new IllegalStateException("runner already started");
+        }
+        if(stanza.getOpere() == null) {
+            return scheduledCount;
+        }
+        WeeklySchedule roomSchedule = stanza.getOrari() != null ? compile(stanza.getId(), stanza.getOrari()) : null;
+        Map<List<Orario>, WeeklySchedule> compiled = new IdentityHashMap<>();     // Gli orari condivisi vengono compilati una volta
+        long nowMillis = currentMillis();
+        int minute = WeeklySchedule.minuteOfWeek(Instant.ofEpochMilli(nowMillis).atZone(zone));
+
+        for(Opera opera : stanza.getOpere().values()) {
+            List<Orario> orari = opera.getOrari();
+            WeeklySchedule schedule;
+            if(orari == null) {
+                schedule = roomSchedule;
+            } else if(orari.isEmpty()) {
+                continue;
+            } else {
+                schedule = compiled.get(orari);
+                if(schedule == null) {
+                    schedule = compile(opera.getId(), orari);
+                    compiled.put(orari, schedule);
+                }
+            }
+            if(schedule == null) {
+                continue;
+            }
+
+            Entry entry = new Entry(opera.getId(), schedule);
+            entry.on = schedule.isActive(minute);
+            entry.dueMillis = nowMillis;
+            backlog.add(entry);
+            scheduledCount++;
+        }
+        return scheduledCount;
+    }
+
+    /**
+     * Inizia ad applicare gli orari: lo stato attuale delle opere viene applicato subito, nei limiti di un tick.
+     */
+    public void start() {
+        if(running) {
+            return;
+        }
+        running = true;
+        run();
+    }
+
+    /**
+     * Smette di applicare gli orari. Le opere restano nello stato in cui sono.
+     */
+    public void stop() {
+        running = false;
+        taskScheduler.removeCallbacks(this);
+    }
+
+    @Override
+    public void run() {
+        if(!running) {
+            return;
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(taskScheduler.nanoTime() - originNanos);
+        long tick = elapsedMillis / tickMillis;
+        wheel.advance(tick, onExpired);
+
+        long nowMillis = originMillis + elapsedMillis;
+        int changes = 0;
+        Entry entry;
+        while(changes < maxChangesPerTick && (entry = backlog.poll()) != null) {
+            if(apply(entry, nowMillis)) {
+                changes++;
+            }
+        }
+        appliedCount += changes;
+        // Con la coda vuota il runner si risveglia solo al prossimo tick in cui la wheel ha qualcosa da fare
+        long nextTick = !backlog.isEmpty() ? tick + 1 : wheel.nextDeadline();
+        if(nextTick != TimerWheel.NO_DEADLINE) {
+            taskScheduler.postDelayed(this, Math.max(1, nextTick * tickMillis - elapsedMillis));
+        }
+    }
+
+    /**
+     * Porta un'opera allo stato che le dà l'orario adesso e schedula il suo prossimo cambio.
+     * @return true se l'opera è stata accesa o spenta.
+     */
+    private boolean apply(Entry entry, long nowMillis) {
+        ZonedDateTime now = Instant.ofEpochMilli(nowMillis).atZone(zone);
+        boolean on = entry.schedule.isActive(WeeklySchedule.minuteOfWeek(now));
+        long lateMillis = nowMillis - entry.dueMillis;
+        if(lateMillis > missedAfterMillis || on != entry.on) {
+            missedCount++;
+            if(listener != null) {
+                listener.onMissed(entry.operaId, entry.on, lateMillis);
+            }
+        }
+
+        boolean changed = false;
+        boolean active = controller.getScheduler().contains(entry.operaId);
+        if(on && !active) {
+            controller.startAdvertising(entry.operaId, null);
+            changed = true;
+        } else if(!on) {
+            // Anche se non è in rotazione, perché non parta con un cambio di stato della stanza ancora in corso
+            controller.stopAdvertising(entry.operaId);
+            changed = active;
+        }
+        scheduleNext(entry, now);
+        return changed;
+    }
+
+    private void scheduleNext(Entry entry, ZonedDateTime now) {
+        int minutes = entry.schedule.minutesToNextChange(WeeklySchedule.minuteOfWeek(now));
+        if(minutes < 0) {
+            return;     // L'opera è sempre accesa o sempre spenta
+        }
+        LocalDateTime local = now.toLocalDateTime().truncatedTo(ChronoUnit.MINUTES).plusMinutes(minutes);
+        ZonedDateTime next = local.atZone(zone);
+        if(!next.isAfter(now)) {
+            // Con il ritorno all'ora solare lo stesso orario locale capita due volte: si prende il secondo
+            next = next.withLaterOffsetAtOverlap();
+        }
+        long nextMillis = next.toInstant().toEpochMilli();
+        if(nextMillis <= now.toInstant().toEpochMilli()) {
+            nextMillis = now.toInstant().toEpochMilli() + TimeUnit.MINUTES.toMillis(1);
+        }
+        entry.dueMillis = nextMillis;
+        entry.on = entry.schedule.isActive(WeeklySchedule.minuteOfWeek(Instant.ofEpochMilli(nextMillis).atZone(zone)));
+        // Il primo tick che non viene prima del cambio
+        wheel.schedule(entry, (nextMillis - originMillis + tickMillis - 1) / tickMillis);
+    }
+
+    private long currentMillis() {
+        return originMillis + TimeUnit.NANOSECONDS.toMillis(taskScheduler.nanoTime() - originNanos);
+    }
+
+    private static WeeklySchedule compile(String id, List<Orario> orari) {
+        try {
+            return WeeklySchedule.compile(orari);
+        } catch(IllegalArgumentException ex) {
+            throw new IllegalArgumentException(id + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return Il numero di opere con un orario.
+     */
+    public int getScheduledCount() {
+        return scheduledCount;
+    }
+
+    /**
+     * @return Il numero di cambi in attesa nella timer wheel.
+     */
+    public int getPendingCount() {
+        return wheel.size();
+    }
+
+    /**
+     * @return Il numero di cambi scaduti e non ancora applicati.
+     */
+    public int getBacklog() {
+        return backlog.size();
+    }
+
+    /**
+     * @return Il numero di opere accese o spente finora.
+     */
+    public long getAppliedCount() {
+        return appliedCount;
+    }
+
+    /**
+     * @return Il numero di cambi segnalati come mancati finora.
+     */
+    public long getMissedCount() {
+        return missedCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d scheduled operas, %d pending, %d backlog, %d applied, %d missed",
+                scheduledCount, wheel.size(), backlog.size(), appliedCount, missedCount);
+    }
+
+    /**
+     * Un'opera con un orario, con il suo prossimo cambio.
+     */
+    private static final class Entry extends TimerWheel.Timer {
+        private final String operaId;
+        private final WeeklySchedule schedule;
+        private boolean on;             // Lo stato che deve dare il prossimo cambio
+        private long dueMillis;         // L'ora del prossimo cambio
+
+        private Entry(String operaId, WeeklySchedule schedule) {
+            this.operaId = operaId;
+            this.schedule = schedule;
+        }
+    }
+}
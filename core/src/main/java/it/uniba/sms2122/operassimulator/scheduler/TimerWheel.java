@@ -0,0 +1,223 @@
+package it.uniba.sms2122.operassimulator.scheduler;
+
+/**
+ * Timer wheel gerarchica: {@value #LEVELS} ruote da {@value #SLOTS} slot, in cui la ruota di livello {@code l}
+ * ha slot larghi {@code 64^l} tick. Un timer va nella ruota del gruppo di 6 bit più alto in cui la sua scadenza
+ * differisce dal tick corrente, nello slot dato da quei bit; quando il tick corrente arriva all'inizio di quello slot,
+ * i suoi timer scendono nelle ruote più basse, fino alla ruota 0 dove scadono al tick esatto.
+ * <br>
+ * Inserimento e cancellazione costano O(1) qualunque sia il numero di timer in attesa, e ogni timer scende di livello
+ * al massimo {@value #LEVELS} volte. I timer sono intrusivi: la classe di chi li usa estende {@link Timer},
+ * per cui la wheel non alloca nulla. Le scadenze oltre l'orizzonte della ruota più alta ({@code 64^4} tick)
+ * vengono ricollocate ogni volta che la ruota più alta completa un giro.
+ * <br>
+ * La classe non è thread safe.
+ * @param <T> Il tipo dei timer.
+ */
+public class TimerWheel<T extends TimerWheel.Timer> {
+    public static final int LEVELS = 4;
+    public static final int SLOTS = 64;
+    public static final long NO_DEADLINE = -1;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    /**
+     * Listener dei timer scaduti.
+     * @param <T> Il tipo dei timer.
+     */
+    public interface Listener<T> {
+        /**
+         * @param timer Il timer scaduto, già tolto dalla wheel: lo si può schedulare di nuovo.
+         */
+        void onExpired(T timer);
+    }
+
+    /**
+     * Un timer della wheel. Un timer può essere in una sola wheel alla volta.
+     */
+    public static class Timer {
+        private Timer prev;
+        private Timer next;
+        private long deadline;
+        private int bucket = -1;        // La posizione della lista in cui si trova il timer, -1 se non è schedulato
+
+        /**
+         * @return Il tick in cui il timer deve scadere, come indicato a {@link #schedule}.
+         */
+        public final long getDeadline() {
+            return deadline;
+        }
+
+        public final boolean isScheduled() {
+            return bucket >= 0;
+        }
+    }
+
+    private final Timer[] buckets = new Timer[LEVELS * SLOTS];     // La testa della lista di ogni slot
+    private long currentTick;
+    private int size = 0;
+
+    /**
+     * @param startTick Il tick da cui parte la wheel.
+     */
+    public TimerWheel(long startTick) {
+        this.currentTick = startTick;
+    }
+
+    /**
+     * @return L'ultimo tick elaborato da {@link #advance}.
+     */
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * @return Il numero di timer in attesa.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Il prossimo tick in cui {@link #advance} ha qualcosa da fare, per chi non vuole avanzare la wheel a ogni tick.
+     * Se il timer più vicino è nella ruota 0 è la sua scadenza esatta; altrimenti è il tick in cui lo slot più vicino
+     * di una ruota più alta scende di livello, dopo il quale va chiesto di nuovo. Non viene mai dopo la scadenza più vicina.
+     * Costa al massimo una visita per slot, senza scorrere i timer.
+     * @return Il tick, sempre dopo il tick corrente, oppure {@link #NO_DEADLINE} se non ci sono timer in attesa.
+     */
+    public long nextDeadline() {
+        if(size == 0) {
+            return NO_DEADLINE;
+        }
+        for(int level=0; level<LEVELS; level++) {
+            int shift = SLOT_BITS * level;
+            int current = (int) (currentTick >>> shift) & SLOT_MASK;
+            // Nella ruota di livello l ci sono solo scadenze con la cifra l dopo quella del tick corrente
+            for(int slot=current+1; slot<SLOTS; slot++) {
+                if(buckets[level * SLOTS + slot] != null) {
+                    long block = currentTick >>> (shift + SLOT_BITS) << (shift + SLOT_BITS);
+                    return block | ((long) slot << shift);
+                }
+            }
+        }
+        // Restano solo i timer oltre l'orizzonte, che scendono quando la ruota più alta completa il giro
+        int horizon = SLOT_BITS * LEVELS;
+        return ((currentTick >>> horizon) + 1) << horizon;
+    }
+
+    /**
+     * Schedula un timer, togliendolo prima dallo slot in cui si trova se è già schedulato.
+     * @param timer Il timer.
+     * @param deadline Il tick in cui deve scadere. Le scadenze già passate scadono al prossimo tick.
+     */
+    public void schedule(T timer, long deadline) {
+        Timer node = timer;
+        if(node.bucket >= 0) {
+            unlink(node);
+            size--;
+        }
+        node.deadline = deadline;
+        place(node, Math.max(deadline, currentTick + 1));
+        size++;
+    }
+
+    /**
+     * @param timer Il timer da togliere.
+     * @return true se il timer era schedulato.
+     */
+    public boolean cancel(T timer) {
+        Timer node = timer;
+        if(node.bucket < 0) {
+            return false;
+        }
+        unlink(node);
+        size--;
+        return true;
+    }
+
+    /**
+     * Fa avanzare la wheel fino al tick indicato, notificando i timer scaduti tick per tick, nell'ordine delle scadenze.
+     * @param tick Il tick a cui arrivare. Se non è dopo il tick corrente non succede nulla.
+     * @param listener Il listener dei timer scaduti. Può schedulare e cancellare timer.
+     * @return Il numero di timer scaduti.
+     */
+    @SuppressWarnings("unchecked")
+    public int advance(long tick, Listener<? super T> listener) {
+        int expired = 0;
+        while(currentTick < tick) {
+            if(size == 0) {
+                currentTick = tick;
+                break;
+            }
+            currentTick++;
+            // Dall'alto in basso: quello che scende da una ruota può finire nello slot che la ruota sotto sta per svuotare
+            for(int level=LEVELS-1; level>0; level--) {
+                int shift = SLOT_BITS * level;
+                if((currentTick & ((1L << shift) - 1)) == 0) {
+                    cascade(level, (int) (currentTick >>> shift) & SLOT_MASK);
+                }
+            }
+            int bucket = (int) currentTick & SLOT_MASK;
+            Timer timer;
+            while((timer = buckets[bucket]) != null) {
+                unlink(timer);
+                size--;
+                expired++;
+                listener.onExpired((T) timer);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Fa scendere i timer di uno slot nelle ruote più basse, o nello slot del tick corrente se scadono adesso.
+     */
+    private void cascade(int level, int slot) {
+        int bucket = level * SLOTS + slot;
+        Timer timer = buckets[bucket];
+        buckets[bucket] = null;     // La lista viene staccata: i timer oltre l'orizzonte tornano nello stesso slot
+        while(timer != null) {
+            Timer next = timer.next;
+            timer.prev = null;
+            timer.next = null;
+            place(timer, Math.max(timer.deadline, currentTick));
+            timer = next;
+        }
+    }
+
+    private void place(Timer timer, long deadline) {
+        // Il gruppo di 6 bit più alto in cui la scadenza differisce dal tick corrente: 0 se coincidono
+        int level = (63 - Long.numberOfLeadingZeros(deadline ^ currentTick)) / SLOT_BITS;
+        int slot;
+        if(level < LEVELS) {
+            slot = (int) (deadline >>> (SLOT_BITS * level)) & SLOT_MASK;
+        } else {
+            // Oltre l'orizzonte: lo slot 0 della ruota più alta si svuota quando la ruota completa il giro
+            level = LEVELS - 1;
+            slot = 0;
+        }
+        int bucket = level * SLOTS + slot;
+        Timer head = buckets[bucket];
+        timer.next = head;
+        if(head != null) {
+            head.prev = timer;
+        }
+        buckets[bucket] = timer;
+        timer.bucket = bucket;
+    }
+
+    private void unlink(Timer timer) {
+        if(timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            buckets[timer.bucket] = timer.next;
+        }
+        if(timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+        timer.bucket = -1;
+    }
+}
@@ -0,0 +1,149 @@
+package it.uniba.sms2122.operassimulator.scheduler;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import it.uniba.sms2122.operassimulator.model.Orario;
+
+/**
+ * Le fasce orarie di un'opera compilate sulla settimana, al minuto. Della settimana vengono tenuti solo i minuti
+ * in cui lo stato cambia, ordinati: lo stato di un minuto e il prossimo cambio si trovano con una ricerca binaria,
+ * e un orario tipico occupa poche decine di byte anche se le opere sono decine di migliaia.
+ * <br>
+ * Il minuto 0 della settimana è il lunedì a mezzanotte. Gli oggetti sono immutabili.
+ */
+public final class WeeklySchedule {
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    public static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    private final int[] changes;            // I minuti in cui lo stato cambia rispetto al minuto precedente
+    private final boolean activeBefore;     // Lo stato dell'ultimo minuto della settimana precedente
+
+    private WeeklySchedule(int[] changes, boolean activeBefore) {
+        this.changes = changes;
+        this.activeBefore = activeBefore;
+    }
+
+    /**
+     * @param orari Le fasce orarie.
+     * @return Le fasce compilate.
+     * @throws IllegalArgumentException Se un giorno o un orario non sono validi.
+     */
+    public static WeeklySchedule compile(List<Orario> orari) {
+        BitSet week = new BitSet(MINUTES_PER_WEEK);
+        for(Orario orario : orari) {
+            if(orario == null) {
+                continue;
+            }
+            int from = parseTime(orario.getDalle(), false);
+            int to = parseTime(orario.getAlle(), true);
+            int length = to > from ? to - from : to + MINUTES_PER_DAY - from;
+
+            List<Integer> giorni = orario.getGiorni();
+            if(giorni != null) {
+                for(Integer day : giorni) {
+                    if(day == null || day < 1 || day > 7) {
+                        throw new IllegalArgumentException("invalid day: " + day);
+                    }
+                }
+            }
+            for(int day=1; day<=7; day++) {
+                if(giorni != null && !giorni.isEmpty() && !giorni.contains(day)) {
+                    continue;
+                }
+                int start = (day - 1) * MINUTES_PER_DAY + from;
+                int end = start + length;
+                week.set(start, Math.min(end, MINUTES_PER_WEEK));
+                if(end > MINUTES_PER_WEEK) {
+                    week.set(0, end - MINUTES_PER_WEEK);    // La fascia della domenica sera finisce il lunedì
+                }
+            }
+        }
+
+        boolean activeBefore = week.get(MINUTES_PER_WEEK - 1);
+        int[] changes = new int[16];
+        int count = 0;
+        boolean previous = activeBefore;
+        int minute = 0;
+        while(minute < MINUTES_PER_WEEK) {
+            minute = previous ? week.nextClearBit(minute) : week.nextSetBit(minute);
+            if(minute < 0 || minute >= MINUTES_PER_WEEK) {
+                break;
+            }
+            if(count == changes.length) {
+                changes = Arrays.copyOf(changes, count * 2);
+            }
+            changes[count++] = minute;
+            previous = !previous;
+        }
+        return new WeeklySchedule(Arrays.copyOf(changes, count), activeBefore);
+    }
+
+    /**
+     * @param time Un istante, nel fuso dell'orario.
+     * @return Il minuto della settimana dell'istante.
+     */
+    public static int minuteOfWeek(ZonedDateTime time) {
+        return (time.getDayOfWeek().getValue() - 1) * MINUTES_PER_DAY + time.getHour() * 60 + time.getMinute();
+    }
+
+    /**
+     * @param minuteOfWeek Un minuto della settimana.
+     * @return true se l'opera è in onda in quel minuto.
+     */
+    public boolean isActive(int minuteOfWeek) {
+        // I cambi fino al minuto compreso: ognuno inverte lo stato
+        int index = Arrays.binarySearch(changes, minuteOfWeek);
+        int count = index >= 0 ? index + 1 : -index - 1;
+        return activeBefore ^ (count & 1) != 0;
+    }
+
+    /**
+     * @param minuteOfWeek Un minuto della settimana.
+     * @return Fra quanti minuti cambia lo stato, al più una settimana, oppure -1 se lo stato non cambia mai.
+     */
+    public int minutesToNextChange(int minuteOfWeek) {
+        if(changes.length == 0) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(changes, minuteOfWeek + 1);
+        if(index < 0) {
+            index = -index - 1;
+        }
+        return index < changes.length ? changes[index] - minuteOfWeek : changes[0] + MINUTES_PER_WEEK - minuteOfWeek;
+    }
+
+    /**
+     * @return Il numero di cambi di stato in una settimana.
+     */
+    public int getChangeCount() {
+        return changes.length;
+    }
+
+    /**
+     * Legge un orario nel formato {@code HH:mm}.
+     * @param end true per la fine di una fascia, che può essere anche {@code 24:00}.
+     * @return Il minuto del giorno.
+     */
+    private static int parseTime(String time, boolean end) {
+        if(time != null) {
+            int colon = time.indexOf(':');
+            if(colon > 0 && colon <= 2 && time.length() == colon + 3) {
+                try {
+                    int hours = Integer.parseInt(time.substring(0, colon));
+                    int minutes = Integer.parseInt(time.substring(colon + 1));
+                    int minute = hours * 60 + minutes;
+                    if(hours >= 0 && minutes >= 0 && minutes < 60
+                            && (minute < MINUTES_PER_DAY || (end && minute == MINUTES_PER_DAY))) {
+                        return minute;
+                    }
+                } catch(NumberFormatException ex) {
+                    // Segnalato sotto
+                }
+            }
+        }
+        throw new IllegalArgumentException("invalid time: " + time);
+    }
+}
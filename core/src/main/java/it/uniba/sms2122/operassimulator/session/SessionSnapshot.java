@@ -0,0 +1,170 @@
+package it.uniba.sms2122.operassimulator.session;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.OperaMap;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.utility.HexId;
+
+/**
+ * Lo stato di una sessione di advertising: la stanza caricata e le opere attive.
+ * <br>
+ * Il formato binario è compatto: gli id esadecimali delle opere sono salvati come 20 byte grezzi, la chiave dell'opera
+ * nella stanza solo se diversa dall'id, e le opere attive come bitmap nell'ordine della stanza. Il file termina con
+ * il CRC32 del contenuto, così che uno snapshot troncato da un crash venga riconosciuto e scartato.
+ */
+public final class SessionSnapshot {
+    private static final int MAGIC = 0x4F535331;     // "OSS1"
+    private static final int VERSION = 1;
+    private static final int FLAG_RAW_ID = 1;         // L'id è salvato in 20 byte
+    private static final int FLAG_KEY_IS_ID = 2;      // La chiave nella mappa delle opere coincide con l'id
+
+    private final Stanza stanza;
+    private final Set<String> activeIds;
+
+    /**
+     * Costruttore pubblico di {@link SessionSnapshot}.
+     * @param stanza La stanza caricata.
+     * @param activeIds Gli id delle opere attive.
+     */
+    public SessionSnapshot(Stanza stanza, Set<String> activeIds) {
+        this.stanza = stanza;
+        this.activeIds = Collections.unmodifiableSet(activeIds);
+    }
+
+    public Stanza getStanza() {
+        return stanza;
+    }
+
+    /**
+     * @return Gli id delle opere attive. L'insieme non è modificabile.
+     */
+    public Set<String> getActiveIds() {
+        return activeIds;
+    }
+
+    /**
+     * Scrive lo snapshot in formato binario.
+     * @param out Lo stream su cui scrivere. Non viene chiuso.
+     * @throws IOException Se la scrittura fallisce.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(out, new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeUTF(nullToEmpty(stanza.getId()));
+        data.writeUTF(nullToEmpty(stanza.getNome()));
+        data.writeUTF(nullToEmpty(stanza.getDescrizione()));
+
+        Map<String, Opera> opere = stanza.getOpere();
+        data.writeInt(opere.size());
+        BitSet active = new BitSet(opere.size());
+        byte[] rawId = new byte[HexId.LENGTH];
+        int index = 0;
+        for(Map.Entry<String, Opera> entry : opere.entrySet()) {
+            String operaId = entry.getValue().getId();
+            boolean raw = HexId.isEncodable(operaId);
+            boolean keyIsId = entry.getKey().equals(operaId);
+            data.writeByte((raw ? FLAG_RAW_ID : 0) | (keyIsId ? FLAG_KEY_IS_ID : 0));
+            if(raw) {
+                HexId.encode(operaId, rawId, 0);
+                data.write(rawId);
+            } else {
+                data.writeUTF(operaId);
+            }
+            if(!keyIsId) {
+                data.writeUTF(entry.getKey());
+            }
+            if(activeIds.contains(operaId)) {
+                active.set(index);
+            }
+            index++;
+        }
+
+        long[] words = active.toLongArray();
+        data.writeInt(words.length);
+        for(long word : words) {
+            data.writeLong(word);
+        }
+        data.flush();
+        // Il CRC non fa parte del contenuto controllato
+        new DataOutputStream(out).writeLong(checked.getChecksum().getValue());
+        out.flush();
+    }
+
+    /**
+     * Legge uno snapshot scritto da {@link #writeTo(OutputStream)}.
+     * @param in Lo stream da cui leggere. Non viene chiuso.
+     * @return Lo snapshot letto.
+     * @throws IOException Se la lettura fallisce o lo snapshot è incompleto o corrotto.
+     */
+    public static SessionSnapshot readFrom(InputStream in) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+        if(data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("not a session snapshot");
+        }
+        String id = data.readUTF();
+        String nome = data.readUTF();
+        String descrizione = data.readUTF();
+
+        int size = data.readInt();
+        if(size < 0) {
+            throw new IOException("invalid opera count: " + size);
+        }
+        Map<String, Opera> opere = new OperaMap();
+        String[] operaIds = new String[size];
+        byte[] rawId = new byte[HexId.LENGTH];
+        for(int i=0; i<size; i++) {
+            int flags = data.readUnsignedByte();
+            String operaId;
+            if((flags & FLAG_RAW_ID) != 0) {
+                data.readFully(rawId);
+                operaId = HexId.decode(rawId, 0);
+            } else {
+                operaId = data.readUTF();
+            }
+            String key = (flags & FLAG_KEY_IS_ID) != 0 ? operaId : data.readUTF();
+            opere.put(key, new Opera(operaId));
+            operaIds[i] = operaId;
+        }
+
+        int words = data.readInt();
+        if(words < 0 || words > (size + 63) / 64) {
+            throw new IOException("invalid active bitmap: " + words);
+        }
+        long[] bits = new long[words];
+        for(int i=0; i<words; i++) {
+            bits[i] = data.readLong();
+        }
+        long checksum = checked.getChecksum().getValue();
+        if(new DataInputStream(in).readLong() != checksum) {
+            throw new IOException("corrupted session snapshot");
+        }
+
+        BitSet active = BitSet.valueOf(bits);
+        Set<String> activeIds = new LinkedHashSet<>();
+        for(int i=active.nextSetBit(0); i>=0 && i<size; i=active.nextSetBit(i+1)) {
+            activeIds.add(operaIds[i]);
+        }
+        return new SessionSnapshot(new Stanza(id, nome, descrizione, opere), activeIds);
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
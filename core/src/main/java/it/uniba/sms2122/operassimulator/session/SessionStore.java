@@ -0,0 +1,65 @@
+package it.uniba.sms2122.operassimulator.session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Salva e rilegge lo {@link SessionSnapshot} su un file. Lo snapshot viene scritto su un file temporaneo,
+ * sincronizzato sul disco e poi rinominato: un crash durante la scrittura lascia intatto lo snapshot precedente.
+ */
+public class SessionStore {
+    private final File file;
+    private final File tempFile;
+
+    /**
+     * Costruttore pubblico di {@link SessionStore}.
+     * @param file Il file dello snapshot.
+     */
+    public SessionStore(File file) {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * Sostituisce lo snapshot salvato.
+     * @param snapshot Lo snapshot da salvare.
+     * @throws IOException Se la scrittura fallisce. In questo caso lo snapshot precedente resta valido.
+     */
+    public void save(SessionSnapshot snapshot) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            BufferedOutputStream buffered = new BufferedOutputStream(out);
+            snapshot.writeTo(buffered);
+            buffered.flush();
+            out.getFD().sync();
+        }
+        if(!tempFile.renameTo(file)) {
+            throw new IOException("cannot replace " + file);
+        }
+    }
+
+    /**
+     * @return Lo snapshot salvato, o null se non c'è.
+     * @throws IOException Se lo snapshot non si può leggere o è corrotto.
+     */
+    public SessionSnapshot load() throws IOException {
+        if(!file.exists()) {
+            return null;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return SessionSnapshot.readFrom(in);
+        }
+    }
+
+    /**
+     * Cancella lo snapshot salvato.
+     */
+    public void clear() {
+        tempFile.delete();
+        file.delete();
+    }
+}
@@ -0,0 +1,18 @@
+package it.uniba.sms2122.operassimulator.utility;
+
+/**
+ * Sorgente di tempo monotona, espressa in nanosecondi.
+ * Permette di sostituire il tempo reale con un tempo virtuale nei test sulla JVM.
+ */
+public interface Clock {
+
+    /**
+     * Orologio di sistema, basato su {@link System#nanoTime()}.
+     */
+    Clock SYSTEM = System::nanoTime;
+
+    /**
+     * @return L'istante corrente in nanosecondi. Ha senso solo come differenza tra due letture.
+     */
+    long nanoTime();
+}
@@ -0,0 +1,78 @@
+package it.uniba.sms2122.operassimulator.utility;
+
+import java.nio.ByteBuffer;
+
+import it.uniba.sms2122.operassimulator.codec.OperaFrameCodec;
+
+/**
+ * Conversione degli id delle opere, 40 caratteri esadecimali, da e verso i 20 byte che rappresentano.
+ * Serve ai formati binari, che salvano gli id come byte grezzi invece che come stringhe.
+ * <br>
+ * La conversione è quella di {@link OperaFrameCodec#encodeId} e {@link OperaFrameCodec#decodeId}; qui si accettano
+ * solo gli id in esadecimale minuscolo di esattamente 40 caratteri, gli unici che tornano uguali dopo la decodifica.
+ */
+public final class HexId {
+    /**
+     * La lunghezza in byte di un id grezzo.
+     */
+    public static final int LENGTH = OperaFrameCodec.ID_LENGTH;
+
+    private HexId() { }
+
+    /**
+     * @param operaId L'id dell'opera.
+     * @return true se l'id è di 40 caratteri esadecimali minuscoli, e quindi si può salvare in 20 byte senza perdere nulla.
+     */
+    public static boolean isEncodable(String operaId) {
+        if(operaId == null || operaId.length() != OperaFrameCodec.ID_CHARS) {
+            return false;
+        }
+        for(int i=0; i<operaId.length(); i++) {
+            char c = operaId.charAt(i);
+            if((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Scrive i 20 byte dell'id nell'array indicato.
+     * @param operaId L'id dell'opera.
+     * @param dst L'array di destinazione.
+     * @param offset La posizione da cui scrivere.
+     * @throws IllegalArgumentException Se per l'id {@link #isEncodable(String)} è falso.
+     */
+    public static void encode(String operaId, byte[] dst, int offset) {
+        if(!isEncodable(operaId)) {
+            throw new IllegalArgumentException("opera id must have " + OperaFrameCodec.ID_CHARS + " lowercase hex chars: " + operaId);
+        }
+        OperaFrameCodec.encodeId(operaId, dst, offset);
+    }
+
+    /**
+     * Ricostruisce l'id a partire dai suoi 20 byte.
+     * @param src L'array di origine.
+     * @param offset La posizione del primo byte dell'id.
+     * @return L'id, in esadecimale minuscolo.
+     */
+    public static String decode(byte[] src, int offset) {
+        char[] chars = new char[OperaFrameCodec.ID_CHARS];
+        OperaFrameCodec.decodeId(src, offset, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Ricostruisce l'id a partire dai suoi 20 byte, senza spostare la posizione del buffer.
+     * @param src Il buffer di origine.
+     * @param offset La posizione assoluta del primo byte dell'id.
+     * @return L'id, in esadecimale minuscolo.
+     */
+    public static String decode(ByteBuffer src, int offset) {
+        byte[] raw = new byte[LENGTH];
+        for(int i=0; i<LENGTH; i++) {
+            raw[i] = src.get(offset + i);
+        }
+        return decode(raw, 0);
+    }
+}
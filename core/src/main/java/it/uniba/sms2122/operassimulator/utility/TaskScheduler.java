@@ -0,0 +1,21 @@
+package it.uniba.sms2122.operassimulator.utility;
+
+/**
+ * Esecutore di task ritardati, modellato sull'API di {@code android.os.Handler}.
+ * Tutti i task vengono eseguiti sullo stesso thread, per cui chi li usa non ha bisogno di sincronizzazione.
+ */
+public interface TaskScheduler extends Clock {
+
+    /**
+     * Esegue un task dopo il ritardo indicato.
+     * @param task Il task da eseguire.
+     * @param delayMillis Il ritardo in millisecondi.
+     */
+    void postDelayed(Runnable task, long delayMillis);
+
+    /**
+     * Rimuove tutte le esecuzioni ancora in attesa del task indicato.
+     * @param task Il task da rimuovere.
+     */
+    void removeCallbacks(Runnable task);
+}
@@ -0,0 +1,86 @@
+package it.uniba.sms2122.operassimulator.utility;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TaskScheduler} a tempo virtuale. Il tempo avanza solo quando viene chiamato {@link #advanceBy(long)},
+ * per cui le simulazioni sono deterministiche e non dipendono dalla velocità della macchina.
+ */
+public class VirtualTaskScheduler implements TaskScheduler {
+    private final PriorityQueue<PendingTask> queue = new PriorityQueue<>();
+    private long now;
+    private long sequence;
+
+    @Override
+    public synchronized long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public synchronized void postDelayed(Runnable task, long delayMillis) {
+        queue.add(new PendingTask(now + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)), sequence++, task));
+    }
+
+    @Override
+    public synchronized void removeCallbacks(Runnable task) {
+        Iterator<PendingTask> iterator = queue.iterator();
+        while(iterator.hasNext()) {
+            if(iterator.next().task == task) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Fa avanzare il tempo virtuale, eseguendo in ordine tutti i task che scadono nell'intervallo.
+     * @param millis I millisecondi di cui avanzare.
+     */
+    public void advanceBy(long millis) {
+        long target;
+        synchronized(this) {
+            target = now + TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+        while(true) {
+            PendingTask next;
+            synchronized(this) {
+                next = queue.peek();
+                if(next == null || next.due > target) {
+                    now = target;
+                    return;
+                }
+                queue.poll();
+                now = next.due;
+            }
+            next.task.run();
+        }
+    }
+
+    /**
+     * @return Il numero di task ancora in attesa.
+     */
+    public synchronized int pendingTasks() {
+        return queue.size();
+    }
+
+    private static class PendingTask implements Comparable<PendingTask> {
+        private final long due;
+        private final long sequence;
+        private final Runnable task;
+
+        private PendingTask(long due, long sequence, Runnable task) {
+            this.due = due;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(PendingTask other) {
+            if(due != other.due) {
+                return Long.compare(due, other.due);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
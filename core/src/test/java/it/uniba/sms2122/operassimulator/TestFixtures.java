@@ -0,0 +1,56 @@
+package it.uniba.sms2122.operassimulator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+
+/**
+ * Dati di prova condivisi dai test.
+ */
+public final class TestFixtures {
+
+    private TestFixtures() { }
+
+    /**
+     * @param index L'indice dell'opera.
+     * @return L'id dell'opera: l'indice in esadecimale, su 40 caratteri.
+     */
+    public static String operaId(int index) {
+        return String.format("%040x", index);
+    }
+
+    /**
+     * @param index L'indice dell'opera.
+     * @return Un id di 40 caratteri esadecimali minuscoli, con i byte sparsi: id vicini non hanno un prefisso comune lungo.
+     */
+    public static String hexId(int index) {
+        return String.format("%040x", index * 2654435761L);
+    }
+
+    /**
+     * Crea una stanza con le opere da {@code from} (incluso) a {@code to} (escluso), con gli id di {@link #operaId(int)}
+     * usati anche come chiavi. Il nome della stanza coincide con l'id, la descrizione è assente.
+     * @param id L'id della stanza.
+     * @param from L'indice della prima opera.
+     * @param to L'indice dopo l'ultima opera.
+     * @return La stanza.
+     */
+    public static Stanza stanza(String id, int from, int to) {
+        return stanza(id, TestFixtures::operaId, from, to);
+    }
+
+    /**
+     * Come {@link #stanza(String, int, int)}, con gli id delle opere dati da {@code operaIds}.
+     */
+    public static Stanza stanza(String id, IntFunction<String> operaIds, int from, int to) {
+        Map<String, Opera> opere = new LinkedHashMap<>();
+        for(int i=from; i<to; i++) {
+            String operaId = operaIds.apply(i);
+            opere.put(operaId, new Opera(operaId));
+        }
+        return new Stanza(id, id, null, opere);
+    }
+}
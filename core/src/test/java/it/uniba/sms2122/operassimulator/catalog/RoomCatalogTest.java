@@ -0,0 +1,101 @@
+package it.uniba.sms2122.operassimulator.catalog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+
+import static it.uniba.sms2122.operassimulator.TestFixtures.operaId;
+import static it.uniba.sms2122.operassimulator.TestFixtures.stanza;
+import static org.junit.Assert.*;
+
+public class RoomCatalogTest {
+    private static final int OPERAS = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mappedCatalogKeepsRoomInOrder() throws IOException {
+        Stanza stanza = stanza("stanza", 0, OPERAS);
+        stanza.getOpere().put("custom", new Opera("ABCDEF0000000000000000000000000000000001"));
+        File file = folder.newFile("stanza.bin");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            CatalogConverter.write(stanza, out);
+        }
+        // 24 byte per opera più l'header e le poche stringhe
+        assertTrue(file.length() < (OPERAS + 1) * 24 + 256);
+
+        RoomCatalog catalog;
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            assertTrue(RoomCatalog.isCatalog(channel));
+            catalog = RoomCatalog.map(channel);
+        }
+        assertEquals(stanza.getId(), catalog.getId());
+        assertEquals(stanza.getNome(), catalog.getNome());
+        assertNull(catalog.getDescrizione());
+        assertEquals(OPERAS + 1, catalog.size());
+        assertEquals(operaId(42), catalog.getOperaId(42));
+        assertEquals("custom", catalog.getKey(OPERAS));
+        // Gli id vengono normalizzati in minuscolo
+        assertEquals("abcdef0000000000000000000000000000000001", catalog.getOpera(OPERAS).getId());
+
+        Map<String, String> expected = keysAndIds(stanza);
+        expected.put("custom", "abcdef0000000000000000000000000000000001");
+        assertEquals(expected, keysAndIds(catalog.asStanza()));
+        assertEquals(operaId(7), catalog.asList().get(7).getId());
+    }
+
+    @Test
+    public void jsonConversionRoundTrips() throws IOException {
+        String json = "{\"id\":\"s1\",\"nome\":\"Sala\",\"descrizione\":\"Una sala\",\"opere\":{"
+                + "\"" + operaId(1) + "\":{\"id\":\"" + operaId(1) + "\"},"
+                + "\"b\":{\"id\":\"" + operaId(2) + "\"}}}";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CatalogConverter.jsonToCatalog(new StringReader(json), out);
+
+        StringWriter back = new StringWriter();
+        CatalogConverter.catalogToJson(new RoomCatalog(ByteBuffer.wrap(out.toByteArray())), back);
+        assertEquals("{\"id\":\"s1\",\"nome\":\"Sala\",\"descrizione\":\"Una sala\",\"opere\":{"
+                + "\"" + operaId(1) + "\":{\"id\":\"" + operaId(1) + "\"},"
+                + "\"b\":{\"id\":\"" + operaId(2) + "\"}}}", back.toString());
+    }
+
+    @Test
+    public void invalidInputIsRejected() throws IOException {
+        try {
+            new RoomCatalog(ByteBuffer.wrap("{\"id\":\"s1\",\"opere\":{}}                 ".getBytes("UTF-8")));
+            fail("json accepted as a catalog");
+        } catch(IOException expected) { }
+
+        Stanza stanza = stanza("stanza", 0, 1);
+        stanza.getOpere().put("x", new Opera("Not-A-Hex-Id"));
+        try {
+            CatalogConverter.write(stanza, new ByteArrayOutputStream());
+            fail("non hex id accepted");
+        } catch(IllegalArgumentException expected) { }
+    }
+
+    private static Map<String, String> keysAndIds(Stanza stanza) {
+        Map<String, String> keysAndIds = new LinkedHashMap<>();
+        for(Map.Entry<String, Opera> entry : stanza.getOpere().entrySet()) {
+            keysAndIds.put(entry.getKey(), entry.getValue().getId());
+        }
+        return keysAndIds;
+    }
+}
@@ -0,0 +1,288 @@
+package it.uniba.sms2122.operassimulator.control;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserCommandQueue;
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.radio.SimulatedRadio;
+import it.uniba.sms2122.operassimulator.scheduler.RoomSchedules;
+import it.uniba.sms2122.operassimulator.utility.TaskScheduler;
+
+import static it.uniba.sms2122.operassimulator.TestFixtures.operaId;
+import static org.junit.Assert.*;
+
+/**
+ * Pilota il server con un client HTTP locale, su un controller che gira su un thread reale come nel service.
+ */
+public class ControlServerTest {
+    /**
+     * Lunedì 2 maggio 2022, 08:59:59: l'ora dei test parte da qui e scorre in tempo reale.
+     */
+    private static final long ORIGIN = ZonedDateTime.of(2022, 5, 2, 8, 59, 59, 0, ZoneOffset.UTC).toInstant().toEpochMilli();
+
+    private ExecutorTaskScheduler taskScheduler;
+    private AdvertiserController controller;
+    private ControlServer server;
+    private String base;
+
+    @Before
+    public void setUp() throws IOException {
+        taskScheduler = new ExecutorTaskScheduler();
+        SimulatedRadio radio = new SimulatedRadio(taskScheduler, 5);
+        radio.setStartLatency(1, 3);
+        controller = new AdvertiserController(radio, taskScheduler);
+        // Come nel service: gli orari seguono la stanza caricata, anche da qui
+        long started = System.nanoTime();
+        controller.setStanzaListener(new RoomSchedules(controller, taskScheduler,
+                () -> ORIGIN + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), ZoneOffset.UTC, null));
+        AdvertiserCommandQueue commands = new AdvertiserCommandQueue(controller, taskScheduler);
+        commands.configure(1, 64);
+        server = new ControlServer(controller, commands);
+        base = "http://127.0.0.1:" + server.start(0);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        taskScheduler.shutdown();
+    }
+
+    @Test
+    public void batchedCommandsAreStreamedBackAsEvents() throws IOException {
+        HttpURLConnection events = open("/events");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(events.getInputStream(), StandardCharsets.UTF_8));
+        assertTrue(reader.readLine().contains("\"hello\""));
+
+        String results = post("/commands", "[" + loadRoom(6)
+                + ",{\"op\":\"start\",\"operas\":[\"" + operaId(0) + "\",\"" + operaId(1) + "\"]}"
+                + ",{\"op\":\"profile\",\"operas\":[\"" + operaId(0) + "\"],\"txPower\":-21,\"interval\":400}"
+                + ",{\"op\":\"fly\"}]");
+        assertTrue(results, results.startsWith("[{\"operas\":6,\"ok\":true},{\"ok\":true},{\"ok\":true},{\"ok\":false"));
+
+        List<String> onAir = new ArrayList<>();
+        while(onAir.size() < 2) {
+            String line = reader.readLine();
+            assertNotNull(line);
+            if(line.contains("\"onAir\"")) {
+                onAir.add(line);
+            }
+        }
+        events.disconnect();
+
+        String status = get("/status");
+        assertTrue(status, status.contains("\"active\":2"));
+        assertTrue(status, status.contains("\"room\":\"s1\""));
+    }
+
+    @Test
+    public void hundredsOfCommandsPerSecondOverOneConnection() throws IOException {
+        post("/commands", loadRoom(100));
+        int requests = 200;
+        long start = System.nanoTime();
+        for(int i=0; i<requests; i++) {
+            String op = i % 2 == 0 ? "start" : "stop";
+            String results = post("/commands", "{\"op\":\"" + op + "\",\"operas\":[\"" + operaId(i % 100) + "\"]}");
+            assertEquals("[{\"ok\":true}]", results);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        assertTrue(requests / seconds + " commands/s", requests / seconds > 100);
+    }
+
+    @Test
+    public void schedulesFollowTheRoomLoadedOverHttp() throws Exception {
+        String schedule = ",\"orari\":[{\"dalle\":\"09:00\",\"alle\":\"18:00\"}]";
+        post("/commands", "{\"op\":\"load\",\"room\":{\"id\":\"a\",\"opere\":{\"k\":{\"id\":\"" + operaId(1) + "\"" + schedule + "}}}}");
+        String results = post("/commands", "{\"op\":\"switch\",\"room\":{\"id\":\"b\",\"opere\":{"
+                + "\"k\":{\"id\":\"" + operaId(2) + "\"" + schedule + "},"
+                + "\"m\":{\"id\":\"" + operaId(3) + "\",\"orari\":[]}}}}");
+        assertEquals("[{\"added\":2,\"removed\":1,\"ok\":true}]", results);
+        // Prima delle 9 l'opera con l'orario viene spenta, quella senza orari resta accesa dallo switch
+        assertFalse(onController(() -> controller.getScheduler().contains(operaId(2))));
+        assertTrue(onController(() -> controller.getScheduler().contains(operaId(3))));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(!onController(() -> controller.getScheduler().contains(operaId(2)))) {
+            assertTrue("the schedule of the new room never started", System.nanoTime() < deadline);
+            Thread.sleep(50);
+        }
+        // Gli orari della stanza precedente sono stati fermati con lei
+        assertFalse(onController(() -> controller.getScheduler().contains(operaId(1))));
+    }
+
+    @Test
+    public void badRequestsGetAnError() throws IOException {
+        HttpURLConnection connection = open("/commands");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write("not json [".getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(400, connection.getResponseCode());
+
+        connection = open("/nothing");
+        assertEquals(404, connection.getResponseCode());
+
+        // Un Content-Length non valido non deve far cadere il thread della connessione
+        assertTrue(raw("POST /commands HTTP/1.1\r\n" + ControlServer.TOKEN_HEADER + ": " + server.getToken()
+                + "\r\nContent-Length: 12abc\r\n\r\n").startsWith("HTTP/1.1 400 "));
+        assertTrue(raw("POST /commands HTTP/1.1\r\nContent-Length: 99999999\r\n\r\n").startsWith("HTTP/1.1 400 "));
+        assertEquals(200, open("/status").getResponseCode());
+    }
+
+    @Test
+    public void requestsNeedTheTokenAndNoOrigin() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(base + "/status").openConnection();
+        assertEquals(401, connection.getResponseCode());
+
+        connection = (HttpURLConnection) new URL(base + "/status").openConnection();
+        connection.setRequestProperty(ControlServer.TOKEN_HEADER, "0123456789abcdef0123456789abcdef");
+        assertEquals(401, connection.getResponseCode());
+
+        // Una pagina web può fare una POST text/plain senza preflight, ma il browser aggiunge sempre l'Origin
+        String body = "{\"op\":\"stopAll\"}";
+        assertTrue(raw("POST /commands HTTP/1.1\r\nOrigin: http://example.com\r\n" + ControlServer.TOKEN_HEADER + ": "
+                + server.getToken() + "\r\nContent-Type: text/plain\r\nContent-Length: " + body.length() + "\r\n\r\n" + body)
+                .startsWith("HTTP/1.1 403 "));
+        assertEquals(32, server.getToken().length());
+    }
+
+    /**
+     * Legge lo stato del controller dal suo thread.
+     */
+    private <T> T onController(Callable<T> query) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        taskScheduler.postDelayed(() -> {
+            try {
+                result.complete(query.call());
+            } catch(Exception ex) {
+                result.completeExceptionally(ex);
+            }
+        }, 0);
+        return result.get(5, TimeUnit.SECONDS);
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+        connection.setRequestProperty(ControlServer.TOKEN_HEADER, server.getToken());
+        return connection;
+    }
+
+    /**
+     * Manda una richiesta così com'è e restituisce la prima riga della risposta.
+     */
+    private String raw(String request) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", Integer.parseInt(base.substring(base.lastIndexOf(':') + 1)))) {
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+            return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1)).readLine();
+        }
+    }
+
+    private String post(String path, String body) throws IOException {
+        HttpURLConnection connection = open(path);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(200, connection.getResponseCode());
+        return read(connection.getInputStream());
+    }
+
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = open(path);
+        assertEquals(200, connection.getResponseCode());
+        return read(connection.getInputStream());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        StringBuilder text = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                text.append(line);
+            }
+        }
+        return text.toString();
+    }
+
+    private static String loadRoom(int operas) {
+        StringBuilder room = new StringBuilder("{\"op\":\"load\",\"room\":{\"id\":\"s1\",\"nome\":\"Sala\",\"opere\":{");
+        for(int i=0; i<operas; i++) {
+            room.append(i > 0 ? "," : "").append("\"k").append(i).append("\":{\"id\":\"").append(operaId(i)).append("\"}");
+        }
+        return room.append("}}}").toString();
+    }
+
+    /**
+     * {@link TaskScheduler} in tempo reale su un unico thread, come l'{@code HandlerThread} del service.
+     */
+    private static class ExecutorTaskScheduler implements TaskScheduler {
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        private final Map<Runnable, List<ScheduledFuture<?>>> pending = new HashMap<>();
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public synchronized void postDelayed(Runnable task, long delayMillis) {
+            List<ScheduledFuture<?>> futures = pending.get(task);
+            if(futures == null) {
+                futures = new ArrayList<>();
+                pending.put(task, futures);
+            }
+            ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+            self[0] = executor.schedule(() -> {
+                synchronized(this) {
+                    List<ScheduledFuture<?>> current = pending.get(task);
+                    if(current == null || !current.remove(self[0])) {
+                        return;     // Rimosso nel frattempo
+                    }
+                    if(current.isEmpty()) {
+                        pending.remove(task);
+                    }
+                }
+                task.run();
+            }, delayMillis, TimeUnit.MILLISECONDS);
+            futures.add(self[0]);
+        }
+
+        @Override
+        public synchronized void removeCallbacks(Runnable task) {
+            List<ScheduledFuture<?>> futures = pending.remove(task);
+            if(futures != null) {
+                for(ScheduledFuture<?> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+
+        private void shutdown() {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package it.uniba.sms2122.operassimulator.controller;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.radio.PayloadCache;
+import it.uniba.sms2122.operassimulator.radio.SimulatedRadio;
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+import static it.uniba.sms2122.operassimulator.TestFixtures.operaId;
+import static org.junit.Assert.*;
+
+public class AdvertiserCommandQueueTest {
+    private static final int OPERAS = 8;
+
+    private VirtualTaskScheduler taskScheduler;
+    private SimulatedRadio radio;
+    private AdvertiserController controller;
+    private AdvertiserCommandQueue commands;
+
+    @Before
+    public void setUp() {
+        taskScheduler = new VirtualTaskScheduler();
+        radio = new SimulatedRadio(taskScheduler, 3);
+        radio.setSlots(OPERAS);
+        controller = new AdvertiserController(radio, taskScheduler);
+        commands = new AdvertiserCommandQueue(controller, taskScheduler);
+
+        Map<String, Opera> opere = new LinkedHashMap<>();
+        for(int i=0; i<OPERAS; i++) {
+            opere.put("key" + i, new Opera(operaId(i)));
+        }
+        commands.execute(() -> controller.loadStanza(new Stanza("s1", "Sala", "", opere)));
+    }
+
+    @Test
+    public void togglesOfTheSameOperaCollapseToTheFinalState() {
+        for(int i=0; i<101; i++) {
+            commands.setActive(operaId(0), uuid(0), i % 2 == 0);
+        }
+        for(int i=0; i<100; i++) {
+            commands.setActive(operaId(1), uuid(1), i % 2 == 0);
+        }
+        assertEquals(3, commands.getQueueDepth());
+        assertEquals(199, commands.getCoalescedCount());
+
+        taskScheduler.advanceBy(AdvertiserCommandQueue.DEFAULT_TICK_MILLIS);
+        assertEquals(0, commands.getQueueDepth());
+        assertEquals(1, radio.getStarts());
+        assertTrue(radio.isOnAir(operaId(0)));
+        assertFalse(controller.getScheduler().contains(operaId(1)));
+    }
+
+    @Test
+    public void commandsAreRunInBatchesPerTick() {
+        commands.configure(10, 3);
+        for(int i=0; i<OPERAS; i++) {
+            commands.setActive(operaId(i), uuid(i), true);
+        }
+        assertEquals(OPERAS + 1, commands.getQueueDepth());
+
+        // Il primo tick era già stato programmato con l'intervallo predefinito
+        taskScheduler.advanceBy(AdvertiserCommandQueue.DEFAULT_TICK_MILLIS);
+        assertEquals(OPERAS + 1 - 3, commands.getQueueDepth());
+        assertEquals(2, controller.getScheduler().size());
+        taskScheduler.advanceBy(20);
+        assertEquals(0, commands.getQueueDepth());
+        assertEquals(OPERAS, controller.getScheduler().size());
+        assertEquals(OPERAS + 1, commands.getMaxQueueDepth());
+    }
+
+    @Test
+    public void stopAllDropsPendingTogglesButKeepsOrder() throws Exception {
+        commands.setActive(operaId(0), uuid(0), true);
+        taskScheduler.advanceBy(AdvertiserCommandQueue.DEFAULT_TICK_MILLIS);
+        assertTrue(radio.isOnAir(operaId(0)));
+
+        commands.setActive(operaId(1), uuid(1), true);
+        commands.setActive(operaId(2), uuid(2), true);
+        commands.stopAll();
+        commands.setActive(operaId(3), uuid(3), true);
+        Future<Map<String, Double>> dutyCycles = commands.submit(controller::getDutyCycles);
+        assertEquals(3, commands.getQueueDepth());
+
+        taskScheduler.advanceBy(AdvertiserCommandQueue.DEFAULT_TICK_MILLIS);
+        assertEquals(1, radio.getStarts() - 1);
+        assertFalse(radio.isOnAir(operaId(0)));
+        assertTrue(dutyCycles.isDone());
+        assertEquals(1, dutyCycles.get().size());
+        assertTrue(dutyCycles.get().containsKey(operaId(3)));
+    }
+
+    @Test
+    public void aFailingCommandDoesNotStopTheOthers() {
+        List<RuntimeException> failures = new ArrayList<>();
+        commands.setListener(failures::add);
+        commands.execute(() -> {
+            throw new IllegalStateException("broken command");
+        });
+        commands.setActive(operaId(0), uuid(0), true);
+
+        taskScheduler.advanceBy(AdvertiserCommandQueue.DEFAULT_TICK_MILLIS);
+        assertEquals(1, failures.size());
+        assertEquals("broken command", failures.get(0).getMessage());
+        assertEquals(1, controller.getMetrics().getFailedCommands());
+        assertEquals(0, commands.getQueueDepth());
+        assertTrue(controller.getScheduler().contains(operaId(0)));
+    }
+
+    private static String uuid(int i) {
+        return PayloadCache.defaultServiceUuid(operaId(i));
+    }
+}
@@ -0,0 +1,272 @@
+package it.uniba.sms2122.operassimulator.controller;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.metrics.AdvertiserMetrics;
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.radio.AdvertiserBackend;
+import it.uniba.sms2122.operassimulator.radio.PayloadCache;
+import it.uniba.sms2122.operassimulator.radio.SimulatedRadio;
+import it.uniba.sms2122.operassimulator.scheduler.FairnessPolicy;
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+import static it.uniba.sms2122.operassimulator.TestFixtures.operaId;
+import static it.uniba.sms2122.operassimulator.TestFixtures.stanza;
+import static org.junit.Assert.*;
+
+/**
+ * Test di carico del ciclo di vita del service su una radio simulata.
+ */
+public class AdvertiserControllerTest {
+    private static final int OPERAS = 2000;
+    private static final int SLOTS = 8;
+
+    private VirtualTaskScheduler taskScheduler;
+    private SimulatedRadio radio;
+    private AdvertiserController controller;
+    private Stanza stanza;
+
+    @Before
+    public void setUp() {
+        taskScheduler = new VirtualTaskScheduler();
+        radio = new SimulatedRadio(taskScheduler, 7);
+        radio.setSlots(SLOTS);
+        radio.setStartLatency(5, 10);
+        radio.setFailureRate(0.02, AdvertiserBackend.ERROR_INTERNAL);
+        radio.setScanIntervalMillis(30);
+        controller = new AdvertiserController(radio, taskScheduler);
+        controller.configureRotation(12, 100, FairnessPolicy.ROUND_ROBIN);
+
+        Map<String, Opera> opere = new LinkedHashMap<>();
+        for(int i=0; i<OPERAS; i++) {
+            opere.put("key" + i, new Opera(operaId(i)));
+        }
+        stanza = new Stanza("s1", "Sala", "", opere);
+        controller.loadStanza(stanza);
+    }
+
+    @Test
+    public void wholeRoomIsHeardWithinSlotLimit() {
+        Set<String> heard = new HashSet<>();
+        int[] maxOnAir = {0};
+        radio.addScanListener((payload, profile, nanoTime) -> {
+            heard.add(payload.getOperaId());
+            maxOnAir[0] = Math.max(maxOnAir[0], radio.getUsedSlots());
+        });
+
+        for(Opera opera : stanza.getOpere().values()) {
+            controller.startAdvertising(opera.getId(), PayloadCache.defaultServiceUuid(opera.getId()));
+        }
+        // Tre giri completi: un'opera che fallisce l'avvio torna in fondo alla coda
+        taskScheduler.advanceBy(OPERAS / SLOTS * 100 * 3);
+        assertEquals(SLOTS, controller.getScheduler().getSlots());
+        assertEquals(OPERAS, heard.size());
+        assertTrue(maxOnAir[0] <= SLOTS);
+
+        AdvertiserMetrics metrics = controller.snapshotMetrics();
+        assertEquals(metrics.getStartRequests(), metrics.getStarts() + metrics.getTotalFailures()
+                + metrics.getActiveSlots() - countOnAir());
+        assertTrue(metrics.getFailures(AdvertiserBackend.ERROR_INTERNAL) > 0);
+        assertTrue(metrics.getFailures(AdvertiserBackend.ERROR_TOO_MANY_ADVERTISERS) > 0);
+        assertTrue(metrics.getRestarts() > 0);
+        assertEquals(SLOTS, metrics.getActiveSlots());
+        assertTrue(metrics.getMaxActiveSlots() > SLOTS);
+        assertEquals(OPERAS, metrics.getAirtimes().size());
+        assertTrue(metrics.getStartLatency().getMax() <= TimeUnit.MILLISECONDS.toNanos(15));
+
+        controller.stopAllAdvertising();
+        assertEquals(0, radio.getUsedSlots());
+        heard.clear();
+        taskScheduler.advanceBy(1000);
+        assertTrue(heard.isEmpty());
+    }
+
+    @Test
+    public void loadingAnotherRoomStopsThePreviousOne() {
+        String operaId = stanza.getOpere().get("key0").getId();
+        controller.startAdvertising(operaId, PayloadCache.defaultServiceUuid(operaId));
+        taskScheduler.advanceBy(100);
+        assertTrue(radio.isOnAir(operaId) || radio.getFailures() > 0);
+
+        controller.loadStanza(new Stanza("s2", "Altra sala", "", new LinkedHashMap<>()));
+        assertEquals(0, radio.getUsedSlots());
+        assertTrue(controller.getDutyCycles().isEmpty());
+    }
+
+    @Test
+    public void bulkStartIsConfirmedOnlyWhenTheWholeRoomWasOnAir() {
+        Set<String> heard = new HashSet<>();
+        radio.addScanListener((payload, profile, nanoTime) -> heard.add(payload.getOperaId()));
+        RecordingRoomListener listener = new RecordingRoomListener();
+
+        controller.startAll(stanza, listener);
+        assertEquals(AdvertiserController.DEFAULT_BULK_BATCH_SIZE, controller.getScheduler().size());
+        taskScheduler.advanceBy(OPERAS / AdvertiserController.DEFAULT_BULK_BATCH_SIZE * AdvertiserController.DEFAULT_BULK_INTERVAL_MILLIS);
+        assertEquals(OPERAS, controller.getScheduler().size());
+        assertEquals(-1, listener.total);
+
+        taskScheduler.advanceBy(OPERAS / SLOTS * 100 * 3);
+        assertEquals(OPERAS, listener.total);
+        assertEquals(OPERAS, listener.confirmed);
+        assertEquals(OPERAS, heard.size());
+    }
+
+    @Test
+    public void applyStateOnlyTouchesOperasThatChange() {
+        controller.configureRotation(SLOTS, 100, FairnessPolicy.ROUND_ROBIN);
+        radio.setFailureRate(0, AdvertiserBackend.ERROR_INTERNAL);
+        Set<String> first = new HashSet<>();
+        Set<String> second = new HashSet<>();
+        for(int i=0; i<SLOTS; i++) {
+            first.add(stanza.getOpere().get("key" + i).getId());
+            second.add(stanza.getOpere().get("key" + (i + SLOTS / 2)).getId());
+        }
+        RecordingRoomListener listener = new RecordingRoomListener();
+        controller.applyState(first, listener);
+        taskScheduler.advanceBy(100);
+        assertEquals(SLOTS, listener.total);
+        assertEquals(SLOTS, radio.getStarts());
+
+        listener = new RecordingRoomListener();
+        controller.applyState(second, listener);
+        taskScheduler.advanceBy(100);
+        assertEquals(SLOTS, listener.total);
+        // Le opere in comune restano in onda: vengono avviate solo quelle nuove
+        assertEquals(SLOTS + SLOTS / 2, radio.getStarts());
+        assertEquals(second, new HashSet<>(controller.getScheduler().getOperaIds()));
+
+        listener = new RecordingRoomListener();
+        controller.stopAll(listener);
+        assertEquals(0, listener.total);
+        assertEquals(0, radio.getUsedSlots());
+    }
+
+    @Test
+    public void reloadOnlyTouchesAddedAndRemovedOperas() {
+        radio.setFailureRate(0, AdvertiserBackend.ERROR_INTERNAL);
+        controller.loadStanza(stanza("s1", 0, 6));
+        Set<String> all = new HashSet<>(controller.getStanza().getOpere().keySet());
+        controller.applyState(all, new RecordingRoomListener());
+        taskScheduler.advanceBy(100);
+        assertEquals(6, radio.getStarts());
+        String removed = operaId(0);
+
+        StanzaDiff diff = controller.reloadStanza(stanza("s1", 2, 8));
+        taskScheduler.advanceBy(100);
+        assertEquals("+2 -2 =4", diff.toString());
+        assertFalse(radio.isOnAir(removed) || radio.isOnAir(operaId(1)));
+        // Le opere invariate non vengono riavviate, e tutte erano attive: le nuove partono
+        assertEquals(8, radio.getStarts());
+        assertEquals(new HashSet<>(controller.getStanza().getOpere().keySet()), new HashSet<>(controller.getScheduler().getOperaIds()));
+        assertEquals(operaId(2), controller.getServiceUuidIndex().getOperaId(0));
+        assertFalse(controller.getServiceUuidIndex().contains(removed));
+
+        // Con solo una parte delle opere attive, le nuove restano spente
+        controller.stopAdvertising(operaId(7));
+        diff = controller.reloadStanza(stanza("s1", 0, 8));
+        taskScheduler.advanceBy(100);
+        assertEquals(Arrays.asList(removed, operaId(1)), diff.getAdded());
+        assertFalse(controller.getScheduler().contains(removed));
+        assertEquals(5, controller.getScheduler().size());
+    }
+
+    @Test
+    public void switchingRoomKeepsSharedOperasOnAir() {
+        radio.setFailureRate(0, AdvertiserBackend.ERROR_INTERNAL);
+        controller.configureRotation(SLOTS, 100, FairnessPolicy.ROUND_ROBIN);
+        RecordingRoomListener listener = new RecordingRoomListener();
+        controller.switchRoom(stanza("s1", 0, 6), listener);
+        taskScheduler.advanceBy(200);
+        assertEquals(6, listener.total);
+        assertEquals(6, radio.getStarts());
+
+        // Due opere in comune: si avviano solo le quattro nuove, con un unico cambio di stato
+        listener = new RecordingRoomListener();
+        StanzaDiff diff = controller.switchRoom(stanza("s1", 4, 10), listener);
+        taskScheduler.advanceBy(200);
+        assertEquals("+4 -4 =2", diff.toString());
+        assertEquals(6, listener.total);
+        assertEquals(10, radio.getStarts());
+        assertEquals(controller.getStanza().getOpere().keySet(), new HashSet<>(controller.getScheduler().getOperaIds()));
+        for(int i=0; i<4; i++) {
+            assertFalse(radio.isOnAir(operaId(i)));
+        }
+    }
+
+    @Test
+    public void invalidOperaIdsAreSkippedWithoutFailingTheRoom() {
+        radio.setFailureRate(0, AdvertiserBackend.ERROR_INTERNAL);
+        Stanza stanza = stanza("s1", 0, 3);
+        stanza.getOpere().put("short1234", new Opera("short1234"));
+        stanza.getOpere().put("x", new Opera("x"));
+        controller.loadStanza(stanza);
+        assertEquals(new HashSet<>(Arrays.asList("short1234", "x")), controller.getInvalidOperaIds());
+
+        assertFalse(controller.startAdvertising("short1234", null));
+        assertEquals(1, controller.getMetrics().getFailures(AdvertiserBackend.ERROR_INTERNAL));
+
+        // Il cambio di stato della stanza non aspetta le opere che non possono andare in onda
+        RecordingRoomListener listener = new RecordingRoomListener();
+        controller.startAll(stanza, listener);
+        taskScheduler.advanceBy(100);
+        assertEquals(3, radio.getStarts());
+        assertEquals(5, listener.total);
+        assertEquals(3, controller.getMetrics().getFailures(AdvertiserBackend.ERROR_INTERNAL));
+        assertFalse(controller.getScheduler().contains("short1234"));
+    }
+
+    @Test
+    public void startAllSkipsOperasWithoutIdAndRoomsWithoutOperas() {
+        radio.setFailureRate(0, AdvertiserBackend.ERROR_INTERNAL);
+        Stanza stanza = stanza("s1", 0, 2);
+        stanza.getOpere().put("senza-id", new Opera());
+        controller.loadStanza(stanza);
+        RecordingRoomListener listener = new RecordingRoomListener();
+        controller.startAll(stanza, listener);
+        taskScheduler.advanceBy(100);
+        assertEquals(2, listener.total);
+        assertEquals(2, controller.getScheduler().size());
+
+        Stanza empty = new Stanza("s2", "Sala vuota", "", null);
+        controller.loadStanza(empty);
+        controller.startAll(empty, null);
+        assertEquals(0, controller.getScheduler().size());
+    }
+
+    /**
+     * @return Le opere che occupano uno slot e sono già state confermate dalla radio.
+     */
+    private int countOnAir() {
+        int onAir = 0;
+        for(String operaId : controller.getScheduler().getOperaIds()) {
+            if(controller.getScheduler().isOnAir(operaId)) {
+                onAir++;
+            }
+        }
+        return onAir;
+    }
+
+    private static class RecordingRoomListener implements AdvertiserController.RoomListener {
+        private int confirmed = 0;
+        private int total = -1;
+
+        @Override
+        public void onProgress(int confirmed, int total) {
+            this.confirmed = confirmed;
+        }
+
+        @Override
+        public void onRoomConfirmed(int total, long elapsedNanos) {
+            this.total = total;
+        }
+    }
+}
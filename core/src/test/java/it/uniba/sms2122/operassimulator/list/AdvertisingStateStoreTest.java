@@ -0,0 +1,66 @@
+package it.uniba.sms2122.operassimulator.list;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import it.uniba.sms2122.operassimulator.model.Opera;
+
+import static org.junit.Assert.*;
+
+public class AdvertisingStateStoreTest {
+
+    @Test
+    public void indicesAreStableAndStateIsKeptPerOpera() {
+        AdvertisingStateStore store = new AdvertisingStateStore();
+        assertEquals(0, store.indexOf("a"));
+        assertEquals(1, store.indexOf("b"));
+        assertEquals(0, store.indexOf("a"));
+        assertFalse(store.isActive("c"));
+
+        store.setActive("b", true);
+        store.setActive("c", true);
+        assertTrue(store.isActive("b"));
+        assertEquals(2, store.indexOf("c"));
+        assertEquals(new HashSet<>(Arrays.asList("b", "c")), store.getActiveIds());
+
+        store.setActive("b", false);
+        assertEquals(1, store.getActiveCount());
+    }
+
+    @Test
+    public void setAllOnlyTouchesKnownOperas() {
+        OperaListModel model = new OperaListModel();
+        model.addOperas(Arrays.asList(new Opera("a"), new Opera("b"), new Opera("c")));
+        model.setAllActive(true);
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), model.getActiveIds());
+        assertEquals(model.getStableId("b"), model.getStableId(model.get(1).getId()));
+
+        model.setAllActive(false);
+        assertEquals(Collections.emptySet(), model.getActiveIds());
+
+        model.clear();
+        assertFalse(model.isActive("a"));
+        assertEquals(0, model.size());
+    }
+
+    @Test
+    public void replacedOperasKeepTheirStateAndRemovedOnesAreSwitchedOff() {
+        OperaListModel model = new OperaListModel();
+        model.addOperas(Arrays.asList(new Opera("a"), new Opera("b"), new Opera("c")));
+        model.setActive("a", true);
+        model.setActive("b", true);
+        long stableId = model.getStableId("b");
+
+        model.setOperas(Arrays.asList(new Opera("b"), new Opera("d")));
+        assertEquals(2, model.size());
+        assertEquals("b", model.get(0).getId());
+        assertEquals(stableId, model.getStableId("b"));
+        assertEquals(Collections.singleton("b"), model.getActiveIds());
+
+        model.setAllActive(true);
+        assertEquals(new HashSet<>(Arrays.asList("b", "d")), model.getActiveIds());
+    }
+}
@@ -0,0 +1,169 @@
+package it.uniba.sms2122.operassimulator.list;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.OperaMap;
+
+import static it.uniba.sms2122.operassimulator.TestFixtures.operaId;
+import static org.junit.Assert.*;
+
+public class PagedOperaListTest {
+    private static final int OPERAS = 100000;
+    private static final int PAGE_SIZE = 100;
+    private static final int MAX_PAGES = 6;
+
+    /**
+     * Le letture in background vengono eseguite solo quando il test lo chiede.
+     */
+    private final Queue<Runnable> pending = new ArrayDeque<>();
+    private final Executor loader = pending::add;
+    private final Executor direct = Runnable::run;
+    private final CountingSource source = new CountingSource(OPERAS);
+
+    @Test
+    public void onlyPagesAroundTheScrollPositionAreKept() {
+        PagedOperaList list = new PagedOperaList(source, PAGE_SIZE, MAX_PAGES, 2, loader, direct);
+        List<Integer> loadedPages = new ArrayList<>();
+        list.setListener(listener(loadedPages));
+
+        assertEquals(OPERAS, list.size());
+        assertNull(list.getOperaId(0));
+        list.setVisibleRange(0, 9);
+        runPending();
+        assertEquals(operaId(5), list.getOperaId(5));
+        assertEquals(Arrays.asList(0, 100, 200), loadedPages);
+
+        // Scorrendo fino in fondo la memoria resta entro la finestra
+        for(int first=0; first<OPERAS; first+=37) {
+            list.setVisibleRange(first, first + 9);
+            runPending();
+            assertTrue(list.getLoadedPageCount() <= MAX_PAGES);
+            assertEquals(operaId(first), list.getOperaId(first));
+        }
+        assertEquals(operaId(OPERAS - 1), list.getOperaId(OPERAS - 1));
+        assertTrue(list.getLoadedPageCount() <= MAX_PAGES);
+        assertNull(list.getOperaId(0));
+        assertEquals(OPERAS, source.reads);
+    }
+
+    @Test
+    public void pagesScrolledPastBeforeLoadingAreDropped() {
+        PagedOperaList list = new PagedOperaList(source, PAGE_SIZE, MAX_PAGES, 1, loader, direct);
+        list.setVisibleRange(0, 9);
+        list.setVisibleRange(50000, 50009);
+        runPending();
+        assertNull(list.getOperaId(0));
+        assertEquals(operaId(50000), list.getOperaId(50000));
+        assertEquals(3, list.getLoadedPageCount());
+
+        list.getOperaId(90000);
+        list.close();
+        runPending();
+        assertEquals(0, list.getLoadedPageCount());
+    }
+
+    @Test
+    public void stateIsKeptForOperasThatAreNotInMemory() {
+        PagedOperaList list = new PagedOperaList(source, PAGE_SIZE, MAX_PAGES, 2, loader, direct);
+        int[] stateChanges = new int[1];
+        list.setListener(new PagedOperaList.Listener() {
+            @Override
+            public void onPageLoaded(int from, int count) {
+            }
+
+            @Override
+            public void onStateChanged() {
+                stateChanges[0]++;
+            }
+        });
+
+        list.setAllActive(true);
+        assertEquals(OPERAS, list.getActiveCount());
+        list.setActive(70000, false);
+        assertFalse(list.isActive(70000));
+        assertTrue(list.isActive(69999));
+        list.setAllActive(false);
+        assertEquals(0, list.getActiveCount());
+
+        list.applyActiveIds(new HashSet<>(Arrays.asList(operaId(3), operaId(99999), "missing")));
+        assertEquals(0, list.getActiveCount());
+        runPending();
+        assertEquals(1, stateChanges[0]);
+        assertTrue(list.isActive(3));
+        assertTrue(list.isActive(99999));
+        assertEquals(2, list.getActiveCount());
+        assertEquals(0, list.getLoadedPageCount());
+    }
+
+    @Test
+    public void aLoadedRoomIsReadFromItsStore() {
+        OperaMap opere = new OperaMap();
+        for(int i=0; i<1000; i++) {
+            opere.put("opera" + i, new Opera(operaId(i)));
+        }
+        PagedOperaList list = new PagedOperaList(PagedOperaList.of(opere.getOperaStore()), PAGE_SIZE, MAX_PAGES, 1, loader, direct);
+        assertEquals(1000, list.size());
+
+        list.setVisibleRange(500, 509);
+        runPending();
+        assertEquals(operaId(500), list.getOperaId(500));
+        list.setActive(3, true);
+        list.setActive(999, true);
+        assertEquals(new HashSet<>(Arrays.asList(operaId(3), operaId(999))), list.getActiveIds());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void theWindowMustHoldThePrefetchedPages() {
+        new PagedOperaList(source, PAGE_SIZE, 4, 2, loader, direct);
+    }
+
+    private void runPending() {
+        Runnable task;
+        while((task = pending.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static PagedOperaList.Listener listener(List<Integer> loadedPages) {
+        return new PagedOperaList.Listener() {
+            @Override
+            public void onPageLoaded(int from, int count) {
+                assertEquals(PAGE_SIZE, count);
+                loadedPages.add(from);
+            }
+
+            @Override
+            public void onStateChanged() {
+            }
+        };
+    }
+
+    private static class CountingSource implements PagedOperaList.Source {
+        private final int size;
+        private int reads = 0;
+
+        CountingSource(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public String getOperaId(int index) {
+            reads++;
+            return operaId(index);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package it.uniba.sms2122.operassimulator.loader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Orario;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+
+import static it.uniba.sms2122.operassimulator.TestFixtures.operaId;
+import static org.junit.Assert.*;
+
+public class StanzaStreamLoaderTest {
+
+    @Test
+    public void operasAreDeliveredInBoundedBatches() throws IOException {
+        String json = roomJson(1234);
+        RecordingListener listener = new RecordingListener();
+        Stanza stanza = new StanzaStreamLoader(100).parse(new StringReader(json), json.length(), listener);
+
+        assertEquals("s1", stanza.getId());
+        assertEquals("Sala grande", stanza.getNome());
+        assertEquals("Descrizione", stanza.getDescrizione());
+        assertEquals(1234, stanza.getOpere().size());
+        assertEquals(13, listener.batches.size());
+        int received = 0;
+        for(List<Opera> batch : listener.batches) {
+            assertTrue(batch.size() <= 100);
+            for(Opera opera : batch) {
+                assertEquals(operaId(received++), opera.getId());
+            }
+        }
+        assertEquals(1234, received);
+        assertEquals(json.length(), listener.lastRead);
+    }
+
+    @Test
+    public void unknownFieldsAndNullsAreSkipped() throws IOException {
+        String json = "{\"opere\": {\"a\": {\"nome\": \"x\", \"id\": \"" + operaId(1) + "\", \"tags\": [1, 2]}, \"b\": null},"
+                + " \"extra\": {\"k\": true}, \"nome\": \"Sala\", \"descrizione\": null}";
+        RecordingListener listener = new RecordingListener();
+        Stanza stanza = new StanzaStreamLoader().parse(new StringReader(json), -1, listener);
+
+        assertEquals("Sala", stanza.getNome());
+        assertNull(stanza.getDescrizione());
+        assertEquals(1, stanza.getOpere().size());
+        assertEquals(operaId(1), stanza.getOpere().get("a").getId());
+    }
+
+    @Test
+    public void schedulesAreReadForTheRoomAndForEachOpera() throws IOException {
+        String json = "{\"orari\": [{\"giorni\": [1, 2, 3], \"dalle\": \"09:00\", \"alle\": \"18:30\"}],"
+                + " \"opere\": {\"a\": {\"id\": \"" + operaId(1) + "\"},"
+                + " \"b\": {\"orari\": [{\"dalle\": \"22:00\", \"alle\": \"02:00\", \"note\": 1}, null], \"id\": \"" + operaId(2) + "\"},"
+                + " \"c\": {\"id\": \"" + operaId(3) + "\", \"orari\": []}}}";
+        Stanza stanza = new StanzaStreamLoader().parse(new StringReader(json));
+
+        Orario orario = stanza.getOrari().get(0);
+        assertEquals(Arrays.asList(1, 2, 3), orario.getGiorni());
+        assertEquals("09:00", orario.getDalle());
+        assertEquals("18:30", orario.getAlle());
+        assertNull(stanza.getOpere().get("a").getOrari());
+        List<Orario> orari = stanza.getOpere().get("b").getOrari();
+        assertEquals(1, orari.size());
+        assertNull(orari.get(0).getGiorni());
+        assertEquals("22:00", orari.get(0).getDalle());
+        assertEquals(operaId(2), stanza.getOpere().get("b").getId());
+        assertTrue(stanza.getOpere().get("c").getOrari().isEmpty());
+    }
+
+    static String roomJson(int operas) {
+        StringBuilder json = new StringBuilder("{\"id\": \"s1\", \"nome\": \"Sala grande\", \"descrizione\": \"Descrizione\", \"opere\": {");
+        for(int i=0; i<operas; i++) {
+            if(i > 0) {
+                json.append(',');
+            }
+            json.append("\"key").append(i).append("\": {\"id\": \"").append(operaId(i)).append("\"}");
+        }
+        return json.append("}}").toString();
+    }
+
+    private static class RecordingListener implements StanzaStreamLoader.Listener {
+        private final List<List<Opera>> batches = new ArrayList<>();
+        private long lastRead;
+
+        @Override
+        public void onBatch(List<Opera> batch) {
+            batches.add(batch);
+        }
+
+        @Override
+        public void onProgress(long readChars, long totalChars) {
+            lastRead = readChars;
+        }
+
+        @Override
+        public void onComplete(Stanza stanza) { }
+
+        @Override
+        public void onError(Exception exception) {
+            fail(exception.getMessage());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package it.uniba.sms2122.operassimulator.metrics;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class AdvertiserEventLogTest {
+
+    @Test
+    public void eventsAreKeptInOrderUntilOverwritten() throws IOException {
+        AtomicLong now = new AtomicLong();
+        AdvertiserEventLog log = new AdvertiserEventLog(now::get, 4);
+        now.set(10);
+        log.record(AdvertiserEventLog.START_REQUESTED, "a");
+        now.set(25);
+        log.record(AdvertiserEventLog.STARTED, "a", 0, 15);
+        now.set(30);
+        log.record(AdvertiserEventLog.FAILED, "b", 2, 0);
+
+        List<AdvertiserEventLog.Event> events = log.snapshot();
+        assertEquals(3, events.size());
+        assertEquals(AdvertiserEventLog.STARTED, events.get(1).getType());
+        assertEquals(15, events.get(1).getValue());
+        assertEquals(25, events.get(1).getTimeNanos());
+        assertEquals(2, events.get(2).getCode());
+
+        StringWriter csv = new StringWriter();
+        log.writeCsv(csv);
+        assertEquals("sequence,timeNanos,event,operaId,code,value\n"
+                + "0,10,start_requested,a,0,0\n"
+                + "1,25,started,a,0,15\n"
+                + "2,30,failed,b,2,0\n", csv.toString());
+
+        log.record(AdvertiserEventLog.STOPPED, "a");
+        log.record(AdvertiserEventLog.STOPPED, null);
+        events = log.snapshot();
+        assertEquals(4, events.size());
+        assertEquals(1, events.get(0).getSequence());
+        assertNull(events.get(3).getOperaId());
+        assertEquals(5, log.getRecordedCount());
+        assertEquals(1, log.getOverwrittenCount());
+    }
+
+    @Test
+    public void manyThreadsCanWriteWhileTheLogIsRead() throws InterruptedException {
+        int threads = 4;
+        int perThread = 50000;
+        AdvertiserEventLog log = new AdvertiserEventLog(System::nanoTime, 1024);
+        String[] operaIds = new String[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] writers = new Thread[threads];
+        for(int t=0; t<threads; t++) {
+            operaIds[t] = "opera" + t;
+            final int thread = t;
+            writers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch(InterruptedException ex) {
+                    return;
+                }
+                for(int i=0; i<perThread; i++) {
+                    // Il codice porta il thread e il valore il progressivo, per controllare che ogni evento sia intero
+                    log.record(AdvertiserEventLog.STARTED, operaIds[thread], thread, i);
+                }
+            });
+            writers[t].start();
+        }
+        start.countDown();
+
+        int reads = 0;
+        while(log.getRecordedCount() < (long) threads * perThread) {
+            checkEvents(log.snapshot(), operaIds);
+            reads++;
+        }
+        for(Thread writer : writers) {
+            writer.join();
+        }
+        List<AdvertiserEventLog.Event> events = log.snapshot();
+        assertEquals(1024, events.size());
+        checkEvents(events, operaIds);
+        assertEquals((long) threads * perThread - 1024, log.getOverwrittenCount());
+        assertTrue(reads > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBeAPowerOfTwo() {
+        new AdvertiserEventLog(System::nanoTime, 1000);
+    }
+
+    private static void checkEvents(List<AdvertiserEventLog.Event> events, String[] operaIds) {
+        long previous = -1;
+        for(AdvertiserEventLog.Event event : events) {
+            assertTrue(event.getSequence() > previous);
+            previous = event.getSequence();
+            assertEquals(AdvertiserEventLog.STARTED, event.getType());
+            assertSame(operaIds[event.getCode()], event.getOperaId());
+            assertTrue(event.getValue() >= 0 && event.getValue() < 50000);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package it.uniba.sms2122.operassimulator.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesAreBoundedByTheBucketAndTheMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i=1; i<=1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500, histogram.getMean());
+
+        // Ogni percentile è approssimato per eccesso, ma al più del doppio
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500_000 && p50 < 1_000_000);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000);
+        assertEquals(histogram.getMax(), histogram.getPercentile(100));
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0);
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        LatencyHistogram copy = histogram.copy();
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(3, copy.getCount());
+        assertEquals(0, copy.getPercentile(50));
+        assertEquals(Long.MAX_VALUE, copy.getPercentile(100));
+    }
+}
@@ -0,0 +1,88 @@
+package it.uniba.sms2122.operassimulator.model;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import it.uniba.sms2122.operassimulator.loader.MuseoLoader;
+import it.uniba.sms2122.operassimulator.loader.StanzaStreamLoader;
+
+import static it.uniba.sms2122.operassimulator.TestFixtures.stanza;
+import static it.uniba.sms2122.operassimulator.TestFixtures.operaId;
+import static org.junit.Assert.*;
+
+public class MuseoTest {
+    private static final int ROOMS = 50;
+    private static final int OPERAS_PER_ROOM = 200;
+
+    @Test
+    public void everyOperaIsFoundInItsRoom() {
+        List<Stanza> stanze = new ArrayList<>();
+        for(int room=0; room<ROOMS; room++) {
+            stanze.add(stanza("s" + room, room * OPERAS_PER_ROOM, (room + 1) * OPERAS_PER_ROOM));
+        }
+        Museo museo = Museo.build(stanze);
+
+        assertEquals(ROOMS, museo.getRoomCount());
+        assertEquals(ROOMS * OPERAS_PER_ROOM, museo.getOperaCount());
+        for(int i=0; i<ROOMS * OPERAS_PER_ROOM; i++) {
+            assertEquals(i / OPERAS_PER_ROOM, museo.roomOf(operaId(i)));
+        }
+        assertEquals(Museo.NO_ROOM, museo.roomOf(operaId(ROOMS * OPERAS_PER_ROOM)));
+        assertNull(museo.getStanzaOf("missing"));
+        assertEquals(7, museo.indexOfRoom("s7"));
+        assertEquals(Museo.NO_ROOM, museo.indexOfRoom("s" + ROOMS));
+        assertTrue(museo.getDuplicates().isEmpty());
+    }
+
+    @Test
+    public void sharedOperasBelongToTheFirstRoom() {
+        Museo museo = Museo.build(Arrays.asList(stanza("a", 0, 3), stanza("b", 2, 5), stanza("c", 2, 3)));
+        String shared = operaId(2);
+        assertEquals("a", museo.getStanzaOf(shared).getId());
+        assertEquals(Collections.singletonMap(shared, Arrays.asList("b", "c")), museo.getDuplicates());
+        assertEquals(5, museo.getOperaCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void roomIdsMustBeUnique() {
+        Museo.build(Arrays.asList(stanza("a", 0, 1), stanza("a", 1, 2)));
+    }
+
+    @Test
+    public void roomsAreLoadedInParallelInSourceOrder() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            StanzaStreamLoader loader = new StanzaStreamLoader();
+            List<Callable<Stanza>> sources = new ArrayList<>();
+            for(int room=0; room<8; room++) {
+                String json = "{\"id\":\"s" + room + "\",\"opere\":{\"k\":{\"id\":\"" + operaId(room) + "\"}}}";
+                sources.add(MuseoLoader.json(loader, () -> new StringReader(json)));
+            }
+            Museo museo = new MuseoLoader(executor).load(sources);
+            assertEquals(8, museo.getRoomCount());
+            for(int room=0; room<8; room++) {
+                assertEquals("s" + room, museo.getStanza(room).getId());
+                assertEquals(room, museo.roomOf(operaId(room)));
+            }
+
+            sources.add(MuseoLoader.json(loader, () -> new StringReader("{\"id\":")));
+            try {
+                new MuseoLoader(executor).load(sources);
+                fail();
+            } catch(IOException ex) {
+                // Una stanza illeggibile fa fallire tutto il museo
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package it.uniba.sms2122.operassimulator.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static it.uniba.sms2122.operassimulator.TestFixtures.hexId;
+import static org.junit.Assert.*;
+
+public class OperaMapTest {
+
+    @Test
+    public void keepsInsertionOrderAndFindsEveryKey() {
+        OperaMap opere = new OperaMap();
+        for(int i=0; i<3000; i++) {
+            assertNull(opere.put(hexId(i), new Opera(hexId(i))));
+        }
+        assertEquals(3000, opere.size());
+        assertEquals(3000, opere.getOperaStore().size());
+
+        int i = 0;
+        for(Map.Entry<String, Opera> entry : opere.entrySet()) {
+            assertEquals(hexId(i), entry.getKey());
+            assertEquals(hexId(i), entry.getValue().getId());
+            assertEquals(hexId(i), opere.get(hexId(i)).getId());
+            i++;
+        }
+        assertFalse(opere.containsKey(hexId(3000)));
+        assertNull(opere.get("missing"));
+    }
+
+    @Test
+    public void keysDifferentFromTheIdAreKept() {
+        OperaMap opere = new OperaMap();
+        opere.put("sala-1", new Opera(hexId(1)));
+        opere.put(hexId(2), new Opera(hexId(2)));
+        opere.put("senza-id", new Opera());
+
+        assertEquals(hexId(1), opere.get("sala-1").getId());
+        assertFalse(opere.containsKey(hexId(1)));
+        assertNull(opere.get("senza-id").getId());
+        assertEquals(Arrays.asList("sala-1", hexId(2), "senza-id"), new ArrayList<>(opere.keySet()));
+        assertEquals(2, opere.getOperaStore().size());
+    }
+
+    @Test
+    public void replacingKeepsThePositionAndDropsTheOldId() {
+        OperaMap opere = new OperaMap();
+        opere.put("a", new Opera(hexId(1)));
+        Opera orari = new Opera(hexId(3));
+        orari.setOrari(Collections.singletonList(new Orario()));
+        opere.put("b", orari);
+        OperaStore before = opere.getOperaStore();
+
+        Opera previous = opere.put("a", new Opera(hexId(2)));
+        assertEquals(hexId(1), previous.getId());
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(opere.keySet()));
+        assertEquals(1, opere.get("b").getOrari().size());
+        assertNull(opere.get("a").getOrari());
+
+        OperaStore after = opere.getOperaStore();
+        assertNotSame(before, after);
+        assertEquals(2, after.size());
+        assertFalse(after.contains(hexId(1)));
+        assertEquals(hexId(2), opere.get("a").getId());
+        // Lo store precedente resta valido per chi lo stava usando
+        assertEquals(hexId(1), before.getId(0));
+
+        List<String> ids = new ArrayList<>();
+        for(Opera opera : opere.values()) {
+            ids.add(opera.getId());
+        }
+        assertEquals(Arrays.asList(hexId(2), hexId(3)), ids);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullOperasAreRejected() {
+        new OperaMap().put("a", null);
+    }
+}
@@ -0,0 +1,55 @@
+package it.uniba.sms2122.operassimulator.model;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static it.uniba.sms2122.operassimulator.TestFixtures.hexId;
+import static org.junit.Assert.*;
+
+public class OperaStoreTest {
+
+    @Test
+    public void slotsAreStableAcrossGrowth() {
+        OperaStore store = new OperaStore();
+        for(int i=0; i<5000; i++) {
+            assertEquals(i, store.add(hexId(i)));
+        }
+        assertEquals(5000, store.add("sala-1"));
+        assertEquals(5001, store.add("ABCDEF"));
+
+        assertEquals(5002, store.size());
+        for(int i=0; i<5000; i++) {
+            assertEquals(i, store.add(hexId(i)));
+            assertEquals(i, store.slotOf(hexId(i)));
+            assertEquals(hexId(i), store.getId(i));
+        }
+        assertEquals(5000, store.slotOf("sala-1"));
+        assertEquals("ABCDEF", store.getId(5001));
+        assertEquals(OperaStore.NO_SLOT, store.slotOf(hexId(5000)));
+        assertEquals(OperaStore.NO_SLOT, store.slotOf(hexId(1).toUpperCase()));
+        assertEquals(OperaStore.NO_SLOT, store.slotOf(null));
+    }
+
+    @Test
+    public void snapshotIgnoresLaterChanges() {
+        OperaStore store = new OperaStore();
+        store.add(hexId(1));
+        store.add(hexId(2));
+        List<Opera> snapshot = store.snapshot();
+        List<Opera> reversed = store.snapshot(new int[] {1, 0}, 2);
+
+        for(int i=3; i<100; i++) {
+            store.add(i % 10 == 0 ? "opera" + i : hexId(i));
+        }
+        store.clear();
+        store.add("altra");
+
+        assertEquals(2, snapshot.size());
+        assertEquals(hexId(1), snapshot.get(0).getId());
+        assertEquals(hexId(2), snapshot.get(1).getId());
+        assertEquals(hexId(1), reversed.get(1).getId());
+        assertEquals(0, store.slotOf("altra"));
+        assertEquals(OperaStore.NO_SLOT, store.slotOf(hexId(1)));
+    }
+}
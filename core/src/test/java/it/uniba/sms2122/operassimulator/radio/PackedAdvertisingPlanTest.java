@@ -0,0 +1,52 @@
+package it.uniba.sms2122.operassimulator.radio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PackedAdvertisingPlanTest {
+    private static final RadioProfile NEAR = new RadioProfile(RadioProfile.TX_POWER_HIGH, RadioProfile.INTERVAL_LOW);
+
+    @Test
+    public void operasShareSetsOnlyWithTheSameProfile() {
+        // Un pacchetto legacy contiene una sola opera, uno esteso di 251 byte ne contiene 9
+        assertEquals(1, PackedAdvertisingPlan.capacity(31));
+        assertEquals(9, PackedAdvertisingPlan.capacity(251));
+
+        PackedAdvertisingPlan plan = new PackedAdvertisingPlan(3, 2);
+        int first = plan.add("a", RadioProfile.DEFAULT);
+        assertEquals(first, plan.add("b", RadioProfile.DEFAULT));
+        int second = plan.add("c", NEAR);
+        assertNotEquals(first, second);
+        assertEquals(first, plan.add("d", RadioProfile.DEFAULT));
+        // Il set di default è pieno e non si possono aprire altri set
+        assertEquals(PackedAdvertisingPlan.NO_SET, plan.add("e", RadioProfile.DEFAULT));
+        assertEquals(second, plan.add("e", NEAR));
+        assertEquals(2, plan.getSetCount());
+        assertEquals(5, plan.size());
+
+        assertEquals(second, plan.remove("c"));
+        assertEquals(second, plan.remove("e"));
+        assertFalse(plan.isOpen(second));
+        assertNull(plan.getProfile(second));
+        int third = plan.add("c", NEAR);
+        assertNotEquals(second, third);
+        assertEquals(NEAR, plan.getProfile(third));
+        assertEquals(3, plan.getMembers(first).size());
+        assertEquals(PackedAdvertisingPlan.NO_SET, plan.getSet("e"));
+    }
+
+    @Test
+    public void extendedModeMultipliesThroughputWithTheSameSets() {
+        AdvertisingModeComparison comparison = AdvertisingModeComparison.compare(4, 1650, RadioProfile.DEFAULT);
+        AdvertisingModeComparison.Mode legacy = comparison.getLegacy();
+        AdvertisingModeComparison.Mode extended = comparison.getExtended();
+        assertEquals(4, legacy.getCapacity());
+        assertEquals(4 * PackedAdvertisingPlan.capacity(1650), extended.getCapacity());
+        assertEquals(legacy.getOperaPacketsPerSecond() * extended.getOperasPerSet(), extended.getOperaPacketsPerSecond(), 1e-6);
+        // I dati delle opere viaggiano su un solo canale secondario: meno airtime per opera
+        assertTrue(extended.getRadioMicrosPerOperaPacket() < legacy.getRadioMicrosPerOperaPacket());
+
+        assertEquals(0, AdvertisingModeComparison.compare(4, 0, RadioProfile.DEFAULT).getExtended().getCapacity());
+    }
+}
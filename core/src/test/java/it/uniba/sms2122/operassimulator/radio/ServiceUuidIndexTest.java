@@ -0,0 +1,102 @@
+package it.uniba.sms2122.operassimulator.radio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+import static it.uniba.sms2122.operassimulator.TestFixtures.stanza;
+import static org.junit.Assert.*;
+
+public class ServiceUuidIndexTest {
+    private static final int OPERAS = 50000;
+
+    @Test
+    public void collidingOperasGetDistinctUuidsDeterministically() {
+        Stanza stanza = stanza("stanza", ServiceUuidIndexTest::operaId, 0, OPERAS);
+        ServiceUuidIndex index = ServiceUuidIndex.build(stanza);
+        assertEquals(OPERAS, index.size());
+        assertEquals(0, index.getUnresolvedCount());
+
+        Set<Integer> uuids = new HashSet<>();
+        for(Opera opera : stanza.getOpere().values()) {
+            assertTrue(uuids.add(Integer.parseInt(index.get(opera.getId()), 16)));
+        }
+        assertFalse(index.getReassigned().isEmpty());
+
+        // La prima opera con un certo uuid di default lo tiene, e la stessa stanza dà sempre la stessa assegnazione
+        assertEquals(PayloadCache.defaultServiceUuid(operaId(0)), index.get(operaId(0)));
+        assertEquals(index.getReassigned(), ServiceUuidIndex.build(stanza("stanza", ServiceUuidIndexTest::operaId, 0, OPERAS)).getReassigned());
+    }
+
+    @Test
+    public void operasWithoutHexSuffixGetAValidUuid() {
+        Stanza stanza = stanza("stanza", ServiceUuidIndexTest::operaId, 0, 2);
+        stanza.getOpere().put("x", new Opera("Not-A-Hex-Id"));
+        ServiceUuidIndex index = ServiceUuidIndex.build(stanza);
+        String serviceUuid = index.get("Not-A-Hex-Id");
+        assertEquals(serviceUuid, index.getReassigned().get("Not-A-Hex-Id"));
+        assertEquals(4, serviceUuid.length());
+        Integer.parseInt(serviceUuid, 16);
+    }
+
+    @Test
+    public void rebuildKeepsTheUuidsOfRemainingOperas() {
+        Opera first = new Opera("00000000000000000000000000000000000a1234");
+        Opera second = new Opera("00000000000000000000000000000000000b1234");
+        Opera added = new Opera("00000000000000000000000000000000000c1234");
+        ServiceUuidIndex previous = ServiceUuidIndex.build(Arrays.asList(first, second));
+        String reassigned = previous.get(second.getId());
+        assertNotEquals("1234", reassigned);
+
+        // Tolta la prima opera, la seconda tiene l'uuid che aveva e la nuova prende quello libero
+        ServiceUuidIndex index = ServiceUuidIndex.build(Arrays.asList(added, second), previous);
+        assertEquals(reassigned, index.get(second.getId()));
+        assertEquals("1234", index.get(added.getId()));
+        assertEquals(0, index.getUnresolvedCount());
+        assertEquals(second.getId(), index.getOperaId(0));
+        assertTrue(index.contains(added.getId()));
+        assertFalse(index.contains(first.getId()));
+    }
+
+    @Test
+    public void controllerAdvertisesTheAssignedUuid() {
+        Stanza stanza = new Stanza("stanza", "Stanza", null, new LinkedHashMap<>());
+        String first = "00000000000000000000000000000000000a1234";
+        String second = "00000000000000000000000000000000000b1234";
+        stanza.getOpere().put(first, new Opera(first));
+        stanza.getOpere().put(second, new Opera(second));
+
+        VirtualTaskScheduler taskScheduler = new VirtualTaskScheduler();
+        SimulatedRadio radio = new SimulatedRadio(taskScheduler, 1);
+        AdvertiserController controller = new AdvertiserController(radio, taskScheduler);
+        controller.loadStanza(stanza);
+        controller.startAdvertising(first, null);
+        controller.startAdvertising(second, null);
+        taskScheduler.advanceBy(1000);
+
+        String reassigned = controller.getServiceUuidIndex().getReassigned().get(second);
+        assertNotNull(reassigned);
+        Map<String, String> onAir = new LinkedHashMap<>();
+        for(OperaPayload payload : radio.getOnAir()) {
+            onAir.put(payload.getOperaId(), payload.getServiceUuid());
+        }
+        assertEquals("1234", onAir.get(first));
+        assertEquals(reassigned, onAir.get(second));
+    }
+
+    /**
+     * Id in cui gli ultimi 4 caratteri si ripetono ogni 20000 opere, per forzare le collisioni.
+     */
+    private static String operaId(int i) {
+        return String.format("%036x%04x", i, i % 20000);
+    }
+}
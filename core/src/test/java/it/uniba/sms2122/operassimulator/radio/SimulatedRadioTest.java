@@ -0,0 +1,129 @@
+package it.uniba.sms2122.operassimulator.radio;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+import static it.uniba.sms2122.operassimulator.TestFixtures.operaId;
+import static org.junit.Assert.*;
+
+public class SimulatedRadioTest {
+    private VirtualTaskScheduler taskScheduler;
+    private SimulatedRadio radio;
+    private final List<String> events = new ArrayList<>();
+    private final AdvertiserBackend.Callback callback = new AdvertiserBackend.Callback() {
+        @Override
+        public void onStartSuccess(String operaId) {
+            events.add("ok " + operaId.substring(36));
+        }
+
+        @Override
+        public void onStartFailure(String operaId, int errorCode) {
+            events.add("error " + errorCode + " " + operaId.substring(36));
+        }
+    };
+
+    @Before
+    public void setUp() {
+        taskScheduler = new VirtualTaskScheduler();
+        radio = new SimulatedRadio(taskScheduler, 42);
+    }
+
+    @Test
+    public void startSucceedsAfterLatency() {
+        radio.setStartLatency(20, 0);
+        radio.startAdvertising(payload(1), RadioProfile.DEFAULT, callback);
+
+        taskScheduler.advanceBy(19);
+        assertTrue(events.isEmpty());
+        assertEquals(1, radio.getUsedSlots());
+        assertFalse(radio.isOnAir(payload(1).getOperaId()));
+
+        taskScheduler.advanceBy(1);
+        assertEquals("ok 0001", events.get(0));
+        assertEquals(1, radio.getOnAirCount());
+    }
+
+    @Test
+    public void slotLimitAndScriptedFailuresAreReported() {
+        radio.setSlots(2);
+        radio.startAdvertising(payload(1), RadioProfile.DEFAULT, callback);
+        radio.startAdvertising(payload(2), RadioProfile.DEFAULT, callback);
+        radio.startAdvertising(payload(3), RadioProfile.DEFAULT, callback);
+        radio.startAdvertising(payload(1), RadioProfile.DEFAULT, callback);
+        radio.stopAdvertising(payload(2).getOperaId());
+        radio.failNextStart(AdvertiserBackend.ERROR_DATA_TOO_LARGE);
+        radio.startAdvertising(payload(4), RadioProfile.DEFAULT, callback);
+        taskScheduler.advanceBy(0);
+
+        assertEquals(4, events.size());     // L'opera 2 viene stoppata prima dell'esito
+        assertTrue(events.contains("error " + AdvertiserBackend.ERROR_TOO_MANY_ADVERTISERS + " 0003"));
+        assertTrue(events.contains("error " + AdvertiserBackend.ERROR_ALREADY_STARTED + " 0001"));
+        assertTrue(events.contains("error " + AdvertiserBackend.ERROR_DATA_TOO_LARGE + " 0004"));
+        assertEquals(1, radio.getOnAirCount());
+        assertEquals(3, radio.getFailures());
+    }
+
+    @Test
+    public void stopAndResetCancelFailuresNotYetReported() {
+        radio.setSlots(1);
+        radio.setStartLatency(20, 0);
+        radio.startAdvertising(payload(1), RadioProfile.DEFAULT, callback);
+        radio.startAdvertising(payload(2), RadioProfile.DEFAULT, callback);
+        radio.failNextStart(AdvertiserBackend.ERROR_INTERNAL);
+        radio.startAdvertising(payload(3), RadioProfile.DEFAULT, callback);
+        radio.stopAdvertising(payload(2).getOperaId());
+        taskScheduler.advanceBy(20);
+        // Il TOO_MANY_ADVERTISERS dell'opera 2 è stato annullato dallo stop
+        assertEquals(2, events.size());
+        assertTrue(events.contains("ok 0001"));
+        assertTrue(events.contains("error " + AdvertiserBackend.ERROR_INTERNAL + " 0003"));
+
+        events.clear();
+        radio.startAdvertising(payload(4), RadioProfile.DEFAULT, callback);
+        radio.reset();
+        taskScheduler.advanceBy(20);
+        assertTrue(events.isEmpty());
+        assertEquals(3, radio.getFailures());
+    }
+
+    @Test
+    public void scannerHearsOnlyBeaconsOnAir() {
+        List<String> heard = new ArrayList<>();
+        radio.addScanListener((payload, profile, nanoTime) -> heard.add(payload.getServiceUuid()));
+        radio.startAdvertising(payload(1), RadioProfile.DEFAULT, callback);
+        radio.startAdvertising(payload(2), RadioProfile.DEFAULT, callback);
+        taskScheduler.advanceBy(SimulatedRadio.DEFAULT_SCAN_INTERVAL_MILLIS);
+        assertEquals(2, heard.size());
+
+        heard.clear();
+        radio.stopAdvertising(payload(1).getOperaId());
+        taskScheduler.advanceBy(SimulatedRadio.DEFAULT_SCAN_INTERVAL_MILLIS);
+        assertEquals(1, heard.size());
+        assertEquals("0002", heard.get(0));
+    }
+
+    @Test
+    public void profileUpdateIsAppliedLiveAfterLatency() {
+        RadioProfile far = new RadioProfile(RadioProfile.TX_POWER_ULTRA_LOW, RadioProfile.INTERVAL_HIGH);
+        radio.setStartLatency(10, 0);
+        radio.startAdvertising(payload(1), RadioProfile.DEFAULT, callback);
+        taskScheduler.advanceBy(10);
+
+        radio.updateProfile(payload(1).getOperaId(), far);
+        assertEquals(RadioProfile.DEFAULT, radio.getProfile(payload(1).getOperaId()));
+        taskScheduler.advanceBy(10);
+        assertEquals(far, radio.getProfile(payload(1).getOperaId()));
+        assertEquals(10_000_000L, radio.getSwitchLatencyNanos(payload(1).getOperaId()));
+        assertEquals(1, events.size());
+    }
+
+    static OperaPayload payload(int index) {
+        String operaId = operaId(index);
+        return new OperaPayload(operaId, PayloadCache.defaultServiceUuid(operaId));
+    }
+}
@@ -0,0 +1,88 @@
+package it.uniba.sms2122.operassimulator.scenario;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.metrics.AdvertiserMetrics;
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.radio.PowerModel;
+import it.uniba.sms2122.operassimulator.radio.RadioProfile;
+import it.uniba.sms2122.operassimulator.radio.SimulatedRadio;
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+import static org.junit.Assert.*;
+
+public class ProximityDriverTest {
+    private static final String NEAR = "000000000000000000000000000000000000aaaa";
+    private static final String IDLE = "000000000000000000000000000000000000bbbb";
+
+    private VirtualTaskScheduler taskScheduler;
+    private SimulatedRadio radio;
+    private AdvertiserController controller;
+
+    @Before
+    public void setUp() {
+        taskScheduler = new VirtualTaskScheduler();
+        radio = new SimulatedRadio(taskScheduler, 1);
+        controller = new AdvertiserController(radio, taskScheduler);
+        Map<String, Opera> opere = new LinkedHashMap<>();
+        opere.put(NEAR, new Opera(NEAR));
+        opere.put(IDLE, new Opera(IDLE));
+        controller.loadStanza(new Stanza("stanza", "Stanza", null, opere));
+        controller.startAdvertising(NEAR, null);
+        controller.startAdvertising(IDLE, null);
+        taskScheduler.advanceBy(100);
+    }
+
+    @Test
+    public void approachRampsPowerUpAndIntervalDown() {
+        ProximityDriver driver = new ProximityDriver(controller, taskScheduler);
+        driver.setDistance(NEAR, 10, 0);
+        RadioProfile far = controller.getRadioProfile(NEAR);
+        assertEquals(RadioProfile.TX_POWER_HIGH - 20, far.getTxPowerLevel());
+        assertEquals(RadioProfile.INTERVAL_HIGH, far.getInterval());
+
+        driver.setDistance(NEAR, 1, 1000);
+        taskScheduler.advanceBy(500);
+        RadioProfile halfway = controller.getRadioProfile(NEAR);
+        assertEquals(5.5, driver.getDistance(NEAR), 1e-9);
+        assertTrue(halfway.getTxPowerLevel() > far.getTxPowerLevel() && halfway.getTxPowerLevel() < RadioProfile.TX_POWER_HIGH);
+        assertTrue(halfway.getInterval() < far.getInterval() && halfway.getInterval() > RadioProfile.INTERVAL_LOW);
+
+        // La radio applica l'ultimo passo dopo la sua latenza
+        taskScheduler.advanceBy(600);
+        assertEquals(new RadioProfile(RadioProfile.TX_POWER_HIGH, RadioProfile.INTERVAL_LOW), radio.getProfile(NEAR));
+        // Le opere non controllate dal driver non cambiano
+        assertEquals(RadioProfile.DEFAULT, radio.getProfile(IDLE));
+    }
+
+    @Test
+    public void lowPowerModeThrottlesOnlyIdleOperas() {
+        controller.setRadioProfile(NEAR, new RadioProfile(RadioProfile.TX_POWER_HIGH, RadioProfile.INTERVAL_LOW));
+        controller.setLowPowerMode(true);
+        taskScheduler.advanceBy(100);
+        assertEquals(RadioProfile.LOW_POWER, radio.getProfile(IDLE));
+        assertEquals(RadioProfile.TX_POWER_HIGH, radio.getProfile(NEAR).getTxPowerLevel());
+
+        taskScheduler.advanceBy(9_900);
+        controller.setLowPowerMode(false);
+        assertEquals(RadioProfile.DEFAULT, controller.getRadioProfile(IDLE));
+
+        // Il tempo in onda viene attribuito al profilo con cui l'opera era davvero in onda
+        AdvertiserMetrics metrics = controller.snapshotMetrics();
+        long lowPowerAirtime = metrics.getProfileAirtimes().get(RadioProfile.LOW_POWER);
+        assertEquals(TimeUnit.SECONDS.toNanos(10), lowPowerAirtime);
+
+        PowerModel.Estimate throttled = PowerModel.estimate(RadioProfile.LOW_POWER, lowPowerAirtime);
+        PowerModel.Estimate normal = PowerModel.estimate(RadioProfile.DEFAULT, lowPowerAirtime);
+        assertTrue(throttled.getEvents() * 8 < normal.getEvents());
+        assertTrue(throttled.getMicroAmpHours() * 8 < normal.getMicroAmpHours());
+        assertTrue(normal.getRadioNanos() < lowPowerAirtime / 50);
+    }
+}
@@ -0,0 +1,97 @@
+package it.uniba.sms2122.operassimulator.scenario;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.radio.SimulatedRadio;
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+import static org.junit.Assert.*;
+
+public class ScenarioPlayerTest {
+    private static final String FIRST = "000000000000000000000000000000000000aaaa";
+    private static final String SECOND = "000000000000000000000000000000000000bbbb";
+    private static final String TIMELINE = "# visita di prova\n"
+            + "0     start    " + FIRST + "\n"
+            + "1000  start    " + SECOND + "\n"
+            + "1500  txpower  " + FIRST + " -15\n"
+            + "\n"
+            + "3000  stop     " + FIRST + "\n"
+            + "5000  stopall\n";
+
+    private VirtualTaskScheduler taskScheduler;
+    private SimulatedRadio radio;
+    private AdvertiserController controller;
+
+    @Before
+    public void setUp() {
+        taskScheduler = new VirtualTaskScheduler();
+        radio = new SimulatedRadio(taskScheduler, 1);
+        controller = new AdvertiserController(radio, taskScheduler);
+        Map<String, Opera> opere = new LinkedHashMap<>();
+        opere.put(FIRST, new Opera(FIRST));
+        opere.put(SECOND, new Opera(SECOND));
+        controller.loadStanza(new Stanza("stanza", "Stanza", null, opere));
+    }
+
+    @Test
+    public void timelineDrivesTheRadioOnTime() throws IOException {
+        Scenario scenario = Scenario.parse(new StringReader(TIMELINE));
+        assertEquals(5, scenario.size());
+        assertEquals(5000, scenario.getDurationMillis());
+
+        ScenarioPlayer player = new ScenarioPlayer(controller, taskScheduler, scenario, 1, null);
+        player.start();
+        taskScheduler.advanceBy(999);
+        assertTrue(radio.isOnAir(FIRST));
+        assertFalse(radio.isOnAir(SECOND));
+        taskScheduler.advanceBy(1000);
+        assertTrue(radio.isOnAir(SECOND));
+        assertEquals(-15, radio.getProfile(FIRST).getTxPowerLevel());
+        taskScheduler.advanceBy(1500);
+        assertFalse(radio.isOnAir(FIRST));
+        assertFalse(player.isFinished());
+        taskScheduler.advanceBy(2000);
+        assertTrue(player.isFinished());
+        assertFalse(radio.isOnAir(SECOND));
+
+        // Con il tempo virtuale gli eventi vengono eseguiti esattamente quando previsto
+        ScenarioPlayer.Report report = player.getReport();
+        assertEquals(5, report.getExecuted());
+        assertEquals(0, report.getSkews().getMax());
+    }
+
+    @Test
+    public void acceleratedReplayCompressesTheTimeline() throws IOException {
+        Scenario scenario = Scenario.parse(new StringReader(TIMELINE));
+        ScenarioPlayer player = new ScenarioPlayer(controller, taskScheduler, scenario, 10, null);
+        player.start();
+        taskScheduler.advanceBy(150);
+        assertTrue(radio.isOnAir(SECOND));
+        assertEquals(-15, radio.getProfile(FIRST).getTxPowerLevel());
+        taskScheduler.advanceBy(350);
+        assertTrue(player.isFinished());
+        assertEquals(500_000_000L, player.getReport().getElapsedNanos());
+
+        ScenarioPlayer.Report headless = ScenarioPlayer.runHeadless(controller, taskScheduler, scenario);
+        assertEquals(scenario.size(), headless.getExecuted());
+    }
+
+    @Test
+    public void invalidLinesReportTheirNumber() {
+        try {
+            Scenario.parse(new StringReader("0 start " + FIRST + "\n\n10 jump " + FIRST + "\n"));
+            fail("invalid action accepted");
+        } catch(IOException ex) {
+            assertTrue(ex.getMessage().startsWith("line 3:"));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package it.uniba.sms2122.operassimulator.scenario;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.radio.AdvertiserBackend;
+import it.uniba.sms2122.operassimulator.radio.OperaPayload;
+import it.uniba.sms2122.operassimulator.radio.RadioProfile;
+import it.uniba.sms2122.operassimulator.radio.SimulatedRadio;
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+import static it.uniba.sms2122.operassimulator.TestFixtures.operaId;
+import static org.junit.Assert.*;
+
+public class StressRunnerTest {
+    private static final int OPERAS = 8;
+
+    private VirtualTaskScheduler taskScheduler;
+    private SimulatedRadio radio;
+    private List<String> operaIds;
+
+    @Before
+    public void setUp() {
+        taskScheduler = new VirtualTaskScheduler();
+        radio = new SimulatedRadio(taskScheduler, 3);
+        radio.setStartLatency(5, 10);
+        operaIds = new ArrayList<>();
+        for(int i=0; i<OPERAS; i++) {
+            operaIds.add(operaId(i + 1));
+        }
+    }
+
+    private AdvertiserController controller(AdvertiserBackend backend) {
+        AdvertiserController controller = new AdvertiserController(backend, taskScheduler);
+        controller.setMaxSlots(OPERAS);
+        Map<String, Opera> opere = new LinkedHashMap<>();
+        for(String operaId : operaIds) {
+            opere.put(operaId, new Opera(operaId));
+        }
+        controller.loadStanza(new Stanza("stanza", "Stanza", null, opere));
+        return controller;
+    }
+
+    @Test
+    public void healthyRadioEndsClean() {
+        radio.setFailureRate(0.05, AdvertiserBackend.ERROR_INTERNAL);
+        StressRunner.Report report = StressRunner.runHeadless(controller(radio), taskScheduler, operaIds, 200, 2000, 7, radio::isOnAir);
+
+        assertNotNull(report);
+        assertEquals(400, report.getToggles());
+        assertEquals(report.getToggles(), report.getStarts() + report.getStops());
+        assertTrue(report.getStartAcks().getCount() > 0);
+        assertTrue(report.getStopAcks().getCount() > 0);
+        assertEquals(0, report.getUnconfirmedStops());
+        assertTrue(report.getStartAcks().getMax() >= 5_000_000);
+        assertTrue(report.getErrors().get(AdvertiserBackend.ERROR_INTERNAL) > 0);
+        assertTrue(report.toString(), report.isClean());
+
+        // Il test spegne le opere che ha acceso
+        assertEquals(0, radio.getOnAirCount());
+    }
+
+    @Test
+    public void droppedStopsAreReportedAsLeaks() {
+        LeakyRadio leaky = new LeakyRadio(radio);
+        StressRunner.Report report = StressRunner.runHeadless(controller(leaky), taskScheduler, operaIds, 100, 1000, 7, radio::isOnAir);
+
+        assertFalse(report.isClean());
+        assertFalse(report.getLeaked().isEmpty());
+        assertTrue(report.getUnconfirmedStops() > 0);
+        for(String operaId : report.getLeaked()) {
+            assertTrue(radio.isOnAir(operaId));
+        }
+    }
+
+    /**
+     * Radio che perde uno stop su tre, come un advertiser che non viene mai fermato.
+     */
+    private static class LeakyRadio implements AdvertiserBackend {
+        private final SimulatedRadio radio;
+        private int stops = 0;
+
+        private LeakyRadio(SimulatedRadio radio) {
+            this.radio = radio;
+        }
+
+        @Override
+        public void startAdvertising(OperaPayload payload, RadioProfile profile, Callback callback) {
+            radio.startAdvertising(payload, profile, callback);
+        }
+
+        @Override
+        public void updateProfile(String operaId, RadioProfile profile) {
+            radio.updateProfile(operaId, profile);
+        }
+
+        @Override
+        public void stopAdvertising(String operaId) {
+            if(++stops % 3 != 0) {
+                radio.stopAdvertising(operaId);
+            }
+        }
+
+        @Override
+        public void reset() {
+            radio.reset();
+        }
+
+        @Override
+        public long getSwitchLatencyNanos(String operaId) {
+            return radio.getSwitchLatencyNanos(operaId);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package it.uniba.sms2122.operassimulator.scheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import it.uniba.sms2122.operassimulator.radio.AdvertiserBackend;
+import it.uniba.sms2122.operassimulator.radio.OperaPayload;
+import it.uniba.sms2122.operassimulator.radio.PayloadCache;
+import it.uniba.sms2122.operassimulator.radio.RadioProfile;
+import it.uniba.sms2122.operassimulator.radio.SimulatedRadio;
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+import static it.uniba.sms2122.operassimulator.radio.AdvertiserBackend.ERROR_TOO_MANY_ADVERTISERS;
+import static org.junit.Assert.*;
+
+/**
+ * Test dello scheduler su una radio finta con un numero limitato di slot.
+ */
+public class AdvertisingSchedulerTest {
+    private VirtualTaskScheduler taskScheduler;
+    private FakeBackend backend;
+    private AdvertisingScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        taskScheduler = new VirtualTaskScheduler();
+        backend = new FakeBackend(3);
+        scheduler = new AdvertisingScheduler(backend, taskScheduler);
+        scheduler.setMaxSlots(3);
+        scheduler.setDwellMillis(100);
+    }
+
+    @Test
+    public void allOperasStayOnAirWhenTheyFit() {
+        scheduler.add(payload("a"));
+        scheduler.add(payload("b"));
+        taskScheduler.advanceBy(1000);
+
+        assertEquals(2, backend.onAir.size());
+        assertEquals(1.0, scheduler.getDutyCycle(id("a")), 0.001);
+        assertEquals(0, taskScheduler.pendingTasks());
+    }
+
+    @Test
+    public void roundRobinSharesSlotsFairly() {
+        for(int i=0; i<10; i++) {
+            scheduler.add(payload("opera" + i));
+        }
+        taskScheduler.advanceBy(10_000);
+
+        assertTrue(backend.maxConcurrent <= 3);
+        assertEquals(0, backend.failures);
+        for(Map.Entry<String, Double> dutyCycle : scheduler.getDutyCycles().entrySet()) {
+            assertEquals(dutyCycle.getKey(), 0.3, dutyCycle.getValue(), 0.02);
+        }
+    }
+
+    @Test
+    public void leastAirtimeCompensatesLateOperas() {
+        scheduler.setFairnessPolicy(FairnessPolicy.LEAST_AIRTIME);
+        for(int i=0; i<6; i++) {
+            scheduler.add(payload("opera" + i));
+        }
+        taskScheduler.advanceBy(5_000);
+        scheduler.add(payload("late"));
+        taskScheduler.advanceBy(5_000);
+
+        assertEquals(3.0 / 7, scheduler.getDutyCycle(id("late")), 0.05);
+    }
+
+    @Test
+    public void slotsAreLearnedFromTooManyAdvertisers() {
+        scheduler.setMaxSlots(5);
+        for(int i=0; i<8; i++) {
+            scheduler.add(payload("opera" + i));
+        }
+        assertEquals(3, scheduler.getSlots());
+
+        int failures = backend.failures;
+        taskScheduler.advanceBy(5_000);
+        assertEquals(failures, backend.failures);
+        assertEquals(3, backend.onAir.size());
+    }
+
+    @Test
+    public void dwellStartsWhenTheRadioConfirmsTheOpera() {
+        SimulatedRadio radio = new SimulatedRadio(taskScheduler, 1);
+        radio.setSlots(3);
+        radio.setStartLatency(150, 0);
+        scheduler = new AdvertisingScheduler(radio, taskScheduler);
+        scheduler.setMaxSlots(3);
+        scheduler.setDwellMillis(100);
+        for(int i=0; i<4; i++) {
+            scheduler.add(payload("opera" + i));
+        }
+
+        // Un'opera ancora in avvio non ha fatto il suo dwell: non lascia lo slot prima di andare in onda
+        taskScheduler.advanceBy(100);
+        assertEquals(3, radio.getUsedSlots());
+        assertEquals(0, radio.getOnAirCount());
+        taskScheduler.advanceBy(100);
+        assertEquals(3, radio.getOnAirCount());
+
+        taskScheduler.advanceBy(10_000);
+        for(Map.Entry<String, Double> dutyCycle : scheduler.getDutyCycles().entrySet()) {
+            // Ogni slot resta in onda 100 ms ogni 250, diviso tra quattro opere su tre slot
+            assertEquals(dutyCycle.getKey(), 0.3, dutyCycle.getValue(), 0.01);
+        }
+    }
+
+    @Test
+    public void operasLostAfterGoingOnAirAreRequeued() {
+        for(int i=0; i<3; i++) {
+            scheduler.add(payload("opera" + i));
+        }
+        assertTrue(scheduler.isOnAir(id("opera0")));
+
+        // Il set che trasmetteva due opere già confermate viene chiuso dalla radio
+        backend.lose(id("opera0"), ERROR_TOO_MANY_ADVERTISERS);
+        backend.lose(id("opera1"), ERROR_TOO_MANY_ADVERTISERS);
+        assertFalse(scheduler.isOnAir(id("opera0")));
+        assertFalse(scheduler.isOnAir(id("opera1")));
+        assertEquals(1, scheduler.getOnAirCount());
+        assertEquals(1, scheduler.getSlots());
+
+        int starts = backend.starts;
+        taskScheduler.advanceBy(1000);
+        assertTrue(backend.starts > starts);
+        assertEquals(1, backend.onAir.size());
+        for(Map.Entry<String, Double> dutyCycle : scheduler.getDutyCycles().entrySet()) {
+            assertTrue(dutyCycle.getKey(), dutyCycle.getValue() > 0);
+        }
+    }
+
+    @Test
+    public void removeFreesSlotForWaitingOpera() {
+        for(int i=0; i<4; i++) {
+            scheduler.add(payload("opera" + i));
+        }
+        assertFalse(backend.onAir.contains(id("opera3")));
+
+        scheduler.remove(id("opera0"));
+        assertTrue(backend.onAir.contains(id("opera3")));
+
+        scheduler.removeAll();
+        assertTrue(backend.onAir.isEmpty());
+        assertEquals(0, taskScheduler.pendingTasks());
+    }
+
+    @Test
+    public void restartsDoNotAllocatePayloads() {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for(int i=0; i<10; i++) {
+            scheduler.add(payload("opera" + i));
+        }
+        taskScheduler.advanceBy(10_000);    // Riscaldamento
+
+        int restarts = backend.starts;
+        long allocated = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        taskScheduler.advanceBy(100_000);
+        allocated = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+        restarts = backend.starts - restarts;
+
+        assertTrue(restarts >= 2_900);
+        assertTrue("allocated " + allocated / restarts + " bytes per restart", allocated / restarts < 64);
+    }
+
+    private final PayloadCache payloadCache = new PayloadCache();
+
+    private OperaPayload payload(String name) {
+        String operaId = id(name);
+        return payloadCache.get(operaId, PayloadCache.defaultServiceUuid(operaId));
+    }
+
+    /**
+     * Crea un id di 40 caratteri esadecimali che codifica il nome indicato.
+     */
+    private static String id(String name) {
+        StringBuilder operaId = new StringBuilder();
+        for(char c : name.toCharArray()) {
+            operaId.append(String.format("%02x", (int) c));
+        }
+        while(operaId.length() < OperaPayload.SERVICE_DATA_LENGTH * 2) {
+            operaId.insert(0, '0');
+        }
+        return operaId.toString();
+    }
+
+    /**
+     * Radio finta che risponde in modo sincrono e rifiuta gli advertiser oltre il numero di slot.
+     */
+    private static class FakeBackend implements AdvertiserBackend {
+        private final int slots;
+        private final Set<String> onAir = new HashSet<>();
+        private final Map<String, Callback> callbacks = new HashMap<>();
+        private int maxConcurrent;
+        private int failures;
+        private int starts;
+
+        private FakeBackend(int slots) {
+            this.slots = slots;
+        }
+
+        @Override
+        public void startAdvertising(OperaPayload payload, RadioProfile profile, Callback callback) {
+            String operaId = payload.getOperaId();
+            starts++;
+            if(onAir.size() >= slots) {
+                failures++;
+                callback.onStartFailure(operaId, ERROR_TOO_MANY_ADVERTISERS);
+                return;
+            }
+            onAir.add(operaId);
+            callbacks.put(operaId, callback);
+            maxConcurrent = Math.max(maxConcurrent, onAir.size());
+            callback.onStartSuccess(operaId);
+        }
+
+        /**
+         * Smette di trasmettere un'opera in onda senza che sia stata stoppata, come quando la radio chiude il suo set.
+         */
+        private void lose(String operaId, int errorCode) {
+            onAir.remove(operaId);
+            callbacks.remove(operaId).onStartFailure(operaId, errorCode);
+        }
+
+        @Override
+        public void stopAdvertising(String operaId) {
+            onAir.remove(operaId);
+        }
+
+        @Override
+        public void updateProfile(String operaId, RadioProfile profile) { }
+
+        @Override
+        public void reset() {
+            onAir.clear();
+        }
+
+        @Override
+        public long getSwitchLatencyNanos(String operaId) {
+            return onAir.contains(operaId) ? 0 : -1;
+        }
+    }
+}
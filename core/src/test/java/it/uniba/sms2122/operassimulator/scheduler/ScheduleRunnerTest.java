@@ -0,0 +1,200 @@
+package it.uniba.sms2122.operassimulator.scheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Orario;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.radio.SimulatedRadio;
+import it.uniba.sms2122.operassimulator.utility.TaskScheduler;
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+import static it.uniba.sms2122.operassimulator.TestFixtures.operaId;
+import static it.uniba.sms2122.operassimulator.TestFixtures.stanza;
+import static org.junit.Assert.*;
+
+public class ScheduleRunnerTest {
+    /**
+     * Lunedì 2 maggio 2022, 08:59:30.
+     */
+    private static final long ORIGIN = ZonedDateTime.of(2022, 5, 2, 8, 59, 30, 0, ZoneOffset.UTC).toInstant().toEpochMilli();
+    private static final long HOUR = 3600_000;
+
+    private VirtualTaskScheduler taskScheduler;
+    private AdvertiserController controller;
+    private final List<String> missed = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        taskScheduler = new VirtualTaskScheduler();
+        controller = new AdvertiserController(new SimulatedRadio(taskScheduler, 1), taskScheduler);
+    }
+
+    @Test
+    public void operasFollowTheRoomScheduleUnlessTheyHaveTheirOwn() {
+        Map<String, Opera> opere = new LinkedHashMap<>();
+        Opera room = new Opera(operaId(0));
+        Opera night = new Opera(operaId(1));
+        night.setOrari(Collections.singletonList(new Orario(null, "20:00", "02:00")));
+        Opera manual = new Opera(operaId(2));
+        manual.setOrari(Collections.emptyList());
+        opere.put(room.getId(), room);
+        opere.put(night.getId(), night);
+        opere.put(manual.getId(), manual);
+        Stanza stanza = new Stanza("s", "Stanza", null, opere);
+        stanza.setOrari(Collections.singletonList(new Orario(Arrays.asList(1, 2, 3, 4, 5), "09:00", "18:00")));
+        controller.loadStanza(stanza);
+        controller.startAdvertising(manual.getId(), null);
+
+        ScheduleRunner runner = newRunner();
+        assertEquals(2, runner.load(stanza));
+        runner.start();
+        assertFalse(isActive(room));
+        assertEquals(2, runner.getPendingCount());
+
+        taskScheduler.advanceBy(29_000);
+        assertFalse(isActive(room));
+        taskScheduler.advanceBy(1000);
+        assertTrue(isActive(room));                 // 09:00
+        taskScheduler.advanceBy(9 * HOUR);
+        assertFalse(isActive(room));                // 18:00
+        assertFalse(isActive(night));
+        taskScheduler.advanceBy(2 * HOUR);
+        assertTrue(isActive(night));                // 20:00
+        taskScheduler.advanceBy(6 * HOUR);
+        assertFalse(isActive(night));               // 02:00 di martedì
+        taskScheduler.advanceBy(7 * HOUR);
+        assertTrue(isActive(room));
+
+        // Dal venerdì sera al lunedì mattina la stanza è chiusa
+        taskScheduler.advanceBy(3 * 24 * HOUR + 9 * HOUR);
+        assertFalse(isActive(room));
+        taskScheduler.advanceBy(63 * HOUR - 1000);
+        assertFalse(isActive(room));
+        taskScheduler.advanceBy(1000);
+        assertTrue(isActive(room));
+
+        assertTrue(isActive(manual));
+        assertTrue(missed.isEmpty());
+        assertEquals(2, runner.getPendingCount());
+        runner.stop();
+        taskScheduler.advanceBy(9 * HOUR);
+        assertTrue(isActive(room));
+    }
+
+    @Test
+    public void changesPerTickAreBoundedAndLateOnesAreReported() {
+        int operas = 2000;
+        Stanza stanza = stanza("s", 0, operas);
+        stanza.setOrari(Collections.singletonList(new Orario(null, "09:00", "17:00")));
+        controller.loadStanza(stanza);
+
+        ScheduleRunner runner = newRunner();
+        runner.configure(1000, 100, 5000);
+        runner.load(stanza);
+        runner.start();
+        assertEquals(0, controller.getScheduler().size());
+        assertEquals(0, runner.getBacklog());
+        assertEquals(operas, runner.getPendingCount());
+
+        taskScheduler.advanceBy(30_000);
+        assertEquals(100, controller.getScheduler().size());
+        assertEquals(operas - 100, runner.getBacklog());
+        taskScheduler.advanceBy(19_000);
+        assertEquals(operas, controller.getScheduler().size());
+        assertEquals(0, runner.getBacklog());
+        assertEquals(operas, runner.getAppliedCount());
+
+        // Oltre i 5 secondi di ritardo, cioè dal settimo tick
+        assertEquals(operas - 600, runner.getMissedCount());
+        assertEquals(operas - 600, missed.size());
+        assertTrue(missed.get(0).endsWith(" on 6000"));
+        assertTrue(missed.get(missed.size() - 1).endsWith(" on 19000"));
+    }
+
+    @Test
+    public void theRunnerWakesUpOnlyWhenAChangeIsDue() {
+        Opera opera = new Opera(operaId(0));
+        Map<String, Opera> opere = new LinkedHashMap<>();
+        opere.put(opera.getId(), opera);
+        Stanza stanza = new Stanza("s", "Stanza", null, opere);
+        stanza.setOrari(Collections.singletonList(new Orario(null, "09:00", "18:00")));
+        controller.loadStanza(stanza);
+
+        int[] runs = new int[1];
+        TaskScheduler counting = new TaskScheduler() {
+            @Override
+            public long nanoTime() {
+                return taskScheduler.nanoTime();
+            }
+
+            @Override
+            public void postDelayed(Runnable task, long delayMillis) {
+                runs[0]++;
+                taskScheduler.postDelayed(task, delayMillis);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable task) {
+                taskScheduler.removeCallbacks(task);
+            }
+        };
+        ScheduleRunner runner = new ScheduleRunner(controller, counting, ORIGIN, ZoneOffset.UTC, null);
+        runner.load(stanza);
+        runner.start();
+
+        taskScheduler.advanceBy(30_000);
+        assertTrue(isActive(opera));                // 09:00
+        taskScheduler.advanceBy(9 * HOUR);
+        assertFalse(isActive(opera));               // 18:00
+        taskScheduler.advanceBy(15 * HOUR);
+        assertTrue(isActive(opera));                // 09:00 del giorno dopo
+        // Un giorno a tick di un secondo: solo i cambi e le discese di livello della wheel, non 86400 risvegli
+        assertTrue("runs " + runs[0], runs[0] < 20);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSchedulesAreRejected() {
+        Map<String, Opera> opere = new LinkedHashMap<>();
+        Opera opera = new Opera(operaId(0));
+        opera.setOrari(Collections.singletonList(new Orario(Collections.singletonList(8), "09:00", "10:00")));
+        opere.put(opera.getId(), opera);
+        newRunner().load(new Stanza("s", "Stanza", null, opere));
+    }
+
+    @Test
+    public void weeklyScheduleWrapsAroundTheWeek() {
+        WeeklySchedule schedule = WeeklySchedule.compile(Arrays.asList(
+                new Orario(Collections.singletonList(7), "22:00", "01:00"),
+                new Orario(Arrays.asList(3, 4), "10:00", "10:00")));
+        assertEquals(4, schedule.getChangeCount());
+        assertTrue(schedule.isActive(0));
+        assertFalse(schedule.isActive(60));
+        assertEquals(60, schedule.minutesToNextChange(0));
+        assertTrue(schedule.isActive(2 * WeeklySchedule.MINUTES_PER_DAY + 600));
+        assertTrue(schedule.isActive(4 * WeeklySchedule.MINUTES_PER_DAY + 599));
+        assertFalse(schedule.isActive(4 * WeeklySchedule.MINUTES_PER_DAY + 600));
+        assertEquals(60, schedule.minutesToNextChange(WeeklySchedule.MINUTES_PER_WEEK - 180));
+        assertEquals(-1, WeeklySchedule.compile(Collections.emptyList()).minutesToNextChange(0));
+    }
+
+    private ScheduleRunner newRunner() {
+        return new ScheduleRunner(controller, taskScheduler, ORIGIN, ZoneOffset.UTC,
+                (operaId, on, lateMillis) -> missed.add(operaId + (on ? " on " : " off ") + lateMillis));
+    }
+
+    private boolean isActive(Opera opera) {
+        return controller.getScheduler().contains(opera.getId());
+    }
+}
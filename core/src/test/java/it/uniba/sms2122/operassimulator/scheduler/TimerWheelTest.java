@@ -0,0 +1,120 @@
+package it.uniba.sms2122.operassimulator.scheduler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+
+    @Test
+    public void timersExpireExactlyAtTheirDeadline() {
+        Random random = new Random(25);
+        TimerWheel<TestTimer> wheel = new TimerWheel<>(1000);
+        List<TestTimer> timers = new ArrayList<>();
+        for(int i=0; i<50000; i++) {
+            TestTimer timer = new TestTimer();
+            // Anche oltre l'orizzonte della ruota più alta, 64^4 tick
+            long delay = i % 1000 == 0 ? 16_777_216L + random.nextInt(3_000_000) : 1 + random.nextInt(i % 2 == 0 ? 5000 : 2_000_000);
+            wheel.schedule(timer, 1000 + delay);
+            timers.add(timer);
+        }
+        int cancelled = 0;
+        for(int i=0; i<timers.size(); i+=7) {
+            assertTrue(wheel.cancel(timers.get(i)));
+            assertFalse(wheel.cancel(timers.get(i)));
+            timers.get(i).cancelled = true;
+            cancelled++;
+        }
+        assertEquals(timers.size() - cancelled, wheel.size());
+
+        int expired = 0;
+        while(wheel.size() > 0) {
+            long target = wheel.getCurrentTick() + 1 + random.nextInt(100_000);
+            expired += wheel.advance(target, timer -> {
+                assertFalse(timer.cancelled);
+                assertEquals(-1, timer.expiredAt);
+                timer.expiredAt = wheel.getCurrentTick();
+            });
+            assertEquals(target, wheel.getCurrentTick());
+        }
+        assertEquals(timers.size() - cancelled, expired);
+        for(TestTimer timer : timers) {
+            assertFalse(timer.isScheduled());
+            assertEquals(timer.cancelled ? -1 : timer.getDeadline(), timer.expiredAt);
+        }
+    }
+
+    @Test
+    public void timersCanBeRescheduledWhileExpiring() {
+        TimerWheel<TestTimer> wheel = new TimerWheel<>(0);
+        TestTimer periodic = new TestTimer();
+        TestTimer late = new TestTimer();
+        TestTimer cancelled = new TestTimer();
+        wheel.schedule(cancelled, 150);
+        wheel.schedule(periodic, 100);
+        List<Long> fired = new ArrayList<>();
+        wheel.advance(1000, timer -> {
+            if(timer == periodic) {
+                fired.add(wheel.getCurrentTick());
+                wheel.cancel(cancelled);
+                wheel.schedule(periodic, wheel.getCurrentTick() + 300);
+            } else {
+                fail("cancelled timer expired");
+            }
+        });
+        assertEquals(4, fired.size());
+        assertEquals(Long.valueOf(1000), fired.get(3));
+
+        // Le scadenze già passate scadono al prossimo tick
+        wheel.schedule(late, 10);
+        assertEquals(2, wheel.size());
+        wheel.advance(1001, timer -> assertSame(late, timer));
+        assertFalse(late.isScheduled());
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void advancingOnlyToTheNextDeadlineMissesNoTimer() {
+        Random random = new Random(7);
+        TimerWheel<TestTimer> wheel = new TimerWheel<>(63);
+        assertEquals(TimerWheel.NO_DEADLINE, wheel.nextDeadline());
+        TestTimer first = new TestTimer();
+        wheel.schedule(first, 64);
+        assertEquals(64, wheel.nextDeadline());
+
+        List<TestTimer> timers = new ArrayList<>();
+        timers.add(first);
+        for(int i=0; i<2000; i++) {
+            TestTimer timer = new TestTimer();
+            long delay = i % 100 == 0 ? 16_777_216L + random.nextInt(1_000_000) : 1 + random.nextInt(i % 2 == 0 ? 300 : 500_000);
+            wheel.schedule(timer, 63 + delay);
+            timers.add(timer);
+        }
+
+        int wakeUps = 0;
+        while(wheel.size() > 0) {
+            long next = wheel.nextDeadline();
+            assertTrue(next > wheel.getCurrentTick());
+            for(TestTimer timer : timers) {
+                assertTrue(!timer.isScheduled() || timer.getDeadline() >= next);
+            }
+            wheel.advance(next, timer -> timer.expiredAt = wheel.getCurrentTick());
+            wakeUps++;
+        }
+        for(TestTimer timer : timers) {
+            assertEquals(timer.getDeadline(), timer.expiredAt);
+        }
+        assertEquals(TimerWheel.NO_DEADLINE, wheel.nextDeadline());
+        // Una visita per scadenza distinta, più quelle in cui i timer scendono di livello
+        assertTrue(wakeUps < timers.size() * 2);
+    }
+
+    private static class TestTimer extends TimerWheel.Timer {
+        private long expiredAt = -1;
+        private boolean cancelled;
+    }
+}
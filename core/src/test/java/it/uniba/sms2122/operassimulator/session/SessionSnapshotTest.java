@@ -0,0 +1,121 @@
+package it.uniba.sms2122.operassimulator.session;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import it.uniba.sms2122.operassimulator.controller.AdvertiserController;
+import it.uniba.sms2122.operassimulator.model.Opera;
+import it.uniba.sms2122.operassimulator.model.Stanza;
+import it.uniba.sms2122.operassimulator.radio.SimulatedRadio;
+import it.uniba.sms2122.operassimulator.utility.VirtualTaskScheduler;
+
+import static it.uniba.sms2122.operassimulator.TestFixtures.operaId;
+import static it.uniba.sms2122.operassimulator.TestFixtures.stanza;
+import static org.junit.Assert.*;
+
+public class SessionSnapshotTest {
+    private static final int OPERAS = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripKeepsRoomAndActiveOperas() throws IOException {
+        Stanza stanza = stanza("s1", 0, OPERAS);
+        // Anche gli id non esadecimali e le chiavi diverse dall'id devono sopravvivere
+        stanza.getOpere().put("custom", new Opera("Not-A-Hex-Id"));
+        stanza.getOpere().put("0000000000000000000000000000000000000abc", new Opera("0000000000000000000000000000000000000abc"));
+        Set<String> active = new HashSet<>();
+        for(int i=0; i<OPERAS; i+=3) {
+            active.add(operaId(i));
+        }
+        active.add("Not-A-Hex-Id");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SessionSnapshot(stanza, active).writeTo(out);
+        // 20 byte per id, un byte di flag e la chiave: meno della metà del json
+        assertTrue(out.size() < OPERAS * 32);
+
+        SessionSnapshot read = SessionSnapshot.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(stanza.getId(), read.getStanza().getId());
+        assertEquals(stanza.getNome(), read.getStanza().getNome());
+        assertEquals(keysAndIds(stanza), keysAndIds(read.getStanza()));
+        assertEquals(active, read.getActiveIds());
+    }
+
+    @Test
+    public void truncatedOrCorruptedSnapshotsAreRejected() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SessionSnapshot(stanza("s1", 0, 100), new HashSet<>()).writeTo(out);
+        byte[] bytes = out.toByteArray();
+
+        byte[] truncated = new byte[bytes.length - 5];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        assertRejected(truncated);
+
+        bytes[bytes.length / 2] ^= 1;
+        assertRejected(bytes);
+    }
+
+    @Test
+    public void storeReplacesSnapshotAtomically() throws IOException {
+        File file = new File(folder.getRoot(), "session.bin");
+        SessionStore store = new SessionStore(file);
+        assertNull(store.load());
+
+        store.save(new SessionSnapshot(stanza("s1", 0, 10), new HashSet<>()));
+        Set<String> active = new HashSet<>();
+        active.add(operaId(3));
+        store.save(new SessionSnapshot(stanza("s1", 0, 10), active));
+        assertEquals(active, store.load().getActiveIds());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        store.clear();
+        assertNull(store.load());
+    }
+
+    @Test
+    public void controllerSnapshotIncludesPendingBulkChanges() {
+        VirtualTaskScheduler taskScheduler = new VirtualTaskScheduler();
+        AdvertiserController controller = new AdvertiserController(new SimulatedRadio(taskScheduler, 1), taskScheduler);
+        assertNull(controller.snapshotSession());
+
+        Stanza stanza = stanza("s1", 0, 1000);
+        controller.loadStanza(stanza);
+        controller.startAll(stanza, null);
+        assertTrue(controller.getScheduler().size() < 1000);
+        assertEquals(1000, controller.snapshotSession().getActiveIds().size());
+
+        controller.stopAll(null);
+        assertTrue(controller.snapshotSession().getActiveIds().isEmpty());
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            SessionSnapshot.readFrom(new ByteArrayInputStream(bytes));
+            fail("snapshot should be rejected");
+        } catch(IOException expected) {
+            // Lo snapshot va scartato
+        }
+    }
+
+    private static List<String> keysAndIds(Stanza stanza) {
+        List<String> keysAndIds = new ArrayList<>();
+        for(Map.Entry<String, Opera> entry : stanza.getOpere().entrySet()) {
+            keysAndIds.add(entry.getKey() + "=" + entry.getValue().getId());
+        }
+        return keysAndIds;
+    }
+
+}
@@ -0,0 +1,34 @@
+package it.uniba.sms2122.operassimulator.utility;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class HexIdTest {
+    private static final String ID = "0123456789abcdef0123456789abcdef01234567";
+
+    @Test
+    public void idsRoundTripThroughTheirBytes() {
+        byte[] raw = new byte[HexId.LENGTH + 2];
+        HexId.encode(ID, raw, 2);
+        assertEquals(0x01, raw[2]);
+        assertEquals(ID, HexId.decode(raw, 2));
+        assertEquals(ID, HexId.decode(ByteBuffer.wrap(raw), 2));
+    }
+
+    @Test
+    public void onlyLowercaseIdsOfFortyCharsAreEncodable() {
+        assertTrue(HexId.isEncodable(ID));
+        assertFalse(HexId.isEncodable(ID.toUpperCase()));
+        assertFalse(HexId.isEncodable(ID + "8"));
+        assertFalse(HexId.isEncodable("sala-1"));
+        assertFalse(HexId.isEncodable(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void longerIdsAreRejected() {
+        HexId.encode(ID + "89", new byte[HexId.LENGTH], 0);
+    }
+}